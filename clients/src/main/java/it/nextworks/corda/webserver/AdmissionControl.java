@@ -0,0 +1,123 @@
+package it.nextworks.corda.webserver;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static it.nextworks.corda.webserver.ControllerUtils.requestRejected;
+import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
+
+/**
+ * Admission control for the endpoints exposed by the Controller.
+ * Every request is classified as a read (GET, or an endpoint marked with ReadEndpoint) or a write
+ * (any other endpoint, i.e. the ones that start flows changing the ledger) and must obtain a permit from
+ * the bulkhead of its class
+ * before being served. Requests that cannot be admitted are rejected with 429 and a Retry-After
+ * header, so that the node keeps working at its sustainable throughput.
+ */
+@Component
+public class AdmissionControl implements HandlerInterceptor {
+
+    private static final String BULKHEAD_ATTRIBUTE = AdmissionControl.class.getName() + ".bulkhead";
+
+    private final Bulkhead readBulkhead;
+    private final Bulkhead writeBulkhead;
+    private final long retryAfterSeconds;
+
+    private final static Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+
+    public AdmissionControl(@Value("${config.admission.read.limit:16}") int readLimit,
+                            @Value("${config.admission.read.queue:64}") int readQueue,
+                            @Value("${config.admission.write.limit:4}") int writeLimit,
+                            @Value("${config.admission.write.queue:16}") int writeQueue,
+                            @Value("${config.admission.max-wait-ms:2000}") long maxWaitMillis,
+                            @Value("${config.admission.retry-after-seconds:1}") long retryAfterSeconds,
+                            MeterRegistry registry) {
+        this.readBulkhead      = new Bulkhead("read", readLimit, readQueue, maxWaitMillis);
+        this.writeBulkhead     = new Bulkhead("write", writeLimit, writeQueue, maxWaitMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        bindMetrics(readBulkhead, registry);
+        bindMetrics(writeBulkhead, registry);
+    }
+
+    private static void bindMetrics(Bulkhead bulkhead, MeterRegistry registry) {
+        Gauge.builder("admission.in_flight", bulkhead, Bulkhead::getInFlight)
+                .tag("class", bulkhead.getName()).register(registry);
+        Gauge.builder("admission.queue_depth", bulkhead, Bulkhead::getQueueDepth)
+                .tag("class", bulkhead.getName()).register(registry);
+        FunctionCounter.builder("admission.admitted", bulkhead, Bulkhead::getAdmitted)
+                .tag("class", bulkhead.getName()).register(registry);
+        FunctionCounter.builder("admission.rejected", bulkhead, Bulkhead::getRejectedQueueFull)
+                .tag("class", bulkhead.getName()).tag("reason", "queue_full").register(registry);
+        FunctionCounter.builder("admission.rejected", bulkhead, Bulkhead::getRejectedWaitTimeout)
+                .tag("class", bulkhead.getName()).tag("reason", "wait_timeout").register(registry);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+                             Object handler) throws IOException {
+        /* Static resources are not subject to admission control */
+        if(!(handler instanceof HandlerMethod))
+            return true;
+
+        final Bulkhead bulkhead = classify((HandlerMethod)handler);
+        if(bulkhead.tryEnter()) {
+            request.setAttribute(BULKHEAD_ATTRIBUTE, bulkhead);
+            return true;
+        }
+
+        logger.warn(requestRejected + " [" + bulkhead.getName() + "] " + request.getRequestURI());
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.setContentType(TEXT_PLAIN_VALUE);
+        response.getWriter().write(requestRejected);
+
+        return false;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+                                Object handler, Exception ex) {
+        final Object bulkhead = request.getAttribute(BULKHEAD_ATTRIBUTE);
+        if(bulkhead != null) {
+            request.removeAttribute(BULKHEAD_ATTRIBUTE);
+            ((Bulkhead)bulkhead).exit();
+        }
+    }
+
+    private Bulkhead classify(HandlerMethod handlerMethod) {
+        return handlerMethod.hasMethodAnnotation(GetMapping.class) ||
+                handlerMethod.hasMethodAnnotation(ReadEndpoint.class) ? readBulkhead : writeBulkhead;
+    }
+
+    /* Getters */
+
+    public Bulkhead getReadBulkhead() { return readBulkhead; }
+
+    public Bulkhead getWriteBulkhead() { return writeBulkhead; }
+
+    /** @return queue depth, wait time and rejection statistics of each endpoint class */
+    public Map<String, Map<String, Number>> snapshot() {
+        Map<String, Map<String, Number>> map = new LinkedHashMap<>();
+        map.put(readBulkhead.getName(), readBulkhead.snapshot());
+        map.put(writeBulkhead.getName(), writeBulkhead.snapshot());
+
+        return map;
+    }
+}
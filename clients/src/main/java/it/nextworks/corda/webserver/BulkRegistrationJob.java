@@ -0,0 +1,125 @@
+package it.nextworks.corda.webserver;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a bulk package registration: the items are appended while the request body is
+ * streamed and every item gets exactly one result once it leaves the pipeline.
+ */
+public class BulkRegistrationJob {
+
+    public enum Status {
+        INGESTING,
+        RUNNING,
+        COMPLETED
+    }
+
+    public enum ItemStatus {
+        REGISTERED,
+        INVALID,
+        NOT_ONBOARDED,
+        CATALOGUE_ERROR,
+        FAILED
+    }
+
+    /** Outcome of a single element of the submitted array */
+    public static class ItemResult {
+
+        private final int index;
+        private final String pkgInfoId;
+        private final ItemStatus status;
+        private final String linearId;
+        private final String message;
+
+        public ItemResult(int index, String pkgInfoId, ItemStatus status, String linearId, String message) {
+            this.index     = index;
+            this.pkgInfoId = pkgInfoId;
+            this.status    = status;
+            this.linearId  = linearId;
+            this.message   = message;
+        }
+
+        /* Getters */
+
+        public int getIndex() { return index; }
+
+        public String getPkgInfoId() { return pkgInfoId; }
+
+        public ItemStatus getStatus() { return status; }
+
+        public String getLinearId() { return linearId; }
+
+        public String getMessage() { return message; }
+    }
+
+    private final String jobId;
+    private final Instant submitted;
+    private final AtomicInteger submittedItems = new AtomicInteger();
+    private final AtomicInteger succeeded      = new AtomicInteger();
+    private final AtomicInteger failed         = new AtomicInteger();
+    private final ConcurrentSkipListMap<Integer, ItemResult> results = new ConcurrentSkipListMap<>();
+    private volatile boolean ingestComplete = false;
+    private volatile String ingestError;
+
+    public BulkRegistrationJob() {
+        this.jobId     = UUID.randomUUID().toString();
+        this.submitted = Instant.now();
+    }
+
+    /** @return the index assigned to the next element read from the request body */
+    int nextIndex() { return submittedItems.getAndIncrement(); }
+
+    void complete(ItemResult result) {
+        if(results.putIfAbsent(result.getIndex(), result) != null)
+            return;
+
+        if(result.getStatus() == ItemStatus.REGISTERED)
+            succeeded.incrementAndGet();
+        else
+            failed.incrementAndGet();
+    }
+
+    /**
+     * Mark the end of the request body; no more items will be added to this job
+     * @param error description of the error that stopped the parsing, null if the whole array has been read
+     */
+    void ingestCompleted(String error) {
+        this.ingestError    = error;
+        this.ingestComplete = true;
+    }
+
+    /* Getters */
+
+    public String getJobId() { return jobId; }
+
+    public String getSubmitted() { return submitted.toString(); }
+
+    public Status getStatus() {
+        if(!ingestComplete)
+            return Status.INGESTING;
+
+        return results.size() < submittedItems.get() ? Status.RUNNING : Status.COMPLETED;
+    }
+
+    public int getSubmittedItems() { return submittedItems.get(); }
+
+    public int getSucceeded() { return succeeded.get(); }
+
+    public int getFailed() { return failed.get(); }
+
+    public int getPending() { return submittedItems.get() - results.size(); }
+
+    public String getIngestError() { return ingestError; }
+
+    public List<ItemResult> getResults() { return new ArrayList<>(results.values()); }
+
+    @JsonIgnore
+    public boolean isCompleted() { return getStatus() == Status.COMPLETED; }
+}
@@ -0,0 +1,449 @@
+package it.nextworks.corda.webserver;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.flows.BatchRegisterPkgFlow;
+import it.nextworks.corda.flows.BatchRegisterPkgFlowUtils;
+import it.nextworks.corda.flows.RegisterPkgFlow;
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static it.nextworks.corda.webserver.BulkRegistrationJob.ItemResult;
+import static it.nextworks.corda.webserver.BulkRegistrationJob.ItemStatus;
+import static it.nextworks.corda.webserver.ControllerUtils.*;
+
+/**
+ * Pipeline used to register a whole portfolio of packages with a single request.
+ * The JSON array of the request body is streamed element by element through three stages:
+ *  1. validation, on the request thread, of every element as soon as it has been parsed;
+ *  2. onboarding check against the 5g-catalogue, performed concurrently by a pool of workers;
+ *  3. registration of the packages in batches of at most config.bulk.batch-size packages per
+ *     transaction, with a bounded number of flows running on the node; a batch rejected by the
+ *     node is split and registered again, so that only the rejected packages fail.
+ * Stages are connected by bounded queues, so a slow stage blocks the previous one down to the
+ * parsing of the request body and the memory used by a job does not depend on its size.
+ * The body is spooled to a temporary file, so that the request returns as soon as the job is queued:
+ * the job is admitted before the body is read and the body cannot exceed config.bulk.max-body-bytes,
+ * so at most config.bulk.max-jobs bodies of bounded size are spooled, each one ingested by a thread
+ * of a pool of the same size.
+ */
+@Component
+public class BulkRegistrationService {
+
+    /** Thrown when the request body exceeds config.bulk.max-body-bytes */
+    public static class BodyTooLargeException extends IllegalArgumentException {
+
+        public BodyTooLargeException(String message) { super(message); }
+    }
+
+    /** Element of the request body travelling through the pipeline */
+    private static final class Item {
+
+        private final BulkRegistrationJob job;
+        private final int index;
+        private final Controller.RegisterPkgWrapper wrapper;
+
+        private Item(BulkRegistrationJob job, int index, Controller.RegisterPkgWrapper wrapper) {
+            this.job     = job;
+            this.index   = index;
+            this.wrapper = wrapper;
+        }
+
+        private void complete(ItemStatus status, String linearId, String message) {
+            job.complete(new ItemResult(index, wrapper.getPkgInfoId(), status, linearId, message));
+        }
+    }
+
+    private final CordaRPCOps proxy;
+    private final CatalogueClient catalogueClient;
+    private final ObjectMapper mapper;
+    private final int onBoardingWorkers;
+    private final int batchSize;
+
+    private final BlockingQueue<Item> onBoardingQueue;
+    private final BlockingQueue<Item> flowQueue;
+    private final Semaphore flowPermits;
+    private final int maxJobs;
+    private final long maxBodyBytes;
+    private final LinkedHashMap<String, BulkRegistrationJob> jobs;
+
+    private ExecutorService ingestPool;
+    private ExecutorService onBoardingPool;
+    private ExecutorService flowStarter;
+    private ExecutorService retryStarter;
+
+    private final static Logger logger = LoggerFactory.getLogger(BulkRegistrationService.class);
+
+    public BulkRegistrationService(NodeRPCConnection rpc, CatalogueClient catalogueClient, ObjectMapper mapper,
+                                   @Value("${config.bulk.queue-capacity:64}") int queueCapacity,
+                                   @Value("${config.bulk.onboarding-workers:8}") int onBoardingWorkers,
+                                   @Value("${config.bulk.max-in-flight-flows:8}") int maxInFlightFlows,
+                                   @Value("${config.bulk.max-jobs:32}") int maxJobs,
+                                   @Value("${config.bulk.batch-size:20}") int batchSize,
+                                   @Value("${config.bulk.max-body-bytes:16777216}") long maxBodyBytes) {
+        this.proxy             = rpc.getProxy();
+        this.catalogueClient   = catalogueClient;
+        this.mapper            = mapper;
+        this.onBoardingWorkers = onBoardingWorkers;
+        this.batchSize         = Math.max(1, Math.min(batchSize, BatchRegisterPkgFlowUtils.maxBatchSize));
+        this.onBoardingQueue   = new ArrayBlockingQueue<>(queueCapacity);
+        this.flowQueue         = new ArrayBlockingQueue<>(queueCapacity);
+        this.flowPermits       = new Semaphore(maxInFlightFlows);
+        this.maxJobs           = maxJobs;
+        this.maxBodyBytes      = maxBodyBytes;
+        this.jobs              = new LinkedHashMap<>();
+    }
+
+    @PostConstruct
+    public void start() {
+        /* A job in progress holds at most one thread, register() admits at most maxJobs of them */
+        ingestPool = Executors.newFixedThreadPool(maxJobs);
+
+        onBoardingPool = Executors.newFixedThreadPool(onBoardingWorkers);
+        for(int i = 0; i < onBoardingWorkers; i++)
+            onBoardingPool.submit(this::onBoardingLoop);
+
+        flowStarter = Executors.newSingleThreadExecutor();
+        flowStarter.submit(this::flowStarterLoop);
+        retryStarter = Executors.newSingleThreadExecutor();
+    }
+
+    @PreDestroy
+    public void stop() {
+        ingestPool.shutdownNow();
+        onBoardingPool.shutdownNow();
+        flowStarter.shutdownNow();
+        retryStarter.shutdownNow();
+    }
+
+    /**
+     * Admit a new job, spool the request body to a temporary file and queue the job that streams its
+     * JSON array into the pipeline. The method returns once the body has been received, without waiting
+     * for the pipeline: the job is INGESTING until the whole array has been read from the file.
+     * @param body          the request body, that must contain a JSON array of packages to register
+     * @param contentLength the length of the body declared by the request, -1 if unknown
+     * @return the job tracking the registration of the submitted packages
+     * @throws BodyTooLargeException      if the body exceeds config.bulk.max-body-bytes
+     * @throws IllegalArgumentException   if the body does not contain a JSON array
+     * @throws RejectedExecutionException if config.bulk.max-jobs jobs are still in progress
+     */
+    public BulkRegistrationJob submit(InputStream body, long contentLength) throws IOException {
+        if(contentLength > maxBodyBytes)
+            throw new BodyTooLargeException(bulkBodyTooLarge + maxBodyBytes);
+
+        /* Admit the job first, a rejected request is not read at all */
+        final BulkRegistrationJob job = new BulkRegistrationJob();
+        register(job);
+
+        Path spool = null;
+        try {
+            spool = Files.createTempFile(bulkSpoolPrefix, ".json");
+            spool(body, spool);
+            try(JsonParser parser = mapper.getFactory().createParser(spool.toFile())) {
+                if(parser.nextToken() != JsonToken.START_ARRAY)
+                    throw new IllegalArgumentException(bulkNotArray);
+            }
+
+            final Path ingested = spool;
+            ingestPool.execute(() -> ingest(job, ingested));
+        } catch(IOException | RuntimeException e) {
+            unregister(job);
+            if(spool != null)
+                Files.deleteIfExists(spool);
+            throw e;
+        }
+        logger.info(bulkRegisterSubmitted + job.getJobId());
+
+        return job;
+    }
+
+    /* Copy the body to the spool file, failing as soon as it exceeds the limit */
+    private void spool(InputStream body, Path spool) throws IOException {
+        final byte[] buffer = new byte[8192];
+        long copied = 0;
+        try(OutputStream out = Files.newOutputStream(spool)) {
+            int read;
+            while((read = body.read(buffer)) != -1) {
+                copied += read;
+                if(copied > maxBodyBytes)
+                    throw new BodyTooLargeException(bulkBodyTooLarge + maxBodyBytes);
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /* Evict the oldest completed jobs above the limit, the ones in progress are never evicted */
+    private void register(BulkRegistrationJob job) {
+        synchronized(jobs) {
+            Iterator<BulkRegistrationJob> it = jobs.values().iterator();
+            while(jobs.size() >= maxJobs && it.hasNext()) {
+                if(it.next().isCompleted())
+                    it.remove();
+            }
+            if(jobs.size() >= maxJobs)
+                throw new RejectedExecutionException(bulkTooManyJobs);
+
+            jobs.put(job.getJobId(), job);
+        }
+    }
+
+    /* Drop a job whose body has been refused, so that it does not hold a slot */
+    private void unregister(BulkRegistrationJob job) {
+        synchronized(jobs) {
+            jobs.remove(job.getJobId());
+        }
+    }
+
+    /* Read the spooled array element by element, the staging blocks while the pipeline is saturated */
+    private void ingest(BulkRegistrationJob job, Path spool) {
+        String ingestError = null;
+        try(JsonParser parser = mapper.getFactory().createParser(spool.toFile())) {
+            parser.nextToken();
+            JsonToken token;
+            while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if(token == null) {
+                    ingestError = bulkMalformed;
+                    break;
+                }
+                JsonNode node = mapper.readTree(parser);
+                stage(job, job.nextIndex(), node);
+            }
+        } catch(JsonProcessingException jpe) {
+            ingestError = bulkMalformed;
+        } catch(IOException ioe) {
+            ingestError = errorWhileProcessingRq;
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            ingestError = errorWhileProcessingRq;
+        } finally {
+            job.ingestCompleted(ingestError);
+            try {
+                Files.deleteIfExists(spool);
+            } catch(IOException ioe) {
+                logger.error(bulkSpoolNotDeleted + spool);
+            }
+        }
+
+        if(ingestError != null)
+            logger.error(bulkRegisterFailed + job.getJobId() + " " + ingestError);
+    }
+
+    /** @return the job with the specified id, null if it does not exist or it has been evicted */
+    public BulkRegistrationJob getJob(String jobId) {
+        synchronized(jobs) {
+            return jobs.get(jobId);
+        }
+    }
+
+    /* Stage 1: validation of the parsed element, then hand off to the onboarding workers */
+    private void stage(BulkRegistrationJob job, int index, JsonNode node) throws InterruptedException {
+        Controller.RegisterPkgWrapper wrapper;
+        try {
+            wrapper = mapper.treeToValue(node, Controller.RegisterPkgWrapper.class);
+        } catch(JsonProcessingException | IllegalArgumentException e) {
+            job.complete(new ItemResult(index, null, ItemStatus.INVALID, null, e.getMessage()));
+            return;
+        }
+
+        Item item = new Item(job, index, wrapper);
+        String error = validate(wrapper);
+        if(error != null) {
+            item.complete(ItemStatus.INVALID, null, error);
+            return;
+        }
+
+        try {
+            onBoardingQueue.put(item);
+        } catch(InterruptedException ie) {
+            item.complete(ItemStatus.FAILED, null, errorWhileProcessingRq);
+            throw ie;
+        }
+    }
+
+    /* Same checks done by the PkgOfferContract on each package, so that an invalid item never joins a batch */
+    private static String validate(Controller.RegisterPkgWrapper wrapper) {
+        if(wrapper == null)
+            return nullParam;
+        if(isNullOrBlank(wrapper.getName()))
+            return PkgOfferUtils.name + PkgOfferUtils.strErrMsg;
+        if(isNullOrBlank(wrapper.getDescription()))
+            return PkgOfferUtils.description + PkgOfferUtils.strErrMsg;
+        if(isNullOrBlank(wrapper.getVersion()))
+            return PkgOfferUtils.version + PkgOfferUtils.strErrMsg;
+        if(isNullOrBlank(wrapper.getPkgInfoId()))
+            return PkgOfferUtils.pkgInfoId + PkgOfferUtils.strErrMsg;
+        if(isNullOrBlank(wrapper.getImageLink()))
+            return PkgOfferUtils.imageLink + PkgOfferUtils.strErrMsg;
+        try {
+            new URL(wrapper.getImageLink());
+        } catch(MalformedURLException mue) {
+            return PkgOfferUtils.imageLink + PkgOfferUtils.strMueErr;
+        }
+        if(wrapper.getPkgType() == null)
+            return PkgOfferUtils.pkgTypeErr;
+        if(wrapper.getPoPrice() == null)
+            return PkgOfferUtils.poPrice + PkgOfferUtils.strNullErr;
+        if(!PkgOfferState.isIntegralUnitOfMeasure(wrapper.getPoPrice().getUnitOfMeasure()))
+            return PkgOfferUtils.unitOfMeasureErr;
+
+        return null;
+    }
+
+    private static boolean isNullOrBlank(String str) { return str == null || str.trim().isEmpty(); }
+
+    /* Stage 2: onboarding check, the put blocks while the flow stage is saturated */
+    private void onBoardingLoop() {
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                Item item = onBoardingQueue.take();
+                switch(catalogueClient.checkOnBoarded(item.wrapper.getPkgInfoId(), item.wrapper.getPkgType())) {
+                    case ONBOARDED:
+                        flowQueue.put(item);
+                        break;
+                    case NOT_ONBOARDED:
+                        item.complete(ItemStatus.NOT_ONBOARDED, null, onBoardingRequired);
+                        break;
+                    default:
+                        item.complete(ItemStatus.CATALOGUE_ERROR, null, errorWhileProcessingRq);
+                }
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Stage 3: start of the flows, at most maxInFlightFlows are running at the same time. The items waiting
+     * in the queue are grouped in batches registered by a single BatchRegisterPkgFlow transaction.
+     */
+    private void flowStarterLoop() {
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                List<Item> batch = new ArrayList<>(batchSize);
+                batch.add(flowQueue.take());
+                flowQueue.drainTo(batch, batchSize - 1);
+                flowPermits.acquire();
+                startFlow(batch);
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startFlow(List<Item> batch) {
+        CordaFuture<SignedTransaction> future;
+        try {
+            if(batch.size() == 1) {
+                Controller.RegisterPkgWrapper wrapper = batch.get(0).wrapper;
+                future = proxy.startFlowDynamic(RegisterPkgFlow.DevInitiation.class,
+                        wrapper.getName(), wrapper.getDescription(), wrapper.getVersion(), wrapper.getPkgInfoId(),
+                        wrapper.getImageLink(), wrapper.getPkgType(), wrapper.getPoPrice()).getReturnValue();
+            }
+            else {
+                List<BatchRegisterPkgFlowUtils.PkgRegistration> registrations = new ArrayList<>(batch.size());
+                for(Item item : batch) {
+                    Controller.RegisterPkgWrapper wrapper = item.wrapper;
+                    registrations.add(new BatchRegisterPkgFlowUtils.PkgRegistration(wrapper.getName(),
+                            wrapper.getDescription(), wrapper.getVersion(), wrapper.getPkgInfoId(),
+                            wrapper.getImageLink(), wrapper.getPkgType(), wrapper.getPoPrice()));
+                }
+                future = proxy.startFlowDynamic(BatchRegisterPkgFlow.DevInitiation.class, registrations)
+                        .getReturnValue();
+            }
+        } catch(Exception e) {
+            flowPermits.release();
+            rejected(batch, e);
+            return;
+        }
+
+        future.then(f -> {
+            try {
+                final SignedTransaction stx;
+                try {
+                    stx = f.get();
+                } catch(Exception e) {
+                    rejected(batch, e);
+                    return null;
+                }
+
+                /* The outputs of the transaction follow the order of the registrations */
+                List<PkgOfferState> outputs = stx.getTx().outputsOfType(PkgOfferState.class);
+                for(int i = 0; i < batch.size(); i++) {
+                    String linearId = outputs.get(i).getLinearId().toString();
+                    logger.info(pkgRegistered + linearId);
+                    batch.get(i).complete(ItemStatus.REGISTERED, linearId, null);
+                }
+            } catch(Exception e) {
+                failAll(batch, e);
+            } finally {
+                flowPermits.release();
+            }
+            return null;
+        });
+    }
+
+    /*
+     * A package rejected by the node fails the whole transaction of its batch, that can hold the items of
+     * other jobs too: the batch is split in halves registered again, until the rejected item is left alone
+     */
+    private void rejected(List<Item> batch, Exception e) {
+        if(batch.size() == 1) {
+            failAll(batch, e);
+            return;
+        }
+
+        logger.warn(bulkBatchSplit + batch.size() + " " + e.getMessage());
+        final int half = batch.size() / 2;
+        retry(new ArrayList<>(batch.subList(0, half)));
+        retry(new ArrayList<>(batch.subList(half, batch.size())));
+    }
+
+    /* The halves wait for a permit on a thread of their own, not on the one that completed the flow */
+    private void retry(List<Item> batch) {
+        try {
+            retryStarter.execute(() -> {
+                try {
+                    flowPermits.acquire();
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    failAll(batch, ie);
+                    return;
+                }
+                startFlow(batch);
+            });
+        } catch(RejectedExecutionException ree) {
+            failAll(batch, ree);
+        }
+    }
+
+    private static void failAll(List<Item> batch, Exception e) {
+        logger.error(pkgRegisterFailed + e.getMessage());
+        for(Item item : batch)
+            item.complete(ItemStatus.FAILED, null, e.getMessage());
+    }
+}
@@ -0,0 +1,146 @@
+package it.nextworks.corda.webserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Bounds the number of requests of a single endpoint class that are served concurrently.
+ * Requests exceeding the limit wait (FIFO) in a bounded queue for at most maxWaitMillis;
+ * when the queue is already full, or the wait expires, the request is rejected.
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int limit;
+    private final int maxQueueDepth;
+    private final long maxWaitMillis;
+
+    private final Semaphore permits;
+    private final AtomicInteger queueDepth        = new AtomicInteger();
+    private final AtomicLong admitted             = new AtomicLong();
+    private final AtomicLong rejectedQueueFull    = new AtomicLong();
+    private final AtomicLong rejectedWaitTimeout  = new AtomicLong();
+    private final AtomicLong queued               = new AtomicLong();
+    private final AtomicLong totalWaitNanos       = new AtomicLong();
+    private final LongAccumulator maxWaitNanos    = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Constructor of the Bulkhead class
+     * @param name          name of the endpoint class protected by this bulkhead
+     * @param limit         max number of requests served concurrently
+     * @param maxQueueDepth max number of requests waiting for a permit
+     * @param maxWaitMillis max time a request can wait for a permit
+     */
+    public Bulkhead(String name, int limit, int maxQueueDepth, long maxWaitMillis) {
+        if(limit <= 0)
+            throw new IllegalArgumentException("The <limit> parameter must be positive.");
+
+        if(maxQueueDepth < 0)
+            throw new IllegalArgumentException("The <maxQueueDepth> parameter cannot be negative.");
+
+        if(maxWaitMillis < 0)
+            throw new IllegalArgumentException("The <maxWaitMillis> parameter cannot be negative.");
+
+        this.name          = name;
+        this.limit         = limit;
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits       = new Semaphore(limit, true);
+    }
+
+    /**
+     * Try to obtain a permit for the current request.
+     * @return true if the request has been admitted; in this case exit() must be called once served
+     */
+    public boolean tryEnter() {
+        try {
+            /* Fast path: a free permit not claimed by older waiters */
+            if(permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                admitted.incrementAndGet();
+                return true;
+            }
+
+            if(queueDepth.incrementAndGet() > maxQueueDepth) {
+                queueDepth.decrementAndGet();
+                rejectedQueueFull.incrementAndGet();
+                return false;
+            }
+
+            queued.incrementAndGet();
+            final long start = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                queueDepth.decrementAndGet();
+                final long waited = System.nanoTime() - start;
+                totalWaitNanos.addAndGet(waited);
+                maxWaitNanos.accumulate(waited);
+            }
+
+            if(acquired)
+                admitted.incrementAndGet();
+            else
+                rejectedWaitTimeout.incrementAndGet();
+
+            return acquired;
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            rejectedWaitTimeout.incrementAndGet();
+            return false;
+        }
+    }
+
+    /** Release the permit obtained by a successful tryEnter() */
+    public void exit() { permits.release(); }
+
+    /* Getters */
+
+    public String getName() { return name; }
+
+    public int getLimit() { return limit; }
+
+    public int getMaxQueueDepth() { return maxQueueDepth; }
+
+    public long getMaxWaitMillis() { return maxWaitMillis; }
+
+    public int getInFlight() { return limit - permits.availablePermits(); }
+
+    public int getQueueDepth() { return queueDepth.get(); }
+
+    public long getAdmitted() { return admitted.get(); }
+
+    public long getRejectedQueueFull() { return rejectedQueueFull.get(); }
+
+    public long getRejectedWaitTimeout() { return rejectedWaitTimeout.get(); }
+
+    public long getRejected() { return rejectedQueueFull.get() + rejectedWaitTimeout.get(); }
+
+    public double getAverageWaitMillis() {
+        final long count = queued.get();
+        return count == 0 ? 0 : (totalWaitNanos.get() / (double)count) / 1_000_000;
+    }
+
+    public double getMaxObservedWaitMillis() { return maxWaitNanos.get() / 1_000_000.0; }
+
+    /** @return a snapshot of the statistics of this bulkhead */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> map = new LinkedHashMap<>();
+        map.put("limit", limit);
+        map.put("inFlight", getInFlight());
+        map.put("queueDepth", getQueueDepth());
+        map.put("maxQueueDepth", maxQueueDepth);
+        map.put("admitted", getAdmitted());
+        map.put("rejectedQueueFull", getRejectedQueueFull());
+        map.put("rejectedWaitTimeout", getRejectedWaitTimeout());
+        map.put("averageWaitMillis", getAverageWaitMillis());
+        map.put("maxObservedWaitMillis", getMaxObservedWaitMillis());
+
+        return map;
+    }
+}
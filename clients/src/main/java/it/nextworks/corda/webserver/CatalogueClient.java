@@ -0,0 +1,81 @@
+package it.nextworks.corda.webserver;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.nextworks.corda.states.PkgOfferState;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/** Client of the 5g-catalogue, used to verify that a package has been onboarded before using it */
+@Component
+public class CatalogueClient {
+
+    public enum OnBoardingStatus {
+        ONBOARDED,
+        NOT_ONBOARDED,
+        UNAVAILABLE
+    }
+
+    @Value("${config.catalogue.host}")
+    private String catalogueURL;
+
+    @Value("${config.catalogue.timeout-ms:5000}")
+    private int timeoutMillis;
+
+    private final MeterRegistry registry;
+
+    public CatalogueClient(MeterRegistry registry) { this.registry = registry; }
+
+    /**
+     * Query the 5g-catalogue for the package identified by the specified parameters
+     * @param pkgInfoId id of the package in the catalogue
+     * @param pkgType   type of the package (VNF or PNF)
+     * @return          the onboarding status of the package, UNAVAILABLE if the catalogue cannot be queried
+     */
+    public OnBoardingStatus checkOnBoarded(String pkgInfoId, PkgOfferState.PkgType pkgType) {
+        final long start = System.nanoTime();
+        OnBoardingStatus status = query(pkgInfoId, pkgType);
+        Timer.builder("catalogue.requests")
+                .tag("pkgType", pkgType.name())
+                .tag("status", status.name())
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return status;
+    }
+
+    private OnBoardingStatus query(String pkgInfoId, PkgOfferState.PkgType pkgType) {
+        String request;
+        if(pkgType.equals(PkgOfferState.PkgType.VNF))
+            request = catalogueURL + "vnfpkgm/v1/vnf_packages/";
+        else
+            request = catalogueURL + "nsd/v1/pnf_descriptors/";
+        request += pkgInfoId;
+
+        try {
+            URL url = new URL(request);
+            HttpURLConnection con = (HttpURLConnection)url.openConnection();
+            con.setRequestProperty("Accept", "application/json");
+            con.setRequestMethod("GET");
+            con.setConnectTimeout(timeoutMillis);
+            con.setReadTimeout(timeoutMillis);
+            int responseCode = con.getResponseCode();
+            con.disconnect();
+
+            if(responseCode == HttpURLConnection.HTTP_OK)
+                return OnBoardingStatus.ONBOARDED;
+            if(responseCode == HttpURLConnection.HTTP_NOT_FOUND)
+                return OnBoardingStatus.NOT_ONBOARDED;
+
+            return OnBoardingStatus.UNAVAILABLE;
+        } catch(IOException ie) {
+            return OnBoardingStatus.UNAVAILABLE;
+        }
+    }
+}
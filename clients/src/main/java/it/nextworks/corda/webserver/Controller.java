@@ -3,46 +3,58 @@ package it.nextworks.corda.webserver;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ImmutableList;
 import it.nextworks.corda.flows.*;
+import it.nextworks.corda.schemas.PkgLicenseSchemaV2;
 import it.nextworks.corda.states.FeeAgreementState;
 import it.nextworks.corda.states.PkgLicenseState;
 import it.nextworks.corda.states.PkgOfferState;
 import it.nextworks.corda.states.productOfferingPrice.Money;
 import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
-import net.corda.client.jackson.JacksonSupport;
+import it.nextworks.corda.webserver.dto.FeeAgreementDto;
+import it.nextworks.corda.webserver.dto.PkgLicenseDto;
+import it.nextworks.corda.webserver.dto.PkgOfferDto;
+import it.nextworks.corda.webserver.dto.ShardedPkgsDto;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.CryptoUtils;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
 import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.node.NodeInfo;
 import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.FieldInfo;
 import net.corda.core.node.services.vault.PageSpecification;
 import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.finance.contracts.asset.Cash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static it.nextworks.corda.webserver.ControllerUtils.*;
+import static it.nextworks.corda.webserver.IdempotencyStore.*;
 import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
 import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
 import static net.corda.finance.workflows.GetBalances.getCashBalances;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
@@ -54,18 +66,29 @@ public class Controller {
 
     private final CordaRPCOps proxy;
     private final CordaX500Name me;
-
-    @Value("${config.catalogue.host}")
-    private String catalogueURL;
+    private final AdmissionControl admissionControl;
+    private final CatalogueClient catalogueClient;
+    private final BulkRegistrationService bulkRegistrationService;
+    private final FlowTracker flowTracker;
+    private final IdempotencyStore idempotencyStore;
+    private final PkgOfferCache pkgOfferCache;
 
     private final static Logger logger = LoggerFactory.getLogger(Controller.class);
 
-    public Controller(NodeRPCConnection rpc) {
+    public Controller(NodeRPCConnection rpc, AdmissionControl admissionControl, CatalogueClient catalogueClient,
+                      BulkRegistrationService bulkRegistrationService, FlowTracker flowTracker,
+                      IdempotencyStore idempotencyStore, PkgOfferCache pkgOfferCache) {
         proxy = rpc.getProxy();
         me = proxy.nodeInfo().getLegalIdentities().get(0).getName();
+        this.admissionControl        = admissionControl;
+        this.catalogueClient         = catalogueClient;
+        this.bulkRegistrationService = bulkRegistrationService;
+        this.flowTracker             = flowTracker;
+        this.idempotencyStore        = idempotencyStore;
+        this.pkgOfferCache           = pkgOfferCache;
     }
 
-    private static class RegisterPkgWrapper {
+    static class RegisterPkgWrapper {
 
         @JsonProperty("name") private final String name;
         @JsonProperty("description") private final String description;
@@ -152,16 +175,25 @@ public class Controller {
         @JsonProperty("pkgInfoId") private final String pkgInfoId;
         @JsonProperty("pkgType") private final PkgOfferState.PkgType pkgType;
         @JsonProperty("price") private final Money price;
+        @JsonProperty("splitPayout") private final boolean splitPayout;
+        @JsonProperty("seats") private final int seats;
+        @JsonProperty("repositoryNode") private final String repositoryNode;
 
         @JsonCreator
         public BuyPkgWrapper(@JsonProperty("linearId") UniqueIdentifier linearId,
                              @JsonProperty("pkgInfoId")String pkgInfoId,
                              @JsonProperty("pkgType")PkgOfferState.PkgType pkgType,
-                             @JsonProperty("price") Money price) {
-            this.linearId  = linearId;
-            this.pkgInfoId = pkgInfoId;
-            this.pkgType   = pkgType;
-            this.price     = price;
+                             @JsonProperty("price") Money price,
+                             @JsonProperty("splitPayout") Boolean splitPayout,
+                             @JsonProperty("seats") Integer seats,
+                             @JsonProperty("repositoryNode") String repositoryNode) {
+            this.linearId    = linearId;
+            this.pkgInfoId   = pkgInfoId;
+            this.pkgType     = pkgType;
+            this.price       = price;
+            this.splitPayout = splitPayout != null && splitPayout;
+            this.seats       = seats == null ? 1 : seats;
+            this.repositoryNode = repositoryNode;
         }
 
         /* Getters */
@@ -173,6 +205,86 @@ public class Controller {
         public PkgOfferState.PkgType getPkgType() { return pkgType; }
 
         public Money getPrice() { return price; }
+
+        public boolean isSplitPayout() { return splitPayout; }
+
+        public int getSeats() { return seats; }
+
+        public String getRepositoryNode() { return repositoryNode; }
+    }
+
+    private static class BuyPkgsWrapper {
+
+        @JsonProperty("linearIds") private final List<UniqueIdentifier> linearIds;
+        @JsonProperty("total") private final Money total;
+
+        @JsonCreator
+        public BuyPkgsWrapper(@JsonProperty("linearIds") List<UniqueIdentifier> linearIds,
+                              @JsonProperty("total") Money total) {
+            this.linearIds = linearIds;
+            this.total     = total;
+        }
+
+        /* Getters */
+
+        public List<UniqueIdentifier> getLinearIds() { return linearIds; }
+
+        public Money getTotal() { return total; }
+    }
+
+    private static class LicenseLookupWrapper {
+
+        @JsonProperty("buyer") private final String buyer;
+        @JsonProperty("pkgInfoId") private final String pkgInfoId;
+
+        @JsonCreator
+        public LicenseLookupWrapper(@JsonProperty("buyer")String buyer,
+                                    @JsonProperty("pkgInfoId")String pkgInfoId) {
+            this.buyer     = buyer;
+            this.pkgInfoId = pkgInfoId;
+        }
+
+        /* Getters */
+
+        public String getBuyer() { return buyer; }
+
+        public String getPkgInfoId() { return pkgInfoId; }
+    }
+
+    /*
+     * The Repository Node listing a package, as shown by the marketplace; null if not specified,
+     * the flow then looks the package up where the consistent-hash ring places it
+     */
+    /*
+     * Status of a failed flow call: 400 only when the flow or its arguments rejected the request, any other
+     * failure (RPC disconnection, notary unavailable, interrupted wait) is transient and is not retained by
+     * the IdempotencyStore, so that the request can be retried with the same key
+     */
+    private static HttpStatus failureStatus(Exception e) {
+        if(e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+
+        final Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+        if(cause instanceof NotaryException &&
+                !(((NotaryException)cause).getError() instanceof NotaryError.Conflict))
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        if(cause instanceof FlowException || cause instanceof IllegalArgumentException)
+            return HttpStatus.BAD_REQUEST;
+
+        return HttpStatus.SERVICE_UNAVAILABLE;
+    }
+
+    private Party repositoryParty(String repositoryNode) {
+        if(repositoryNode == null)
+            return null;
+
+        final Party party = proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(repositoryNode));
+        if(party == null)
+            throw new IllegalArgumentException(unknownRepository + repositoryNode);
+
+        return party;
     }
 
     /* Helpers for filtering the network map cache */
@@ -191,7 +303,9 @@ public class Controller {
     @Configuration
     class Plugin {
         @Bean
-        public ObjectMapper registerModule() { return JacksonSupport.createNonRpcMapper(); }
+        public ObjectMapper registerModule() {
+            return CordaTypesModule.createMapper();
+        }
     }
 
     @GetMapping(value = "status", produces = TEXT_PLAIN_VALUE)
@@ -275,13 +389,28 @@ public class Controller {
         return map;
     }
 
+    @GetMapping(value = "admission-stats", produces = APPLICATION_JSON_VALUE)
+    public Map<String, Map<String, Number>> admissionStats() {
+        Map<String, Map<String, Number>> result = admissionControl.snapshot();
+        logger.info(admissionStatsRequestOK);
+
+        return result;
+    }
+
     /* ####### Flows Calls ####### */
 
     @PutMapping(value = "establish-fee-agreement", produces = TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> establishFeeAgreement(@RequestParam(value = "maxAcceptableFee") int maxAcceptableFee) {
+    public ResponseEntity<String> establishFeeAgreement(@RequestParam(value = "maxAcceptableFee") int maxAcceptableFee,
+                                                        @RequestParam(value = "repository", required = false)
+                                                                String repository) {
         try {
-            proxy.startFlowDynamic(EstablishFeeAgreementFlow.DevInitiation.class, maxAcceptableFee)
-                    .getReturnValue().get();
+            /* A developer establishes an agreement with each Repository Node (shard) that lists its packages */
+            if(repository == null)
+                proxy.startFlowDynamic(EstablishFeeAgreementFlow.DevInitiation.class, maxAcceptableFee)
+                        .getReturnValue().get();
+            else
+                proxy.startFlowDynamic(EstablishFeeAgreementFlow.DevInitiation.class, maxAcceptableFee,
+                        CordaX500Name.parse(repository)).getReturnValue().get();
             logger.info(feeAgreementEstablished);
 
             return ResponseEntity.status(HttpStatus.CREATED).body(feeAgreementEstablished);
@@ -299,43 +428,26 @@ public class Controller {
                     .body(pkgRegisterFailed + nullParam);
         }
 
-        String request;
-        if(pkgType.equals(PkgOfferState.PkgType.VNF))
-            request = catalogueURL + "vnfpkgm/v1/vnf_packages/";
-        else
-            request = catalogueURL + "nsd/v1/pnf_descriptors/";
-        request += pkgInfoId;
-
-        /* logger.info("GET " + request); */
-
-        try {
-            URL url = new URL(request);
-            HttpURLConnection con = (HttpURLConnection)url.openConnection();
-            con.setRequestProperty("Accept", "application/json");
-            con.setRequestMethod("GET");
-            int responseCode = con.getResponseCode();
-
-            if(responseCode != HttpURLConnection.HTTP_OK) {
-                if(responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
-                    logger.error(pkgRegisterFailed + onBoardingRequired);
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(onBoardingRequired);
-                }
-                else {
-                    logger.error(pkgRegisterFailed + errorWhileProcessingRq);
-                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorWhileProcessingRq);
-                }
-            }
-
-            /* logger.info(getRequestSucceed); */
-            return null;
-        } catch(IOException ie) {
-            logger.error(pkgRegisterFailed + errorWhileProcessingRq);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorWhileProcessingRq);
+        switch(catalogueClient.checkOnBoarded(pkgInfoId, pkgType)) {
+            case ONBOARDED:
+                return null;
+            case NOT_ONBOARDED:
+                logger.error(pkgRegisterFailed + onBoardingRequired);
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(onBoardingRequired);
+            default:
+                logger.error(pkgRegisterFailed + errorWhileProcessingRq);
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorWhileProcessingRq);
         }
     }
 
     @PutMapping(value = "register-pkg", produces = TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> registerPkg(@RequestBody RegisterPkgWrapper wrapper) {
+    public ResponseEntity<?> registerPkg(@RequestBody RegisterPkgWrapper wrapper,
+                                         @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                 String idempotencyKey) {
+        return idempotencyStore.execute(REGISTER_PKG_SCOPE, idempotencyKey, wrapper, () -> doRegisterPkg(wrapper));
+    }
+
+    private ResponseEntity<String> doRegisterPkg(RegisterPkgWrapper wrapper) {
         String pkgInfoId = wrapper.getPkgInfoId();
         PkgOfferState.PkgType pkgType = wrapper.getPkgType();
 
@@ -353,30 +465,62 @@ public class Controller {
             return ResponseEntity.status(HttpStatus.CREATED).body(pkgRegistered + pkgOfferState.getLinearId());
         } catch(Exception e) {
             logger.error(pkgRegisterFailed + e.getMessage());
+            return ResponseEntity.status(failureStatus(e)).body(e.getMessage());
+        }
+    }
+
+    @PutMapping(value = "register-pkgs", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> registerPkgs(HttpServletRequest request) {
+        try {
+            BulkRegistrationJob job = bulkRegistrationService.submit(request.getInputStream(),
+                    request.getContentLengthLong());
+
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.LOCATION, "/register-pkgs/" + job.getJobId()).body(job);
+        } catch(BulkRegistrationService.BodyTooLargeException btle) {
+            logger.error(bulkRegisterFailed + btle.getMessage());
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(btle.getMessage());
+        } catch(IllegalArgumentException | IOException e) {
+            logger.error(bulkRegisterFailed + e.getMessage());
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch(RejectedExecutionException ree) {
+            logger.error(bulkRegisterFailed + ree.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(ree.getMessage());
         }
     }
 
-    @PutMapping(value = "update-pkg", produces = TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> updatePkg(@RequestBody UpdatePkgWrapper wrapper) {
-        UniqueIdentifier linearId = wrapper.getLinearId();
+    @GetMapping(value = "register-pkgs/{jobId}", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getRegisterPkgsJob(@PathVariable(value = "jobId") String jobId) {
+        BulkRegistrationJob job = bulkRegistrationService.getJob(jobId);
+        if(job == null) {
+            logger.error(bulkJobGetFailed + notExistingJob);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(notExistingJob);
+        }
+        logger.info(bulkJobRequestOK);
+
+        return ResponseEntity.status(HttpStatus.OK).body(job);
+    }
+
+    private ResponseEntity<String> checkUpdatable(UniqueIdentifier linearId) {
         if(linearId == null) {
             logger.error(pkgUpdateFailed + nullParam);
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(pkgUpdateFailed + nullParam);
         }
 
-        QueryCriteria.LinearStateQueryCriteria queryCriteria =
-                new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(linearId.getId()),
-                        null, Vault.StateStatus.UNCONSUMED);
-        List<StateAndRef<PkgOfferState>> lst = proxy.vaultQueryByCriteria(queryCriteria, PkgOfferState.class).getStates();
-        if(lst.size() == 0) {
+        StateAndRef<PkgOfferState> pkg = pkgOfferCache.get(linearId);
+        if(pkg == null) {
             logger.error(pkgUpdateFailed + notExistingPkg);
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(notExistingPkg);
         }
 
-        PkgOfferState oldPkgOfferState = lst.get(0).getState().getData();
-        ResponseEntity<String> res = isOnBoarded(oldPkgOfferState.getPkgInfoId(), oldPkgOfferState.getPkgType());
+        PkgOfferState oldPkgOfferState = pkg.getState().getData();
+        return isOnBoarded(oldPkgOfferState.getPkgInfoId(), oldPkgOfferState.getPkgType());
+    }
+
+    @PutMapping(value = "update-pkg", produces = TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> updatePkg(@RequestBody UpdatePkgWrapper wrapper) {
+        ResponseEntity<String> res = checkUpdatable(wrapper.getLinearId());
         if(res != null)
             return res;
 
@@ -401,7 +545,7 @@ public class Controller {
                     .getReturnValue().get();
             logger.info(marketplaceRequestOK);
 
-            return ResponseEntity.status(HttpStatus.OK).body(result);
+            return ResponseEntity.status(HttpStatus.OK).body(PkgOfferDto.from(result));
         } catch(Exception e) {
             logger.error(pkgsGetFailed + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
@@ -440,7 +584,56 @@ public class Controller {
                             queryBuilder.build()).getReturnValue().get();
             logger.info(marketplaceRequestOK);
 
-            return ResponseEntity.status(HttpStatus.OK).body(result);
+            return ResponseEntity.status(HttpStatus.OK).body(PkgOfferDto.from(result));
+        } catch(Exception e) {
+            logger.error(pkgsGetFailed + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    @GetMapping(value = "marketplace-all", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getShardedPkgs(@RequestParam(value = "uuid", required = false)UUID uuid,
+                                            @RequestParam(value = "name", required = false)String name,
+                                            @RequestParam(value = "description", required = false)String description,
+                                            @RequestParam(value = "version", required = false)String version,
+                                            @RequestParam(value = "value", required = false)String value,
+                                            @RequestParam(value = "unit", required = false)String unit,
+                                            @RequestParam(value = "timeout", required = false)Long timeout) {
+        GetPkgsFlowUtils.QueryBuilder queryBuilder = new GetPkgsFlowUtils.QueryBuilder()
+                .setLinearId(uuid)
+                .setName(name)
+                .setDescription(description)
+                .setVersion(version);
+
+        if(value != null) {
+            try {
+                BigDecimal bigDecimalValue = new BigDecimal(value).setScale(2,
+                        BigDecimal.ROUND_HALF_EVEN);
+                queryBuilder.setValue(bigDecimalValue);
+            } catch (NumberFormatException nfe) {
+                logger.error(badRequestValue + nfe.getMessage());
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(badRequestValue);
+            }
+        }
+
+        queryBuilder.setUnit(unit);
+
+        final long timeoutMillis = timeout != null ? timeout : GetShardedPkgsFlowUtils.defaultShardTimeoutMillis;
+        if(timeoutMillis <= 0 || timeoutMillis > GetShardedPkgsFlowUtils.maxShardTimeoutMillis) {
+            logger.error(pkgsGetFailed + GetShardedPkgsFlowUtils.invalidShardTimeout);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(GetShardedPkgsFlowUtils.invalidShardTimeout);
+        }
+
+        try {
+            GetShardedPkgsFlowUtils.ShardedPkgs result =
+                    proxy.startFlowDynamic(GetShardedPkgsFlow.GetShardedPkgsInfoInitiation.class,
+                            queryBuilder.build(), timeoutMillis).getReturnValue().get();
+            if(result.isPartial())
+                logger.warn(marketplacePartial + result.getTimedOutShards());
+            else
+                logger.info(marketplaceRequestOK);
+
+            return ResponseEntity.status(HttpStatus.OK).body(ShardedPkgsDto.from(result));
         } catch(Exception e) {
             logger.error(pkgsGetFailed + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
@@ -470,8 +663,62 @@ public class Controller {
         }
     }
 
+    @PostMapping(value = "cash-pool", produces = TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> splitCash(@RequestParam(value = "value")String value,
+                                            @RequestParam(value = "currency")String currency,
+                                            @RequestParam(value = "count")int count) {
+        final Amount<Currency> denomination;
+        try {
+            denomination = Amount.fromDecimal(new BigDecimal(value).setScale(2, BigDecimal.ROUND_HALF_EVEN),
+                    Currency.getInstance(currency));
+        } catch(IllegalArgumentException iae) {
+            logger.error(cashSplitFailed + badRequestValue);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(badRequestValue);
+        }
+
+        try {
+            SignedTransaction signedTx = proxy.startFlowDynamic(CashInventoryFlow.Split.class, denomination, count)
+                    .getReturnValue().get();
+            logger.info(cashSplit + signedTx.getId());
+
+            return ResponseEntity.status(HttpStatus.CREATED).body(cashSplit + signedTx.getId());
+        } catch(Exception e) {
+            logger.error(cashSplitFailed + e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(e.getMessage().substring(e.getMessage().lastIndexOf(':') + 1));
+        }
+    }
+
+    @PostMapping(value = "consolidate-cash", produces = TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> consolidateCash(@RequestParam(value = "threshold")long threshold,
+                                                  @RequestParam(value = "minStates", defaultValue = "2")int minStates) {
+        try {
+            List<SignedTransaction> consolidations =
+                    proxy.startFlowDynamic(CashInventoryFlow.Consolidation.class, threshold, minStates)
+                            .getReturnValue().get();
+            logger.info(cashConsolidated + consolidations.size());
+
+            return ResponseEntity.status(HttpStatus.OK).body(cashConsolidated + consolidations.size());
+        } catch(Exception e) {
+            logger.error(cashConsolidationFailed + e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(e.getMessage().substring(e.getMessage().lastIndexOf(':') + 1));
+        }
+    }
+
+    private static Amount<Currency> toAmount(Money money) {
+        return Amount.fromDecimal(BigDecimal.valueOf(money.getValue()).setScale(2,
+                BigDecimal.ROUND_HALF_EVEN), Currency.getInstance(money.getUnit()));
+    }
+
     @PostMapping(value = "marketplace/buy-pkg", produces = TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> buyPkg(@RequestBody BuyPkgWrapper wrapper) {
+    public ResponseEntity<?> buyPkg(@RequestBody BuyPkgWrapper wrapper,
+                                    @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                            String idempotencyKey) {
+        return idempotencyStore.execute(BUY_PKG_SCOPE, idempotencyKey, wrapper, () -> doBuyPkg(wrapper));
+    }
+
+    private ResponseEntity<String> doBuyPkg(BuyPkgWrapper wrapper) {
         ResponseEntity<String> res = isOnBoarded(wrapper.getPkgInfoId(), wrapper.getPkgType());
         if(res != null)
             return res;
@@ -484,10 +731,9 @@ public class Controller {
                         .body(pkgPurchaseFailed + nullParam);
             }
 
-            Amount<Currency> price = Amount.fromDecimal(BigDecimal.valueOf(money.getValue()).setScale(2,
-                    BigDecimal.ROUND_HALF_EVEN), Currency.getInstance(money.getUnit()));
             SignedTransaction result = proxy.startFlowDynamic(BuyPkgFlow.PkgBuyerInitiation.class,
-                    wrapper.getLinearId(), price).getReturnValue().get();
+                    wrapper.getLinearId(), toAmount(money), wrapper.isSplitPayout(), wrapper.getSeats(),
+                    repositoryParty(wrapper.getRepositoryNode())).getReturnValue().get();
             logger.info(pkgPurchased + wrapper.getLinearId());
 
             return ResponseEntity.status(HttpStatus.CREATED).body(pkgPurchased + wrapper.getLinearId());
@@ -496,7 +742,37 @@ public class Controller {
             return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).body(iae.getMessage());
         } catch(Exception e) {
             logger.error(pkgPurchaseFailed + e.getMessage());
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+            return ResponseEntity.status(failureStatus(e)).body(e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "marketplace/buy-pkgs", produces = TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> buyPkgs(@RequestBody BuyPkgsWrapper wrapper,
+                                     @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                             String idempotencyKey) {
+        return idempotencyStore.execute(BUY_PKGS_SCOPE, idempotencyKey, wrapper, () -> doBuyPkgs(wrapper));
+    }
+
+    private ResponseEntity<String> doBuyPkgs(BuyPkgsWrapper wrapper) {
+        try {
+            Money money = wrapper.getTotal();
+            if(money == null || wrapper.getLinearIds() == null) {
+                logger.error(cartPurchaseFailed + nullParam);
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(cartPurchaseFailed + nullParam);
+            }
+
+            SignedTransaction result = proxy.startFlowDynamic(BuyPkgsFlow.PkgBuyerInitiation.class,
+                    wrapper.getLinearIds(), toAmount(money)).getReturnValue().get();
+            logger.info(cartPurchased + wrapper.getLinearIds());
+
+            return ResponseEntity.status(HttpStatus.CREATED).body(cartPurchased + wrapper.getLinearIds());
+        } catch(IllegalArgumentException iae) {
+            logger.error(cartPurchaseFailed + iae.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).body(iae.getMessage());
+        } catch(Exception e) {
+            logger.error(cartPurchaseFailed + e.getMessage());
+            return ResponseEntity.status(failureStatus(e)).body(e.getMessage());
         }
     }
 
@@ -514,6 +790,138 @@ public class Controller {
         }
     }
 
+    /* ####### Asynchronous Flows Calls ####### */
+
+    private ResponseEntity<?> accepted(FlowTracker.FlowRun run) {
+        logger.info(flowSubmitted + run.getFlowName() + " " + run.getFlowId());
+
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header(HttpHeaders.LOCATION, "/flows/" + run.getFlowId()).body(run);
+    }
+
+    /* The flow has not been started, as all the tracked runs are in progress */
+    private ResponseEntity<?> notTracked(String failed, RejectedExecutionException ree) {
+        logger.error(failed + ree.getMessage());
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(flowTracker.getRetryAfterSeconds()))
+                .body(ree.getMessage());
+    }
+
+    @PostMapping(value = "async/register-pkg", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> registerPkgAsync(@RequestBody RegisterPkgWrapper wrapper,
+                                              @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                      String idempotencyKey) {
+        return idempotencyStore.execute(REGISTER_PKG_SCOPE, idempotencyKey, wrapper, () -> doRegisterPkgAsync(wrapper));
+    }
+
+    private ResponseEntity<?> doRegisterPkgAsync(RegisterPkgWrapper wrapper) {
+        String pkgInfoId = wrapper.getPkgInfoId();
+        PkgOfferState.PkgType pkgType = wrapper.getPkgType();
+
+        ResponseEntity<String> res = isOnBoarded(pkgInfoId, pkgType);
+        if(res != null)
+            return res;
+
+        try {
+            return accepted(flowTracker.track(RegisterPkgFlow.class.getSimpleName(),
+                    () -> proxy.startTrackedFlowDynamic(RegisterPkgFlow.DevInitiation.class, wrapper.getName(),
+                            wrapper.getDescription(), wrapper.getVersion(), pkgInfoId, wrapper.getImageLink(),
+                            pkgType, wrapper.getPoPrice()),
+                    stx -> pkgRegistered + stx.getTx().outputsOfType(PkgOfferState.class).get(0).getLinearId()));
+        } catch(RejectedExecutionException ree) {
+            return notTracked(pkgRegisterFailed, ree);
+        } catch(Exception e) {
+            logger.error(pkgRegisterFailed + e.getMessage());
+            return ResponseEntity.status(failureStatus(e)).body(e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "async/update-pkg", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> updatePkgAsync(@RequestBody UpdatePkgWrapper wrapper) {
+        ResponseEntity<String> res = checkUpdatable(wrapper.getLinearId());
+        if(res != null)
+            return res;
+
+        try {
+            return accepted(flowTracker.track(UpdatePkgFlow.class.getSimpleName(),
+                    () -> proxy.startTrackedFlowDynamic(UpdatePkgFlow.DevInitiation.class, wrapper.getLinearId(),
+                            wrapper.getName(), wrapper.getDescription(), wrapper.getVersion(),
+                            wrapper.getImageLink(), wrapper.getPoPrice()),
+                    stx -> pkgUpdated + stx.getTx().outputsOfType(PkgOfferState.class).get(0).getLinearId()));
+        } catch(RejectedExecutionException ree) {
+            return notTracked(pkgUpdateFailed, ree);
+        } catch(Exception e) {
+            logger.error(pkgUpdateFailed + e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "async/marketplace/buy-pkg", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> buyPkgAsync(@RequestBody BuyPkgWrapper wrapper,
+                                         @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                 String idempotencyKey) {
+        return idempotencyStore.execute(BUY_PKG_SCOPE, idempotencyKey, wrapper, () -> doBuyPkgAsync(wrapper));
+    }
+
+    private ResponseEntity<?> doBuyPkgAsync(BuyPkgWrapper wrapper) {
+        ResponseEntity<String> res = isOnBoarded(wrapper.getPkgInfoId(), wrapper.getPkgType());
+        if(res != null)
+            return res;
+
+        Money money = wrapper.getPrice();
+        if(money == null) {
+            logger.error(pkgPurchaseFailed + nullParam);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(pkgPurchaseFailed + nullParam);
+        }
+
+        try {
+            UniqueIdentifier linearId = wrapper.getLinearId();
+            Amount<Currency> amount = toAmount(money);
+            Party repositoryNode = repositoryParty(wrapper.getRepositoryNode());
+
+            return accepted(flowTracker.track(BuyPkgFlow.class.getSimpleName(),
+                    () -> proxy.startTrackedFlowDynamic(BuyPkgFlow.PkgBuyerInitiation.class, linearId, amount,
+                            wrapper.isSplitPayout(), wrapper.getSeats(), repositoryNode),
+                    stx -> pkgPurchased + linearId));
+        } catch(RejectedExecutionException ree) {
+            return notTracked(pkgPurchaseFailed, ree);
+        } catch(IllegalArgumentException iae) {
+            logger.error(pkgPurchaseFailed + iae.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).body(iae.getMessage());
+        } catch(Exception e) {
+            logger.error(pkgPurchaseFailed + e.getMessage());
+            return ResponseEntity.status(failureStatus(e)).body(e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "async/delete-pkg", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> deletePkgAsync(@RequestBody UniqueIdentifier linearId) {
+        try {
+            return accepted(flowTracker.track(DeletePkgFlow.class.getSimpleName(),
+                    () -> proxy.startTrackedFlowDynamic(DeletePkgFlow.DevInitiation.class, linearId),
+                    stx -> pkgDeleted + linearId));
+        } catch(RejectedExecutionException ree) {
+            return notTracked(pkgDeleteFailed, ree);
+        } catch(Exception e) {
+            logger.error(pkgDeleteFailed + e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    @GetMapping(value = "flows/{flowId}", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getFlowRun(@PathVariable(value = "flowId") UUID flowId) {
+        FlowTracker.FlowRun run = flowTracker.get(flowId);
+        if(run == null) {
+            logger.error(flowRunGetFailed + notExistingFlowRun);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(notExistingFlowRun);
+        }
+        logger.info(flowRunRequestOK);
+
+        return ResponseEntity.status(HttpStatus.OK).body(run);
+    }
+
     /* ####### Vault Queries ####### */
 
     @GetMapping(value = "cash-balances", produces = APPLICATION_JSON_VALUE)
@@ -525,15 +933,15 @@ public class Controller {
     }
 
     @GetMapping(value = "fee-agreement-state", produces = APPLICATION_JSON_VALUE)
-    public FeeAgreementState getFeeAgreement() {
+    public FeeAgreementDto getFeeAgreement() {
         FeeAgreementState result = proxy.vaultQuery(FeeAgreementState.class).getStates().get(0).getState().getData();
         logger.info(feeAgreementStateRequestOK);
 
-        return result;
+        return FeeAgreementDto.from(result);
     }
 
     @GetMapping(value = "pkg-offer-state", produces = APPLICATION_JSON_VALUE)
-    public List<PkgOfferState> getPkgOfferState() {
+    public List<PkgOfferDto> getPkgOfferState() {
         int pageNumber = DEFAULT_PAGE_NUM;
         List<StateAndRef<PkgOfferState>> states = new ArrayList<>();
         long totalResults;
@@ -548,9 +956,9 @@ public class Controller {
             pageNumber++;
         } while((DEFAULT_PAGE_SIZE * (pageNumber - 1) <= totalResults));
 
-        List<PkgOfferState> pkgOfferStateList = new ArrayList<>();
+        List<PkgOfferDto> pkgOfferStateList = new ArrayList<>(states.size());
         for(StateAndRef<PkgOfferState> pkgOfferStateAndRef : states)
-            pkgOfferStateList.add(pkgOfferStateAndRef.getState().getData());
+            pkgOfferStateList.add(PkgOfferDto.from(pkgOfferStateAndRef.getState().getData()));
 
         logger.info(pkgOfferStateRequestOK);
 
@@ -558,27 +966,116 @@ public class Controller {
     }
 
     @GetMapping(value = "pkg-license-state", produces = APPLICATION_JSON_VALUE)
-    public List<PkgLicenseState> getPkgLicenseState() {
+    public ResponseEntity<?> getPkgLicenseState(@RequestParam(value = "pkgId", required = false)UUID pkgId,
+                                                @RequestParam(value = "buyer", required = false)String buyer) {
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria().withStatus(Vault.StateStatus.ALL);
+        try {
+            /* Filters are resolved on the indexed columns of the license schema */
+            if(pkgId != null)
+                criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(
+                        getField("pkgLinearId", PkgLicenseSchemaV2.PersistentPkgLicenseState.class), pkgId)));
+            if(buyer != null) {
+                final Party buyerParty = proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(buyer));
+                if(buyerParty == null) {
+                    logger.error(pkgLicensesGetFailed + unknownBuyer);
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(unknownBuyer);
+                }
+                criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(
+                        getField("buyerKeyHash", PkgLicenseSchemaV2.PersistentPkgLicenseState.class),
+                        CryptoUtils.toStringShort(buyerParty.getOwningKey()))));
+            }
+        } catch(IllegalArgumentException iae) {
+            logger.error(pkgLicensesGetFailed + iae.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(iae.getMessage());
+        } catch(NoSuchFieldException nsfe) {
+            logger.error(pkgLicensesGetFailed + nsfe.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(nsfe.getMessage());
+        }
+
         int pageNumber = DEFAULT_PAGE_NUM;
         List<StateAndRef<PkgLicenseState>> states = new ArrayList<>();
         long totalResults;
         do {
             PageSpecification pageSpecification = new PageSpecification(pageNumber, DEFAULT_PAGE_SIZE);
             Vault.Page<PkgLicenseState> results =
-                    proxy.vaultQueryByWithPagingSpec(PkgLicenseState.class,
-                            new QueryCriteria.VaultQueryCriteria()
-                                    .withStatus(Vault.StateStatus.ALL), pageSpecification);
+                    proxy.vaultQueryByWithPagingSpec(PkgLicenseState.class, criteria, pageSpecification);
             totalResults = results.getTotalStatesAvailable();
             states.addAll(results.getStates());
             pageNumber++;
         } while((DEFAULT_PAGE_SIZE * (pageNumber - 1) <= totalResults));
 
-        List<PkgLicenseState> pkgLicenseStateList = new ArrayList<>();
+        List<PkgLicenseDto> pkgLicenseStateList = new ArrayList<>(states.size());
         for(StateAndRef<PkgLicenseState> pkgLicenseStateAndRef : states)
-            pkgLicenseStateList.add(pkgLicenseStateAndRef.getState().getData());
+            pkgLicenseStateList.add(PkgLicenseDto.from(pkgLicenseStateAndRef.getState().getData()));
 
         logger.info(pkgLicenseStateRequestOK);
 
-        return pkgLicenseStateList;
+        return ResponseEntity.status(HttpStatus.OK).body(pkgLicenseStateList);
+    }
+
+    @GetMapping(value = "pkg-sales-count", produces = TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> getPkgSalesCount(@RequestParam(value = "pkgId")UUID pkgId) {
+        try {
+            /* Aggregate computed by the database on the pkg_linear_id index, no state is loaded */
+            final FieldInfo attributePkgId =
+                    getField("pkgLinearId", PkgLicenseSchemaV2.PersistentPkgLicenseState.class);
+            QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria().withStatus(Vault.StateStatus.ALL)
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(attributePkgId, pkgId)))
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.count(attributePkgId)));
+            Vault.Page<PkgLicenseState> results = proxy.vaultQueryByCriteria(criteria, PkgLicenseState.class);
+            final long count = results.getOtherResults().isEmpty() ? 0 :
+                    ((Number)results.getOtherResults().get(0)).longValue();
+            logger.info(pkgSalesCountRequestOK);
+
+            return ResponseEntity.status(HttpStatus.OK).body(Long.toString(count));
+        } catch(NoSuchFieldException nsfe) {
+            logger.error(pkgLicensesGetFailed + nsfe.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(nsfe.getMessage());
+        }
+    }
+
+    @GetMapping(value = "license-check", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> checkLicense(@RequestParam(value = "buyer")String buyer,
+                                          @RequestParam(value = "pkgInfoId")String pkgInfoId) {
+        return doCheckLicenses(Collections.singletonList(new LicenseLookupWrapper(buyer, pkgInfoId)));
+    }
+
+    @ReadEndpoint
+    @PostMapping(value = "license-check", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> checkLicenses(@RequestBody List<LicenseLookupWrapper> wrappers) {
+        return doCheckLicenses(wrappers);
+    }
+
+    private ResponseEntity<?> doCheckLicenses(List<LicenseLookupWrapper> wrappers) {
+        final List<CheckLicenseFlowUtils.LicenseLookup> lookups = new ArrayList<>(wrappers.size());
+        try {
+            for(LicenseLookupWrapper wrapper : wrappers) {
+                if(wrapper == null || wrapper.getBuyer() == null || wrapper.getPkgInfoId() == null)
+                    throw new IllegalArgumentException(CheckLicenseFlowUtils.nullEntryErr);
+                lookups.add(new CheckLicenseFlowUtils.LicenseLookup(CordaX500Name.parse(wrapper.getBuyer()),
+                        wrapper.getPkgInfoId()));
+            }
+        } catch(IllegalArgumentException iae) {
+            logger.error(licenseCheckFailed + iae.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(iae.getMessage());
+        }
+
+        try {
+            final long start = System.nanoTime();
+            CheckLicenseFlowUtils.LicenseCheckResult result =
+                    proxy.startFlowDynamic(CheckLicenseFlow.class, lookups).getReturnValue().get();
+            final long roundTripNanos = System.nanoTime() - start;
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("licensed", result.getLicensed());
+            body.put("lookupNanos", result.getLookupNanos());
+            body.put("roundTripNanos", roundTripNanos);
+            logger.info(licenseCheckRequestOK);
+
+            return ResponseEntity.status(HttpStatus.OK).body(body);
+        } catch(Exception e) {
+            logger.error(licenseCheckFailed + e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
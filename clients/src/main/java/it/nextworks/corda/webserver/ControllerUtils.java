@@ -12,6 +12,29 @@ public class ControllerUtils {
     public static final String flowsRequestOK             = "Flows retrieve request processed.";
     public static final String meRequestOK                = "Me retrieve request processed.";
     public static final String peersRequestOK             = "Peers retrieve request processed.";
+    public static final String admissionStatsRequestOK    = "Admission control statistics retrieve request processed.";
+
+    public static final String flowSubmitted              = "Flow submitted: ";
+    public static final String trackedFlowFailed          = "Tracked flow failed : ";
+    public static final String pkgCacheTrackingFailed     = "Package cache tracking stopped, falling back to vault queries : ";
+    public static final String pkgCacheResubscribing      = ", subscribing again in ms: ";
+    public static final String pkgCacheFeedCompleted      = "the vault feed completed";
+    public static final String pkgCacheTracking           = "Package cache tracking the vault, packages loaded: ";
+    public static final String flowRunRequestOK          = "Flow run retrieve request processed.";
+    public static final String flowRunGetFailed           = "Flow run retrieve failed : ";
+    public static final String notExistingFlowRun         = "The specified flow run does not exist or has been evicted.";
+    public static final String tooManyTrackedFlows        = "Too many asynchronous flows in progress, retry later.";
+
+    public static final String idempotencyFailed          = "Idempotent request failed : ";
+    public static final String invalidIdempotencyKey      = "The Idempotency-Key header must contain from 1 to 255 " +
+            "characters.";
+    public static final String idempotencyKeyReused       = "The Idempotency-Key has already been used for a " +
+            "different request.";
+    public static final String idempotentReplay           = "Replayed the outcome of a previous request with status ";
+    public static final String idempotentInProgress       = "A request with the same Idempotency-Key is still in " +
+            "progress, retry later.";
+
+    public static final String requestRejected            = "Too many concurrent requests, retry later.";
 
     public static final String feeAgreementEstablished    = "Fee Agreement established with a fee of 10%.";
     public static final String feeAgreementFailed         = "Fee Agreement failed : ";
@@ -22,11 +45,28 @@ public class ControllerUtils {
     public static final String getRequestSucceed          = "GET request to 5g-catalogue retrieve the requested package.";
     public static final String pkgRegistered              = "Registered package: ";
 
+    public static final String bulkRegisterSubmitted      = "Bulk package registration submitted: ";
+    public static final String bulkRegisterFailed         = "Bulk package registration failed : ";
+    public static final String bulkNotArray               = "The request body must be a JSON array of packages.";
+    public static final String bulkMalformed              = "Malformed JSON array, the elements after the last " +
+            "parsed one have been ignored.";
+    public static final String bulkJobRequestOK           = "Bulk package registration job retrieve request processed.";
+    public static final String bulkJobGetFailed           = "Bulk package registration job retrieve failed : ";
+    public static final String notExistingJob             = "The specified bulk registration job does not exist.";
+    public static final String bulkTooManyJobs            = "Too many bulk package registrations in progress, " +
+            "retry later.";
+    public static final String bulkBatchSplit             = "Bulk registration batch rejected, registering again " +
+            "the halves of the batch of size ";
+    public static final String bulkSpoolPrefix            = "bulk-registration-";
+    public static final String bulkSpoolNotDeleted        = "Cannot delete the spooled bulk registration body: ";
+    public static final String bulkBodyTooLarge           = "The request body exceeds the maximum size in bytes of ";
+
     public static final String pkgUpdated                 = "Updated package: ";
     public static final String pkgUpdateFailed            = "Package update failed : ";
     public static final String notExistingPkg             = "The specified package to update does not exist.";
 
     public static final String marketplaceRequestOK       = "Marketplace retrieve request processed.";
+    public static final String marketplacePartial         = "Marketplace partially retrieved, repository nodes timed out: ";
     public static final String pkgsGetFailed              = "Packages retrieve Failed : ";
     public static final String badRequestValue            = "The requested value criteria cannot be processed.";
 
@@ -35,8 +75,16 @@ public class ControllerUtils {
     public static final String negativeAmount             = "The <amount> parameter cannot be negative.";
     public static final String invalidISOCode             = "The <currency> parameter is not a valid ISO 4217 code.";
 
+    public static final String cashSplit                  = "Cash pool split with transaction: ";
+    public static final String cashSplitFailed            = "Cash pool split Failed : ";
+    public static final String cashConsolidated           = "Consolidation transactions recorded: ";
+    public static final String cashConsolidationFailed    = "Cash consolidation Failed : ";
+
     public static final String pkgPurchased               = "Purchased package: ";
     public static final String pkgPurchaseFailed          = "Package purchase Failed : ";
+    public static final String cartPurchased              = "Purchased packages: ";
+    public static final String cartPurchaseFailed         = "Cart purchase Failed : ";
+    public static final String unknownRepository          = "Unknown Repository Node: ";
 
     public static final String pkgDeleted                 = "Deleted package: ";
     public static final String pkgDeleteFailed            = "Package delete Failed : ";
@@ -45,4 +93,9 @@ public class ControllerUtils {
     public static final String feeAgreementStateRequestOK = "Fee Agreement State retrieve request processed.";
     public static final String pkgOfferStateRequestOK     = "Package Offer State retrieve request processed.";
     public static final String pkgLicenseStateRequestOK   = "Package License State retrieve request processed.";
+    public static final String pkgSalesCountRequestOK     = "Package sales count request processed.";
+    public static final String pkgLicensesGetFailed       = "Package License State retrieve Failed : ";
+    public static final String unknownBuyer               = "The <buyer> parameter does not identify a known party.";
+    public static final String licenseCheckRequestOK      = "License check request processed.";
+    public static final String licenseCheckFailed         = "License check Failed : ";
 }
@@ -0,0 +1,96 @@
+package it.nextworks.corda.webserver;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import it.nextworks.corda.webserver.dto.CordaStrings;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+
+import java.io.IOException;
+
+/**
+ * Serializers for the Corda types still reached by the responses that are not mapped to a DTO.
+ * They produce the same JSON of the JacksonSupport ones, using the cached string forms of
+ * CordaStrings. JacksonSupport binds its serializers and deserializers through mix-ins, that take
+ * precedence over the serializers of a module and that would be lost if replaced by other mix-ins:
+ * these serializers are returned by an annotation introspector inserted before the Jackson one, so
+ * that the deserializers of the JacksonSupport mix-ins keep parsing the request bodies.
+ */
+public class CordaTypesModule extends SimpleModule {
+
+    public CordaTypesModule() { super("CordaTypesModule"); }
+
+    /** @return the JacksonSupport mapper of the web server, with this module registered */
+    public static ObjectMapper createMapper() {
+        return JacksonSupport.createNonRpcMapper().registerModule(new CordaTypesModule());
+    }
+
+    @Override
+    public void setupModule(SetupContext context) {
+        super.setupModule(context);
+        context.insertAnnotationIntrospector(new CachedSerializersIntrospector());
+    }
+
+    /* Only the serializer of the three types is overridden, everything else falls to the Jackson introspector */
+    private static class CachedSerializersIntrospector extends NopAnnotationIntrospector {
+
+        @Override
+        public Object findSerializer(Annotated annotated) {
+            if(!(annotated instanceof AnnotatedClass))
+                return null;
+
+            final Class<?> type = annotated.getRawType();
+            if(type == Party.class)
+                return PartySerializer.class;
+            if(type == UniqueIdentifier.class)
+                return UniqueIdentifierSerializer.class;
+            if(type == Amount.class)
+                return AmountSerializer.class;
+
+            return null;
+        }
+    }
+
+    public static class PartySerializer extends StdSerializer<Party> {
+
+        public PartySerializer() { super(Party.class); }
+
+        @Override
+        public void serialize(Party value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeString(CordaStrings.party(value));
+        }
+    }
+
+    public static class UniqueIdentifierSerializer extends StdSerializer<UniqueIdentifier> {
+
+        public UniqueIdentifierSerializer() { super(UniqueIdentifier.class); }
+
+        @Override
+        public void serialize(UniqueIdentifier value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("externalId", value.getExternalId());
+            gen.writeStringField("id", CordaStrings.linearId(value));
+            gen.writeEndObject();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static class AmountSerializer extends StdSerializer<Amount> {
+
+        public AmountSerializer() { super(Amount.class); }
+
+        @Override
+        public void serialize(Amount value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeString(CordaStrings.amount(value));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package it.nextworks.corda.webserver;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of the interaction with the node:
+ * - corda.rpc.calls, timer of every RPC call, tagged by method and outcome;
+ * - corda.flows, timer of every flow from its start to its end, tagged by flow class and outcome;
+ * - corda.flows.in_flight, gauge of the flows started by this server not ended yet, tagged by flow class.
+ * The flow class tag is the name of the flow relative to its package, e.g. BuyPkgFlow.PkgBuyerInitiation.
+ */
+@Component
+public class FlowMetrics {
+
+    private static final String SUCCESS = "success";
+    private static final String ERROR   = "error";
+
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public FlowMetrics(MeterRegistry registry) { this.registry = registry; }
+
+    /** @return a proxy of the specified CordaRPCOps that records the metrics of every call */
+    public CordaRPCOps instrument(CordaRPCOps ops) {
+        return (CordaRPCOps)Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(),
+                new Class<?>[] { CordaRPCOps.class }, new RpcTimingHandler(ops));
+    }
+
+    private final class RpcTimingHandler implements InvocationHandler {
+
+        private final CordaRPCOps target;
+
+        private RpcTimingHandler(CordaRPCOps target) { this.target = target; }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final long start = System.nanoTime();
+            String outcome = SUCCESS;
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch(InvocationTargetException ite) {
+                outcome = ERROR;
+                throw ite.getCause();
+            } finally {
+                Timer.builder("corda.rpc.calls")
+                        .tag("method", method.getName())
+                        .tag("outcome", outcome)
+                        .register(registry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+
+            if(result instanceof FlowHandle && args != null && args.length > 0 && args[0] instanceof Class)
+                trackFlow(flowTag((Class<?>)args[0]), ((FlowHandle<?>)result).getReturnValue());
+
+            return result;
+        }
+    }
+
+    private void trackFlow(String flow, CordaFuture<?> returnValue) {
+        final AtomicInteger gauge = inFlight.computeIfAbsent(flow, tag -> {
+            AtomicInteger value = new AtomicInteger();
+            Gauge.builder("corda.flows.in_flight", value, AtomicInteger::get)
+                    .tag("flow", tag)
+                    .register(registry);
+            return value;
+        });
+        gauge.incrementAndGet();
+
+        final long start = System.nanoTime();
+        returnValue.then(f -> {
+            String outcome = SUCCESS;
+            try {
+                f.get();
+            } catch(Exception e) {
+                outcome = ERROR;
+            }
+            gauge.decrementAndGet();
+            Timer.builder("corda.flows")
+                    .tag("flow", flow)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return null;
+        });
+    }
+
+    /* it.nextworks.corda.flows.BuyPkgFlow$PkgBuyerInitiation -> BuyPkgFlow.PkgBuyerInitiation */
+    private static String flowTag(Class<?> flowClass) {
+        String name = flowClass.getName();
+        Package pkg = flowClass.getPackage();
+        if(pkg != null)
+            name = name.substring(pkg.getName().length() + 1);
+
+        return name.replace('$', '.');
+    }
+}
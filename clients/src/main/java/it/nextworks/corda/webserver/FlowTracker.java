@@ -0,0 +1,167 @@
+package it.nextworks.corda.webserver;
+
+import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static it.nextworks.corda.webserver.ControllerUtils.tooManyTrackedFlows;
+import static it.nextworks.corda.webserver.ControllerUtils.trackedFlowFailed;
+
+/**
+ * Registry of the flows started through the asynchronous endpoints. For every flow it keeps the
+ * current ProgressTracker step and, once the flow ends, its outcome. Only the most recent runs are
+ * retained: when the limit is reached the oldest finished run is evicted, a run in progress is never
+ * evicted and, if all the retained runs are in progress, the new flow is not started at all.
+ */
+@Component
+public class FlowTracker {
+
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    /** Status of a single flow run as exposed by the /flows/{id} resource */
+    public static class FlowRun {
+
+        private final UUID flowId;
+        private final String flowName;
+        private final Instant started;
+        private volatile String currentStep;
+        private volatile Status status = Status.RUNNING;
+        private volatile String result;
+        private volatile String txHash;
+        private volatile String error;
+        private volatile Instant finished;
+
+        private FlowRun(UUID flowId, String flowName) {
+            this.flowId   = flowId;
+            this.flowName = flowName;
+            this.started  = Instant.now();
+        }
+
+        /* Getters */
+
+        public UUID getFlowId() { return flowId; }
+
+        public String getFlowName() { return flowName; }
+
+        public String getStarted() { return started.toString(); }
+
+        public String getCurrentStep() { return currentStep; }
+
+        public Status getStatus() { return status; }
+
+        public String getResult() { return result; }
+
+        public String getTxHash() { return txHash; }
+
+        public String getError() { return error; }
+
+        public String getFinished() { return finished == null ? null : finished.toString(); }
+
+        private boolean isFinished() { return status != Status.RUNNING; }
+    }
+
+    private final int maxRuns;
+    private final long retryAfterSeconds;
+    private final LinkedHashMap<UUID, FlowRun> runs = new LinkedHashMap<>();
+    /* Slots taken by the flows being started, under the lock of runs */
+    private int reserved = 0;
+
+    private final static Logger logger = LoggerFactory.getLogger(FlowTracker.class);
+
+    public FlowTracker(@Value("${config.flows.max-tracked:1024}") int maxRuns,
+                       @Value("${config.flows.retry-after-seconds:1}") long retryAfterSeconds) {
+        if(maxRuns <= 0)
+            throw new IllegalArgumentException("The <maxRuns> parameter must be positive.");
+
+        this.maxRuns           = maxRuns;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Start a flow with startTrackedFlowDynamic and track it; the handle is closed once the flow ends
+     * @param flowName      name of the flow, exposed to the clients
+     * @param start         starts the flow through RPC, called only if the run can be retained
+     * @param resultMessage maps the transaction returned by the flow to the message reported as result
+     * @return the run registered for the flow
+     * @throws RejectedExecutionException if config.flows.max-tracked runs are still in progress
+     */
+    public FlowRun track(String flowName, Supplier<FlowProgressHandle<SignedTransaction>> start,
+                         Function<SignedTransaction, String> resultMessage) {
+        reserve();
+        final FlowProgressHandle<SignedTransaction> handle;
+        try {
+            handle = start.get();
+        } catch(RuntimeException re) {
+            synchronized(runs) {
+                reserved--;
+            }
+            throw re;
+        }
+
+        final FlowRun run = new FlowRun(handle.getId().getUuid(), flowName);
+        synchronized(runs) {
+            reserved--;
+            runs.put(run.getFlowId(), run);
+        }
+
+        handle.getProgress().subscribe(step -> run.currentStep = step, err -> { });
+        handle.getReturnValue().then(f -> {
+            try {
+                SignedTransaction stx = f.get();
+                run.result = resultMessage.apply(stx);
+                run.txHash = stx.getId().toString();
+                run.status = Status.COMPLETED;
+            } catch(Exception e) {
+                logger.error(trackedFlowFailed + run.getFlowName() + " " + run.getFlowId() + " " + e.getMessage());
+                run.error  = e.getMessage();
+                run.status = Status.FAILED;
+            } finally {
+                run.finished = Instant.now();
+                handle.close();
+            }
+            return null;
+        });
+
+        return run;
+    }
+
+    /** @return the run with the specified id, null if it is unknown or it has been evicted */
+    public FlowRun get(UUID flowId) {
+        synchronized(runs) {
+            return runs.get(flowId);
+        }
+    }
+
+    /** @return the seconds a client should wait before submitting again a flow rejected by track() */
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+
+    /* Evict the oldest finished runs to make room for a new one, the ones in progress are never evicted */
+    private void reserve() {
+        synchronized(runs) {
+            Iterator<FlowRun> it = runs.values().iterator();
+            while(runs.size() + reserved >= maxRuns && it.hasNext()) {
+                if(it.next().isFinished())
+                    it.remove();
+            }
+            if(runs.size() + reserved >= maxRuns)
+                throw new RejectedExecutionException(tooManyTrackedFlows);
+
+            reserved++;
+        }
+    }
+}
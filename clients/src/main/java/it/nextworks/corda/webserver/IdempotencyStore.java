@@ -0,0 +1,178 @@
+package it.nextworks.corda.webserver;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static it.nextworks.corda.webserver.ControllerUtils.*;
+
+/**
+ * Dedupe store for the requests carrying an Idempotency-Key header.
+ * The first request with a given key runs the operation, every retry with the same key (and the
+ * same body) gets the outcome of the first one, so a client can safely retry a request whose response
+ * has been lost without starting a second flow. A retry waits for the first request for at most
+ * config.idempotency.replay-wait-ms, then it is answered with 409 and a Retry-After header, so that
+ * it does not hold its admission permit for the whole duration of the first one.
+ * Keys are scoped by the logical operation, not by the endpoint: a purchase retried on the asynchronous
+ * endpoint after a lost response of the synchronous one (or vice versa) gets the first outcome.
+ * Outcomes of server errors are not retained, as the operation did not take place.
+ */
+@Component
+public class IdempotencyStore {
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER        = "Idempotent-Replayed";
+
+    /* Scopes of the keys: the synchronous and the asynchronous endpoint of an operation share the same one */
+    public static final String REGISTER_PKG_SCOPE     = "register-pkg";
+    public static final String BUY_PKG_SCOPE          = "buy-pkg";
+    public static final String BUY_PKGS_SCOPE         = "buy-pkgs";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private static final class Entry {
+
+        private final String fingerprint;
+        private final long createdAt;
+        private final CompletableFuture<ResponseEntity<?>> outcome = new CompletableFuture<>();
+
+        private Entry(String fingerprint) {
+            this.fingerprint = fingerprint;
+            this.createdAt   = System.currentTimeMillis();
+        }
+    }
+
+    private final ObjectMapper mapper;
+    private final int maxKeys;
+    private final long ttlMillis;
+    private final long replayWaitMillis;
+    private final long retryAfterSeconds;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    private final static Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    public IdempotencyStore(ObjectMapper mapper,
+                            @Value("${config.idempotency.max-keys:10000}") int maxKeys,
+                            @Value("${config.idempotency.ttl-seconds:86400}") long ttlSeconds,
+                            @Value("${config.idempotency.replay-wait-ms:2000}") long replayWaitMillis,
+                            @Value("${config.idempotency.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.mapper            = mapper;
+        this.maxKeys           = maxKeys;
+        this.ttlMillis         = ttlSeconds * 1000;
+        this.replayWaitMillis  = replayWaitMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Run the operation at most once for the specified key
+     * @param scope   the logical operation the key refers to, keys of different operations never collide
+     * @param key     the value of the Idempotency-Key header, if null the operation is simply run
+     * @param request the request body, used to detect a key reused for a different request
+     * @param action  the operation to run
+     * @return the outcome of the operation, or the one of the first request with the same key
+     */
+    public ResponseEntity<?> execute(String scope, String key, Object request, Supplier<ResponseEntity<?>> action) {
+        if(key == null)
+            return action.get();
+
+        if(key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            logger.error(idempotencyFailed + invalidIdempotencyKey);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(invalidIdempotencyKey);
+        }
+
+        final String storeKey = scope + ":" + key;
+        final Entry entry = new Entry(fingerprint(request));
+        final Entry existing;
+        synchronized(entries) {
+            evict();
+            existing = entries.putIfAbsent(storeKey, entry);
+        }
+
+        if(existing != null)
+            return replay(existing, entry.fingerprint);
+
+        ResponseEntity<?> response;
+        try {
+            response = action.get();
+        } catch(RuntimeException re) {
+            forget(storeKey, entry);
+            entry.outcome.completeExceptionally(re);
+            throw re;
+        }
+
+        /* A server error means that the operation can be retried, do not retain it */
+        if(response.getStatusCode().is5xxServerError())
+            forget(storeKey, entry);
+        entry.outcome.complete(response);
+
+        return response;
+    }
+
+    private ResponseEntity<?> replay(Entry existing, String fingerprint) {
+        if(!existing.fingerprint.equals(fingerprint)) {
+            logger.error(idempotencyFailed + idempotencyKeyReused);
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(idempotencyKeyReused);
+        }
+
+        try {
+            ResponseEntity<?> original = existing.outcome.get(replayWaitMillis, TimeUnit.MILLISECONDS);
+            logger.info(idempotentReplay + original.getStatusCode());
+
+            return ResponseEntity.status(original.getStatusCode()).headers(original.getHeaders())
+                    .header(REPLAYED_HEADER, "true").body(original.getBody());
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorWhileProcessingRq);
+        } catch(ExecutionException ee) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorWhileProcessingRq);
+        } catch(TimeoutException te) {
+            logger.warn(idempotencyFailed + idempotentInProgress);
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds)).body(idempotentInProgress);
+        }
+    }
+
+    private void forget(String storeKey, Entry entry) {
+        synchronized(entries) {
+            entries.remove(storeKey, entry);
+        }
+    }
+
+    /* Called holding the lock: drop the expired entries and the oldest completed ones above the limit */
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        Iterator<Entry> it = entries.values().iterator();
+        while(it.hasNext()) {
+            Entry e = it.next();
+            if(now - e.createdAt <= ttlMillis && entries.size() < maxKeys)
+                break;
+            if(e.outcome.isDone())
+                it.remove();
+        }
+    }
+
+    private String fingerprint(Object request) {
+        try {
+            return Hashing.sha256().hashString(mapper.writeValueAsString(request), StandardCharsets.UTF_8).toString();
+        } catch(JsonProcessingException jpe) {
+            /* The body cannot be compared, rely on the key only */
+            return "";
+        }
+    }
+}
@@ -30,15 +30,20 @@ public class NodeRPCConnection implements AutoCloseable {
     @Value("${config.rpc.port}")
     private int rpcPort;
 
+    private final FlowMetrics flowMetrics;
+
     private CordaRPCConnection rpcConnection;
     private CordaRPCOps proxy;
 
+    public NodeRPCConnection(FlowMetrics flowMetrics) { this.flowMetrics = flowMetrics; }
+
     @PostConstruct
     public void initialiseNodeRPCConnection() {
         NetworkHostAndPort rpcAddress = new NetworkHostAndPort(host, rpcPort);
         CordaRPCClient rpcClient = new CordaRPCClient(rpcAddress);
         rpcConnection = rpcClient.start(username, password);
-        proxy = rpcConnection.getProxy();
+        /* Every call made through the proxy is timed, see FlowMetrics */
+        proxy = flowMetrics.instrument(rpcConnection.getProxy());
     }
 
     public CordaRPCOps getProxy() { return proxy; }
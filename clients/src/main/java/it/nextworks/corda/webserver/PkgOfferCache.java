@@ -0,0 +1,168 @@
+package it.nextworks.corda.webserver;
+
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import rx.Subscription;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static it.nextworks.corda.webserver.ControllerUtils.*;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+
+/**
+ * Client side copy of the unconsumed packages of the node, keyed by linearId and kept current
+ * through an RPC vault feed. A package missing from the copy is queried through RPC and the
+ * result is not cached, so the copy never holds a consumed state. If the feed fails or completes
+ * the copy is dropped and every lookup goes to the vault, while the feed is subscribed again with
+ * an exponential backoff; the copy is used again once a new snapshot has been loaded.
+ */
+@Component
+public class PkgOfferCache {
+
+    private final CordaRPCOps proxy;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ConcurrentHashMap<UniqueIdentifier, StateAndRef<PkgOfferState>> pkgs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService resubscriber = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, PkgOfferCache.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean tracking = false;
+    /* Accessed only by the resubscriber thread and by the callbacks of the feed, under the lock of the cache */
+    private int generation = 0;
+    private long backoffMillis;
+    private Subscription subscription;
+
+    private final static Logger logger = LoggerFactory.getLogger(PkgOfferCache.class);
+
+    @Autowired
+    public PkgOfferCache(NodeRPCConnection rpc,
+                         @Value("${config.pkg-cache.min-backoff-ms:1000}") long minBackoffMillis,
+                         @Value("${config.pkg-cache.max-backoff-ms:60000}") long maxBackoffMillis) {
+        this(minBackoffMillis, maxBackoffMillis, rpc.getProxy());
+    }
+
+    PkgOfferCache(long minBackoffMillis, long maxBackoffMillis, CordaRPCOps proxy) {
+        this.proxy            = proxy;
+        this.minBackoffMillis = Math.max(1, minBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.minBackoffMillis, maxBackoffMillis);
+        this.backoffMillis    = this.minBackoffMillis;
+    }
+
+    @PostConstruct
+    public void startTracking() { resubscriber.execute(this::subscribe); }
+
+    @PreDestroy
+    public void stopTracking() {
+        resubscriber.shutdownNow();
+        synchronized(this) {
+            generation++;
+            if(subscription != null)
+                subscription.unsubscribe();
+        }
+    }
+
+    /* Load a new snapshot and follow its updates, the callbacks of a previous feed are ignored from now on */
+    private synchronized void subscribe() {
+        final int current = ++generation;
+        if(subscription != null)
+            subscription.unsubscribe();
+
+        final DataFeed<Vault.Page<PkgOfferState>, Vault.Update<PkgOfferState>> feed;
+        try {
+            feed = proxy.vaultTrackByWithPagingSpec(PkgOfferState.class,
+                    new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                    new PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE));
+        } catch(Exception e) {
+            stopped(current, e.getMessage());
+            return;
+        }
+
+        pkgs.clear();
+        feed.getSnapshot().getStates().forEach(this::index);
+        tracking = true;
+        subscription = feed.getUpdates().subscribe(update -> updated(current, update),
+                err -> stopped(current, err.getMessage()),
+                () -> stopped(current, pkgCacheFeedCompleted));
+
+        /* The feed can stop while subscribing, keep backing off in that case */
+        if(tracking) {
+            backoffMillis = minBackoffMillis;
+            logger.info(pkgCacheTracking + pkgs.size());
+        }
+    }
+
+    private synchronized void updated(int feedGeneration, Vault.Update<PkgOfferState> update) {
+        if(feedGeneration != generation)
+            return;
+
+        update.getConsumed().forEach(pkg -> pkgs.remove(pkg.getState().getData().getLinearId(), pkg));
+        update.getProduced().forEach(this::index);
+    }
+
+    /* Drop the copy and subscribe again after the backoff, that doubles at every failed attempt */
+    private synchronized void stopped(int feedGeneration, String reason) {
+        if(feedGeneration != generation)
+            return;
+
+        logger.error(pkgCacheTrackingFailed + reason + pkgCacheResubscribing + backoffMillis);
+        tracking = false;
+        pkgs.clear();
+        try {
+            resubscriber.schedule(this::subscribe, backoffMillis, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException ree) {
+            /* The cache has been stopped */
+            return;
+        }
+        backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+    }
+
+    private void index(StateAndRef<PkgOfferState> pkg) {
+        pkgs.put(pkg.getState().getData().getLinearId(), pkg);
+    }
+
+    /** @return true if the lookups are served by the copy, false if they go to the vault */
+    public boolean isTracking() { return tracking; }
+
+    /**
+     * Retrieve the unconsumed package with the specified linearId
+     * @param linearId the linearId of the package
+     * @return the latest state of the package, null if it does not exist or it has been deleted
+     */
+    public StateAndRef<PkgOfferState> get(UniqueIdentifier linearId) {
+        if(tracking) {
+            final StateAndRef<PkgOfferState> pkg = pkgs.get(linearId);
+            if(pkg != null)
+                return pkg;
+        }
+
+        QueryCriteria.LinearStateQueryCriteria queryCriteria =
+                new QueryCriteria.LinearStateQueryCriteria(null, Collections.singletonList(linearId.getId()),
+                        null, Vault.StateStatus.UNCONSUMED);
+        List<StateAndRef<PkgOfferState>> lst = proxy.vaultQueryByCriteria(queryCriteria, PkgOfferState.class).getStates();
+
+        return lst.isEmpty() ? null : lst.get(0);
+    }
+}
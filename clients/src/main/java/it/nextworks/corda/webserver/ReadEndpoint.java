@@ -0,0 +1,18 @@
+package it.nextworks.corda.webserver;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an endpoint of the Controller that only reads the ledger although it is not mapped to GET,
+ * e.g. a lookup whose parameters are sent in the request body; AdmissionControl admits it through the
+ * read bulkhead.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadEndpoint {
+}
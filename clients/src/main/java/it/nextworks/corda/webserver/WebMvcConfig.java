@@ -0,0 +1,24 @@
+package it.nextworks.corda.webserver;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final AdmissionControl admissionControl;
+
+    public WebMvcConfig(AdmissionControl admissionControl) { this.admissionControl = admissionControl; }
+
+    /**
+     * Register the admission control in front of every endpoint, except the ones used
+     * to monitor the server that must stay reachable while the node is overloaded.
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(admissionControl)
+                .addPathPatterns("/**")
+                .excludePathPatterns("/status", "/admission-stats");
+    }
+}
@@ -0,0 +1,77 @@
+package it.nextworks.corda.webserver.dto;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.CryptoUtils;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
+
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * Bounded caches of the string forms of the Corda types that are rendered in every response.
+ * Parties and identifiers repeat across responses (the same author in every offer of the marketplace),
+ * so their X500 name or UUID is rendered only the first time it is seen.
+ */
+public final class CordaStrings {
+
+    private static final Cache<CordaX500Name, String> names = CacheBuilder.newBuilder()
+            .maximumSize(4096).build();
+    private static final Cache<UUID, String> uuids = CacheBuilder.newBuilder()
+            .maximumSize(65536).build();
+
+    private CordaStrings() { }
+
+    /** @return the X500 name of the party, or the short form of its key if the party is anonymous */
+    public static String party(AbstractParty party) {
+        if(party == null)
+            return null;
+
+        CordaX500Name name = party.nameOrNull();
+        if(name == null)
+            return CryptoUtils.toStringShort(party.getOwningKey());
+
+        return name(name);
+    }
+
+    public static String name(CordaX500Name name) {
+        String str = names.getIfPresent(name);
+        if(str == null) {
+            str = name.toString();
+            names.put(name, str);
+        }
+
+        return str;
+    }
+
+    public static String uuid(UUID uuid) {
+        if(uuid == null)
+            return null;
+
+        String str = uuids.getIfPresent(uuid);
+        if(str == null) {
+            str = uuid.toString();
+            uuids.put(uuid, str);
+        }
+
+        return str;
+    }
+
+    public static String linearId(UniqueIdentifier linearId) {
+        return linearId == null ? null : uuid(linearId.getId());
+    }
+
+    /** @return the same representation of Amount.toString(), e.g. "10.00 EUR" */
+    public static String amount(Amount<?> amount) {
+        if(amount == null)
+            return null;
+
+        if(amount.getToken() instanceof Currency)
+            return amount.toDecimal().toPlainString() + " " + ((Currency)amount.getToken()).getCurrencyCode();
+
+        return amount.toString();
+    }
+}
@@ -0,0 +1,33 @@
+package it.nextworks.corda.webserver.dto;
+
+import it.nextworks.corda.states.FeeAgreementState;
+
+import java.util.List;
+
+/** Response representation of a FeeAgreementState */
+public class FeeAgreementDto {
+
+    private final int fee;
+    private final String developer;
+    private final String repositoryNode;
+    private final List<String> participants;
+
+    private FeeAgreementDto(FeeAgreementState state) {
+        this.fee            = state.getFee();
+        this.developer      = CordaStrings.party(state.getDeveloper());
+        this.repositoryNode = CordaStrings.party(state.getRepositoryNode());
+        this.participants   = PkgOfferDto.participants(state.getParticipants());
+    }
+
+    public static FeeAgreementDto from(FeeAgreementState state) { return new FeeAgreementDto(state); }
+
+    /* Getters */
+
+    public int getFee() { return fee; }
+
+    public String getDeveloper() { return developer; }
+
+    public String getRepositoryNode() { return repositoryNode; }
+
+    public List<String> getParticipants() { return participants; }
+}
@@ -0,0 +1,28 @@
+package it.nextworks.corda.webserver.dto;
+
+import net.corda.core.contracts.UniqueIdentifier;
+
+/** Response representation of a UniqueIdentifier, with the same fields of the Corda type */
+public class LinearIdDto {
+
+    private final String externalId;
+    private final String id;
+
+    private LinearIdDto(String externalId, String id) {
+        this.externalId = externalId;
+        this.id         = id;
+    }
+
+    public static LinearIdDto from(UniqueIdentifier linearId) {
+        if(linearId == null)
+            return null;
+
+        return new LinearIdDto(linearId.getExternalId(), CordaStrings.linearId(linearId));
+    }
+
+    /* Getters */
+
+    public String getExternalId() { return externalId; }
+
+    public String getId() { return id; }
+}
@@ -0,0 +1,90 @@
+package it.nextworks.corda.webserver.dto;
+
+import it.nextworks.corda.states.PkgLicenseState;
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.StateRef;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Response representation of a PkgLicenseState: the reference to the licensed offer
+ * (ref.txhash) and the snapshot of the offer taken at purchase time.
+ */
+public class PkgLicenseDto {
+
+    public static class Ref {
+
+        private final String txhash;
+        private final int index;
+
+        private Ref(StateRef stateRef) {
+            this.txhash = stateRef.getTxhash().toString();
+            this.index  = stateRef.getIndex();
+        }
+
+        public String getTxhash() { return txhash; }
+
+        public int getIndex() { return index; }
+    }
+
+    private final Ref pkgRef;
+    private final LinearIdDto pkgId;
+    private final String pkgInfoId;
+    private final PkgOfferState.PkgType pkgType;
+    private final String author;
+    private final String repositoryNode;
+    private final String price;
+    private final int seats;
+    private final String buyer;
+    private final String purchaseTime;
+    private final List<String> participants;
+
+    private PkgLicenseDto(PkgLicenseState state) {
+        this.pkgRef         = new Ref(state.getPkgRef());
+        this.pkgId          = LinearIdDto.from(state.getPkgId());
+        this.pkgInfoId      = state.getPkgInfoId();
+        this.pkgType        = state.getPkgType();
+        this.author         = CordaStrings.party(state.getAuthor());
+        this.repositoryNode = CordaStrings.party(state.getRepositoryNode());
+        this.price          = CordaStrings.amount(state.getPrice());
+        this.seats          = state.getSeats();
+        this.buyer          = CordaStrings.party(state.getBuyer());
+        this.purchaseTime   = state.getPurchaseTime().toString();
+        this.participants   = PkgOfferDto.participants(state.getParticipants());
+    }
+
+    public static PkgLicenseDto from(PkgLicenseState state) { return new PkgLicenseDto(state); }
+
+    public static List<PkgLicenseDto> from(List<PkgLicenseState> states) {
+        List<PkgLicenseDto> dtoList = new ArrayList<>(states.size());
+        for(PkgLicenseState state : states)
+            dtoList.add(new PkgLicenseDto(state));
+
+        return dtoList;
+    }
+
+    /* Getters */
+
+    public Ref getPkgRef() { return pkgRef; }
+
+    public LinearIdDto getPkgId() { return pkgId; }
+
+    public String getPkgInfoId() { return pkgInfoId; }
+
+    public PkgOfferState.PkgType getPkgType() { return pkgType; }
+
+    public String getAuthor() { return author; }
+
+    public String getRepositoryNode() { return repositoryNode; }
+
+    public String getPrice() { return price; }
+
+    public int getSeats() { return seats; }
+
+    public String getBuyer() { return buyer; }
+
+    public String getPurchaseTime() { return purchaseTime; }
+
+    public List<String> getParticipants() { return participants; }
+}
@@ -0,0 +1,88 @@
+package it.nextworks.corda.webserver.dto;
+
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.identity.AbstractParty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Response representation of a PkgOfferState. It exposes the same fields rendered by the
+ * JacksonSupport mapper for the state, with parties, identifiers and amounts already converted
+ * to their string form, so that encoding a marketplace page only writes plain strings.
+ */
+public class PkgOfferDto {
+
+    private final LinearIdDto linearId;
+    private final String name;
+    private final String description;
+    private final String version;
+    private final String pkgInfoId;
+    private final String imageLink;
+    private final PkgOfferState.PkgType pkgType;
+    private final ProductOfferingPrice poPrice;
+    private final String author;
+    private final String repositoryNode;
+    private final String price;
+    private final List<String> participants;
+
+    private PkgOfferDto(PkgOfferState state) {
+        this.linearId       = LinearIdDto.from(state.getLinearId());
+        this.name           = state.getName();
+        this.description    = state.getDescription();
+        this.version        = state.getVersion();
+        this.pkgInfoId      = state.getPkgInfoId();
+        this.imageLink      = state.getImageLink();
+        this.pkgType        = state.getPkgType();
+        this.poPrice        = state.getPoPrice();
+        this.author         = CordaStrings.party(state.getAuthor());
+        this.repositoryNode = CordaStrings.party(state.getRepositoryNode());
+        this.price          = CordaStrings.amount(state.getPrice());
+        this.participants   = participants(state.getParticipants());
+    }
+
+    public static PkgOfferDto from(PkgOfferState state) { return new PkgOfferDto(state); }
+
+    public static List<PkgOfferDto> from(List<PkgOfferState> states) {
+        List<PkgOfferDto> dtoList = new ArrayList<>(states.size());
+        for(PkgOfferState state : states)
+            dtoList.add(new PkgOfferDto(state));
+
+        return dtoList;
+    }
+
+    static List<String> participants(List<AbstractParty> participants) {
+        List<String> lst = new ArrayList<>(participants.size());
+        for(AbstractParty party : participants)
+            lst.add(CordaStrings.party(party));
+
+        return lst;
+    }
+
+    /* Getters */
+
+    public LinearIdDto getLinearId() { return linearId; }
+
+    public String getName() { return name; }
+
+    public String getDescription() { return description; }
+
+    public String getVersion() { return version; }
+
+    public String getPkgInfoId() { return pkgInfoId; }
+
+    public String getImageLink() { return imageLink; }
+
+    public PkgOfferState.PkgType getPkgType() { return pkgType; }
+
+    public ProductOfferingPrice getPoPrice() { return poPrice; }
+
+    public String getAuthor() { return author; }
+
+    public String getRepositoryNode() { return repositoryNode; }
+
+    public String getPrice() { return price; }
+
+    public List<String> getParticipants() { return participants; }
+}
@@ -0,0 +1,33 @@
+package it.nextworks.corda.webserver.dto;
+
+import it.nextworks.corda.flows.GetShardedPkgsFlowUtils.ShardedPkgs;
+import net.corda.core.identity.CordaX500Name;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Response representation of the catalogue merged from all the repository nodes */
+public class ShardedPkgsDto {
+
+    private final List<PkgOfferDto> pkgs;
+    private final List<String> timedOutShards;
+    private final boolean partial;
+
+    private ShardedPkgsDto(ShardedPkgs shardedPkgs) {
+        this.pkgs           = PkgOfferDto.from(shardedPkgs.getPkgsList());
+        this.timedOutShards = new ArrayList<>(shardedPkgs.getTimedOutShards().size());
+        for(CordaX500Name name : shardedPkgs.getTimedOutShards())
+            this.timedOutShards.add(name.toString());
+        this.partial        = shardedPkgs.isPartial();
+    }
+
+    public static ShardedPkgsDto from(ShardedPkgs shardedPkgs) { return new ShardedPkgsDto(shardedPkgs); }
+
+    /* Getters */
+
+    public List<PkgOfferDto> getPkgs() { return pkgs; }
+
+    public List<String> getTimedOutShards() { return timedOutShards; }
+
+    public boolean isPartial() { return partial; }
+}
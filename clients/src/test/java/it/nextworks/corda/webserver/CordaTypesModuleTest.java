@@ -0,0 +1,77 @@
+package it.nextworks.corda.webserver;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+import org.junit.Test;
+
+import java.util.Currency;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CordaTypesModuleTest {
+
+    private static final TestIdentity authorTest =
+            new TestIdentity(CordaX500Name.parse("O=DevTest,L=Pisa,C=IT"));
+    private static final MockServices services = new MockServices(ImmutableList.of(), authorTest);
+
+    /* The web server mapper, able to resolve the parties of the request bodies */
+    private final ObjectMapper mapper = JacksonSupport.createInMemoryMapper(services.getIdentityService())
+            .registerModule(new CordaTypesModule());
+    private final ObjectMapper jacksonSupportMapper =
+            JacksonSupport.createInMemoryMapper(services.getIdentityService());
+
+    private final JavaType amountType = mapper.getTypeFactory().constructParametricType(Amount.class, Currency.class);
+
+    @Test
+    public void responsesMatchTheJacksonSupportOnes() throws Exception {
+        final Party author = authorTest.getParty();
+        final UniqueIdentifier linearId = new UniqueIdentifier("externalId");
+        final Amount<Currency> amount = Amount.parseCurrency("10.50 EUR");
+
+        assertEquals(jacksonSupportMapper.readTree(jacksonSupportMapper.writeValueAsString(author)),
+                mapper.readTree(mapper.writeValueAsString(author)));
+        assertEquals(jacksonSupportMapper.readTree(jacksonSupportMapper.writeValueAsString(linearId)),
+                mapper.readTree(mapper.writeValueAsString(linearId)));
+        assertEquals(jacksonSupportMapper.readTree(jacksonSupportMapper.writeValueAsString(amount)),
+                mapper.readTree(mapper.writeValueAsString(amount)));
+    }
+
+    @Test
+    public void requestBodiesRoundTrip() throws Exception {
+        final Party author = authorTest.getParty();
+        assertEquals(author, mapper.readValue(mapper.writeValueAsString(author), Party.class));
+
+        final UniqueIdentifier linearId = new UniqueIdentifier("externalId");
+        final UniqueIdentifier readLinearId =
+                mapper.readValue(mapper.writeValueAsString(linearId), UniqueIdentifier.class);
+        assertEquals(linearId, readLinearId);
+        assertEquals(linearId.getExternalId(), readLinearId.getExternalId());
+
+        final List<UniqueIdentifier> linearIds = ImmutableList.of(new UniqueIdentifier(), new UniqueIdentifier());
+        assertEquals(linearIds, mapper.readValue(mapper.writeValueAsString(linearIds),
+                new TypeReference<List<UniqueIdentifier>>() { }));
+
+        final Amount<Currency> amount = Amount.parseCurrency("10.50 EUR");
+        assertEquals(amount, mapper.readValue(mapper.writeValueAsString(amount), amountType));
+    }
+
+    @Test
+    public void jacksonSupportDeserializersAreKept() throws Exception {
+        final String author = "\"" + authorTest.getName() + "\"";
+        assertEquals(jacksonSupportMapper.readValue(author, Party.class), mapper.readValue(author, Party.class));
+
+        final String amount = "\"10.50 EUR\"";
+        final Amount<Currency> expected = jacksonSupportMapper.readValue(amount, amountType);
+        assertEquals(expected, mapper.readValue(amount, amountType));
+    }
+}
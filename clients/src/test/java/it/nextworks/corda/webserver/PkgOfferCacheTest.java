@@ -0,0 +1,191 @@
+package it.nextworks.corda.webserver;
+
+import com.google.common.collect.ImmutableSet;
+import it.nextworks.corda.contracts.PkgOfferContract;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.flows.TopologyServiceUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.testing.core.TestIdentity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rx.subjects.PublishSubject;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PkgOfferCacheTest {
+
+    private static final Party devTest =
+            new TestIdentity(CordaX500Name.parse(PkgOfferUtils.devX500Name)).getParty();
+    private static final Party repositoryNodeTest =
+            new TestIdentity(CordaX500Name.parse(PkgOfferUtils.repositoryX500Name)).getParty();
+    private static final Party notaryTest =
+            new TestIdentity(CordaX500Name.parse(TopologyServiceUtils.defaultNotaryName)).getParty();
+
+    /* The vault of the fake node, every subscription to the feed gets a new PublishSubject */
+    private final Map<UniqueIdentifier, StateAndRef<PkgOfferState>> vault = new ConcurrentHashMap<>();
+    private final List<PublishSubject<Vault.Update<PkgOfferState>>> feeds = new ArrayList<>();
+    private final AtomicInteger vaultQueries = new AtomicInteger();
+
+    private PkgOfferCache pkgOfferCache;
+
+    @Before
+    public void setup() {
+        pkgOfferCache = new PkgOfferCache(200, 400, fakeProxy());
+        pkgOfferCache.startTracking();
+    }
+
+    @After
+    public void tearDown() {
+        pkgOfferCache.stopTracking();
+    }
+
+    /* A CordaRPCOps answering only the two calls of the cache, from the fake vault */
+    @SuppressWarnings("unchecked")
+    private CordaRPCOps fakeProxy() {
+        return (CordaRPCOps)Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(),
+                new Class<?>[] { CordaRPCOps.class }, (proxy, method, args) -> {
+            switch(method.getName()) {
+                case "vaultTrackByWithPagingSpec":
+                    synchronized(feeds) {
+                        PublishSubject<Vault.Update<PkgOfferState>> updates = PublishSubject.create();
+                        feeds.add(updates);
+                        return new DataFeed<>(page(new ArrayList<>(vault.values())), updates);
+                    }
+                case "vaultQueryByCriteria":
+                    vaultQueries.incrementAndGet();
+                    List<StateAndRef<PkgOfferState>> found = new ArrayList<>();
+                    for(UUID uuid : ((QueryCriteria.LinearStateQueryCriteria)args[0]).getUuid()) {
+                        StateAndRef<PkgOfferState> pkg = vault.get(new UniqueIdentifier(null, uuid));
+                        if(pkg != null)
+                            found.add(pkg);
+                    }
+                    return page(found);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Vault.Page<PkgOfferState> page(List<StateAndRef<PkgOfferState>> states) {
+        return new Vault.Page<>(states, Collections.emptyList(), states.size(), Vault.StateStatus.UNCONSUMED,
+                Collections.emptyList());
+    }
+
+    private static StateAndRef<PkgOfferState> generatePkgOfferState() {
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength,
+                PkgOfferUtils.testRecChargePeriodType, PkgOfferUtils.testVersion, PkgOfferUtils.testPrice,
+                PkgOfferUtils.testQuantity, PkgOfferUtils.testValidFor);
+        PkgOfferState pkgOfferState = new PkgOfferState(new UniqueIdentifier(), PkgOfferUtils.testName,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId,
+                PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice, devTest, repositoryNodeTest);
+
+        return new StateAndRef<>(new TransactionState<>(pkgOfferState, PkgOfferContract.ID, notaryTest),
+                new StateRef(SecureHash.randomSHA256(), 0));
+    }
+
+    private PublishSubject<Vault.Update<PkgOfferState>> lastFeed() {
+        synchronized(feeds) {
+            return feeds.get(feeds.size() - 1);
+        }
+    }
+
+    private int subscriptions() {
+        synchronized(feeds) {
+            return feeds.size();
+        }
+    }
+
+    /* The cache subscribes from a thread of its own, after a backoff of 200 ms once the feed stops */
+    private void awaitTracking(int expectedSubscriptions) throws InterruptedException {
+        for(int i = 0; i < 100 && !(pkgOfferCache.isTracking() && subscriptions() >= expectedSubscriptions); i++)
+            Thread.sleep(10);
+        assert pkgOfferCache.isTracking();
+        assertEquals(expectedSubscriptions, subscriptions());
+    }
+
+    @Test
+    public void pkgsAreServedFromTheFeed() throws Exception {
+        StateAndRef<PkgOfferState> registered = generatePkgOfferState();
+        vault.put(registered.getState().getData().getLinearId(), registered);
+        awaitTracking(1);
+
+        /* In the snapshot */
+        assertEquals(registered, pkgOfferCache.get(registered.getState().getData().getLinearId()));
+
+        /* Produced by an update */
+        StateAndRef<PkgOfferState> produced = generatePkgOfferState();
+        vault.put(produced.getState().getData().getLinearId(), produced);
+        lastFeed().onNext(new Vault.Update<>(Collections.emptySet(), ImmutableSet.of(produced)));
+        assertEquals(produced, pkgOfferCache.get(produced.getState().getData().getLinearId()));
+        assertEquals(0, vaultQueries.get());
+
+        /* Consumed by an update, the lookup goes to the vault */
+        vault.remove(registered.getState().getData().getLinearId());
+        lastFeed().onNext(new Vault.Update<>(ImmutableSet.of(registered), Collections.emptySet()));
+        assertNull(pkgOfferCache.get(registered.getState().getData().getLinearId()));
+        assertEquals(1, vaultQueries.get());
+    }
+
+    @Test
+    public void lookupsFallBackToTheVaultAndTheFeedIsSubscribedAgainAfterAnError() throws Exception {
+        StateAndRef<PkgOfferState> registered = generatePkgOfferState();
+        vault.put(registered.getState().getData().getLinearId(), registered);
+        awaitTracking(1);
+
+        lastFeed().onError(new RuntimeException("RPC connection lost"));
+        assert !pkgOfferCache.isTracking();
+
+        /* A package registered while the feed is down is still found, through the vault */
+        StateAndRef<PkgOfferState> produced = generatePkgOfferState();
+        vault.put(produced.getState().getData().getLinearId(), produced);
+        assertEquals(produced, pkgOfferCache.get(produced.getState().getData().getLinearId()));
+        assertEquals(1, vaultQueries.get());
+
+        /* The new snapshot holds both packages, no vault query is needed anymore */
+        awaitTracking(2);
+        int queries = vaultQueries.get();
+        assertEquals(registered, pkgOfferCache.get(registered.getState().getData().getLinearId()));
+        assertEquals(produced, pkgOfferCache.get(produced.getState().getData().getLinearId()));
+        assertEquals(queries, vaultQueries.get());
+
+        /* Updates of the failed feed are ignored */
+        feeds.get(0).onNext(new Vault.Update<>(ImmutableSet.of(produced), Collections.emptySet()));
+        assertEquals(produced, pkgOfferCache.get(produced.getState().getData().getLinearId()));
+    }
+
+    @Test
+    public void feedIsSubscribedAgainAfterItCompletes() throws Exception {
+        awaitTracking(1);
+
+        lastFeed().onCompleted();
+        assert !pkgOfferCache.isTracking();
+
+        awaitTracking(2);
+    }
+}
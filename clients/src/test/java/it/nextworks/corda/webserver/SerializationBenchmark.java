@@ -0,0 +1,79 @@
+package it.nextworks.corda.webserver;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import it.nextworks.corda.webserver.dto.PkgOfferDto;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.core.TestIdentity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serialize the marketplace response, a list of offers of few authors, with the JacksonSupport mapper
+ * of the states and with the web server mapper of the DTOs, and print the time per response of both.
+ * Run with: ./gradlew clients:benchmarkSerialization [-Pargs="offers rounds"]
+ */
+public class SerializationBenchmark {
+
+    private static final int defaultOffers = 1000;
+    private static final int defaultRounds = 200;
+    private static final int authors       = 10;
+
+    public static void main(String[] args) throws Exception {
+        final int offers = args.length > 0 ? Integer.parseInt(args[0]) : defaultOffers;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : defaultRounds;
+
+        final List<PkgOfferState> states = generatePkgOfferStates(offers);
+        final ObjectMapper statesMapper = JacksonSupport.createNonRpcMapper();
+        final ObjectMapper dtoMapper = CordaTypesModule.createMapper();
+
+        measure("JacksonSupport states", rounds, () -> statesMapper.writeValueAsBytes(states));
+        measure("DTOs", rounds, () -> dtoMapper.writeValueAsBytes(PkgOfferDto.from(states)));
+    }
+
+    private interface Serialization {
+        byte[] run() throws Exception;
+    }
+
+    /* The first half of the rounds warms the JIT up and the string caches, only the second half is measured */
+    private static void measure(String name, int rounds, Serialization serialization) throws Exception {
+        int bytes = 0;
+        for(int i = 0; i < rounds; i++)
+            bytes = serialization.run().length;
+
+        final long start = System.nanoTime();
+        for(int i = 0; i < rounds; i++)
+            serialization.run();
+        final double millis = (System.nanoTime() - start) / 1e6 / rounds;
+
+        System.out.printf("%-24s %10.3f ms/response %10d bytes%n", name, millis, bytes);
+    }
+
+    private static List<PkgOfferState> generatePkgOfferStates(int offers) {
+        final Party repositoryNode = new TestIdentity(CordaX500Name.parse("O=RepositoryNode,L=Pisa,C=IT")).getParty();
+        final List<Party> developers = new ArrayList<>();
+        for(int i = 0; i < authors; i++)
+            developers.add(new TestIdentity(CordaX500Name.parse("O=Dev" + i + ",L=Pisa,C=IT")).getParty());
+
+        final ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength,
+                PkgOfferUtils.testRecChargePeriodType, PkgOfferUtils.testVersion, PkgOfferUtils.testPrice,
+                PkgOfferUtils.testQuantity, PkgOfferUtils.testValidFor);
+        final List<PkgOfferState> states = new ArrayList<>(offers);
+        for(int i = 0; i < offers; i++)
+            states.add(new PkgOfferState(new UniqueIdentifier(), PkgOfferUtils.testName + i,
+                    PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId,
+                    PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice, developers.get(i % authors),
+                    repositoryNode));
+
+        return states;
+    }
+}
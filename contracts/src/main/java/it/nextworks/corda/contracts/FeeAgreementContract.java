@@ -35,7 +35,8 @@ public class FeeAgreementContract implements Contract {
         if(commandData instanceof Commands.EstablishFeeAgreement) {
             requireThat(require -> {
                 require.using(createAgreementInputErr, tx.getInputs().isEmpty());
-                require.using(createAgreementOutputErr, tx.getOutputStates().size() == 1);
+                require.using(createAgreementOutputErr, tx.getOutputStates().size() == 1 &&
+                        tx.outputsOfType(FeeAgreementState.class).size() == 1);
 
                 final FeeAgreementState output = tx.outputsOfType(FeeAgreementState.class).get(0);
 
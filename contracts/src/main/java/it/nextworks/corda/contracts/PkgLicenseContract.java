@@ -1,5 +1,6 @@
 package it.nextworks.corda.contracts;
 
+import it.nextworks.corda.states.FeeAgreementState;
 import it.nextworks.corda.states.PkgLicenseState;
 import it.nextworks.corda.states.PkgOfferState;
 import net.corda.core.contracts.*;
@@ -7,10 +8,10 @@ import net.corda.core.identity.Party;
 import net.corda.core.transactions.LedgerTransaction;
 import net.corda.finance.contracts.asset.Cash;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.security.PublicKey;
-import java.util.Arrays;
-import java.util.Currency;
-import java.util.List;
+import java.util.*;
 
 import static it.nextworks.corda.contracts.PkgLicenseUtils.*;
 import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
@@ -34,11 +35,13 @@ public class PkgLicenseContract implements Contract {
         final CommandWithParties<Commands> command = requireSingleCommand(tx.getCommands(), Commands.class);
         final Commands commandData = command.getValue();
 
-        if(commandData instanceof Commands.BuyPkg) {
+        if(commandData instanceof Commands.BuyPkg || commandData instanceof Commands.BuyPkgs) {
             /**
              * the purchase of a package (and the issuance of the relative license) requires
-             * movement of on-ledger cash.
+             * movement of on-ledger cash. A cart purchase issues a license per package and
+             * pays the summed price with the same cash movement.
              */
+            final boolean cart = commandData instanceof Commands.BuyPkgs;
             requireThat(require -> {
                 int cashInputStateCount = 0;
                 for(ContractState input : tx.getInputStates()) {
@@ -57,20 +60,98 @@ public class PkgLicenseContract implements Contract {
                         throw new IllegalArgumentException(buyPkgOutputCashErr);
                 }
                 require.using(buyPkgOutputCashEmp, cashOutputStateCount > 0);
-                require.using(buyPkgLicenseOutErr, pkgLicenseStateCount == 1);
+                if(cart)
+                    require.using(buyPkgsLicenseOutErr, pkgLicenseStateCount > 0 &&
+                            pkgLicenseStateCount <= maxCartSize);
+                else
+                    require.using(buyPkgLicenseOutErr, pkgLicenseStateCount == 1);
 
-                final PkgLicenseState pkgLicenseState = tx.outputsOfType(PkgLicenseState.class).get(0);
-                final PkgOfferState pkgOfferState = pkgLicenseState.getPkgLicensed().getState().getData();
+                final List<PkgLicenseState> pkgLicenseStates = tx.outputsOfType(PkgLicenseState.class);
+                /* The notary attests the purchase time, a license cannot be backdated or postdated */
+                require.using(timeWindowErr, tx.getTimeWindow() != null);
 
-                final Party repositoryNode = pkgOfferState.getRepositoryNode();
-                final Amount<Issued<Currency>> receivedAmount =
-                        sumCashBy(tx.getOutputStates(), repositoryNode);
-                require.using(differentAmountErr, withoutIssuer(receivedAmount).equals(pkgOfferState.getPrice()));
+                /* The packages sold are reference inputs, so the notary checks that they are still current */
+                final List<StateAndRef<PkgOfferState>> pkgOffers = tx.referenceInputRefsOfType(PkgOfferState.class);
+                require.using(cart ? buyPkgsOfferRefErr : buyPkgOfferRefErr,
+                        pkgOffers.size() == pkgLicenseStates.size());
+                final Map<StateRef, PkgOfferState> pkgOffersByRef = new HashMap<>();
+                for(StateAndRef<PkgOfferState> pkgOffer : pkgOffers)
+                    pkgOffersByRef.put(pkgOffer.getRef(), pkgOffer.getState().getData());
 
-                final Party buyer = pkgLicenseState.getBuyer();
+                final Party repositoryNode = pkgOffers.get(0).getState().getData().getRepositoryNode();
+                final Currency currency = pkgOffers.get(0).getState().getData().getPrice().getToken();
+                final Party buyer = pkgLicenseStates.get(0).getBuyer();
                 require.using(PkgLicenseUtils.buyer + strNullErr, buyer != null);
-                require.using(buyerSameIdentity, !buyer.equals(repositoryNode));
-                require.using(buyerAndAuthorSame, !buyer.equals(pkgOfferState.getAuthor()));
+
+                /* Each license refers to a distinct offer of the cart, all sold to the same buyer */
+                final Set<StateRef> licensed = new HashSet<>();
+                long total = 0;
+                for(PkgLicenseState pkgLicenseState : pkgLicenseStates) {
+                    final PkgOfferState pkgOfferState = pkgOffersByRef.get(pkgLicenseState.getPkgRef());
+                    require.using(licenseOfferRefErr, pkgOfferState != null &&
+                            pkgOfferState.getLinearId().equals(pkgLicenseState.getPkgId()));
+                    require.using(duplicateLicenseErr, licensed.add(pkgLicenseState.getPkgRef()));
+                    require.using(licenseSnapshotErr,
+                            pkgOfferState.getPkgInfoId().equals(pkgLicenseState.getPkgInfoId()) &&
+                            pkgOfferState.getPkgType().equals(pkgLicenseState.getPkgType()) &&
+                            pkgOfferState.getAuthor().equals(pkgLicenseState.getAuthor()) &&
+                            pkgOfferState.getRepositoryNode().equals(pkgLicenseState.getRepositoryNode()));
+                    /* A volume license is priced per unit of measure of the offer, paid as a single amount */
+                    require.using(seatsErr, pkgLicenseState.getSeats() > 0 && pkgLicenseState.getSeats() <= maxSeats);
+                    require.using(volumePriceErr,
+                            pkgOfferState.getPrice(pkgLicenseState.getSeats()).equals(pkgLicenseState.getPrice()));
+                    require.using(cartRepositoryErr, repositoryNode.equals(pkgOfferState.getRepositoryNode()));
+                    require.using(cartCurrencyErr, currency.equals(pkgOfferState.getPrice().getToken()));
+                    require.using(cartBuyerErr, buyer.equals(pkgLicenseState.getBuyer()));
+
+                    require.using(buyerSameIdentity, !buyer.equals(repositoryNode));
+                    require.using(buyerAndAuthorSame, !buyer.equals(pkgOfferState.getAuthor()));
+                    require.using(PkgLicenseUtils.purchaseTime + strNullErr,
+                            pkgLicenseState.getPurchaseTime() != null);
+                    require.using(purchaseTimeOutOfWindow,
+                            tx.getTimeWindow().contains(pkgLicenseState.getPurchaseTime()));
+
+                    total += pkgLicenseState.getPrice().getQuantity();
+                }
+                final Amount<Currency> price = new Amount<>(total, currency);
+
+                final List<FeeAgreementState> feeAgreements = tx.referenceInputsOfType(FeeAgreementState.class);
+                if(feeAgreements.isEmpty()) {
+                    /* Whole price to the repositoryNode, that accrues the share of the authors and pays it later */
+                    final Amount<Issued<Currency>> receivedAmount =
+                            sumCashBy(tx.getOutputStates(), repositoryNode);
+                    require.using(differentAmountErr, withoutIssuer(receivedAmount).equals(price));
+                }
+                else {
+                    /* The price is split between the repositoryNode and each author as stated by their agreement */
+                    final Map<Party, Long> developerShares = new LinkedHashMap<>();
+                    for(PkgLicenseState pkgLicenseState : pkgLicenseStates)
+                        developerShares.put(pkgLicenseState.getAuthor(), 0L);
+                    require.using(cart ? feeAgreementsRefErr : feeAgreementRefErr,
+                            feeAgreements.size() == developerShares.size());
+
+                    final Map<Party, FeeAgreementState> feeAgreementsByAuthor = new HashMap<>();
+                    for(FeeAgreementState feeAgreement : feeAgreements) {
+                        require.using(feeAgreementPartiesErr,
+                                developerShares.containsKey(feeAgreement.getDeveloper()) &&
+                                repositoryNode.equals(feeAgreement.getRepositoryNode()) &&
+                                feeAgreementsByAuthor.put(feeAgreement.getDeveloper(), feeAgreement) == null);
+                        require.using(feeRangeErr, feeAgreement.getFee() >= 0 && feeAgreement.getFee() <= 100);
+                    }
+
+                    long developersTotal = 0;
+                    for(PkgLicenseState pkgLicenseState : pkgLicenseStates) {
+                        final long share = developerShare(pkgLicenseState.getPrice(),
+                                feeAgreementsByAuthor.get(pkgLicenseState.getAuthor()).getFee()).getQuantity();
+                        developerShares.merge(pkgLicenseState.getAuthor(), share, Long::sum);
+                        developersTotal += share;
+                    }
+                    for(Map.Entry<Party, Long> developerShare : developerShares.entrySet())
+                        require.using(developerShareErr, cashPaidTo(tx, developerShare.getKey(), currency)
+                                .equals(new Amount<>(developerShare.getValue(), currency)));
+                    require.using(repositoryShareErr, cashPaidTo(tx, repositoryNode, currency)
+                            .equals(new Amount<>(total - developersTotal, currency)));
+                }
 
                 final List<PublicKey> requiredSigners = command.getSigners();
                 require.using(twoSignersErr, requiredSigners.size() == 2);
@@ -86,12 +167,47 @@ public class PkgLicenseContract implements Contract {
             throw new IllegalArgumentException(unknownCommand);
     }
 
+    /**
+     * Compute the share of a sale that belongs to the author of the package
+     * @param price price of the package
+     * @param fee   % of the price retained by the repositoryNode
+     * @return      the amount to pay to the author, rounded to the minor unit of the currency
+     */
+    public static Amount<Currency> developerShare(Amount<Currency> price, int fee) {
+        final long quantity = BigDecimal.valueOf(price.getQuantity()).multiply(BigDecimal.valueOf(100 - fee))
+                .divide(BigDecimal.valueOf(100), 0, RoundingMode.HALF_EVEN).longValueExact();
+
+        return new Amount<>(quantity, price.getToken());
+    }
+
+    /* Sum of the output Cash states in the given currency owned by the specified party, zero if there is none */
+    private static Amount<Currency> cashPaidTo(LedgerTransaction tx, Party owner, Currency token) {
+        long quantity = 0;
+        for(Cash.State cash : tx.outputsOfType(Cash.State.class)) {
+            if(owner.equals(cash.getOwner()) && token.equals(cash.getAmount().getToken().getProduct()))
+                quantity += cash.getAmount().getQuantity();
+        }
+
+        return new Amount<>(quantity, token);
+    }
+
     public interface Commands extends CommandData {
         /**
          * Command used to buy a package and so create a PkgLicenseState that will be
          * stored in the vaults of the two participants that are involved in the
-         * transaction where this command is used.
+         * transaction where this command is used. If the FeeAgreementState between the
+         * author and the repositoryNode is used as reference input, the price is split
+         * between them in the same transaction. A single PkgLicenseState covers any number
+         * of seats, paid with the same cash movement.
          */
         class BuyPkg implements  Commands {}
+
+        /**
+         * Command used to buy several packages in a single transaction: a PkgLicenseState
+         * is created for each of them and the summed price is paid with the same cash
+         * movement, split between the repositoryNode and each author when their
+         * FeeAgreementStates are used as reference inputs.
+         */
+        class BuyPkgs implements  Commands {}
     }
 }
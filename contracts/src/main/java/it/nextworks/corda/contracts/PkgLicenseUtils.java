@@ -8,16 +8,60 @@ public class PkgLicenseUtils {
     public static final String buyPkgOutputCashEmp = "There should be at least one output of type Cash.State";
     public static final String buyPkgLicenseOutErr = "There should be only one output of type PkgLicenseState";
 
+    /** Upper bound to the number of packages bought in a single transaction */
+    public static final int maxCartSize            = 50;
+
+    public static final String buyPkgsLicenseOutErr = "There should be between 1 and " + maxCartSize +
+            " outputs of type PkgLicenseState";
+    public static final String buyPkgsOfferRefErr  = "There should be one reference input of type PkgOfferState " +
+            "for each PkgLicenseState";
+    public static final String duplicateLicenseErr = "Each PkgLicenseState must refer to a different PkgOfferState";
+    public static final String cartBuyerErr        = "All the PkgLicenseStates must have the same <buyer>";
+    public static final String cartRepositoryErr   = "All the packages must be sold by the same <repositoryNode>";
+    public static final String cartCurrencyErr     = "All the packages must be priced in the same currency";
+
+    /** Upper bound to the number of seats licensed by a single PkgLicenseState */
+    public static final int maxSeats               = 100000;
+
+    public static final String seatsErr            = "The <seats> of the PkgLicenseState must be between 1 and " +
+            maxSeats;
+    public static final String volumePriceErr      = "The price of the PkgLicenseState must be the price of its " +
+            "seats, charged for each unit of measure of the referenced PkgOfferState";
+
+    public static final String buyPkgOfferRefErr   = "There should be one reference input of type PkgOfferState, " +
+            "the package sold";
+    public static final String licenseOfferRefErr  = "The PkgLicenseState must refer to the PkgOfferState used as " +
+            "reference input";
+    public static final String licenseSnapshotErr  = "The PkgLicenseState must carry the same package information " +
+            "of the referenced PkgOfferState";
+
     public static final String buyer               = "The <buyer>";
+    public static final String purchaseTime        = "The <purchaseTime>";
 
     public static final String strNullErr          = " parameter cannot be null.";
     public static final String differentAmountErr  = "The output Cash state for the repositoryNode " +
             "differs from the package price";
 
+    public static final String feeAgreementRefErr  = "There should be at most one reference input of type " +
+            "FeeAgreementState";
+    public static final String feeAgreementsRefErr = "There should be one reference input of type " +
+            "FeeAgreementState for each author of the packages";
+    public static final String feeAgreementPartiesErr = "The referenced FeeAgreementState must be the one between " +
+            "the <author> and the <repositoryNode> of the package";
+    public static final String feeRangeErr         = "The fee of the referenced FeeAgreementState must be between 0 " +
+            "and 100 : [0-100]";
+    public static final String developerShareErr   = "The output Cash state for the author differs from its " +
+            "share of the package price";
+    public static final String repositoryShareErr  = "The output Cash state for the repositoryNode differs from " +
+            "its fee on the package price";
+
     public static final String buyerSameIdentity   = "The <buyer> parameter and the <repositoryNode> parameter cannot " +
             "be the same entity";
     public static final String buyerAndAuthorSame  = "The <buyer> parameter and the <author> parameter cannot " +
             "be the same entity";
+    public static final String timeWindowErr       = "A purchase transaction must have a time window.";
+    public static final String purchaseTimeOutOfWindow = "The <purchaseTime> of the PkgLicenseState must fall " +
+            "within the time window of the transaction";
 
     public static final String mustBeSignersLicErr = "<buyer> and <repositoryNode> must be signers";
     public static final String twoSignersErr       = "There must be two signers.";
@@ -33,4 +77,6 @@ public class PkgLicenseUtils {
     public static final String cordAppContractsPkg = "it.nextworks.corda.contracts";
 
     public static final String toBeLicensed        = "toBeLicensed";
+    public static final String feeAgreement        = "feeAgreement";
+    public static final int testFee                = 10;
 }
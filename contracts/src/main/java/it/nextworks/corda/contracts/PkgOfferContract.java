@@ -8,8 +8,7 @@ import net.corda.core.transactions.LedgerTransaction;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.PublicKey;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 import static it.nextworks.corda.contracts.PkgOfferUtils.*;
 import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
@@ -39,23 +38,36 @@ public class PkgOfferContract implements Contract {
                 final PkgOfferState output = tx.outputsOfType(PkgOfferState.class).get(0);
                 /* require.using(linearId + strNullErr, output.getLinearId() != null); is always true */
 
-                require.using(name + strErrMsg, isWellFormatted(output.getName()));
-                require.using(description + strErrMsg, isWellFormatted(output.getDescription()));
-                require.using(version + strErrMsg, isWellFormatted(output.getVersion()));
-                require.using(pkgInfoId + strErrMsg, isWellFormatted(output.getPkgInfoId()));
-                try {
-                    new URL(output.getImageLink());
-                } catch (MalformedURLException mue) {
-                    throw new IllegalArgumentException(imageLink + strMueErr);
-                }
-                require.using(pkgTypeErr, output.getPkgType() != null);
-                require.using(poPrice + strNullErr, output.getPoPrice() != null);
+                verifyNewPkg(require, output);
+
+                final List<PublicKey> requiredSigners = command.getSigners();
+                require.using(twoSignersErr, requiredSigners.size() == 2);
+
+                final List<PublicKey> expectedSigners = Arrays.asList(output.getAuthor().getOwningKey(),
+                        output.getRepositoryNode().getOwningKey());
+                require.using(mustBeSignersErr, requiredSigners.containsAll(expectedSigners));
 
-                final Party author = output.getAuthor();
-                final Party repositoryNode = output.getRepositoryNode();
-                require.using(PkgOfferUtils.author + strNullErr, author != null);
-                require.using(PkgOfferUtils.repositoryNode + strNullErr, repositoryNode != null);
-                require.using(sameEntityErr, !author.equals(repositoryNode));
+                return null;
+            });
+        }
+        else if(commandData instanceof Commands.BatchRegisterPkg) {
+            requireThat(require -> {
+                require.using(createPkgInputErr, tx.getInputs().isEmpty());
+
+                final List<ContractState> outputStates = tx.getOutputStates();
+                require.using(batchRegisterPkgOutputErr, !outputStates.isEmpty());
+                final List<PkgOfferState> outputs = tx.outputsOfType(PkgOfferState.class);
+                require.using(batchRegisterPkgOutputTypeErr, outputs.size() == outputStates.size());
+
+                final Party author = outputs.get(0).getAuthor();
+                final Party repositoryNode = outputs.get(0).getRepositoryNode();
+                final Set<UniqueIdentifier> linearIds = new HashSet<>();
+                for(PkgOfferState output : outputs) {
+                    verifyNewPkg(require, output);
+                    require.using(batchSameAuthorErr, output.getAuthor().equals(author));
+                    require.using(batchSameRepositoryNodeErr, output.getRepositoryNode().equals(repositoryNode));
+                    require.using(batchDuplicateLinearIdErr, linearIds.add(output.getLinearId()));
+                }
 
                 final List<PublicKey> requiredSigners = command.getSigners();
                 require.using(twoSignersErr, requiredSigners.size() == 2);
@@ -70,33 +82,48 @@ public class PkgOfferContract implements Contract {
         else if(commandData instanceof Commands.UpdatePkg) {
             requireThat(require -> {
                 final List<ContractState> inputs = tx.getInputStates();
-                require.using(updatePkgInputErr, inputs.size() == 1);
-                require.using(updatePkgInputTypeErr, inputs.get(0) instanceof PkgOfferState);
-                final PkgOfferState inputPkgOfferState = tx.inputsOfType(PkgOfferState.class).get(0);
+                require.using(updatePkgInputErr, !inputs.isEmpty());
+                final List<PkgOfferState> inputPkgOfferStates = tx.inputsOfType(PkgOfferState.class);
+                require.using(updatePkgInputTypeErr, inputPkgOfferStates.size() == inputs.size());
 
                 final List<ContractState> outputs = tx.getOutputStates();
-                require.using(updatePkgOutputErr, outputs.size() == 1);
-                require.using(updatePkgOutputTypeErr, outputs.get(0) instanceof PkgOfferState);
-                final PkgOfferState outputPkgOfferState = tx.outputsOfType(PkgOfferState.class).get(0);
-
-                require.using(updateLinearIdErr, inputPkgOfferState.getLinearId().equals(outputPkgOfferState.getLinearId()));
-
-                require.using(name + strErrMsg, isWellFormatted(outputPkgOfferState.getName()));
-                require.using(description + strErrMsg, isWellFormatted(outputPkgOfferState.getDescription()));
-                require.using(version + strErrMsg, isWellFormatted(outputPkgOfferState.getVersion()));
-                require.using(updateInfoIdErr, inputPkgOfferState.getPkgInfoId().equals(outputPkgOfferState.getPkgInfoId()));
-                try {
-                    new URL(outputPkgOfferState.getImageLink());
-                } catch (MalformedURLException mue) {
-                    throw new IllegalArgumentException(imageLink + strMueErr);
+                require.using(updatePkgOutputErr, outputs.size() == inputs.size());
+                final List<PkgOfferState> outputPkgOfferStates = tx.outputsOfType(PkgOfferState.class);
+                require.using(updatePkgOutputTypeErr, outputPkgOfferStates.size() == outputs.size());
+
+                /* Every output is paired with the input having the same linearId */
+                final Map<UniqueIdentifier, PkgOfferState> inputsByLinearId = new HashMap<>();
+                for(PkgOfferState input : inputPkgOfferStates)
+                    require.using(updateDuplicateLinearIdErr,
+                            inputsByLinearId.put(input.getLinearId(), input) == null);
+
+                final Party author = inputPkgOfferStates.get(0).getAuthor();
+                final Party repositoryNode = inputPkgOfferStates.get(0).getRepositoryNode();
+                for(PkgOfferState outputPkgOfferState : outputPkgOfferStates) {
+                    final PkgOfferState inputPkgOfferState = inputsByLinearId.remove(outputPkgOfferState.getLinearId());
+                    require.using(updateLinearIdErr, inputPkgOfferState != null);
+
+                    require.using(name + strErrMsg, isWellFormatted(outputPkgOfferState.getName()));
+                    require.using(description + strErrMsg, isWellFormatted(outputPkgOfferState.getDescription()));
+                    require.using(version + strErrMsg, isWellFormatted(outputPkgOfferState.getVersion()));
+                    require.using(updateInfoIdErr, inputPkgOfferState.getPkgInfoId().equals(outputPkgOfferState.getPkgInfoId()));
+                    try {
+                        new URL(outputPkgOfferState.getImageLink());
+                    } catch (MalformedURLException mue) {
+                        throw new IllegalArgumentException(imageLink + strMueErr);
+                    }
+                    require.using(updatePkgTypeErr, inputPkgOfferState.getPkgType().equals(outputPkgOfferState.getPkgType()));
+                    require.using(poPrice + strNullErr, outputPkgOfferState.getPoPrice() != null);
+                    require.using(unitOfMeasureErr,
+                            PkgOfferState.isIntegralUnitOfMeasure(outputPkgOfferState.getPoPrice().getUnitOfMeasure()));
+
+                    require.using(updateAuthorErr, inputPkgOfferState.getAuthor().equals(outputPkgOfferState.getAuthor()));
+                    require.using(updateRepositoryNodeErr,
+                            inputPkgOfferState.getRepositoryNode().equals(outputPkgOfferState.getRepositoryNode()));
+                    require.using(batchSameAuthorErr, author.equals(outputPkgOfferState.getAuthor()));
+                    require.using(batchSameRepositoryNodeErr,
+                            repositoryNode.equals(outputPkgOfferState.getRepositoryNode()));
                 }
-                require.using(updatePkgTypeErr, inputPkgOfferState.getPkgType().equals(outputPkgOfferState.getPkgType()));
-                require.using(poPrice + strNullErr, outputPkgOfferState.getPoPrice() != null);
-
-                final Party author = outputPkgOfferState.getAuthor();
-                final Party repositoryNode = outputPkgOfferState.getRepositoryNode();
-                require.using(updateAuthorErr, inputPkgOfferState.getAuthor().equals(author));
-                require.using(updateRepositoryNodeErr, inputPkgOfferState.getRepositoryNode().equals(repositoryNode));
 
                 final List<PublicKey> requiredSigners = command.getSigners();
                 require.using(twoSignersErr, requiredSigners.size() == 2);
@@ -127,6 +154,32 @@ public class PkgOfferContract implements Contract {
                 return null;
             });
         }
+        else if(commandData instanceof Commands.BatchDeletePkg) {
+            requireThat(require -> {
+                final List<ContractState> inputs = tx.getInputStates();
+                require.using(batchDeletePkgInputErr, !inputs.isEmpty());
+                final List<PkgOfferState> inputPkgOfferStates = tx.inputsOfType(PkgOfferState.class);
+                require.using(batchDeletePkgInputTypeErr, inputPkgOfferStates.size() == inputs.size());
+
+                require.using(deletePkgOutputErr, tx.getOutputs().isEmpty());
+
+                final Party author = inputPkgOfferStates.get(0).getAuthor();
+                final Party repositoryNode = inputPkgOfferStates.get(0).getRepositoryNode();
+                for(PkgOfferState input : inputPkgOfferStates) {
+                    require.using(batchSameAuthorErr, input.getAuthor().equals(author));
+                    require.using(batchSameRepositoryNodeErr, input.getRepositoryNode().equals(repositoryNode));
+                }
+
+                final List<PublicKey> requiredSigners = command.getSigners();
+                require.using(twoSignersErr, requiredSigners.size() == 2);
+
+                final List<PublicKey> expectedSigners = Arrays.asList(author.getOwningKey(),
+                        repositoryNode.getOwningKey());
+                require.using(mustBeSignersErr, requiredSigners.containsAll(expectedSigners));
+
+                return null;
+            });
+        }
         else
             throw new IllegalArgumentException(unknownCommand);
     }
@@ -144,9 +197,17 @@ public class PkgOfferContract implements Contract {
          */
         class RegisterPkg implements Commands {}
 
+        /**
+         * Command used to create several PkgOfferStates of the same author in a single transaction,
+         * each one of them is verified as if it was created by the RegisterPkg command.
+         */
+        class BatchRegisterPkg implements Commands {}
+
         /**
          * Command used to update a PkgOfferState by sign the current PkgOfferState, used as input in the
          * current transaction, as CONSUMED and create a new output PkgOfferState.
+         * Several packages of the same author can be updated in the same transaction, each output is
+         * paired with the input having the same linearId.
          */
         class UpdatePkg implements Commands {}
 
@@ -155,6 +216,34 @@ public class PkgOfferContract implements Contract {
          * current transaction, ad CONSUMED.
          */
         class DeletePkg implements Commands {}
+
+        /**
+         * Command used to delete several PkgOfferStates of the same author in a single transaction,
+         * all of them are used as inputs and signed as CONSUMED.
+         */
+        class BatchDeletePkg implements Commands {}
+    }
+
+    /** Verify the fields of a new PkgOfferState, used by the RegisterPkg and the BatchRegisterPkg commands */
+    private void verifyNewPkg(Requirements require, PkgOfferState output) {
+        require.using(name + strErrMsg, isWellFormatted(output.getName()));
+        require.using(description + strErrMsg, isWellFormatted(output.getDescription()));
+        require.using(version + strErrMsg, isWellFormatted(output.getVersion()));
+        require.using(pkgInfoId + strErrMsg, isWellFormatted(output.getPkgInfoId()));
+        try {
+            new URL(output.getImageLink());
+        } catch (MalformedURLException mue) {
+            throw new IllegalArgumentException(imageLink + strMueErr);
+        }
+        require.using(pkgTypeErr, output.getPkgType() != null);
+        require.using(poPrice + strNullErr, output.getPoPrice() != null);
+        require.using(unitOfMeasureErr, PkgOfferState.isIntegralUnitOfMeasure(output.getPoPrice().getUnitOfMeasure()));
+
+        final Party author = output.getAuthor();
+        final Party repositoryNode = output.getRepositoryNode();
+        require.using(PkgOfferUtils.author + strNullErr, author != null);
+        require.using(PkgOfferUtils.repositoryNode + strNullErr, repositoryNode != null);
+        require.using(sameEntityErr, !author.equals(repositoryNode));
     }
 
     private boolean isWellFormatted(String str){
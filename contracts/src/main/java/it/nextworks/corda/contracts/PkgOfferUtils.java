@@ -28,6 +28,8 @@ public class PkgOfferUtils {
     public static final String strNullErr          = " parameter cannot be null.";
     public static final String strMueErr           = " parameter does not represent a valid URL.";
     public static final String pkgTypeErr          = "The <pkgType> parameter must be VNF or PNF.";
+    public static final String unitOfMeasureErr    = "The <unitOfMeasure> amount of the <poPrice> parameter must be " +
+            "a positive integer.";
 
     public static final String sameEntityErr       = "The <author> parameter and the <repositoryNode> parameter cannot " +
             "be the same entity.";
@@ -41,6 +43,7 @@ public class PkgOfferUtils {
 
     public static final String devX500Name                = "O=DevTest,L=Pisa,C=IT";
     public static final String repositoryX500Name         = "O=RepositoryNode,L=Pisa,C=IT";
+    public static final String otherDevX500Name           = "O=OtherDevTest,L=Pisa,C=IT";
 
     public static final String cordAppContractsPkg        = "it.nextworks.corda.contracts";
 
@@ -67,14 +70,24 @@ public class PkgOfferUtils {
     public static final TimePeriod testValidFor           = new TimePeriod("2020-10-23T16:42:23.0Z",
             "2020-10-24T00:00:00.0Z");
 
+    /* Utils for the BatchRegisterPkg Command */
+
+    public static final String batchRegisterPkgOutputErr     = "There should be at least one output state of type " +
+            "PkgOfferState.";
+    public static final String batchRegisterPkgOutputTypeErr = "All the output states must be of type PkgOfferState.";
+    public static final String batchSameAuthorErr            = "All the packages must have the same <author>.";
+    public static final String batchSameRepositoryNodeErr    = "All the packages must have the same <repositoryNode>.";
+    public static final String batchDuplicateLinearIdErr     = "The <linearId> parameter of each package must be unique.";
+
     /* Utils for the UpdatePkg Command */
 
-    public static final String updatePkgInputErr       = "There should be only one input.";
-    public static final String updatePkgInputTypeErr   = "There should be only one input of type PkgOfferState.";
-    public static final String updatePkgOutputErr      = "There should be only one output.";
-    public static final String updatePkgOutputTypeErr  = "There should be only one output of type PkgOfferState.";
+    public static final String updatePkgInputErr       = "There should be at least one input.";
+    public static final String updatePkgInputTypeErr   = "All the inputs must be of type PkgOfferState.";
+    public static final String updatePkgOutputErr      = "There should be one output for each input.";
+    public static final String updatePkgOutputTypeErr  = "All the outputs must be of type PkgOfferState.";
 
     public static final String updateLinearIdErr       = "The <linearId> parameter must not change.";
+    public static final String updateDuplicateLinearIdErr = "Each package can be updated only once in a transaction.";
     public static final String updateInfoIdErr         = "The <pkgInfoId> parameter must not change.";
     public static final String updatePkgTypeErr        = "The <pkgType> parameter must not change.";
 
@@ -88,6 +101,7 @@ public class PkgOfferUtils {
     public static final String testLinkUpdate        = "https://www.youtube.com/watch?v=ejYttnAXfEY&t";
 
     public static final String toBeUpdated           = "toBeUpdated";
+    public static final String toBeUpdatedOther      = "toBeUpdatedOther";
 
     /* Utils for the UpdatePkg Command */
 
@@ -96,4 +110,10 @@ public class PkgOfferUtils {
     public static final String deletePkgOutputErr    = "There should not be output.";
 
     public static final String toBeDeleted           = "toBeDeleted";
+    public static final String toBeDeletedOther      = "toBeDeletedOther";
+
+    /* Utils for the BatchDeletePkg Command */
+
+    public static final String batchDeletePkgInputErr     = "There should be at least one input.";
+    public static final String batchDeletePkgInputTypeErr = "All the inputs must be of type PkgOfferState.";
 }
@@ -0,0 +1,69 @@
+package it.nextworks.corda.schemas;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Arrays;
+
+/**
+ * Second version of the FeeAgreementState schema: the parties are stored as the hash of their
+ * owning key, the same form used by the node identity tables, indexed by the pair (developer, repository).
+ * The index is not unique as the table keeps the rows of the consumed agreements too, e.g. the
+ * ones moved to another notary: EstablishFeeAgreementFlow checks that a pair has one live agreement.
+ */
+public class FeeAgreementSchemaV2 extends MappedSchema {
+
+    public FeeAgreementSchemaV2() {
+        super(FeeAgreementSchema.class, 2, Arrays.asList(PersistentFeeAgreementState.class));
+    }
+
+    @Entity
+    @Table(name = "fee_agreement_states_v2",
+            indexes = {
+                    @Index(name = "fee_agreement_parties_idx",
+                            columnList = "developer_key_hash, repository_key_hash"),
+                    @Index(name = "fee_agreement_fee_idx", columnList = "fee")
+            })
+    public static class PersistentFeeAgreementState extends PersistentState {
+
+        @Column(name = "fee", nullable = false) private final int fee;
+        @Column(name = "developer_key_hash", length = 130, nullable = false) private final String developerKeyHash;
+        @Column(name = "repository_key_hash", length = 130, nullable = false) private final String repositoryKeyHash;
+
+        /**
+         * Constructor of the PersistentFeeAgreementState class, used for schema build
+         * @param fee               fee of this agreement
+         * @param developerKeyHash  hash of the owning key of the developer involved in this fee agreement
+         * @param repositoryKeyHash hash of the owning key of the repository involved in this fee agreement
+         */
+        public PersistentFeeAgreementState(int fee, String developerKeyHash, String repositoryKeyHash) {
+            this.fee               = fee;
+            this.developerKeyHash  = developerKeyHash;
+            this.repositoryKeyHash = repositoryKeyHash;
+        }
+
+        /* Default constructor required by hibernate */
+        public PersistentFeeAgreementState() {
+            fee               = 0;
+            developerKeyHash  = null;
+            repositoryKeyHash = null;
+        }
+
+        /* Getters */
+
+        public int getFee() { return fee; }
+
+        public String getDeveloperKeyHash() { return developerKeyHash; }
+
+        public String getRepositoryKeyHash() { return repositoryKeyHash; }
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() { return "fee_agreement_v2.changelog-master"; }
+}
@@ -0,0 +1,4 @@
+package it.nextworks.corda.schemas;
+
+/* The family of schemas for PkgLicenseState */
+public class PkgLicenseSchema { }
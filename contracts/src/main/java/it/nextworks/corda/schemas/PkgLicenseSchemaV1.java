@@ -0,0 +1,92 @@
+package it.nextworks.corda.schemas;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import org.hibernate.annotations.Type;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Schema of the PkgLicenseState: the buyer is stored as the hash of its owning key and every
+ * column used to look up licenses (by buyer, by package, by catalogue id, by purchase time) is
+ * indexed, so that checking or counting licenses does not deserialize the license states.
+ */
+public class PkgLicenseSchemaV1 extends MappedSchema {
+
+    public PkgLicenseSchemaV1() {
+        super(PkgLicenseSchema.class, 1, Arrays.asList(PersistentPkgLicenseState.class));
+    }
+
+    @Entity
+    @Table(name = "pkg_license_states",
+            indexes = {
+                    @Index(name = "pkg_license_buyer_idx", columnList = "buyer_key_hash, pkg_linear_id"),
+                    @Index(name = "pkg_license_pkg_idx", columnList = "pkg_linear_id"),
+                    @Index(name = "pkg_license_pkg_info_idx", columnList = "pkg_info_id"),
+                    @Index(name = "pkg_license_time_idx", columnList = "purchase_time")
+            })
+    public static class PersistentPkgLicenseState extends PersistentState {
+
+        @Column(name = "buyer_key_hash", length = 130, nullable = false) private final String buyerKeyHash;
+        @Column(name = "pkg_linear_id", nullable = false) @Type(type = "uuid-char") private final UUID pkgLinearId;
+        @Column(name = "pkg_info_id") private final String pkgInfoId;
+        @Column(name = "price", nullable = false) private final BigDecimal price;
+        @Column(name = "currency", length = 3, nullable = false) private final String currency;
+        @Column(name = "purchase_time", nullable = false) private final Instant purchaseTime;
+
+        /**
+         * Constructor of the PersistentPkgLicenseState class, used for the schema build
+         * @param buyerKeyHash hash of the owning key of the buyer of the package
+         * @param pkgLinearId  linearId of the package licensed
+         * @param pkgInfoId    id of the package licensed in the 5g-catalogue
+         * @param price        price paid for the package
+         * @param currency     currency of the price paid
+         * @param purchaseTime time of the purchase
+         */
+        public PersistentPkgLicenseState(String buyerKeyHash, UUID pkgLinearId, String pkgInfoId,
+                                         BigDecimal price, String currency, Instant purchaseTime) {
+            this.buyerKeyHash = buyerKeyHash;
+            this.pkgLinearId  = pkgLinearId;
+            this.pkgInfoId    = pkgInfoId;
+            this.price        = price;
+            this.currency     = currency;
+            this.purchaseTime = purchaseTime;
+        }
+
+        /* Default constructor required by hibernate */
+        public PersistentPkgLicenseState() {
+            buyerKeyHash = null;
+            pkgLinearId  = null;
+            pkgInfoId    = null;
+            price        = null;
+            currency     = null;
+            purchaseTime = null;
+        }
+
+        /* Getters */
+
+        public String getBuyerKeyHash() { return buyerKeyHash; }
+
+        public UUID getPkgLinearId() { return pkgLinearId; }
+
+        public String getPkgInfoId() { return pkgInfoId; }
+
+        public BigDecimal getPrice() { return price; }
+
+        public String getCurrency() { return currency; }
+
+        public Instant getPurchaseTime() { return purchaseTime; }
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() { return "pkg_license.changelog-master"; }
+}
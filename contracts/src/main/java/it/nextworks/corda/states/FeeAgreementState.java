@@ -2,8 +2,10 @@ package it.nextworks.corda.states;
 
 import it.nextworks.corda.contracts.FeeAgreementContract;
 import it.nextworks.corda.schemas.FeeAgreementSchemaV1;
+import it.nextworks.corda.schemas.FeeAgreementSchemaV2;
 import net.corda.core.contracts.BelongsToContract;
 import net.corda.core.contracts.ContractState;
+import net.corda.core.crypto.CryptoUtils;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
 import net.corda.core.schemas.MappedSchema;
@@ -57,16 +59,21 @@ public class FeeAgreementState implements ContractState, QueryableState {
     @NotNull
     @Override
     public PersistentState generateMappedObject(@NotNull MappedSchema schema) {
-        if(schema instanceof FeeAgreementSchemaV1)
+        if(schema instanceof FeeAgreementSchemaV2)
+            return new FeeAgreementSchemaV2.PersistentFeeAgreementState(fee,
+                    CryptoUtils.toStringShort(developer.getOwningKey()),
+                    CryptoUtils.toStringShort(repositoryNode.getOwningKey()));
+        else if(schema instanceof FeeAgreementSchemaV1)
             return new FeeAgreementSchemaV1.PersistentFeeAgreementState(fee, developer.getName().toString(),
                     repositoryNode.getName().toString());
         else
             throw new IllegalArgumentException("Unrecognised schema " + schema);
     }
 
+    /* The V1 rows are migrated to the V2 schema, only the latter is populated for new states */
     @NotNull
     @Override
-    public Iterable<MappedSchema> supportedSchemas() { return Arrays.asList(new FeeAgreementSchemaV1()); }
+    public Iterable<MappedSchema> supportedSchemas() { return Arrays.asList(new FeeAgreementSchemaV2()); }
 
     @Override
     public String toString() {
@@ -1,43 +1,155 @@
 package it.nextworks.corda.states;
 
 import it.nextworks.corda.contracts.PkgLicenseContract;
-import net.corda.core.contracts.BelongsToContract;
-import net.corda.core.contracts.ContractState;
-import net.corda.core.contracts.StateAndRef;
+import it.nextworks.corda.schemas.PkgLicenseSchemaV1;
+import it.nextworks.corda.schemas.PkgLicenseSchemaV2;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.CryptoUtils;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
+import net.corda.core.serialization.ConstructorForDeserialization;
+import net.corda.core.serialization.DeprecatedConstructorForDeserialization;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.jetbrains.annotations.NotNull;
 
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.Currency;
 import java.util.List;
 
+/**
+ * License issued by the purchase of a package. The licensed PkgOfferState is not embedded: it is a
+ * reference input of the purchase transaction and the license keeps only its StateRef together with
+ * a snapshot of the fields of the offer needed to verify and display the purchase.
+ * The licenses issued before, that embedded the whole offer in the pkgLicensed property, are still
+ * deserialised through the deprecated constructor, that takes the snapshot from the embedded offer.
+ */
 @BelongsToContract(PkgLicenseContract.class)
-public class PkgLicenseState implements ContractState {
+public class PkgLicenseState implements ContractState, QueryableState {
 
-    private final StateAndRef<PkgOfferState> pkgLicensed;
+    private final StateRef pkgRef;
+    private final UniqueIdentifier pkgId;
+    private final String pkgInfoId;
+    private final PkgOfferState.PkgType pkgType;
+    private final Party author;
+    private final Party repositoryNode;
+    private final Amount<Currency> price;
+    private final int seats;
     private final Party buyer;
+    private final Instant purchaseTime;
+    private final StateAndRef<PkgOfferState> pkgLicensed;
+
+    /** Purchase time of the licenses issued before it was recorded */
+    public static final Instant unknownPurchaseTime = Instant.EPOCH;
 
     /**
      * Constructor of the package License State representation
-     * @param pkgLicensed    reference to the package State sold
+     * @param pkgRef         reference to the package State sold, used as reference input of the purchase
+     * @param pkgId          linearId of the package sold
+     * @param pkgInfoId      id of the package sold in the 5g-catalogue
+     * @param pkgType        type of the package sold
+     * @param author         author of the package sold
+     * @param repositoryNode Repository Node that sold the package
+     * @param price          price paid for all the seats of the package
+     * @param seats          number of seats licensed
      * @param buyer          the user who bought the package associated to this license
+     * @param purchaseTime   time of the purchase
      */
-    public PkgLicenseState(StateAndRef<PkgOfferState> pkgLicensed, Party buyer) {
-        this.pkgLicensed = pkgLicensed;
-        this.buyer       = buyer;
+    @ConstructorForDeserialization
+    public PkgLicenseState(StateRef pkgRef, UniqueIdentifier pkgId, String pkgInfoId, PkgOfferState.PkgType pkgType,
+                           Party author, Party repositoryNode, Amount<Currency> price, int seats, Party buyer,
+                           Instant purchaseTime) {
+        this.pkgRef         = pkgRef;
+        this.pkgId          = pkgId;
+        this.pkgInfoId      = pkgInfoId;
+        this.pkgType        = pkgType;
+        this.author         = author;
+        this.repositoryNode = repositoryNode;
+        this.price          = price;
+        this.seats          = seats;
+        this.buyer          = buyer;
+        this.purchaseTime   = purchaseTime;
+        this.pkgLicensed    = null;
     }
 
-    /** Getters */
+    /**
+     * Constructor of the package License State representation, the snapshot is taken from the package sold
+     * and the price is the one of the seats licensed
+     * @param pkgLicensed    the package State sold
+     * @param buyer          the user who bought the package associated to this license
+     * @param seats          number of seats licensed
+     * @param purchaseTime   time of the purchase
+     */
+    public PkgLicenseState(StateAndRef<PkgOfferState> pkgLicensed, Party buyer, int seats, Instant purchaseTime) {
+        this(pkgLicensed.getRef(), pkgLicensed.getState().getData().getLinearId(),
+                pkgLicensed.getState().getData().getPkgInfoId(), pkgLicensed.getState().getData().getPkgType(),
+                pkgLicensed.getState().getData().getAuthor(), pkgLicensed.getState().getData().getRepositoryNode(),
+                pkgLicensed.getState().getData().getPrice(seats), seats, buyer, purchaseTime);
+    }
 
-    public StateAndRef<PkgOfferState> getPkgLicensed() {
-        return pkgLicensed;
+    /**
+     * Constructor of the package License State representation of a single seat
+     * @param pkgLicensed    the package State sold
+     * @param buyer          the user who bought the package associated to this license
+     * @param purchaseTime   time of the purchase
+     */
+    public PkgLicenseState(StateAndRef<PkgOfferState> pkgLicensed, Party buyer, Instant purchaseTime) {
+        this(pkgLicensed, buyer, 1, purchaseTime);
     }
 
-    public Party getBuyer() {
-        return buyer;
+    /**
+     * Constructor used to deserialise the licenses issued before the snapshot, that embedded the package
+     * State sold: a single seat at the price of the offer, with no purchase time recorded
+     * @param pkgLicensed    the package State sold
+     * @param buyer          the user who bought the package associated to this license
+     */
+    @DeprecatedConstructorForDeserialization(version = 1)
+    public PkgLicenseState(StateAndRef<PkgOfferState> pkgLicensed, Party buyer) {
+        this.pkgRef         = pkgLicensed.getRef();
+        this.pkgId          = pkgLicensed.getState().getData().getLinearId();
+        this.pkgInfoId      = pkgLicensed.getState().getData().getPkgInfoId();
+        this.pkgType        = pkgLicensed.getState().getData().getPkgType();
+        this.author         = pkgLicensed.getState().getData().getAuthor();
+        this.repositoryNode = pkgLicensed.getState().getData().getRepositoryNode();
+        this.price          = pkgLicensed.getState().getData().getPrice(1);
+        this.seats          = 1;
+        this.buyer          = buyer;
+        this.purchaseTime   = unknownPurchaseTime;
+        this.pkgLicensed    = pkgLicensed;
     }
 
+    /** Getters */
+
+    public StateRef getPkgRef() { return pkgRef; }
+
+    public UniqueIdentifier getPkgId() { return pkgId; }
+
+    public String getPkgInfoId() { return pkgInfoId; }
+
+    public PkgOfferState.PkgType getPkgType() { return pkgType; }
+
+    public Party getAuthor() { return author; }
+
+    public Party getRepositoryNode() { return repositoryNode; }
+
+    public Amount<Currency> getPrice() { return price; }
+
+    public int getSeats() { return seats; }
+
+    public Party getBuyer() { return buyer; }
+
+    public Instant getPurchaseTime() { return purchaseTime; }
+
+    /**
+     * @return the package State embedded by the licenses issued before the snapshot, null for the others
+     * @deprecated read the snapshot fields and resolve the offer through {@link #getPkgRef()}
+     */
+    @Deprecated
+    public StateAndRef<PkgOfferState> getPkgLicensed() { return pkgLicensed; }
+
     /**
      * This method will indicate who are the participants and required signers when
      * this state is used in a transaction.
@@ -46,14 +158,42 @@ public class PkgLicenseState implements ContractState {
     @NotNull
     @Override
     public List<AbstractParty> getParticipants() {
-        return Arrays.asList(buyer, pkgLicensed.getState().getData().getRepositoryNode());
+        return Arrays.asList(buyer, repositoryNode);
     }
 
+    @NotNull
+    @Override
+    public PersistentState generateMappedObject(@NotNull MappedSchema schema) {
+        if(schema instanceof PkgLicenseSchemaV2)
+            return new PkgLicenseSchemaV2.PersistentPkgLicenseState(
+                    CryptoUtils.toStringShort(buyer.getOwningKey()), pkgId.getId(), pkgInfoId,
+                    price.toDecimal(), price.getToken().getCurrencyCode(), seats, purchaseTime);
+        else if(schema instanceof PkgLicenseSchemaV1)
+            return new PkgLicenseSchemaV1.PersistentPkgLicenseState(
+                    CryptoUtils.toStringShort(buyer.getOwningKey()), pkgId.getId(), pkgInfoId,
+                    price.toDecimal(), price.getToken().getCurrencyCode(), purchaseTime);
+        else
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+    }
+
+    /* The V1 rows are migrated to the V2 schema, only the latter is populated for new states */
+    @NotNull
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() { return Arrays.asList(new PkgLicenseSchemaV2()); }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this)
-                .append("pkgLicensed", pkgLicensed)
+                .append("pkgRef", pkgRef)
+                .append("pkgId", pkgId)
+                .append("pkgInfoId", pkgInfoId)
+                .append("pkgType", pkgType)
+                .append("author", author)
+                .append("repositoryNode", repositoryNode)
+                .append("price", price)
+                .append("seats", seats)
                 .append("buyer", buyer)
+                .append("purchaseTime", purchaseTime)
                 .toString();
     }
 }
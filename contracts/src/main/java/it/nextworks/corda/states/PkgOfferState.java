@@ -4,6 +4,7 @@ import it.nextworks.corda.contracts.PkgOfferContract;
 import it.nextworks.corda.schemas.PkgOfferSchemaV1;
 import it.nextworks.corda.states.productOfferingPrice.Money;
 import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import it.nextworks.corda.states.productOfferingPrice.Quantity;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.BelongsToContract;
 import net.corda.core.contracts.LinearState;
@@ -114,6 +115,34 @@ public class PkgOfferState implements LinearState, QueryableState {
                 BigDecimal.ROUND_HALF_EVEN), Currency.getInstance(money.getUnit()));
     }
 
+    /**
+     * Number of seats covered by the price, as stated by the unit of measure of the offering price;
+     * PkgOfferContract only accepts a whole number of seats, see {@link #isIntegralUnitOfMeasure}
+     */
+    public int getSeatsPerUnit() {
+        return Math.max(1, (int)poPrice.getUnitOfMeasure().getAmount());
+    }
+
+    /**
+     * Check that a unit of measure states a whole, positive number of seats
+     * @param unitOfMeasure the unit of measure of an offering price
+     * @return true if the amount of the unit of measure is a positive integer
+     */
+    public static boolean isIntegralUnitOfMeasure(Quantity unitOfMeasure) {
+        final float amount = unitOfMeasure.getAmount();
+        return amount >= 1 && amount <= Integer.MAX_VALUE && amount == (float)Math.floor(amount);
+    }
+
+    /**
+     * Compute the price of a volume license, charged for each unit of measure started
+     * @param seats number of seats licensed
+     * @return the price of the seats
+     */
+    public Amount<Currency> getPrice(int seats) {
+        final int seatsPerUnit = getSeatsPerUnit();
+        return getPrice().times(((long)seats + seatsPerUnit - 1) / seatsPerUnit);
+    }
+
     /**
      * This method will indicate who are the participants and required signers when
      * this state is used in a transaction.
@@ -0,0 +1,136 @@
+package it.nextworks.corda.contracts;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+import org.junit.Test;
+
+import static it.nextworks.corda.contracts.PkgOfferUtils.*;
+import static net.corda.testing.node.NodeTestUtils.ledger;
+
+/** Test PkgOfferContract class in cases where the command used in the transaction is BatchDeletePkg */
+public class BatchDeletePkgContractTest {
+
+    /** Simulate a Corda Network composed by three nodes: two developers and the repositoryNode */
+    private static final TestIdentity devTest =
+            new TestIdentity(CordaX500Name.parse(devX500Name));
+    private static final TestIdentity otherDevTest =
+            new TestIdentity(CordaX500Name.parse(otherDevX500Name));
+    private static final TestIdentity repositoryNodeTest =
+            new TestIdentity(CordaX500Name.parse(repositoryX500Name));
+    private static final MockServices ledgerServices =
+            new MockServices(ImmutableList.of(cordAppContractsPkg),
+                    devTest, otherDevTest, repositoryNodeTest);
+
+    private ProductOfferingPrice createProductOfferingPrice() {
+        return new ProductOfferingPrice(testPoId, testLink, testDescription, testIsBundle, testLastUpdate,
+                testLifecycleStatus, testPoName, testPercentage, testPriceType, testRecChargePeriodLength,
+                testRecChargePeriodType, testVersion, testPrice, testQuantity, testValidFor);
+    }
+
+    private PkgOfferState createPkgOfferState(Party author) {
+        return new PkgOfferState(new UniqueIdentifier(), testName, testDescription, testVersion, testPkgInfoId,
+                testLink, testPkgType, createProductOfferingPrice(), author, repositoryNodeTest.getParty());
+    }
+
+    /** Test that a transaction consuming several packages of the same author verifies */
+    @Test
+    public void transactionWithSeveralInputsVerifies() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(PkgOfferContract.ID, createPkgOfferState(devTest.getParty()));
+                tx.input(PkgOfferContract.ID, createPkgOfferState(devTest.getParty()));
+                tx.input(PkgOfferContract.ID, createPkgOfferState(devTest.getParty()));
+                tx.fails();
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchDeletePkg());
+
+                return tx.verifies();
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a transaction must have at least one input */
+    @Test
+    public void transactionMustHaveAtLeastOneInput() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchDeletePkg());
+
+                return tx.failsWith(batchDeletePkgInputErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a transaction must have no output */
+    @Test
+    public void transactionMustHaveNoOutputs() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                PkgOfferState pkgOfferState = createPkgOfferState(devTest.getParty());
+                tx.input(PkgOfferContract.ID, pkgOfferState);
+                tx.output(PkgOfferContract.ID, pkgOfferState);
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchDeletePkg());
+
+                return tx.failsWith(deletePkgOutputErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that all the packages of a transaction must have the same author */
+    @Test
+    public void inputsMustHaveTheSameAuthor() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(PkgOfferContract.ID, createPkgOfferState(devTest.getParty()));
+                tx.input(PkgOfferContract.ID, createPkgOfferState(otherDevTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchDeletePkg());
+
+                return tx.failsWith(batchSameAuthorErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the <author> must sign the transaction */
+    @Test
+    public void authorMustSignTransaction() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(PkgOfferContract.ID, createPkgOfferState(devTest.getParty()));
+                tx.input(PkgOfferContract.ID, createPkgOfferState(devTest.getParty()));
+                tx.command(ImmutableList.of(otherDevTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchDeletePkg());
+
+                return tx.failsWith(mustBeSignersErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the transaction must be signed by two parties */
+    @Test
+    public void transactionMustHaveTwoSigners() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(PkgOfferContract.ID, createPkgOfferState(devTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchDeletePkg());
+
+                return tx.failsWith(twoSignersErr);
+            });
+            return null;
+        }));
+    }
+}
@@ -0,0 +1,170 @@
+package it.nextworks.corda.contracts;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+import org.junit.Test;
+
+import static it.nextworks.corda.contracts.PkgOfferUtils.*;
+import static net.corda.testing.node.NodeTestUtils.ledger;
+
+/** Test PkgOfferContract class in cases where the command used in the transaction is BatchRegisterPkg */
+public class BatchRegisterPkgContractTest {
+
+    /** Simulate a Corda Network composed by three nodes: two developers and the repositoryNode */
+    private static final TestIdentity devTest =
+            new TestIdentity(CordaX500Name.parse(devX500Name));
+    private static final TestIdentity otherDevTest =
+            new TestIdentity(CordaX500Name.parse(otherDevX500Name));
+    private static final TestIdentity repositoryNodeTest =
+            new TestIdentity(CordaX500Name.parse(repositoryX500Name));
+    private static final MockServices ledgerServices =
+            new MockServices(ImmutableList.of(cordAppContractsPkg),
+                    devTest, otherDevTest, repositoryNodeTest);
+
+    private ProductOfferingPrice createProductOfferingPrice() {
+        return new ProductOfferingPrice(testPoId, testLink, testDescription, testIsBundle, testLastUpdate,
+                testLifecycleStatus, testPoName, testPercentage, testPriceType, testRecChargePeriodLength,
+                testRecChargePeriodType, testVersion, testPrice, testQuantity, testValidFor);
+    }
+
+    private PkgOfferState createPkgOfferState(UniqueIdentifier linearId, String name, Party author) {
+        return new PkgOfferState(linearId, name, testDescription, testVersion, testPkgInfoId, testLink,
+                testPkgType, createProductOfferingPrice(), author, repositoryNodeTest.getParty());
+    }
+
+    /** Test that a transaction with several packages of the same author verifies */
+    @Test
+    public void transactionWithSeveralOutputsVerifies() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), testName,
+                        devTest.getParty()));
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), testName,
+                        devTest.getParty()));
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), testName,
+                        devTest.getParty()));
+                tx.fails();
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchRegisterPkg());
+
+                return tx.verifies();
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a transaction must have no input (does not consume input) */
+    @Test
+    public void transactionMustHaveNoInputs() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                PkgOfferState pkgOfferState = createPkgOfferState(testId, testName, devTest.getParty());
+                tx.input(PkgOfferContract.ID, pkgOfferState);
+                tx.output(PkgOfferContract.ID, pkgOfferState);
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchRegisterPkg());
+
+                return tx.failsWith(createPkgInputErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a transaction must have at least one output */
+    @Test
+    public void transactionMustHaveAtLeastOneOutput() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchRegisterPkg());
+
+                return tx.failsWith(batchRegisterPkgOutputErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that every output of the transaction is verified as a new package */
+    @Test
+    public void everyStateMustBeWellFormatted() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), testName,
+                        devTest.getParty()));
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), " ",
+                        devTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchRegisterPkg());
+
+                return tx.failsWith(PkgOfferUtils.name + strErrMsg);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that all the packages of a transaction must have the same author */
+    @Test
+    public void statesMustHaveTheSameAuthor() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), testName,
+                        devTest.getParty()));
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), testName,
+                        otherDevTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchRegisterPkg());
+
+                return tx.failsWith(batchSameAuthorErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the packages of a transaction cannot share the same <linearId> */
+    @Test
+    public void statesMustHaveUniqueLinearId() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(PkgOfferContract.ID, createPkgOfferState(testId, testName, devTest.getParty()));
+                tx.output(PkgOfferContract.ID, createPkgOfferState(testId, testName, devTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchRegisterPkg());
+
+                return tx.failsWith(batchDuplicateLinearIdErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the author and the repositoryNode must be the only signers */
+    @Test
+    public void authorAndRepositoryNodeMustBeSigners() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), testName,
+                        devTest.getParty()));
+                tx.output(PkgOfferContract.ID, createPkgOfferState(new UniqueIdentifier(), testName,
+                        devTest.getParty()));
+
+                tx.tweak(tw -> {
+                    tw.command(ImmutableList.of(devTest.getPublicKey()),
+                            new PkgOfferContract.Commands.BatchRegisterPkg());
+
+                    return tw.failsWith(twoSignersErr);
+                });
+
+                tx.command(ImmutableList.of(devTest.getPublicKey(), otherDevTest.getPublicKey()),
+                        new PkgOfferContract.Commands.BatchRegisterPkg());
+
+                return tx.failsWith(mustBeSignersErr);
+            });
+            return null;
+        }));
+    }
+}
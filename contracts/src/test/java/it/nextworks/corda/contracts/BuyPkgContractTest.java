@@ -1,12 +1,15 @@
 package it.nextworks.corda.contracts;
 
 import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.states.FeeAgreementState;
 import it.nextworks.corda.states.PkgOfferState;
 import it.nextworks.corda.states.PkgLicenseState;
 import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.PartyAndReference;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TimeWindow;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.utilities.OpaqueBytes;
@@ -17,6 +20,8 @@ import net.corda.testing.node.MockServices;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Currency;
 import java.util.Locale;
@@ -59,6 +64,25 @@ public class BuyPkgContractTest {
                 new PkgOfferContract.Commands.RegisterPkg());
     }
 
+    /**
+     * Function used to generate a transaction that will output a FeeAgreementState that will
+     * be used as reference input in a PkgLicenseState transaction that splits the payment
+     * @param tx        transaction that will output a FeeAgreementState
+     * @param label     label of the output FeeAgreementState
+     * @param developer the developer that established the agreement
+     */
+    private void generateFeeAgreementState(@NotNull TransactionDSL<?> tx, String label, TestIdentity developer) {
+        tx.output(FeeAgreementContract.ID, label, new FeeAgreementState(testFee, developer.getParty(),
+                repositoryNodeTest.getParty()));
+        tx.command(ImmutableList.of(developer.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                new FeeAgreementContract.Commands.EstablishFeeAgreement());
+    }
+
+    /** Time window of the purchase transactions, around the purchase time of their licenses */
+    private static TimeWindow purchaseWindow() {
+        return TimeWindow.withTolerance(Instant.now(), Duration.ofSeconds(30));
+    }
+
     /**
      * Generate a Cash state with default opaque bytes
      * @param owner  the Party that will own this Cash state
@@ -84,11 +108,13 @@ public class BuyPkgContractTest {
                 Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
                         Currency.getInstance(Locale.ITALY)));
                 tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
 
                 tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
 
                 StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
 
                 tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
                 tx.fails();
@@ -114,12 +140,14 @@ public class BuyPkgContractTest {
                 Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
                         Currency.getInstance(Locale.ITALY)));
                 tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
 
                 tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
 
                 StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty()));
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
 
                 tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
                 tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
@@ -144,11 +172,13 @@ public class BuyPkgContractTest {
                 Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(200,
                         Currency.getInstance(Locale.ITALY)));
                 tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
 
                 tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
 
                 StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
 
                 tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
                 tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
@@ -173,11 +203,13 @@ public class BuyPkgContractTest {
                 Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
                         Currency.getInstance(Locale.ITALY)));
                 tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
 
                 tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
 
                 StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, null));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, null, Instant.now()));
+                tx.timeWindow(purchaseWindow());
 
                 tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
                 tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
@@ -202,11 +234,14 @@ public class BuyPkgContractTest {
                 Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
                         Currency.getInstance(Locale.ITALY)));
                 tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
 
                 tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
 
                 StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, repositoryNodeTest.getParty()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, repositoryNodeTest.getParty(),
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
 
                 tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
                 tx.command(ImmutableList.of(repositoryNodeTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
@@ -231,11 +266,13 @@ public class BuyPkgContractTest {
                 Cash.State inputCash = createCashState(devTest.getParty(), new Amount<>(100,
                         Currency.getInstance(Locale.ITALY)));
                 tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
 
                 tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
 
                 StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, devTest.getParty()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, devTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
 
                 tx.command(devTest.getPublicKey(), new Cash.Commands.Move());
                 tx.command(ImmutableList.of(repositoryNodeTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
@@ -260,11 +297,13 @@ public class BuyPkgContractTest {
                 Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
                         Currency.getInstance(Locale.ITALY)));
                 tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
 
                 tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
 
                 StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
 
                 tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
                 tx.command(ImmutableList.of(repositoryNodeTest.getPublicKey()),
@@ -289,11 +328,13 @@ public class BuyPkgContractTest {
                 Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
                         Currency.getInstance(Locale.ITALY)));
                 tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
 
                 tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
 
                 StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
-                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
 
                 tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
                 tx.command(ImmutableList.of(buyerTest.getPublicKey()),
@@ -304,4 +345,489 @@ public class BuyPkgContractTest {
             return null;
         }));
     }
+
+    /** Test that the price can be split between the author and the repositoryNode as stated by their agreement */
+    @Test
+    public void transactionWithSplitPayoutVerifies() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+            ledger.transaction(tx -> {
+                generateFeeAgreementState(tx, feeAgreement, devTest);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+                tx.reference(feeAgreement);
+
+                tx.output(Cash.PROGRAM_ID, createCashState(repositoryNodeTest.getParty(), new Amount<>(10,
+                        Currency.getInstance(Locale.ITALY))));
+                tx.output(Cash.PROGRAM_ID, createCashState(devTest.getParty(), new Amount<>(90,
+                        Currency.getInstance(Locale.ITALY))));
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.verifies();
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the author must receive the price minus the fee of the referenced agreement */
+    @Test
+    public void transactionMustPayTheRightShareToTheAuthor() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+            ledger.transaction(tx -> {
+                generateFeeAgreementState(tx, feeAgreement, devTest);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+                tx.reference(feeAgreement);
+
+                tx.output(Cash.PROGRAM_ID, createCashState(repositoryNodeTest.getParty(), new Amount<>(20,
+                        Currency.getInstance(Locale.ITALY))));
+                tx.output(Cash.PROGRAM_ID, createCashState(devTest.getParty(), new Amount<>(80,
+                        Currency.getInstance(Locale.ITALY))));
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(developerShareErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the repositoryNode must receive exactly the fee of the referenced agreement */
+    @Test
+    public void transactionMustPayTheRightFeeToTheRepositoryNode() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+            ledger.transaction(tx -> {
+                generateFeeAgreementState(tx, feeAgreement, devTest);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(110,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+                tx.reference(feeAgreement);
+
+                tx.output(Cash.PROGRAM_ID, createCashState(repositoryNodeTest.getParty(), new Amount<>(20,
+                        Currency.getInstance(Locale.ITALY))));
+                tx.output(Cash.PROGRAM_ID, createCashState(devTest.getParty(), new Amount<>(90,
+                        Currency.getInstance(Locale.ITALY))));
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(repositoryShareErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the referenced agreement must be the one between the author and the repositoryNode */
+    @Test
+    public void referencedFeeAgreementMustBelongToTheAuthor() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+            ledger.transaction(tx -> {
+                generateFeeAgreementState(tx, feeAgreement, buyerTest);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+                tx.reference(feeAgreement);
+
+                tx.output(Cash.PROGRAM_ID, createCashState(repositoryNodeTest.getParty(), new Amount<>(10,
+                        Currency.getInstance(Locale.ITALY))));
+                tx.output(Cash.PROGRAM_ID, createCashState(devTest.getParty(), new Amount<>(90,
+                        Currency.getInstance(Locale.ITALY))));
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(feeAgreementPartiesErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the transaction must reference at most one FeeAgreementState */
+    @Test
+    public void transactionMustReferenceOnlyOneFeeAgreement() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+            ledger.transaction(tx -> {
+                generateFeeAgreementState(tx, feeAgreement, devTest);
+                return tx.verifies();
+            });
+            ledger.transaction(tx -> {
+                generateFeeAgreementState(tx, feeAgreement + "Other", devTest);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+                tx.reference(feeAgreement);
+                tx.reference(feeAgreement + "Other");
+
+                tx.output(Cash.PROGRAM_ID, createCashState(repositoryNodeTest.getParty(), new Amount<>(10,
+                        Currency.getInstance(Locale.ITALY))));
+                tx.output(Cash.PROGRAM_ID, createCashState(devTest.getParty(), new Amount<>(90,
+                        Currency.getInstance(Locale.ITALY))));
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(feeAgreementRefErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the package sold must be a reference input of the transaction */
+    @Test
+    public void transactionMustReferenceThePkgOffer() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(buyPkgOfferRefErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the license must refer to the PkgOfferState used as reference input */
+    @Test
+    public void licenseMustReferToTheReferencedPkgOffer() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                PkgOfferState pkgOfferState = pkgLicensed.getState().getData();
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(new StateRef(pkgLicensed.getRef().getTxhash(), 1),
+                        pkgOfferState.getLinearId(), pkgOfferState.getPkgInfoId(), pkgOfferState.getPkgType(),
+                        pkgOfferState.getAuthor(), pkgOfferState.getRepositoryNode(), pkgOfferState.getPrice(),
+                        1, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(licenseOfferRefErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the price carried by the license must be the one of its seats */
+    @Test
+    public void licenseMustCarryThePriceOfThePkgOffer() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                PkgOfferState pkgOfferState = pkgLicensed.getState().getData();
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed.getRef(),
+                        pkgOfferState.getLinearId(), pkgOfferState.getPkgInfoId(), pkgOfferState.getPkgType(),
+                        pkgOfferState.getAuthor(), pkgOfferState.getRepositoryNode(),
+                        new Amount<>(1, pkgOfferState.getPrice().getToken()), 1, buyerTest.getParty(),
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(volumePriceErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the purchase transaction must have a time window */
+    @Test
+    public void purchaseMustHaveATimeWindow() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(),
+                        Instant.now()));
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(timeWindowErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a license issued before the snapshot takes the snapshot from the offer it embedded */
+    @Test
+    public void licenseEmbeddingTheOfferIsReadThroughTheDeprecatedConstructor() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+            PkgLicenseState pkgLicenseState = new PkgLicenseState(pkgLicensed, buyerTest.getParty());
+            assert pkgLicensed.equals(pkgLicenseState.getPkgLicensed());
+            assert pkgLicensed.getRef().equals(pkgLicenseState.getPkgRef());
+            assert pkgLicensed.getState().getData().getPkgInfoId().equals(pkgLicenseState.getPkgInfoId());
+            assert pkgLicensed.getState().getData().getPrice().equals(pkgLicenseState.getPrice());
+            assert pkgLicenseState.getSeats() == 1;
+            assert PkgLicenseState.unknownPurchaseTime.equals(pkgLicenseState.getPurchaseTime());
+            return null;
+        }));
+    }
+
+    /** Test that the purchase time of the license must fall within the time window of the transaction */
+    @Test
+    public void purchaseTimeMustFallWithinTheTimeWindow() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                Instant purchaseTime = Instant.now();
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(),
+                        purchaseTime.minus(Duration.ofHours(1))));
+                tx.timeWindow(TimeWindow.between(purchaseTime.minusSeconds(30), purchaseTime.plusSeconds(30)));
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(purchaseTimeOutOfWindow);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a single license can cover several seats, paid with the same cash movement */
+    @Test
+    public void volumeLicenseIsPaidForEachUnitOfMeasure() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(50000,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), 500,
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.verifies();
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the seats of a volume license must all be paid */
+    @Test
+    public void volumeLicenseMustPayAllTheSeats() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed, buyerTest.getParty(), 500,
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(differentAmountErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a license must cover at least one seat */
+    @Test
+    public void licenseMustCoverAtLeastOneSeat() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(toBeLicensed);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+
+                StateAndRef<PkgOfferState> pkgLicensed = ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeLicensed);
+                PkgOfferState pkgOfferState = pkgLicensed.getState().getData();
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(pkgLicensed.getRef(),
+                        pkgOfferState.getLinearId(), pkgOfferState.getPkgInfoId(), pkgOfferState.getPkgType(),
+                        pkgOfferState.getAuthor(), pkgOfferState.getRepositoryNode(), pkgOfferState.getPrice(),
+                        0, buyerTest.getParty(), Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkg());
+
+                return tx.failsWith(seatsErr);
+            });
+            return null;
+        }));
+    }
 }
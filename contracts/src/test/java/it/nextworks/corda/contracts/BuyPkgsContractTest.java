@@ -0,0 +1,276 @@
+package it.nextworks.corda.contracts;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.states.FeeAgreementState;
+import it.nextworks.corda.states.PkgLicenseState;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.PartyAndReference;
+import net.corda.core.contracts.TimeWindow;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.utilities.OpaqueBytes;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.dsl.TransactionDSL;
+import net.corda.testing.node.MockServices;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Locale;
+
+import static it.nextworks.corda.contracts.PkgLicenseUtils.*;
+import static net.corda.testing.node.NodeTestUtils.ledger;
+
+/** Test PkgLicenseContract class in cases where the command used in the transaction is BuyPkgs */
+public class BuyPkgsContractTest {
+
+    /** Simulate a Corda Network composed by three nodes: a buyer, a developer and the repositoryNode */
+    private static final TestIdentity devTest =
+            new TestIdentity(CordaX500Name.parse(devX500Name));
+    private static final TestIdentity buyerTest =
+            new TestIdentity(CordaX500Name.parse(buyerX500Name));
+    private static final TestIdentity repositoryNodeTest =
+            new TestIdentity(CordaX500Name.parse(repositoryX500Name));
+    private static final MockServices ledgerServices =
+            new MockServices(Arrays.asList(cordAppContractsPkg, cordAppFinancePkg), devTest,
+                    buyerTest, repositoryNodeTest);
+
+    private static final String firstPkg  = "firstPkg";
+    private static final String secondPkg = "secondPkg";
+
+    /**
+     * Function used to generate a transaction that will output two PkgOfferStates, the
+     * content of the cart, that will be used in a PkgLicenseState transaction
+     * @param tx transaction that will output the PkgOfferStates
+     */
+    private void generatePkgOfferStates(@NotNull TransactionDSL<?> tx) {
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink, PkgOfferUtils.testDescription,
+                PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate, PkgOfferUtils.testLifecycleStatus,
+                PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage, PkgOfferUtils.testPriceType,
+                PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+        tx.output(PkgOfferContract.ID, firstPkg, new PkgOfferState(new UniqueIdentifier(), PkgOfferUtils.testName,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId,
+                PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice, devTest.getParty(),
+                repositoryNodeTest.getParty()));
+        tx.output(PkgOfferContract.ID, secondPkg, new PkgOfferState(new UniqueIdentifier(), PkgOfferUtils.testName,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId + "-2",
+                PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice, devTest.getParty(),
+                repositoryNodeTest.getParty()));
+        tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                new PkgOfferContract.Commands.BatchRegisterPkg());
+    }
+
+    /** Time window of the purchase transactions, around the purchase time of their licenses */
+    private static TimeWindow purchaseWindow() {
+        return TimeWindow.withTolerance(Instant.now(), Duration.ofSeconds(30));
+    }
+
+    /**
+     * Generate a Cash state with default opaque bytes
+     * @param owner  the Party that will own this Cash state
+     * @param amount the amount of the Cash state
+     * @return       a brand new Cash.State object
+     */
+    private Cash.State createCashState(AbstractParty owner, Amount<Currency> amount) {
+        OpaqueBytes defaultBytes = new OpaqueBytes(new byte[1]);
+        PartyAndReference partyAndReference = new PartyAndReference(owner, defaultBytes);
+        return new Cash.State(partyAndReference, amount, owner);
+    }
+
+    /** Test that a cart issues a license per package and pays the summed price to the repositoryNode */
+    @Test
+    public void cartIssuesALicensePerPkgAndPaysTheTotal() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferStates(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(200,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(firstPkg);
+                tx.reference(secondPkg);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, firstPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, secondPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkgs());
+
+                return tx.verifies();
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the repositoryNode must receive the sum of the prices of the packages */
+    @Test
+    public void repositoryNodeMustReceiveTheSummedPrice() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferStates(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(100,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(firstPkg);
+                tx.reference(secondPkg);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, firstPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, secondPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkgs());
+
+                return tx.failsWith(differentAmountErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that every license of the cart must have its own referenced PkgOfferState */
+    @Test
+    public void eachLicenseMustHaveAReferencedPkgOffer() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferStates(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(200,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(firstPkg);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, firstPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, secondPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkgs());
+
+                return tx.failsWith(buyPkgsOfferRefErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a package cannot be licensed twice in the same cart */
+    @Test
+    public void eachLicenseMustReferToADifferentPkgOffer() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferStates(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Cash.State inputCash = createCashState(buyerTest.getParty(), new Amount<>(200,
+                        Currency.getInstance(Locale.ITALY)));
+                tx.input(Cash.PROGRAM_ID, inputCash);
+                tx.reference(firstPkg);
+                tx.reference(secondPkg);
+
+                tx.output(Cash.PROGRAM_ID, inputCash.withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, firstPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, firstPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkgs());
+
+                return tx.failsWith(duplicateLicenseErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that with a split payout the author receives the sum of its shares of the cart */
+    @Test
+    public void splitPayoutPaysTheAuthorItsSharesOfTheCart() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generatePkgOfferStates(tx);
+                return tx.verifies();
+            });
+            ledger.transaction(tx -> {
+                tx.output(FeeAgreementContract.ID, feeAgreement, new FeeAgreementState(testFee,
+                        devTest.getParty(), repositoryNodeTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new FeeAgreementContract.Commands.EstablishFeeAgreement());
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                Currency currency = Currency.getInstance(Locale.ITALY);
+                Amount<Currency> developerShare = PkgLicenseContract.developerShare(new Amount<>(100, currency),
+                        testFee);
+                Amount<Currency> developerTotal = developerShare.plus(developerShare);
+                tx.input(Cash.PROGRAM_ID, createCashState(buyerTest.getParty(), new Amount<>(200, currency)));
+                tx.reference(firstPkg);
+                tx.reference(secondPkg);
+                tx.reference(feeAgreement);
+
+                tx.output(Cash.PROGRAM_ID, createCashState(buyerTest.getParty(), developerTotal)
+                        .withNewOwner(devTest.getParty()).getOwnableState());
+                tx.output(Cash.PROGRAM_ID, createCashState(buyerTest.getParty(),
+                        new Amount<>(200, currency).minus(developerTotal))
+                        .withNewOwner(repositoryNodeTest.getParty()).getOwnableState());
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, firstPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.output(PkgLicenseContract.ID, new PkgLicenseState(
+                        ledger.retrieveOutputStateAndRef(PkgOfferState.class, secondPkg), buyerTest.getParty(),
+                        Instant.now()));
+                tx.timeWindow(purchaseWindow());
+
+                tx.command(buyerTest.getPublicKey(), new Cash.Commands.Move());
+                tx.command(ImmutableList.of(buyerTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgLicenseContract.Commands.BuyPkgs());
+
+                return tx.verifies();
+            });
+            return null;
+        }));
+    }
+}
@@ -3,6 +3,7 @@ package it.nextworks.corda.contracts;
 import com.google.common.collect.ImmutableList;
 import it.nextworks.corda.states.PkgOfferState;
 import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import it.nextworks.corda.states.productOfferingPrice.Quantity;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.testing.core.TestIdentity;
 import net.corda.testing.node.MockServices;
@@ -272,6 +273,50 @@ public class RegisterPkgContractTest {
         }));
     }
 
+    private ProductOfferingPrice createProductOfferingPrice(float unitOfMeasureAmount) {
+        return new ProductOfferingPrice(testPoId, testLink, testDescription, testIsBundle, testLastUpdate,
+                testLifecycleStatus, testPoName, testPercentage, testPriceType, testRecChargePeriodLength,
+                testRecChargePeriodType, testVersion, testPrice,
+                new Quantity(unitOfMeasureAmount, testQuantity.getUnit()), testValidFor);
+    }
+
+    /** Test that the unit of measure of the price of the output state must state a whole number of seats */
+    @Test
+    public void stateMustHaveIntegralUnitOfMeasure() {
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.RegisterPkg());
+
+                tx.tweak(tw -> {
+                    PkgOfferState pkgOfferState = new PkgOfferState(testId, testName, testDescription, testVersion,
+                            testPkgInfoId, testLink, testPkgType, createProductOfferingPrice(0),
+                            devTest.getParty(), repositoryNodeTest.getParty());
+                    tw.output(PkgOfferContract.ID, pkgOfferState);
+
+                    return tw.failsWith(unitOfMeasureErr);
+                });
+
+                tx.tweak(tw -> {
+                    PkgOfferState pkgOfferState = new PkgOfferState(testId, testName, testDescription, testVersion,
+                            testPkgInfoId, testLink, testPkgType, createProductOfferingPrice(2.5f),
+                            devTest.getParty(), repositoryNodeTest.getParty());
+                    tw.output(PkgOfferContract.ID, pkgOfferState);
+
+                    return tw.failsWith(unitOfMeasureErr);
+                });
+
+                PkgOfferState pkgOfferState = new PkgOfferState(testId, testName, testDescription, testVersion,
+                        testPkgInfoId, testLink, testPkgType, createProductOfferingPrice(10),
+                        devTest.getParty(), repositoryNodeTest.getParty());
+                tx.output(PkgOfferContract.ID, pkgOfferState);
+
+                return tx.verifies();
+            });
+            return null;
+        }));
+    }
+
     @Test
     public void stateMustHaveValidPkgType() {
         ledger(ledgerServices, (ledger -> {
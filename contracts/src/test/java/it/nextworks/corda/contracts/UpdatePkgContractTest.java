@@ -23,6 +23,8 @@ public class UpdatePkgContractTest {
             new TestIdentity(CordaX500Name.parse(devX500Name));
     private static final TestIdentity repositoryNodeTest =
             new TestIdentity(CordaX500Name.parse(repositoryX500Name));
+    private static final TestIdentity otherDevTest =
+            new TestIdentity(CordaX500Name.parse(otherDevX500Name));
     private static final MockServices ledgerServices =
             new MockServices(ImmutableList.of(cordAppContractsPkg),
                     devTest, repositoryNodeTest);
@@ -439,4 +441,134 @@ public class UpdatePkgContractTest {
             return null;
         }));
     }
+
+    private void generateInputPkgOfferStates(@NotNull TransactionDSL<?> tx, UniqueIdentifier secondId) {
+        tx.output(PkgOfferContract.ID, toBeUpdated, new PkgOfferState(testId, testName, testDescription,
+                testVersion, testPkgInfoId, testLink, testPkgType, createProductOfferingPrice(),
+                devTest.getParty(), repositoryNodeTest.getParty()));
+        tx.output(PkgOfferContract.ID, toBeUpdatedOther, new PkgOfferState(secondId, testName, testDescription,
+                testVersion, testPkgInfoId, testLink, testPkgType, createProductOfferingPrice(),
+                devTest.getParty(), repositoryNodeTest.getParty()));
+        tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                new PkgOfferContract.Commands.BatchRegisterPkg());
+    }
+
+    /** Test that several packages of the same author can be updated in a single transaction */
+    @Test
+    public void transactionCanUpdateSeveralPkgs() {
+        final UniqueIdentifier secondId = new UniqueIdentifier();
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generateInputPkgOfferStates(tx, secondId);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                tx.input(ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeUpdated).getRef());
+                tx.input(ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeUpdatedOther).getRef());
+                /* The outputs are paired with the inputs by linearId, not by position */
+                tx.output(PkgOfferContract.ID, new PkgOfferState(secondId, testNameUpdate, testDescriptionUpdate,
+                        testVersionUpdate, testPkgInfoId, testLinkUpdate, testPkgType,
+                        createProductOfferingPrice(), devTest.getParty(), repositoryNodeTest.getParty()));
+                tx.output(PkgOfferContract.ID, new PkgOfferState(testId, testNameUpdate, testDescriptionUpdate,
+                        testVersionUpdate, testPkgInfoId, testLinkUpdate, testPkgType,
+                        createProductOfferingPrice(), devTest.getParty(), repositoryNodeTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.UpdatePkg());
+
+                return tx.verifies();
+            });
+            return null;
+        }));
+    }
+
+    /** Test that a transaction must have an output for each input */
+    @Test
+    public void transactionMustHaveAnOutputForEachInput() {
+        final UniqueIdentifier secondId = new UniqueIdentifier();
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generateInputPkgOfferStates(tx, secondId);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                tx.input(ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeUpdated).getRef());
+                tx.input(ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeUpdatedOther).getRef());
+                tx.output(PkgOfferContract.ID, new PkgOfferState(testId, testNameUpdate, testDescriptionUpdate,
+                        testVersionUpdate, testPkgInfoId, testLinkUpdate, testPkgType,
+                        createProductOfferingPrice(), devTest.getParty(), repositoryNodeTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.UpdatePkg());
+
+                return tx.failsWith(updatePkgOutputErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that each output of a transaction must be paired with a different input */
+    @Test
+    public void outputsMustBePairedWithDifferentInputs() {
+        final UniqueIdentifier secondId = new UniqueIdentifier();
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generateInputPkgOfferStates(tx, secondId);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                tx.input(ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeUpdated).getRef());
+                tx.input(ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeUpdatedOther).getRef());
+                tx.output(PkgOfferContract.ID, new PkgOfferState(testId, testNameUpdate, testDescriptionUpdate,
+                        testVersionUpdate, testPkgInfoId, testLinkUpdate, testPkgType,
+                        createProductOfferingPrice(), devTest.getParty(), repositoryNodeTest.getParty()));
+                tx.output(PkgOfferContract.ID, new PkgOfferState(testId, testName, testDescriptionUpdate,
+                        testVersionUpdate, testPkgInfoId, testLinkUpdate, testPkgType,
+                        createProductOfferingPrice(), devTest.getParty(), repositoryNodeTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.UpdatePkg());
+
+                return tx.failsWith(updateLinearIdErr);
+            });
+            return null;
+        }));
+    }
+
+    /** Test that the packages updated in the same transaction must belong to the same author */
+    @Test
+    public void updatedPkgsMustHaveTheSameAuthor() {
+        final UniqueIdentifier secondId = new UniqueIdentifier();
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                generateInputPkgOfferState(tx);
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                tx.output(PkgOfferContract.ID, toBeUpdatedOther, new PkgOfferState(secondId, testName,
+                        testDescription, testVersion, testPkgInfoId, testLink, testPkgType,
+                        createProductOfferingPrice(), otherDevTest.getParty(), repositoryNodeTest.getParty()));
+                tx.command(ImmutableList.of(otherDevTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.RegisterPkg());
+                return tx.verifies();
+            });
+
+            ledger.transaction(tx -> {
+                tx.input(ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeUpdated).getRef());
+                tx.input(ledger.retrieveOutputStateAndRef(PkgOfferState.class, toBeUpdatedOther).getRef());
+                tx.output(PkgOfferContract.ID, new PkgOfferState(testId, testNameUpdate, testDescriptionUpdate,
+                        testVersionUpdate, testPkgInfoId, testLinkUpdate, testPkgType,
+                        createProductOfferingPrice(), devTest.getParty(), repositoryNodeTest.getParty()));
+                tx.output(PkgOfferContract.ID, new PkgOfferState(secondId, testNameUpdate, testDescriptionUpdate,
+                        testVersionUpdate, testPkgInfoId, testLinkUpdate, testPkgType,
+                        createProductOfferingPrice(), otherDevTest.getParty(), repositoryNodeTest.getParty()));
+                tx.command(ImmutableList.of(devTest.getPublicKey(), repositoryNodeTest.getPublicKey()),
+                        new PkgOfferContract.Commands.UpdatePkg());
+
+                return tx.failsWith(batchSameAuthorErr);
+            });
+            return null;
+        }));
+    }
 }
@@ -261,9 +261,11 @@ public class DriverBasedFlowsTest {
         expectEvents(observer, true, () ->
                 expect(pkgLicenseUpdateClass, update -> true, update -> {
                     PkgLicenseState recordedState = update.getProduced().iterator().next().getState().getData();
-                    PkgOfferState pkgOfferState = recordedState.getPkgLicensed().getState().getData();
-                    checkPkgOfferStateCorrectness(pkgOfferState, pkgId, poPrice,
-                            devHandle.getNodeInfo().getLegalIdentities().get(0),
+                    assertEquals(recordedState.getPkgId(), pkgId);
+                    assertEquals(recordedState.getPkgInfoId(), PkgOfferUtils.testPkgInfoId);
+                    assertEquals(recordedState.getPkgType(), PkgOfferUtils.testPkgType);
+                    assertEquals(recordedState.getAuthor(), devHandle.getNodeInfo().getLegalIdentities().get(0));
+                    assertEquals(recordedState.getRepositoryNode(),
                             repositoryHandle.getNodeInfo().getLegalIdentities().get(0));
                     assertEquals(recordedState.getBuyer(), buyerHandle.getNodeInfo().getLegalIdentities().get(0));
 
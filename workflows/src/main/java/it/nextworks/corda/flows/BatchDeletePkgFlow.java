@@ -0,0 +1,242 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import it.nextworks.corda.contracts.PkgOfferContract;
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+import static it.nextworks.corda.flows.BatchDeletePkgFlowUtils.*;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Delete several packages of the same developer with a single flow. The packages are split in
+ * chunks and each chunk is consumed by one transaction, so that a whole chunk pays a single signature
+ * round, notarisation and finality broadcast.
+ */
+public class BatchDeletePkgFlow {
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class DevInitiation extends FlowLogic<List<SignedTransaction>> {
+
+        private final List<UniqueIdentifier> linearIds;
+        private final int chunkSize;
+
+        private final Step RETRIEVING_PKGS_FROM_LID = new Step(BatchDeletePkgFlowUtils.RETRIEVING_PKGS_FROM_LID);
+        private final Step GENERATING_TRANSACTION   = new Step(BatchDeletePkgFlowUtils.GENERATING_TRANSACTION);
+        private final Step VERIFYING_TRANSACTION    = new Step(BatchDeletePkgFlowUtils.VERIFYING_TRANSACTION);
+        private final Step SIGNING_TRANSACTION      = new Step(BatchDeletePkgFlowUtils.SIGNING_TRANSACTION);
+        private final Step GATHERING_SIGNS          = new Step(BatchDeletePkgFlowUtils.GATHERING_SIGNS);
+        private final Step FINALISING_TRANSACTION   = new Step(BatchDeletePkgFlowUtils.FINALISING_TRANSACTION);
+
+        /*
+         * The steps from GENERATING_TRANSACTION to FINALISING_TRANSACTION are repeated for every chunk,
+         * so they do not carry the progress trackers of the sub-flows
+         */
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RETRIEVING_PKGS_FROM_LID,
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGNS,
+                FINALISING_TRANSACTION
+        );
+
+        /**
+         * Constructor of the Initiating flow class, all the packages are deleted in a single transaction
+         * when they fit in the maximum chunk size
+         * @param linearIds IDs of the packages to delete
+         */
+        public DevInitiation(List<UniqueIdentifier> linearIds) {
+            this(linearIds, maxChunkSize);
+        }
+
+        /**
+         * Constructor of the Initiating flow class
+         * @param linearIds IDs of the packages to delete
+         * @param chunkSize maximum number of packages deleted by each transaction
+         */
+        public DevInitiation(List<UniqueIdentifier> linearIds, int chunkSize) {
+            if(chunkSize < 1 || chunkSize > maxChunkSize)
+                throw new IllegalArgumentException(chunkSizeErr);
+
+            this.linearIds = linearIds;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            if(linearIds == null || linearIds.isEmpty())
+                throw new IllegalArgumentException(emptyBatchErr);
+            if(linearIds.size() > maxBatchSize)
+                throw new IllegalArgumentException(batchTooLargeErr);
+
+            final Party author = getOurIdentity();
+
+            /* Set the current step to RETRIEVING_PKGS_FROM_LID and proceed to look up all the packages */
+            progressTracker.setCurrentStep(RETRIEVING_PKGS_FROM_LID);
+
+            final Set<UniqueIdentifier> distinctIds = new HashSet<>();
+            for(UniqueIdentifier linearId : linearIds) {
+                if(linearId == null)
+                    throw new IllegalArgumentException(DeletePkgFlowUtils.nullLinearId);
+                if(!distinctIds.add(linearId))
+                    throw new IllegalArgumentException(duplicatePkgErr + linearId);
+            }
+            final Map<UniqueIdentifier, StateAndRef<PkgOfferState>> pkgs =
+                    getServiceHub().cordaService(PkgOfferIndexService.class).getPkgs(distinctIds);
+            final List<StateAndRef<PkgOfferState>> toDelete = new ArrayList<>();
+            for(UniqueIdentifier linearId : linearIds) {
+                final StateAndRef<PkgOfferState> pkg = pkgs.get(linearId);
+                if(pkg == null)
+                    throw new DeletePkgFlow.NonExistentPkgException(linearId);
+                if(!pkg.getState().getData().getAuthor().equals(author))
+                    throw new IllegalArgumentException(notAuthorErr);
+                toDelete.add(pkg);
+            }
+            /* The packages are deleted by the repository node that lists them, the same one for the whole batch */
+            final Party repositoryNode = toDelete.get(0).getState().getData().getRepositoryNode();
+            /* and consumed by the notary they were assigned to, the same one for the whole batch as well */
+            final Party notary = toDelete.get(0).getState().getNotary();
+            for(StateAndRef<PkgOfferState> pkg : toDelete) {
+                if(!pkg.getState().getData().getRepositoryNode().equals(repositoryNode))
+                    throw new IllegalArgumentException(mixedRepositoriesErr);
+                if(!pkg.getState().getNotary().equals(notary))
+                    throw new IllegalArgumentException(mixedNotariesErr);
+            }
+
+            final List<List<StateAndRef<PkgOfferState>>> chunks = Lists.partition(toDelete, chunkSize);
+            FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
+            repositoryNodeSession.send(chunks.size());
+
+            final List<SignedTransaction> transactions = new ArrayList<>();
+            for(List<StateAndRef<PkgOfferState>> chunk : chunks) {
+                /* Set the current step to GENERATING_TRANSACTION and proceed to build the transaction of this chunk */
+                progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+
+                final Command<PkgOfferContract.Commands.BatchDeletePkg> txCommand = new Command<>(
+                        new PkgOfferContract.Commands.BatchDeletePkg(), ImmutableList.of(author.getOwningKey(),
+                        repositoryNode.getOwningKey()));
+                final TransactionBuilder txBuilder = new TransactionBuilder(notary).addCommand(txCommand);
+                chunk.forEach(txBuilder::addInputState);
+
+                /* Set the current step to VERIFYING_TRANSACTION and proceed to call the verify function */
+                progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+
+                txBuilder.verify(getServiceHub());
+
+                /* Set the current step to SIGNING_TRANSACTION and proceed to sign the latter */
+                progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+
+                final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+
+                /* Set the current step to GATHERING_SIGNS and starts a gathering sub-flow */
+                progressTracker.setCurrentStep(GATHERING_SIGNS);
+
+                final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx,
+                        ImmutableList.of(repositoryNodeSession)));
+
+                /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
+                progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+                transactions.add(subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession))));
+            }
+
+            return transactions;
+        }
+    }
+
+    @InitiatedBy(DevInitiation.class)
+    public static class RepositoryNodeAcceptor extends FlowLogic<List<SignedTransaction>> {
+
+        private final FlowSession devSession;
+
+        /**
+         * Constructor of the flow initiated by the DevInitiation class
+         * @param devSession session with the developer that want to delete his packages
+         */
+        public RepositoryNodeAcceptor(FlowSession devSession) { this.devSession = devSession; }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession devSession, ProgressTracker progressTracker) {
+                    super(devSession, progressTracker);
+                }
+
+                /**
+                 * Override the checkTransaction function to define the behaviour of the
+                 * repositoryNode when accepts a chunk of package deletions
+                 */
+                @Override
+                protected void checkTransaction(@NotNull SignedTransaction stx) {
+                    final List<StateRef> inputs = stx.getInputs();
+                    if(inputs.isEmpty() || inputs.size() > maxChunkSize || !stx.getTx().getOutputs().isEmpty())
+                        throw new IllegalArgumentException(notDeleteTxErr);
+
+                    /* A single vault query resolves all the inputs of the chunk */
+                    QueryCriteria.VaultQueryCriteria queryCriteria =
+                            new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED).withStateRefs(inputs);
+                    final List<StateAndRef<PkgOfferState>> lst = getServiceHub().getVaultService()
+                            .queryBy(PkgOfferState.class, queryCriteria,
+                                    new PageSpecification(DEFAULT_PAGE_NUM, inputs.size())).getStates();
+                    if(lst.size() != inputs.size())
+                        throw new IllegalArgumentException(notDeleteTxErr);
+
+                    final Party developer = devSession.getCounterparty();
+                    for(StateAndRef<PkgOfferState> pkg : lst) {
+                        if(!pkg.getState().getData().getAuthor().equals(developer))
+                            throw new IllegalArgumentException(notAuthorErr);
+                    }
+                }
+            }
+
+            final int chunks = devSession.receive(Integer.class).unwrap(n -> {
+                /* With chunks of a single package there are at most maxBatchSize transactions */
+                if(n < 1 || n > maxBatchSize)
+                    throw new IllegalArgumentException(chunkCountErr + n);
+                return n;
+            });
+
+            final List<SignedTransaction> transactions = new ArrayList<>();
+            for(int i = 0; i < chunks; i++) {
+                /* Check and Sign the transaction, get the hash value of the obtained transaction */
+                final SignTxFlow signTxFlow = new SignTxFlow(devSession, SignTransactionFlow.Companion.tracker());
+                final SecureHash txId = subFlow(signTxFlow).getId();
+
+                /*
+                 * Receive the transaction that will be stored in the vault and compare it's hash value
+                 * with the previously saved hash; if it's the same, proceed storing the transaction
+                 */
+                transactions.add(subFlow(new ReceiveFinalityFlow(devSession, txId)));
+            }
+
+            return transactions;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package it.nextworks.corda.flows;
+
+public class BatchDeletePkgFlowUtils {
+    public static final String RETRIEVING_PKGS_FROM_LID = "Retrieving the package offer states to delete from the vault.";
+    public static final String GENERATING_TRANSACTION   = "Generating transaction based on the packages information.";
+    public static final String VERIFYING_TRANSACTION    = "Verifying contract constraints.";
+    public static final String SIGNING_TRANSACTION      = "Signing transaction with our private key.";
+    public static final String GATHERING_SIGNS          = "Gathering the Repository Node's signature.";
+    public static final String FINALISING_TRANSACTION   = "Obtaining Notary signature and recording transaction.";
+
+    public static final String notaryX500Name           = TopologyServiceUtils.defaultNotaryName;
+    public static final String devX500Name              = "O=DevTest,L=Pisa,C=IT";
+    public static final String repositoryX500Name       = TopologyServiceUtils.defaultRepositoryName;
+
+    /** Upper bound to the number of packages deleted in a single transaction */
+    public static final int maxChunkSize                = 100;
+    /** Upper bound to the number of packages deleted by a single flow */
+    public static final int maxBatchSize                = 1000;
+
+    public static final String emptyBatchErr            = "At least one package must be deleted.";
+    public static final String batchTooLargeErr         = "At most " + maxBatchSize + " packages can be deleted " +
+            "by a single flow.";
+    public static final String chunkSizeErr             = "The <chunkSize> parameter must be between 1 and " +
+            maxChunkSize + ".";
+    public static final String chunkCountErr            = "Unexpected number of transactions: ";
+    public static final String duplicatePkgErr          = "Each package can be deleted only once: ";
+    public static final String notDeleteTxErr           = "This must be a package delete transaction.";
+    public static final String notAuthorErr             = "The developer must be the author of all the packages.";
+    public static final String mixedRepositoriesErr     = "All the packages must be listed by the same Repository Node.";
+    public static final String mixedNotariesErr         = "All the packages must be assigned to the same Notary.";
+
+    public static final String cordAppContractsPkg      = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg          = "it.nextworks.corda.flows";
+}
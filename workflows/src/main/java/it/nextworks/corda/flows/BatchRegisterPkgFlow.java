@@ -0,0 +1,190 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgOfferContract;
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static it.nextworks.corda.flows.BatchRegisterPkgFlowUtils.*;
+
+/**
+ * Register several packages of the same developer in a single transaction, so that the
+ * signature round, the notarisation and the finality broadcast are paid once for the whole batch.
+ */
+public class BatchRegisterPkgFlow {
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class DevInitiation extends FlowLogic<SignedTransaction> {
+
+        private final List<PkgRegistration> registrations;
+
+        private final Step GENERATING_TRANSACTION = new Step(BatchRegisterPkgFlowUtils.GENERATING_TRANSACTION);
+        private final Step VERIFYING_TRANSACTION  = new Step(BatchRegisterPkgFlowUtils.VERIFYING_TRANSACTION);
+        private final Step SIGNING_TRANSACTION    = new Step(BatchRegisterPkgFlowUtils.SIGNING_TRANSACTION);
+        private final Step GATHERING_SIGNS        = new Step(BatchRegisterPkgFlowUtils.GATHERING_SIGNS){
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private final Step FINALISING_TRANSACTION = new Step(BatchRegisterPkgFlowUtils.FINALISING_TRANSACTION) {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGNS,
+                FINALISING_TRANSACTION
+        );
+
+        /**
+         * Constructor of the Initiating flow class
+         * @param registrations the packages to register, one PkgOfferState will be created for each of them
+         */
+        public DevInitiation(List<PkgRegistration> registrations) {
+            this.registrations = registrations;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            if(registrations == null || registrations.isEmpty())
+                throw new IllegalArgumentException(emptyBatchErr);
+            if(registrations.size() > maxBatchSize)
+                throw new IllegalArgumentException(batchTooLargeErr);
+
+            final Party author = getOurIdentity();
+            /*
+             * The batch is placed as a whole on one of the repository nodes we have a fee agreement with and
+             * the linearIds of its packages are drawn on its arcs, so every package is listed where the ring
+             * places it
+             */
+            final TopologyService topology = getServiceHub().cordaService(TopologyService.class);
+            final Party repositoryNode = RegisterPkgFlow.selectRepositoryNode(getServiceHub(), author);
+            final CordaX500Name repositoryName = repositoryNode.getName();
+            /* The batch is notarised as a whole by the notary of the fee agreement of its author */
+            final Party notary = RegisterPkgFlow.agreementNotary(getServiceHub(), author, repositoryNode);
+
+            /* Set the current step to GENERATING_TRANSACTION and proceed to build the latter */
+            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+
+            final Command<PkgOfferContract.Commands.BatchRegisterPkg> txCommand = new Command<>(
+                    new PkgOfferContract.Commands.BatchRegisterPkg(), ImmutableList.of(author.getOwningKey(),
+                    repositoryNode.getOwningKey()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary).addCommand(txCommand);
+            for(PkgRegistration registration : registrations) {
+                final PkgOfferState pkgOfferState = new PkgOfferState(topology.newPkgId(repositoryName),
+                        registration.getName(), registration.getDescription(), registration.getVersion(),
+                        registration.getPkgInfoId(), registration.getImageLink(), registration.getPkgType(),
+                        registration.getPoPrice(), author, repositoryNode);
+                txBuilder.addOutputState(pkgOfferState, PkgOfferContract.ID);
+            }
+
+            /* Set the current step to VERIFYING_TRANSACTION and proceed to call the verify function */
+            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+
+            txBuilder.verify(getServiceHub());
+
+            /* Set the current step to SIGNING_TRANSACTION and proceed to sign the latter */
+            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+
+            /* Set the current step to GATHERING_SIGNS and starts a gathering sub-flow */
+            progressTracker.setCurrentStep(GATHERING_SIGNS);
+
+            FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
+            final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx,
+                    ImmutableList.of(repositoryNodeSession)));
+
+            /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+            return subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
+        }
+    }
+
+    @InitiatedBy(DevInitiation.class)
+    public static class RepositoryNodeAcceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession devSession;
+
+        /**
+         * Constructor of the flow initiated by the DevInitiation class
+         * @param devSession session with the developer that want to submit his packages
+         */
+        public RepositoryNodeAcceptor(FlowSession devSession) {
+            this.devSession = devSession;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession devSession, ProgressTracker progressTracker) {
+                    super(devSession, progressTracker);
+                }
+
+                /**
+                 * Override the checkTransaction function to define the behaviour of the
+                 * repositoryNode when accepts a batch of new packages
+                 */
+                @Override
+                protected void checkTransaction(@NotNull SignedTransaction stx)
+                        throws RegisterPkgFlow.NotExistingAgreementException {
+                    final List<ContractState> outputs = new ArrayList<>();
+                    stx.getTx().getOutputs().forEach(output -> outputs.add(output.getData()));
+                    if(outputs.size() > maxBatchSize)
+                        throw new IllegalArgumentException(batchTooLargeErr);
+
+                    final Party developer = devSession.getCounterparty();
+                    for(ContractState output : outputs) {
+                        if(!(output instanceof PkgOfferState))
+                            throw new IllegalArgumentException(notPkgStateErr);
+                        if(!((PkgOfferState)output).getAuthor().equals(developer))
+                            throw new IllegalArgumentException(notAuthorErr);
+                    }
+                    if(!getServiceHub().cordaService(TopologyService.class).isPoolNotary(stx.getNotary()))
+                        throw new IllegalArgumentException(RegisterPkgFlowUtils.notPoolNotaryErr);
+
+                    /* A single fee agreement lookup covers the whole batch */
+                    RegisterPkgFlow.checkFeeAgreement(getServiceHub(), developer, getOurIdentity(), stx.getNotary());
+                }
+            }
+            /* Check and Sign the transaction, get the hash value of the obtained transaction */
+            final SignTxFlow signTxFlow = new SignTxFlow(devSession, SignTransactionFlow.Companion.tracker());
+            final SecureHash txId = subFlow(signTxFlow).getId();
+
+            /*
+             * Receive the transaction that will be stored in the vault and compare it's hash value
+             * with the previously saved hash; if it's the same, proceed storing the transaction
+             */
+            return subFlow(new ReceiveFinalityFlow(devSession, txId));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package it.nextworks.corda.flows;
+
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.serialization.CordaSerializable;
+
+public class BatchRegisterPkgFlowUtils {
+    public static final String GENERATING_TRANSACTION = "Generating transaction based on the new packages.";
+    public static final String VERIFYING_TRANSACTION  = "Verifying contract constraints.";
+    public static final String SIGNING_TRANSACTION    = "Signing transaction with our private key.";
+    public static final String GATHERING_SIGNS        = "Gathering the Repository Node's signature.";
+    public static final String FINALISING_TRANSACTION = "Obtaining Notary signature and recording transaction.";
+
+    /** Upper bound to the number of packages registered in a single transaction */
+    public static final int maxBatchSize              = 100;
+
+    public static final String emptyBatchErr          = "At least one package must be registered.";
+    public static final String batchTooLargeErr       = "At most " + maxBatchSize + " packages can be registered " +
+            "in a single transaction.";
+    public static final String notPkgStateErr         = "All the outputs of the transaction must be packages.";
+    public static final String notAuthorErr           = "The developer must be the author of all the packages.";
+
+    public static final String cordAppContractsPkg    = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg        = "it.nextworks.corda.flows";
+
+    /** Description of a package to register, the same parameters of the RegisterPkgFlow */
+    @CordaSerializable
+    public static class PkgRegistration {
+
+        private final String name;
+        private final String description;
+        private final String version;
+        private final String pkgInfoId;
+        private final String imageLink;
+        private final PkgOfferState.PkgType pkgType;
+        private final ProductOfferingPrice poPrice;
+
+        /**
+         * Constructor of the PkgRegistration class
+         * @param name        name of the package to register
+         * @param description description of the package to register
+         * @param version     version of the package to register
+         * @param pkgInfoId   pkg info id of the package to register
+         * @param imageLink   customized marketplace cover art location of the package to register
+         * @param pkgType     type of the package (VNF or PNF) to register
+         * @param poPrice     product offering price of the package to register
+         */
+        public PkgRegistration(String name,
+                               String description,
+                               String version,
+                               String pkgInfoId,
+                               String imageLink,
+                               PkgOfferState.PkgType pkgType,
+                               ProductOfferingPrice poPrice) {
+            this.name        = name;
+            this.description = description;
+            this.version     = version;
+            this.pkgInfoId   = pkgInfoId;
+            this.imageLink   = imageLink;
+            this.pkgType     = pkgType;
+            this.poPrice     = poPrice;
+        }
+
+        /* Getters */
+
+        public String getName() { return name; }
+
+        public String getDescription() { return description; }
+
+        public String getVersion() { return version; }
+
+        public String getPkgInfoId() { return pkgInfoId; }
+
+        public String getImageLink() { return imageLink; }
+
+        public PkgOfferState.PkgType getPkgType() { return pkgType; }
+
+        public ProductOfferingPrice getPoPrice() { return poPrice; }
+    }
+}
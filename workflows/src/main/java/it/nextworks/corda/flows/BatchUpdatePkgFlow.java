@@ -0,0 +1,247 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import it.nextworks.corda.contracts.PkgOfferContract;
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+import static it.nextworks.corda.flows.BatchUpdatePkgFlowUtils.*;
+
+/**
+ * Update several packages of the same developer with a single flow. The packages are split in
+ * chunks and each chunk is updated by one transaction, so that a whole chunk pays a single signature
+ * round, notarisation and finality broadcast; every chunk is atomic on its own.
+ */
+public class BatchUpdatePkgFlow {
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class DevInitiation extends FlowLogic<List<SignedTransaction>> {
+
+        private final List<PkgUpdate> updates;
+        private final int chunkSize;
+
+        private final Step RETRIEVING_PKGS_FROM_LID = new Step(BatchUpdatePkgFlowUtils.RETRIEVING_PKGS_FROM_LID);
+        private final Step GENERATING_TRANSACTION   = new Step(BatchUpdatePkgFlowUtils.GENERATING_TRANSACTION);
+        private final Step VERIFYING_TRANSACTION    = new Step(BatchUpdatePkgFlowUtils.VERIFYING_TRANSACTION);
+        private final Step SIGNING_TRANSACTION      = new Step(BatchUpdatePkgFlowUtils.SIGNING_TRANSACTION);
+        private final Step GATHERING_SIGNS          = new Step(BatchUpdatePkgFlowUtils.GATHERING_SIGNS);
+        private final Step FINALISING_TRANSACTION   = new Step(BatchUpdatePkgFlowUtils.FINALISING_TRANSACTION);
+
+        /*
+         * The steps from GENERATING_TRANSACTION to FINALISING_TRANSACTION are repeated for every chunk,
+         * so they do not carry the progress trackers of the sub-flows
+         */
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RETRIEVING_PKGS_FROM_LID,
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGNS,
+                FINALISING_TRANSACTION
+        );
+
+        /**
+         * Constructor of the Initiating flow class, all the packages are updated in a single transaction
+         * when they fit in the maximum chunk size
+         * @param updates the new values of the packages to update
+         */
+        public DevInitiation(List<PkgUpdate> updates) {
+            this(updates, maxChunkSize);
+        }
+
+        /**
+         * Constructor of the Initiating flow class
+         * @param updates   the new values of the packages to update
+         * @param chunkSize maximum number of packages updated by each transaction
+         */
+        public DevInitiation(List<PkgUpdate> updates, int chunkSize) {
+            if(chunkSize < 1 || chunkSize > maxChunkSize)
+                throw new IllegalArgumentException(chunkSizeErr);
+
+            this.updates   = updates;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            if(updates == null || updates.isEmpty())
+                throw new IllegalArgumentException(emptyBatchErr);
+            if(updates.size() > maxBatchSize)
+                throw new IllegalArgumentException(batchTooLargeErr);
+
+            final Party author = getOurIdentity();
+
+            /* Set the current step to RETRIEVING_PKGS_FROM_LID and proceed to look up all the packages */
+            progressTracker.setCurrentStep(RETRIEVING_PKGS_FROM_LID);
+
+            final Set<UniqueIdentifier> linearIds = new HashSet<>();
+            for(PkgUpdate update : updates) {
+                if(!linearIds.add(update.getLinearId()))
+                    throw new IllegalArgumentException(duplicatePkgErr + update.getLinearId());
+            }
+            final Map<UniqueIdentifier, StateAndRef<PkgOfferState>> pkgs =
+                    getServiceHub().cordaService(PkgOfferIndexService.class).getPkgs(linearIds);
+            for(PkgUpdate update : updates) {
+                final StateAndRef<PkgOfferState> pkg = pkgs.get(update.getLinearId());
+                if(pkg == null)
+                    throw new UpdatePkgFlow.NonExistentPkgException(update.getLinearId());
+                if(!pkg.getState().getData().getAuthor().equals(author))
+                    throw new IllegalArgumentException(notAuthorErr);
+            }
+            /* The packages stay with the repository node that lists them, the same one for the whole batch */
+            final Party repositoryNode = pkgs.get(updates.get(0).getLinearId()).getState().getData().getRepositoryNode();
+            /* and with the notary they were assigned to, the same one for the whole batch as well */
+            final Party notary = pkgs.get(updates.get(0).getLinearId()).getState().getNotary();
+            for(StateAndRef<PkgOfferState> pkg : pkgs.values()) {
+                if(!pkg.getState().getData().getRepositoryNode().equals(repositoryNode))
+                    throw new IllegalArgumentException(mixedRepositoriesErr);
+                if(!pkg.getState().getNotary().equals(notary))
+                    throw new IllegalArgumentException(mixedNotariesErr);
+            }
+
+            final List<List<PkgUpdate>> chunks = Lists.partition(updates, chunkSize);
+            FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
+            repositoryNodeSession.send(chunks.size());
+
+            final List<SignedTransaction> transactions = new ArrayList<>();
+            for(List<PkgUpdate> chunk : chunks) {
+                /* Set the current step to GENERATING_TRANSACTION and proceed to build the transaction of this chunk */
+                progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+
+                final Command<PkgOfferContract.Commands.UpdatePkg> txCommand = new Command<>(
+                        new PkgOfferContract.Commands.UpdatePkg(), ImmutableList.of(author.getOwningKey(),
+                        repositoryNode.getOwningKey()));
+                final TransactionBuilder txBuilder = new TransactionBuilder(notary).addCommand(txCommand);
+                for(PkgUpdate update : chunk) {
+                    final StateAndRef<PkgOfferState> pkg = pkgs.get(update.getLinearId());
+                    final PkgOfferState oldPkgOfferState = pkg.getState().getData();
+                    final PkgOfferState newPkgOfferState = new PkgOfferState(oldPkgOfferState.getLinearId(),
+                            update.getName(), update.getDescription(), update.getVersion(),
+                            oldPkgOfferState.getPkgInfoId(), update.getImageLink(), oldPkgOfferState.getPkgType(),
+                            update.getPoPrice(), author, repositoryNode);
+                    txBuilder.addInputState(pkg).addOutputState(newPkgOfferState, PkgOfferContract.ID);
+                }
+
+                /* Set the current step to VERIFYING_TRANSACTION and proceed to call the verify function */
+                progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+
+                txBuilder.verify(getServiceHub());
+
+                /* Set the current step to SIGNING_TRANSACTION and proceed to sign the latter */
+                progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+
+                final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+
+                /* Set the current step to GATHERING_SIGNS and starts a gathering sub-flow */
+                progressTracker.setCurrentStep(GATHERING_SIGNS);
+
+                final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx,
+                        ImmutableList.of(repositoryNodeSession)));
+
+                /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
+                progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+                transactions.add(subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession))));
+            }
+
+            return transactions;
+        }
+    }
+
+    @InitiatedBy(DevInitiation.class)
+    public static class RepositoryNodeAcceptor extends FlowLogic<List<SignedTransaction>> {
+
+        private final FlowSession devSession;
+
+        /**
+         * Constructor of the flow initiated by the DevInitiation class
+         * @param devSession session with the developer that want to update his packages
+         */
+        public RepositoryNodeAcceptor(FlowSession devSession) { this.devSession = devSession; }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession devSession, ProgressTracker progressTracker) {
+                    super(devSession, progressTracker);
+                }
+
+                /**
+                 * Override the checkTransaction function to define the behaviour of the
+                 * repositoryNode when accepts a chunk of package updates
+                 */
+                @Override
+                protected void checkTransaction(@NotNull SignedTransaction stx)
+                        throws UpdatePkgFlow.NonExistentPkgException {
+                    final List<ContractState> outputs = new ArrayList<>();
+                    stx.getTx().getOutputs().forEach(output -> outputs.add(output.getData()));
+                    if(outputs.size() > maxChunkSize)
+                        throw new IllegalArgumentException(batchTooLargeErr);
+
+                    final Party developer = devSession.getCounterparty();
+                    final List<UniqueIdentifier> linearIds = new ArrayList<>();
+                    for(ContractState output : outputs) {
+                        if(!(output instanceof PkgOfferState))
+                            throw new IllegalArgumentException(notPkgStateErr);
+                        if(!((PkgOfferState)output).getAuthor().equals(developer))
+                            throw new IllegalArgumentException(notAuthorErr);
+                        linearIds.add(((PkgOfferState)output).getLinearId());
+                    }
+
+                    /* A single vault query covers all the packages of the chunk */
+                    final Map<UniqueIdentifier, StateAndRef<PkgOfferState>> pkgs =
+                            getServiceHub().cordaService(PkgOfferIndexService.class).getPkgs(linearIds);
+                    for(UniqueIdentifier linearId : linearIds) {
+                        if(!pkgs.containsKey(linearId))
+                            throw new UpdatePkgFlow.NonExistentPkgException(linearId);
+                    }
+                }
+            }
+
+            final int chunks = devSession.receive(Integer.class).unwrap(n -> {
+                /* With chunks of a single package there are at most maxBatchSize transactions */
+                if(n < 1 || n > maxBatchSize)
+                    throw new IllegalArgumentException(chunkCountErr + n);
+                return n;
+            });
+
+            final List<SignedTransaction> transactions = new ArrayList<>();
+            for(int i = 0; i < chunks; i++) {
+                /* Check and Sign the transaction, get the hash value of the obtained transaction */
+                final SignTxFlow signTxFlow = new SignTxFlow(devSession, SignTransactionFlow.Companion.tracker());
+                final SecureHash txId = subFlow(signTxFlow).getId();
+
+                /*
+                 * Receive the transaction that will be stored in the vault and compare it's hash value
+                 * with the previously saved hash; if it's the same, proceed storing the transaction
+                 */
+                transactions.add(subFlow(new ReceiveFinalityFlow(devSession, txId)));
+            }
+
+            return transactions;
+        }
+    }
+}
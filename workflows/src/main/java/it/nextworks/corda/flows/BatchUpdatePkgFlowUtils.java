@@ -0,0 +1,90 @@
+package it.nextworks.corda.flows;
+
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.serialization.CordaSerializable;
+
+public class BatchUpdatePkgFlowUtils {
+    public static final String RETRIEVING_PKGS_FROM_LID = "Retrieving the package offer states to update from the vault.";
+    public static final String GENERATING_TRANSACTION   = "Generating transaction based on the updated packages.";
+    public static final String VERIFYING_TRANSACTION    = "Verifying contract constraints.";
+    public static final String SIGNING_TRANSACTION      = "Signing transaction with our private key.";
+    public static final String GATHERING_SIGNS          = "Gathering the Repository Node's signature.";
+    public static final String FINALISING_TRANSACTION   = "Obtaining Notary signature and recording transaction.";
+
+    public static final String notaryX500Name           = TopologyServiceUtils.defaultNotaryName;
+    public static final String devX500Name              = "O=DevTest,L=Pisa,C=IT";
+    public static final String repositoryX500Name       = TopologyServiceUtils.defaultRepositoryName;
+
+    /** Upper bound to the number of packages updated in a single transaction */
+    public static final int maxChunkSize                = 100;
+    /** Upper bound to the number of packages updated by a single flow */
+    public static final int maxBatchSize                = 1000;
+
+    public static final String emptyBatchErr            = "At least one package must be updated.";
+    public static final String batchTooLargeErr         = "At most " + maxBatchSize + " packages can be updated " +
+            "by a single flow.";
+    public static final String chunkSizeErr             = "The <chunkSize> parameter must be between 1 and " +
+            maxChunkSize + ".";
+    public static final String chunkCountErr            = "Unexpected number of transactions: ";
+    public static final String duplicatePkgErr          = "Each package can be updated only once: ";
+    public static final String notPkgStateErr           = "All the outputs of the transaction must be packages.";
+    public static final String notAuthorErr             = "The developer must be the author of all the packages.";
+    public static final String mixedRepositoriesErr     = "All the packages must be listed by the same Repository Node.";
+    public static final String mixedNotariesErr         = "All the packages must be assigned to the same Notary.";
+
+    public static final String cordAppContractsPkg      = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg          = "it.nextworks.corda.flows";
+
+    /** New values of a package to update, the same parameters of the UpdatePkgFlow */
+    @CordaSerializable
+    public static class PkgUpdate {
+
+        private final UniqueIdentifier linearId;
+        private final String name;
+        private final String description;
+        private final String version;
+        private final String imageLink;
+        private final ProductOfferingPrice poPrice;
+
+        /**
+         * Constructor of the PkgUpdate class
+         * @param linearId    Linear ID of the package to update
+         * @param name        updated name of the package
+         * @param description updated description of the package
+         * @param version     updated version of the package
+         * @param imageLink   updated customized marketplace cover art location of the package
+         * @param poPrice     updated product offering price of the package
+         */
+        public PkgUpdate(UniqueIdentifier linearId,
+                         String name,
+                         String description,
+                         String version,
+                         String imageLink,
+                         ProductOfferingPrice poPrice) {
+            if(linearId == null)
+                throw new IllegalArgumentException(UpdatePkgFlowUtils.nullLinearId);
+
+            this.linearId    = linearId;
+            this.name        = name;
+            this.description = description;
+            this.version     = version;
+            this.imageLink   = imageLink;
+            this.poPrice     = poPrice;
+        }
+
+        /* Getters */
+
+        public UniqueIdentifier getLinearId() { return linearId; }
+
+        public String getName() { return name; }
+
+        public String getDescription() { return description; }
+
+        public String getVersion() { return version; }
+
+        public String getImageLink() { return imageLink; }
+
+        public ProductOfferingPrice getPoPrice() { return poPrice; }
+    }
+}
@@ -3,23 +3,30 @@ package it.nextworks.corda.flows;
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import it.nextworks.corda.contracts.PkgLicenseContract;
+import it.nextworks.corda.contracts.PkgLicenseUtils;
+import it.nextworks.corda.states.FeeAgreementState;
 import it.nextworks.corda.states.PkgOfferState;
 import it.nextworks.corda.states.PkgLicenseState;
 import kotlin.Pair;
 import net.corda.core.contracts.*;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
-import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.LedgerTransaction;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
+import net.corda.finance.contracts.asset.PartyAndAmount;
 import net.corda.finance.workflows.asset.CashUtils;
 
 import java.security.PublicKey;
+import java.security.SignatureException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.List;
 
@@ -41,6 +48,16 @@ public class BuyPkgFlow {
         }
     }
 
+    /**
+     * This exception will be thrown if a split payout is requested for a package whose
+     * author has not established a fee agreement with the repository node.
+     */
+    public static class MissingFeeAgreementException extends FlowException {
+        public MissingFeeAgreementException(Party author) {
+            super(missingFeeAgreement + author);
+        }
+    }
+
     /**
      * As the transaction is contractually valid this exception should never be thrown
      * and it is defined just as reminder.
@@ -57,6 +74,9 @@ public class BuyPkgFlow {
 
         private final UniqueIdentifier pkgId;
         private final Amount<Currency> price;
+        private final boolean splitPayout;
+        private final int seats;
+        private final Party repositoryNode;
 
         private final Step SENDING_PKG_ID         = new Step(BuyPkgFlowUtils.SENDING_PKG_ID);
         private final Step RECEIVING_PKG_INFO     = new Step(BuyPkgFlowUtils.RECEIVING_PKG_INFO);
@@ -100,14 +120,61 @@ public class BuyPkgFlow {
          * @param price price of the package
          */
         public PkgBuyerInitiation(UniqueIdentifier pkgId, Amount<Currency> price) {
+            this(pkgId, price, false);
+        }
+
+        /**
+         * Constructor of the Initiating flow class,
+         * the following parameters will be used to build the transaction
+         * @param pkgId       ID of the package to buy
+         * @param price       price of the package
+         * @param splitPayout if true the author is paid its share directly in the purchase transaction,
+         *                    otherwise the whole price goes to the repositoryNode that pays the author later
+         */
+        public PkgBuyerInitiation(UniqueIdentifier pkgId, Amount<Currency> price, boolean splitPayout) {
+            this(pkgId, price, splitPayout, 1);
+        }
+
+        /**
+         * Constructor of the Initiating flow class,
+         * the following parameters will be used to build the transaction
+         * @param pkgId       ID of the package to buy
+         * @param price       price of the package, for each unit of measure of its offering price
+         * @param splitPayout if true the author is paid its share directly in the purchase transaction,
+         *                    otherwise the whole price goes to the repositoryNode that pays the author later
+         * @param seats       number of seats to license, all covered by a single license and a single payment
+         */
+        public PkgBuyerInitiation(UniqueIdentifier pkgId, Amount<Currency> price, boolean splitPayout, int seats) {
+            this(pkgId, price, splitPayout, seats, null);
+        }
+
+        /**
+         * Constructor of the Initiating flow class,
+         * the following parameters will be used to build the transaction
+         * @param pkgId          ID of the package to buy
+         * @param price          price of the package, for each unit of measure of its offering price
+         * @param splitPayout    if true the author is paid its share directly in the purchase transaction,
+         *                       otherwise the whole price goes to the repositoryNode that pays the author later
+         * @param seats          number of seats to license, all covered by a single license and a single payment
+         * @param repositoryNode the Repository Node that lists the package, as stated by its PkgOfferState;
+         *                       if null it is read from the offer, looked up on all the repository nodes
+         */
+        public PkgBuyerInitiation(UniqueIdentifier pkgId, Amount<Currency> price, boolean splitPayout, int seats,
+                                  Party repositoryNode) {
             if(pkgId == null)
                 throw new IllegalArgumentException(nullPkgId);
 
             if(price == null)
                 throw new IllegalArgumentException(nullPrice);
 
+            if(seats <= 0 || seats > PkgLicenseUtils.maxSeats)
+                throw new IllegalArgumentException(invalidSeats);
+
             this.pkgId = pkgId;
             this.price = price;
+            this.splitPayout = splitPayout;
+            this.seats = seats;
+            this.repositoryNode = repositoryNode;
         }
 
         @Override
@@ -119,46 +186,85 @@ public class BuyPkgFlow {
         @Override
         public SignedTransaction call() throws FlowException {
 
-            /* Retrieving a reference to notary using the serviceHub [Production Method] */
-            final Party notary = getServiceHub()
-                    .getNetworkMapCache()
-                    .getNotary(CordaX500Name.parse(notaryX500Name));
             /*
              * Retrieving our identity and the Repository Node identity that will be used as <buyer>
              * and <repositoryNode> parameters in the transaction
              */
             final Party buyer = getOurIdentity();
-            final Party repositoryNode = getServiceHub()
-                    .getNetworkMapCache()
-                    .getPeerByLegalName(CordaX500Name.parse(repositoryX500Name));
+            final TopologyService topology = getServiceHub().cordaService(TopologyService.class);
+            final Party repositoryNode = this.repositoryNode != null
+                    ? this.repositoryNode : locateRepositoryNode();
+            if(!topology.isRepositoryNode(repositoryNode))
+                throw new IllegalArgumentException(notARepositoryErr + repositoryNode);
 
             /* Set the current step to SENDING_PKG_ID and proceed to send the package ID */
             progressTracker.setCurrentStep(SENDING_PKG_ID);
 
             FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
             repositoryNodeSession.send(pkgId);
+            repositoryNodeSession.send(splitPayout);
+            repositoryNodeSession.send(seats);
 
             /* Set the current step to RECEIVING_PKG_INFO and proceed to retrieve the package info */
             progressTracker.setCurrentStep(RECEIVING_PKG_INFO);
 
             final StateAndRef<PkgOfferState> pkgStateAndRef = receiveAndValidatePkgState(repositoryNodeSession,
                     repositoryNode, price);
+            final Party author = pkgStateAndRef.getState().getData().getAuthor();
+            /* The purchase is notarised by the notary the package was assigned to when it was registered */
+            final Party notary = pkgStateAndRef.getState().getNotary();
+            if(!topology.isPoolNotary(notary))
+                throw new IllegalArgumentException(notPoolNotaryErr + notary);
+            final StateAndRef<FeeAgreementState> feeAgreement = splitPayout ?
+                    receiveAndValidateFeeAgreement(repositoryNodeSession, author, repositoryNode, notary) : null;
 
             /* Set the current step to GENERATING_TRANSACTION and proceed to build the latter */
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
 
-            final PkgLicenseState pkgLicenseState = new PkgLicenseState(pkgStateAndRef, buyer);
+            final Instant purchaseTime = getServiceHub().getClock().instant();
+            final PkgLicenseState pkgLicenseState = new PkgLicenseState(pkgStateAndRef, buyer, seats, purchaseTime);
+            /* The seats are priced for each unit of measure of the offer and paid as a single amount */
+            final Amount<Currency> licensePrice = pkgLicenseState.getPrice();
             final Command<PkgLicenseContract.Commands.BuyPkg> txCommand = new Command<>(
                     new PkgLicenseContract.Commands.BuyPkg(), ImmutableList.of(buyer.getOwningKey(),
                     repositoryNode.getOwningKey()));
-            TransactionBuilder txBuilder = new TransactionBuilder(notary);
+            /* The package is a reference input: the license keeps just its StateRef and a snapshot of its price */
+            TransactionBuilder txBuilder = new TransactionBuilder(notary)
+                    .addReferenceState(pkgStateAndRef.referenced())
+                    .setTimeWindow(TimeWindow.withTolerance(purchaseTime,
+                            Duration.ofSeconds(purchaseTimeToleranceSeconds)));
+
+            List<PartyAndAmount<Currency>> payments = new ArrayList<>();
+            if(feeAgreement == null)
+                payments.add(new PartyAndAmount<>(repositoryNode, licensePrice));
+            else {
+                /* Pay the fee to the repositoryNode and the rest to the author, as stated by their agreement */
+                final Amount<Currency> developerShare = PkgLicenseContract.developerShare(licensePrice,
+                        feeAgreement.getState().getData().getFee());
+                final Amount<Currency> repositoryShare = licensePrice.minus(developerShare);
+                if(repositoryShare.getQuantity() > 0)
+                    payments.add(new PartyAndAmount<>(repositoryNode, repositoryShare));
+                if(developerShare.getQuantity() > 0)
+                    payments.add(new PartyAndAmount<>(author, developerShare));
+
+                txBuilder.addReferenceState(feeAgreement.referenced());
+            }
+
+            /* Spend a coin of the exact price if the pool has one, so parallel purchases never contend */
+            Pair<TransactionBuilder, List<PublicKey>> txKeysPair = getServiceHub()
+                    .cordaService(CashInventoryService.class)
+                    .spendCoin(txBuilder, payments, getRunId().getUuid());
+            if(txKeysPair == null) {
+                final Amount<Currency> cashBalance = getCashBalance(getServiceHub(), licensePrice.getToken());
+                if(cashBalance.getQuantity() < licensePrice.getQuantity())
+                    throw new IllegalArgumentException(missingCash);
 
-            final Amount<Currency> cashBalance = getCashBalance(getServiceHub(), price.getToken());
-            if(cashBalance.getQuantity() < price.getQuantity())
-                throw new IllegalArgumentException(missingCash);
+                /* Move to the notary of the package the cash held by the other notaries of the pool */
+                subFlow(new CashInventoryFlow.MoveToNotary(licensePrice, notary));
 
-            Pair<TransactionBuilder, List<PublicKey>> txKeysPair =
-                    CashUtils.generateSpend(getServiceHub(), txBuilder, price, getOurIdentityAndCert(), repositoryNode);
+                txKeysPair = CashUtils.generateSpend(getServiceHub(), txBuilder, payments, getOurIdentityAndCert(),
+                        Collections.emptySet(), true);
+            }
             final TransactionBuilder tx = txKeysPair.getFirst();
             tx.addOutputState(pkgLicenseState, PkgLicenseContract.ID).addCommand(txCommand);
 
@@ -170,7 +276,7 @@ public class BuyPkgFlow {
             /* Set the current step to SIGNING_TRANSACTION and proceed to sign the latter */
             progressTracker.setCurrentStep(SIGNING_TRANSACTION);
 
-            List<PublicKey> keysToSign = txKeysPair.getSecond();
+            List<PublicKey> keysToSign = new ArrayList<>(txKeysPair.getSecond());
             keysToSign.add(buyer.getOwningKey());
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(tx, keysToSign);
 
@@ -183,7 +289,38 @@ public class BuyPkgFlow {
             /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
 
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
+            /* With a split payout the author records the transaction too, as it owns part of the cash outputs */
+            if(feeAgreement == null)
+                return subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
+
+            /* The author checks the share it is paid before it records the transaction */
+            FlowSession authorSession = initiateFlow(author);
+            authorSession.send(pkgId);
+            subFlow(new SendTransactionFlow(authorSession, fullySignedTx));
+
+            return subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession, authorSession)));
+        }
+
+        /*
+         * The package is sold by the Repository Node stated by its PkgOfferState, that is not the one the ring
+         * places it on if it was registered before a repository node was added: ask all of them for the offer
+         */
+        @Suspendable
+        private Party locateRepositoryNode() throws FlowException {
+            final TopologyService topology = getServiceHub().cordaService(TopologyService.class);
+            if(topology.getRepositoryNames().size() == 1) {
+                if(topology.getRepositoryNode() == null)
+                    throw new FlowException(unreachableRepository + topology.getRepositoryName());
+                return topology.getRepositoryNode();
+            }
+
+            final GetShardedPkgsFlowUtils.ShardedPkgs located =
+                    subFlow(GetShardedPkgsFlow.locatePkgs(Collections.singletonList(pkgId)));
+            if(located.getPkgsList().isEmpty())
+                throw new FlowException(pkgNotListed + pkgId + (located.isPartial()
+                        ? pkgNotListedTimedOut + located.getTimedOutShards() : ""));
+
+            return located.getPkgsList().get(0).getRepositoryNode();
         }
 
         @Suspendable
@@ -207,6 +344,26 @@ public class BuyPkgFlow {
                 return pkgStateAndRef;
             });
         }
+
+        @Suspendable
+        private StateAndRef<FeeAgreementState> receiveAndValidateFeeAgreement(FlowSession repositoryNodeSession,
+                                                                              Party author,
+                                                                              Party repositoryNode,
+                                                                              Party notary) throws FlowException {
+            /* Retrieve the agreement between the author and the repositoryNode used to split the payment */
+            final List<StateAndRef<FeeAgreementState>> receivedObjects =
+                    subFlow(new ReceiveStateAndRefFlow<>(repositoryNodeSession));
+
+            return requireThat(require -> {
+                require.using(receivedTooMuchAgreements, receivedObjects.size() == 1);
+                final StateAndRef<FeeAgreementState> feeAgreementStateAndRef = receivedObjects.get(0);
+                final FeeAgreementState feeAgreementState = feeAgreementStateAndRef.getState().getData();
+                require.using(feeAgreementMismatch, author.equals(feeAgreementState.getDeveloper()) &&
+                        repositoryNode.equals(feeAgreementState.getRepositoryNode()));
+                require.using(feeAgreementNotaryMismatch, notary.equals(feeAgreementStateAndRef.getState().getNotary()));
+                return feeAgreementStateAndRef;
+            });
+        }
     }
 
     @InitiatedBy(PkgBuyerInitiation.class)
@@ -223,7 +380,7 @@ public class BuyPkgFlow {
                 return FinalityFlow.Companion.tracker();
             }
         };
-        private final Step SENDING_CASH_TO_AUTHOR = new Step(BuyPkgFlowUtils.SENDING_CASH_TO_AUTHOR);
+        private final Step ACCRUING_AUTHOR_SHARE = new Step(BuyPkgFlowUtils.ACCRUING_AUTHOR_SHARE);
 
         /**
          * The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
@@ -235,7 +392,7 @@ public class BuyPkgFlow {
                 VERIFYING_RCV_DATA,
                 SENDING_PKG_INFO,
                 FINALISING_TRANSACTION,
-                SENDING_CASH_TO_AUTHOR
+                ACCRUING_AUTHOR_SHARE
         );
 
         /**
@@ -282,26 +439,62 @@ public class BuyPkgFlow {
                 /* Set the current step to VERIFYING_RCV_DATA and proceed to verify the received data */
                 progressTracker.setCurrentStep(VERIFYING_RCV_DATA);
 
-                /* Query for unconsumed linear state for given linear ID */
-                QueryCriteria.LinearStateQueryCriteria queryCriteria =
-                        new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(data.getId()),
-                        null, Vault.StateStatus.UNCONSUMED);
-                final List<StateAndRef<PkgOfferState>> lst = getServiceHub().getVaultService()
-                        .queryBy(PkgOfferState.class, queryCriteria).getStates();
-                if(lst.size() == 0)
+                /* Look up the unconsumed state for the given linear ID in the package index */
+                final StateAndRef<PkgOfferState> pkg =
+                        getServiceHub().cordaService(PkgOfferIndexService.class).getPkg(data);
+                if(pkg == null)
                     throw new NonExistentPkgException(data);
 
-                return lst.get(0);
+                return pkg;
             });
+            final PkgOfferState pkgOfferState = pkgStateAndRef.getState().getData();
+
+            /*
+             * With a split payout the author is a counterparty of the buyer too:
+             * it only has to record the transaction that pays its share
+             */
+            if(!getOurIdentity().equals(pkgOfferState.getRepositoryNode()))
+                return receiveAuthorShare(pkgStateAndRef);
+
+            final boolean splitPayout = buyerSession.receive(Boolean.class).unwrap(data -> data);
+            final int seats = buyerSession.receive(Integer.class).unwrap(data -> {
+                if(data == null || data <= 0 || data > PkgLicenseUtils.maxSeats)
+                    throw new IllegalArgumentException(invalidSeats);
+
+                return data;
+            });
+            final Amount<Currency> salePrice = pkgOfferState.getPrice(seats);
 
             /* Set the current step to SENDING_PKG_INFO and proceed to send the requested package info */
             progressTracker.setCurrentStep(SENDING_PKG_INFO);
 
             subFlow(new SendStateAndRefFlow(buyerSession, ImmutableList.of(pkgStateAndRef)));
 
+            /* The share of the author is stated by its agreement with the repositoryNode */
+            final StateAndRef<FeeAgreementState> feeAgreement = getServiceHub()
+                    .cordaService(FeeAgreementIndexService.class)
+                    .getAgreement(pkgOfferState.getAuthor());
+            if(feeAgreement == null)
+                throw new MissingFeeAgreementException(pkgOfferState.getAuthor());
+            final Amount<Currency> developerShare = PkgLicenseContract.developerShare(salePrice,
+                    feeAgreement.getState().getData().getFee());
+
+            /* The repositoryNode receives the whole price, or just its fee if the price is split */
+            Amount<Currency> expectedAmount = salePrice;
+            if(splitPayout) {
+                /*
+                 * The agreement is referenced by the purchase: the packages are registered with its notary,
+                 * the shared reference is never moved by a purchase
+                 */
+                if(!feeAgreement.getState().getNotary().equals(pkgStateAndRef.getState().getNotary()))
+                    throw new FlowException(feeAgreementNotaryMismatch);
+                subFlow(new SendStateAndRefFlow(buyerSession, ImmutableList.of(feeAgreement)));
+                expectedAmount = expectedAmount.minus(developerShare);
+            }
+
             /* Check and Sign the transaction, get the hash value of the obtained transaction */
             final SignTxFlow signTxFlow = new SignTxFlow(buyerSession, SignTransactionFlow.Companion.tracker(),
-                    pkgStateAndRef.getState().getData().getPrice());
+                    expectedAmount);
             final SecureHash txId = subFlow(signTxFlow).getId();
 
             /*
@@ -312,18 +505,65 @@ public class BuyPkgFlow {
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
 
             SignedTransaction stx = subFlow(new ReceiveFinalityFlow(buyerSession, txId));
+            if(splitPayout)
+                return stx;
 
             /*
-             * Set the current step to SENDING_CASH_TO_AUTHOR and starts a sub flow to send the amount that belongs
-             * to the author of the package sold
+             * Set the current step to ACCRUING_AUTHOR_SHARE and record the amount that belongs to the author
+             * of the package sold, it will be paid with the next settlement of the developer payouts
              */
-            progressTracker.setCurrentStep(SENDING_CASH_TO_AUTHOR);
+            progressTracker.setCurrentStep(ACCRUING_AUTHOR_SHARE);
 
-            PkgLicenseState pkgLicenseState = stx.getTx().outputsOfType(PkgLicenseState.class).get(0);
-            subFlow(new IssueCashToDevFlow.IssueCashToDevInitiator(pkgLicenseState,
-                    pkgLicenseState.getPkgLicensed().getState().getData().getAuthor()));
+            final StateRef licenseRef = stx.getTx().outRefsOfType(PkgLicenseState.class).get(0).getRef();
+            getServiceHub().cordaService(PayoutLedgerService.class)
+                    .accrue(licenseRef, pkgOfferState.getAuthor(), developerShare);
 
             return stx;
         }
+
+        /**
+         * Receive the purchase signed by the buyer and the repositoryNode, check that it licenses our
+         * package and pays us the share stated by our agreement, then record only that transaction
+         * @param pkgStateAndRef the offer of the package sold
+         * @return the notarised purchase
+         */
+        @Suspendable
+        private SignedTransaction receiveAuthorShare(StateAndRef<PkgOfferState> pkgStateAndRef) throws FlowException {
+            final PkgOfferState pkgOfferState = pkgStateAndRef.getState().getData();
+
+            /* The notary signs later: resolve and verify the contracts without recording anything */
+            final SignedTransaction stx = subFlow(new ReceiveTransactionFlow(buyerSession, false, StatesToRecord.NONE));
+            try {
+                stx.verifySignaturesExcept(pkgStateAndRef.getState().getNotary().getOwningKey());
+            } catch(SignatureException e) {
+                throw new FlowException(authorShareSignaturesErr, e);
+            }
+
+            final LedgerTransaction ltx;
+            try {
+                ltx = stx.toLedgerTransaction(getServiceHub(), false);
+            } catch(SignatureException e) {
+                throw new FlowException(authorShareSignaturesErr, e);
+            }
+
+            final List<PkgLicenseState> licenses = ltx.outputsOfType(PkgLicenseState.class);
+            final List<FeeAgreementState> feeAgreements = ltx.referenceInputsOfType(FeeAgreementState.class);
+            requireThat(require -> {
+                require.using(authorShareLicenseErr, licenses.size() == 1 &&
+                        licenses.get(0).getPkgRef().equals(pkgStateAndRef.getRef()) &&
+                        licenses.get(0).getAuthor().equals(getOurIdentity()));
+                require.using(authorShareAgreementErr, feeAgreements.size() == 1 &&
+                        feeAgreements.get(0).getDeveloper().equals(getOurIdentity()) &&
+                        feeAgreements.get(0).getRepositoryNode().equals(pkgOfferState.getRepositoryNode()));
+
+                final Amount<Currency> share = PkgLicenseContract.developerShare(licenses.get(0).getPrice(),
+                        feeAgreements.get(0).getFee());
+                require.using(authorShareErr,
+                        withoutIssuer(sumCashBy(ltx.getOutputStates(), getOurIdentity())).equals(share));
+                return null;
+            });
+
+            return subFlow(new ReceiveFinalityFlow(buyerSession, stx.getId()));
+        }
     }
 }
@@ -1,8 +1,12 @@
 package it.nextworks.corda.flows;
 
+import it.nextworks.corda.contracts.PkgLicenseUtils;
+
 public class BuyPkgFlowUtils {
     public static final String nullPkgId              = "The <PkgId> parameter cannot be null.";
     public static final String nullPrice              = "The <price> parameter cannot be null.";
+    public static final String invalidSeats           = "The <seats> parameter must be between 1 and " +
+            PkgLicenseUtils.maxSeats + ".";
 
     public static final String receivedTooMuchStates  = "Received more than one PkgOfferState: " +
             "require only the requested PkgOfferState";
@@ -10,7 +14,26 @@ public class BuyPkgFlowUtils {
     public static final String priceMismatch          = "The received package price differ from the displayed one";
     public static final String repositoryNodeMismatch = "The received package specify a different Repository Node.";
     public static final String missingCash            = "The buyer does not have enough cash to pay the package requested.";
+    public static final String notARepositoryErr      = "Not a configured Repository Node: ";
+    public static final String unreachableRepository  = "The Repository Node is not in the network map: ";
+    public static final String notPoolNotaryErr       = "The package is assigned to a Notary out of the pool: ";
     public static final String nonExistentPkg         = "Cannot find package: ";
+    public static final String pkgNotListed           = "No Repository Node lists the package: ";
+    public static final String pkgNotListedTimedOut   = ", Repository Nodes timed out: ";
+    public static final String receivedTooMuchAgreements = "Received more than one FeeAgreementState: " +
+            "require only the agreement of the author of the package";
+    public static final String feeAgreementMismatch   = "The received fee agreement is not the one between the author " +
+            "of the package and the Repository Node.";
+    public static final String feeAgreementNotaryMismatch = "The received fee agreement is not assigned to the " +
+            "Notary of the package.";
+    public static final String missingFeeAgreement    = "Cannot find the fee agreement of the author: ";
+    public static final String authorShareSignaturesErr = "The purchase is not signed by the buyer and the " +
+            "Repository Node.";
+    public static final String authorShareLicenseErr  = "The purchase does not license the package of the author.";
+    public static final String authorShareAgreementErr = "The purchase does not reference the fee agreement of the " +
+            "author with the Repository Node of the package.";
+    public static final String authorShareErr         = "The purchase does not pay the share stated by the fee " +
+            "agreement of the author.";
     public static final String unexpectedInvalidPrice = "The received amount for the payment does not match the package price";
 
     public static final String SENDING_PKG_ID         = "Sending the ID of the required package.";
@@ -25,16 +48,19 @@ public class BuyPkgFlowUtils {
     public static final String AWAITING_PKG_ID        = "Waiting for the ID of the package that the buyer want to purchase.";
     public static final String VERIFYING_RCV_DATA     = "Verifying the information received.";
     public static final String SENDING_PKG_INFO       = "Sending information about the required package.";
-    public static final String SENDING_CASH_TO_AUTHOR = "Sending the amount that belongs to the author of the package.";
+    public static final String ACCRUING_AUTHOR_SHARE  = "Accruing the amount that belongs to the author of the package.";
+
+    /** Tolerance, in seconds, of the time window around the purchase time of a license */
+    public static final long purchaseTimeToleranceSeconds = 30;
 
     public static final String cordAppContractsPkg    = "it.nextworks.corda.contracts";
     public static final String cordAppFlowsPkg        = "it.nextworks.corda.flows";
     public static final String cordAppFinance         = "net.corda.finance.contracts";
 
-    public static final String notaryX500Name         = "O=Notary,L=Pisa,C=IT";
+    public static final String notaryX500Name         = TopologyServiceUtils.defaultNotaryName;
     public static final String devX500Name            = "O=DevTest,L=Pisa,C=IT";
     public static final String buyerX500Name          = "O=BuyerTest,L=Pistoia,C=IT";
-    public static final String repositoryX500Name     = "O=RepositoryNode,L=Pisa,C=IT";
+    public static final String repositoryX500Name     = TopologyServiceUtils.defaultRepositoryName;
     public static final String buyPkgOutputCashErr    = "There should be only outputs of type Cash.State " +
             "and PkgLicenseState";
 }
@@ -0,0 +1,412 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgLicenseContract;
+import it.nextworks.corda.contracts.PkgLicenseUtils;
+import it.nextworks.corda.states.FeeAgreementState;
+import it.nextworks.corda.states.PkgLicenseState;
+import it.nextworks.corda.states.PkgOfferState;
+import kotlin.Pair;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+import net.corda.finance.contracts.asset.PartyAndAmount;
+import net.corda.finance.workflows.asset.CashUtils;
+
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import static it.nextworks.corda.flows.BuyPkgFlowUtils.purchaseTimeToleranceSeconds;
+import static it.nextworks.corda.flows.BuyPkgsFlowUtils.*;
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+import static net.corda.core.contracts.Structures.withoutIssuer;
+import static net.corda.finance.contracts.utils.StateSumming.sumCashBy;
+import static net.corda.finance.workflows.GetBalances.getCashBalance;
+
+/**
+ * Cart checkout: buy several packages with a single transaction, that issues a license per
+ * package and pays the summed price with one cash spend. The whole price goes to the repository
+ * node, that accrues the share of every author and pays it with the next developer payouts.
+ */
+public class BuyPkgsFlow {
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class PkgBuyerInitiation extends FlowLogic<SignedTransaction> {
+
+        private final List<UniqueIdentifier> pkgIds;
+        private final Amount<Currency> total;
+        private final Party repositoryNode;
+
+        private final Step SENDING_PKG_IDS        = new Step(BuyPkgsFlowUtils.SENDING_PKG_IDS);
+        private final Step RECEIVING_PKGS_INFO    = new Step(BuyPkgsFlowUtils.RECEIVING_PKGS_INFO);
+        private final Step VERIFYING_PKGS_INFO    = new Step(BuyPkgsFlowUtils.VERIFYING_PKGS_INFO);
+        private final Step GENERATING_TRANSACTION = new Step(BuyPkgsFlowUtils.GENERATING_TRANSACTION);
+        private final Step VERIFYING_TRANSACTION  = new Step(BuyPkgsFlowUtils.VERIFYING_TRANSACTION);
+        private final Step SIGNING_TRANSACTION    = new Step(BuyPkgsFlowUtils.SIGNING_TRANSACTION);
+        private final Step GATHERING_SIGNS        = new Step(BuyPkgsFlowUtils.GATHERING_SIGNS){
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private final Step FINALISING_TRANSACTION = new Step(BuyPkgsFlowUtils.FINALISING_TRANSACTION) {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        /**
+         * The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
+         * checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
+         * function.
+         */
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                SENDING_PKG_IDS,
+                RECEIVING_PKGS_INFO,
+                VERIFYING_PKGS_INFO,
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGNS,
+                FINALISING_TRANSACTION
+        );
+
+        /**
+         * Constructor of the Initiating flow class,
+         * the following parameters will be used to build the transaction
+         * @param pkgIds IDs of the packages to buy
+         * @param total  summed price of the packages
+         */
+        public PkgBuyerInitiation(List<UniqueIdentifier> pkgIds, Amount<Currency> total) {
+            this(pkgIds, total, null);
+        }
+
+        /**
+         * Constructor of the Initiating flow class,
+         * the following parameters will be used to build the transaction
+         * @param pkgIds         IDs of the packages to buy
+         * @param total          summed price of the packages
+         * @param repositoryNode the Repository Node that lists all the packages; if null it is read from the
+         *                       offers, looked up on all the repository nodes, and must be the same for all
+         */
+        public PkgBuyerInitiation(List<UniqueIdentifier> pkgIds, Amount<Currency> total, Party repositoryNode) {
+            if(pkgIds == null || pkgIds.isEmpty())
+                throw new IllegalArgumentException(emptyCartErr);
+            if(pkgIds.size() > PkgLicenseUtils.maxCartSize)
+                throw new IllegalArgumentException(cartTooLargeErr);
+            if(pkgIds.contains(null))
+                throw new IllegalArgumentException(nullPkgId);
+            if(new HashSet<>(pkgIds).size() != pkgIds.size())
+                throw new IllegalArgumentException(duplicatePkgErr);
+
+            if(total == null)
+                throw new IllegalArgumentException(nullTotal);
+
+            this.pkgIds         = new ArrayList<>(pkgIds);
+            this.total          = total;
+            this.repositoryNode = repositoryNode;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+
+            final Party buyer = getOurIdentity();
+            final Party repositoryNode = selectRepositoryNode();
+
+            /* Set the current step to SENDING_PKG_IDS and proceed to send the content of the cart */
+            progressTracker.setCurrentStep(SENDING_PKG_IDS);
+
+            FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
+            repositoryNodeSession.send(new PkgIdsContainer(pkgIds));
+
+            /* Set the current step to RECEIVING_PKGS_INFO and proceed to retrieve the packages info */
+            progressTracker.setCurrentStep(RECEIVING_PKGS_INFO);
+
+            final List<StateAndRef<PkgOfferState>> pkgStateAndRefs =
+                    receiveAndValidatePkgStates(repositoryNodeSession, repositoryNode);
+            /* The packages are referenced by the purchase, so they must all be assigned to its notary */
+            final Party notary = pkgStateAndRefs.get(0).getState().getNotary();
+            if(!getServiceHub().cordaService(TopologyService.class).isPoolNotary(notary))
+                throw new IllegalArgumentException(notPoolNotaryErr + notary);
+            for(StateAndRef<PkgOfferState> pkgStateAndRef : pkgStateAndRefs) {
+                if(!pkgStateAndRef.getState().getNotary().equals(notary))
+                    throw new IllegalArgumentException(cartNotariesErr);
+            }
+
+            /* Set the current step to GENERATING_TRANSACTION and proceed to build the latter */
+            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+
+            final Instant purchaseTime = getServiceHub().getClock().instant();
+            TransactionBuilder txBuilder = new TransactionBuilder(notary)
+                    .setTimeWindow(TimeWindow.withTolerance(purchaseTime,
+                            Duration.ofSeconds(purchaseTimeToleranceSeconds)));
+            /* The packages are reference inputs: each license keeps the StateRef and a snapshot of its offer */
+            for(StateAndRef<PkgOfferState> pkgStateAndRef : pkgStateAndRefs)
+                txBuilder.addReferenceState(pkgStateAndRef.referenced());
+
+            /* A single payment of the summed price, out of a pooled coin when one is available */
+            final List<PartyAndAmount<Currency>> payments =
+                    Collections.singletonList(new PartyAndAmount<>(repositoryNode, total));
+            Pair<TransactionBuilder, List<PublicKey>> txKeysPair = getServiceHub()
+                    .cordaService(CashInventoryService.class)
+                    .spendCoin(txBuilder, payments, getRunId().getUuid());
+            if(txKeysPair == null) {
+                final Amount<Currency> cashBalance = getCashBalance(getServiceHub(), total.getToken());
+                if(cashBalance.getQuantity() < total.getQuantity())
+                    throw new IllegalArgumentException(missingCash);
+
+                /* Move to the notary of the packages the cash held by the other notaries of the pool */
+                subFlow(new CashInventoryFlow.MoveToNotary(total, notary));
+                txKeysPair = CashUtils.generateSpend(getServiceHub(), txBuilder, payments, getOurIdentityAndCert(),
+                        Collections.emptySet(), true);
+            }
+            final TransactionBuilder tx = txKeysPair.getFirst();
+            for(StateAndRef<PkgOfferState> pkgStateAndRef : pkgStateAndRefs)
+                tx.addOutputState(new PkgLicenseState(pkgStateAndRef, buyer, purchaseTime), PkgLicenseContract.ID);
+            tx.addCommand(new Command<>(new PkgLicenseContract.Commands.BuyPkgs(),
+                    ImmutableList.of(buyer.getOwningKey(), repositoryNode.getOwningKey())));
+
+            /* Set the current step to VERIFYING_TRANSACTION and proceed to call the verify function */
+            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+
+            tx.verify(getServiceHub());
+
+            /* Set the current step to SIGNING_TRANSACTION and proceed to sign the latter */
+            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+
+            List<PublicKey> keysToSign = new ArrayList<>(txKeysPair.getSecond());
+            keysToSign.add(buyer.getOwningKey());
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(tx, keysToSign);
+
+            /* Set the current step to GATHERING_SIGNS and starts a gathering sub-flow */
+            progressTracker.setCurrentStep(GATHERING_SIGNS);
+
+            final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx,
+                    ImmutableList.of(repositoryNodeSession)));
+
+            /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+            return subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
+        }
+
+        /*
+         * A cart is sold by a single Repository Node, the one given or the one stated by the offers of all the
+         * packages, looked up on all the repository nodes
+         */
+        @Suspendable
+        private Party selectRepositoryNode() throws FlowException {
+            final TopologyService topology = getServiceHub().cordaService(TopologyService.class);
+            if(repositoryNode != null) {
+                if(!topology.isRepositoryNode(repositoryNode))
+                    throw new IllegalArgumentException(notARepositoryErr + repositoryNode);
+                return repositoryNode;
+            }
+            if(topology.getRepositoryNames().size() == 1) {
+                if(topology.getRepositoryNode() == null)
+                    throw new FlowException(unreachableRepository + topology.getRepositoryName());
+                return topology.getRepositoryNode();
+            }
+
+            final GetShardedPkgsFlowUtils.ShardedPkgs located = subFlow(GetShardedPkgsFlow.locatePkgs(pkgIds));
+            if(located.getPkgsList().size() != pkgIds.size())
+                throw new FlowException(cartNotListedErr + (located.isPartial()
+                        ? cartNotListedTimedOut + located.getTimedOutShards() : ""));
+
+            final Party listedBy = located.getPkgsList().get(0).getRepositoryNode();
+            for(PkgOfferState pkgOfferState : located.getPkgsList()) {
+                if(!pkgOfferState.getRepositoryNode().equals(listedBy))
+                    throw new IllegalArgumentException(cartRepositoriesErr);
+            }
+            return listedBy;
+        }
+
+        @Suspendable
+        private List<StateAndRef<PkgOfferState>> receiveAndValidatePkgStates(FlowSession repositoryNodeSession,
+                                                                            Party repositoryNode) throws FlowException {
+            final List<StateAndRef<PkgOfferState>> receivedObjects =
+                    subFlow(new ReceiveStateAndRefFlow<>(repositoryNodeSession));
+
+            /* Set the current step to VERIFYING_PKGS_INFO and proceed to verify the received PkgOfferStates */
+            progressTracker.setCurrentStep(VERIFYING_PKGS_INFO);
+
+            return requireThat(require -> {
+                /* The packages are sent in the same order of the cart */
+                require.using(receivedWrongStates, receivedObjects.size() == pkgIds.size());
+                long quantity = 0;
+                for(int i = 0; i < pkgIds.size(); i++) {
+                    final PkgOfferState pkgOfferState = receivedObjects.get(i).getState().getData();
+                    require.using(receivedWrongStates, pkgIds.get(i).equals(pkgOfferState.getLinearId()));
+                    require.using(currencyMismatch, total.getToken().equals(pkgOfferState.getPrice().getToken()));
+                    require.using(repositoryNodeMismatch, repositoryNode.equals(pkgOfferState.getRepositoryNode()));
+                    quantity += pkgOfferState.getPrice().getQuantity();
+                }
+                require.using(totalMismatch, total.getQuantity() == quantity);
+                return receivedObjects;
+            });
+        }
+    }
+
+    @InitiatedBy(PkgBuyerInitiation.class)
+    public static class RepositoryNodeAcceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession buyerSession;
+
+        private final Step AWAITING_PKG_IDS       = new Step(BuyPkgsFlowUtils.AWAITING_PKG_IDS);
+        private final Step VERIFYING_RCV_DATA     = new Step(BuyPkgsFlowUtils.VERIFYING_RCV_DATA);
+        private final Step SENDING_PKGS_INFO      = new Step(BuyPkgsFlowUtils.SENDING_PKGS_INFO);
+        private final Step FINALISING_TRANSACTION = new Step(BuyPkgsFlowUtils.FINALISING_TRANSACTION) {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+        private final Step ACCRUING_AUTHOR_SHARES = new Step(BuyPkgsFlowUtils.ACCRUING_AUTHOR_SHARES);
+
+        /**
+         * The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
+         * checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
+         * function.
+         */
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                AWAITING_PKG_IDS,
+                VERIFYING_RCV_DATA,
+                SENDING_PKGS_INFO,
+                FINALISING_TRANSACTION,
+                ACCRUING_AUTHOR_SHARES
+        );
+
+        /**
+         * Constructor of the flow initiated by the PkgBuyerInitiation class
+         * @param buyerSession session with the buyer that want to purchase the packages
+         */
+        public RepositoryNodeAcceptor(FlowSession buyerSession) {
+            this.buyerSession = buyerSession;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+
+                private final Amount<Currency> total;
+
+                private SignTxFlow(FlowSession buyerSession, ProgressTracker progressTracker, Amount<Currency> total) {
+                    super(buyerSession, progressTracker);
+                    this.total = total;
+                }
+
+                /**
+                 * Override the checkTransaction function to define the behaviour of the
+                 * repositoryNode when emit the licenses of a cart.
+                 * N.B here the transaction is contractually valid
+                 */
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws BuyPkgFlow.UnexpectedInvalidPriceException {
+                    if(!withoutIssuer(sumCashBy(stx.getTx().getOutputStates(), getOurIdentity())).equals(total))
+                        throw new BuyPkgFlow.UnexpectedInvalidPriceException();
+                }
+            }
+
+            /* Set the current step to AWAITING_PKG_IDS and proceed to call */
+            progressTracker.setCurrentStep(AWAITING_PKG_IDS);
+
+            final List<StateAndRef<PkgOfferState>> pkgStateAndRefs =
+                    buyerSession.receive(PkgIdsContainer.class).unwrap(data -> {
+                /* Set the current step to VERIFYING_RCV_DATA and proceed to verify the received data */
+                progressTracker.setCurrentStep(VERIFYING_RCV_DATA);
+
+                final List<UniqueIdentifier> pkgIds = data.getPkgIds();
+                requireThat(require -> {
+                    require.using(emptyCartErr, pkgIds != null && !pkgIds.isEmpty());
+                    require.using(cartTooLargeErr, pkgIds.size() <= PkgLicenseUtils.maxCartSize);
+                    require.using(nullPkgId, !pkgIds.contains(null));
+                    require.using(duplicatePkgErr, new HashSet<>(pkgIds).size() == pkgIds.size());
+                    return null;
+                });
+
+                /* Look up the unconsumed states in the package index, the ones missing with a single query */
+                final Map<UniqueIdentifier, StateAndRef<PkgOfferState>> found =
+                        getServiceHub().cordaService(PkgOfferIndexService.class).getPkgs(pkgIds);
+                final List<StateAndRef<PkgOfferState>> pkgs = new ArrayList<>(pkgIds.size());
+                for(UniqueIdentifier pkgId : pkgIds) {
+                    final StateAndRef<PkgOfferState> pkg = found.get(pkgId);
+                    if(pkg == null)
+                        throw new BuyPkgFlow.NonExistentPkgException(pkgId);
+                    pkgs.add(pkg);
+                }
+
+                return pkgs;
+            });
+
+            /* The share of every author is stated by its agreement with the repositoryNode */
+            final FeeAgreementIndexService feeAgreementIndex = getServiceHub().cordaService(FeeAgreementIndexService.class);
+            final Map<StateRef, Pair<Party, Amount<Currency>>> developerShares = new HashMap<>();
+            long quantity = 0;
+            for(StateAndRef<PkgOfferState> pkgStateAndRef : pkgStateAndRefs) {
+                final PkgOfferState pkgOfferState = pkgStateAndRef.getState().getData();
+                final StateAndRef<FeeAgreementState> feeAgreement =
+                        feeAgreementIndex.getAgreement(pkgOfferState.getAuthor());
+                if(feeAgreement == null)
+                    throw new BuyPkgFlow.MissingFeeAgreementException(pkgOfferState.getAuthor());
+
+                developerShares.put(pkgStateAndRef.getRef(), new Pair<>(pkgOfferState.getAuthor(),
+                        PkgLicenseContract.developerShare(pkgOfferState.getPrice(),
+                                feeAgreement.getState().getData().getFee())));
+                quantity += pkgOfferState.getPrice().getQuantity();
+            }
+            final Amount<Currency> total = new Amount<>(quantity,
+                    pkgStateAndRefs.get(0).getState().getData().getPrice().getToken());
+
+            /* Set the current step to SENDING_PKGS_INFO and proceed to send the requested packages info */
+            progressTracker.setCurrentStep(SENDING_PKGS_INFO);
+
+            subFlow(new SendStateAndRefFlow(buyerSession, new ArrayList<>(pkgStateAndRefs)));
+
+            /* Check and Sign the transaction, get the hash value of the obtained transaction */
+            final SignTxFlow signTxFlow = new SignTxFlow(buyerSession, SignTransactionFlow.Companion.tracker(), total);
+            final SecureHash txId = subFlow(signTxFlow).getId();
+
+            /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+            SignedTransaction stx = subFlow(new ReceiveFinalityFlow(buyerSession, txId));
+
+            /*
+             * Set the current step to ACCRUING_AUTHOR_SHARES and record the amount that belongs to the author
+             * of every package sold, they will be paid with the next settlement of the developer payouts
+             */
+            progressTracker.setCurrentStep(ACCRUING_AUTHOR_SHARES);
+
+            final PayoutLedgerService payoutLedger = getServiceHub().cordaService(PayoutLedgerService.class);
+            for(StateAndRef<PkgLicenseState> license : stx.getTx().outRefsOfType(PkgLicenseState.class)) {
+                final Pair<Party, Amount<Currency>> share =
+                        developerShares.get(license.getState().getData().getPkgRef());
+                payoutLedger.accrue(license.getRef(), share.getFirst(), share.getSecond());
+            }
+
+            return stx;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package it.nextworks.corda.flows;
+
+import it.nextworks.corda.contracts.PkgLicenseUtils;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.List;
+
+public class BuyPkgsFlowUtils {
+    public static final String emptyCartErr           = "At least one package must be bought.";
+    public static final String cartTooLargeErr        = "At most " + PkgLicenseUtils.maxCartSize + " packages can be " +
+            "bought in a single transaction.";
+    public static final String duplicatePkgErr        = "The same package cannot be bought twice in the same cart.";
+    public static final String nullPkgId              = "The <PkgId> parameter cannot be null.";
+    public static final String nullTotal              = "The <total> parameter cannot be null.";
+    public static final String notARepositoryErr      = "Not a configured Repository Node: ";
+    public static final String unreachableRepository  = "The Repository Node is not in the network map: ";
+    public static final String cartRepositoriesErr    = "All the packages of the cart must be listed by the same " +
+            "Repository Node.";
+    public static final String cartNotListedErr       = "Not all the packages of the cart are listed by a " +
+            "Repository Node";
+    public static final String cartNotListedTimedOut  = ", Repository Nodes timed out: ";
+    public static final String cartNotariesErr        = "All the packages of the cart must be assigned to the same " +
+            "Notary.";
+    public static final String notPoolNotaryErr       = "The packages are assigned to a Notary out of the pool: ";
+
+    public static final String receivedWrongStates    = "The received packages differ from the requested ones.";
+    public static final String totalMismatch          = "The summed price of the received packages differs from the " +
+            "displayed one";
+    public static final String currencyMismatch       = "All the packages of the cart must be priced in the same currency.";
+    public static final String repositoryNodeMismatch = "The received packages specify a different Repository Node.";
+    public static final String missingCash            = "The buyer does not have enough cash to pay the packages requested.";
+
+    public static final String SENDING_PKG_IDS        = "Sending the IDs of the packages in the cart.";
+    public static final String RECEIVING_PKGS_INFO    = "Receiving information about the packages to buy.";
+    public static final String VERIFYING_PKGS_INFO    = "Verifying the information received about the packages.";
+    public static final String GENERATING_TRANSACTION = "Generating transaction based on the packages information.";
+    public static final String VERIFYING_TRANSACTION  = "Verifying contract constraints.";
+    public static final String SIGNING_TRANSACTION    = "Signing transaction with our private key.";
+    public static final String GATHERING_SIGNS        = "Gathering the Repository Node's signature.";
+    public static final String FINALISING_TRANSACTION = "Obtaining Notary signature and recording transaction.";
+
+    public static final String AWAITING_PKG_IDS       = "Waiting for the IDs of the packages that the buyer want to purchase.";
+    public static final String VERIFYING_RCV_DATA     = "Verifying the information received.";
+    public static final String SENDING_PKGS_INFO      = "Sending information about the required packages.";
+    public static final String ACCRUING_AUTHOR_SHARES = "Accruing the amounts that belong to the authors of the packages.";
+
+    public static final String cordAppContractsPkg    = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg        = "it.nextworks.corda.flows";
+    public static final String cordAppFinance         = "net.corda.finance.contracts";
+
+    public static final String notaryX500Name         = TopologyServiceUtils.defaultNotaryName;
+    public static final String devX500Name            = "O=DevTest,L=Pisa,C=IT";
+    public static final String buyerX500Name          = "O=BuyerTest,L=Pistoia,C=IT";
+    public static final String repositoryX500Name     = TopologyServiceUtils.defaultRepositoryName;
+
+    /** Container of the IDs of the packages in the cart, sent to the repository node */
+    @CordaSerializable
+    public static class PkgIdsContainer {
+
+        private final List<UniqueIdentifier> pkgIds;
+
+        public PkgIdsContainer(List<UniqueIdentifier> pkgIds) { this.pkgIds = pkgIds; }
+
+        public List<UniqueIdentifier> getPkgIds() { return pkgIds; }
+    }
+}
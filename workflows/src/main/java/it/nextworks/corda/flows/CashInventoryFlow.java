@@ -0,0 +1,280 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import kotlin.Pair;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.finance.contracts.asset.PartyAndAmount;
+import net.corda.finance.workflows.asset.CashUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.PublicKey;
+import java.util.*;
+
+import static it.nextworks.corda.flows.CashInventoryFlowUtils.*;
+import static net.corda.finance.workflows.GetBalances.getCashBalance;
+
+/**
+ * Flows that reshape the cash states of the node without paying anybody: the transactions
+ * move cash from the node to itself, so they are only notarised and recorded locally.
+ */
+public class CashInventoryFlow {
+
+    private final static Logger logger = LoggerFactory.getLogger(CashInventoryFlow.class);
+
+    /** Merge the dust states sharing notary, issuer and currency into a single state owned by the node */
+    @StartableByRPC
+    @StartableByService
+    public static class Consolidation extends FlowLogic<List<SignedTransaction>> {
+
+        private final long threshold;
+        private final int minStates;
+
+        private final Step LOADING             = new Step(LOADING_DUST);
+        private final Step GENERATING_TX       = new Step(GENERATING_TRANSACTION);
+        private final Step SIGNING_TX          = new Step(SIGNING_TRANSACTION);
+        private final Step FINALISING_TX       = new Step(FINALISING_TRANSACTION) {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                LOADING,
+                GENERATING_TX,
+                SIGNING_TX,
+                FINALISING_TX
+        );
+
+        /**
+         * Constructor of the Consolidation flow class
+         * @param threshold amount, in the minor unit of the currency, below which a state is dust
+         * @param minStates minimum number of dust states with the same issuer and currency to merge them
+         */
+        public Consolidation(long threshold, int minStates) {
+            if(threshold < 0)
+                throw new IllegalArgumentException(negativeThreshold);
+            if(minStates < 2)
+                throw new IllegalArgumentException(minStatesErr);
+
+            this.threshold = threshold;
+            this.minStates = minStates;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+
+            final CashInventoryService cashInventory = getServiceHub().cordaService(CashInventoryService.class);
+
+            /* Set the current step to LOADING and proceed to group the dust by notary, issuer and currency */
+            progressTracker.setCurrentStep(LOADING);
+
+            final Map<Pair<Party, Issued<Currency>>, List<StateAndRef<Cash.State>>> dustByToken = new LinkedHashMap<>();
+            for(StateAndRef<Cash.State> dust : cashInventory.getDust(threshold))
+                dustByToken.computeIfAbsent(new Pair<>(dust.getState().getNotary(),
+                        dust.getState().getData().getAmount().getToken()), token -> new ArrayList<>()).add(dust);
+
+            final List<SignedTransaction> consolidations = new ArrayList<>();
+            for(Map.Entry<Pair<Party, Issued<Currency>>, List<StateAndRef<Cash.State>>> entry : dustByToken.entrySet()) {
+                final Party notary = entry.getKey().getFirst();
+                final List<StateAndRef<Cash.State>> dust = entry.getValue();
+                if(dust.size() < minStates)
+                    continue;
+
+                /* Reserve the dust, a purchase that selected part of it first wins and the group is skipped */
+                final Set<StateRef> refs = new LinkedHashSet<>();
+                dust.forEach(state -> refs.add(state.getRef()));
+                try {
+                    getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(), NonEmptySet.copyOf(refs));
+                } catch(StatesNotAvailableException snae) {
+                    logger.error(dustAlreadyReserved + entry.getKey());
+                    continue;
+                }
+
+                /* Set the current step to GENERATING_TX and proceed to build the latter */
+                progressTracker.setCurrentStep(GENERATING_TX);
+
+                TransactionBuilder txBuilder = new TransactionBuilder(notary);
+                long total = 0;
+                final Set<PublicKey> signers = new LinkedHashSet<>();
+                for(StateAndRef<Cash.State> state : dust) {
+                    txBuilder.addInputState(state);
+                    total += state.getState().getData().getAmount().getQuantity();
+                    signers.add(state.getState().getData().getOwner().getOwningKey());
+                }
+                txBuilder.addOutputState(new Cash.State(new Amount<>(total, entry.getKey().getSecond()), getOurIdentity()),
+                        Cash.PROGRAM_ID);
+                txBuilder.addCommand(new Cash.Commands.Move(), new ArrayList<>(signers));
+                txBuilder.verify(getServiceHub());
+
+                /* Set the current step to SIGNING_TX and proceed to sign the latter */
+                progressTracker.setCurrentStep(SIGNING_TX);
+
+                final SignedTransaction signedTx =
+                        getServiceHub().signInitialTransaction(txBuilder, new ArrayList<>(signers));
+
+                /* Set the current step to FINALISING_TX and starts a finalising sub-flow */
+                progressTracker.setCurrentStep(FINALISING_TX);
+
+                consolidations.add(subFlow(new NotarisedFinalityFlow(signedTx, ImmutableList.of())));
+            }
+
+            return consolidations;
+        }
+    }
+
+    /** Split the balance of the node into a pool of states of the same denomination */
+    @StartableByRPC
+    @StartableByService
+    public static class Split extends FlowLogic<SignedTransaction> {
+
+        private final Amount<Currency> denomination;
+        private final int count;
+
+        private final Step GENERATING_TX       = new Step(GENERATING_TRANSACTION);
+        private final Step SIGNING_TX          = new Step(SIGNING_TRANSACTION);
+        private final Step FINALISING_TX       = new Step(FINALISING_TRANSACTION) {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_TX,
+                SIGNING_TX,
+                FINALISING_TX
+        );
+
+        /**
+         * Constructor of the Split flow class
+         * @param denomination amount of every state of the pool, e.g. the price of a package
+         * @param count        number of states of the pool
+         */
+        public Split(Amount<Currency> denomination, int count) {
+            if(denomination == null || denomination.getQuantity() <= 0)
+                throw new IllegalArgumentException(nonPositiveDenomination);
+            if(count < 1 || count > CashInventoryServiceUtils.maxSplitCount)
+                throw new IllegalArgumentException(splitCountErr);
+
+            this.denomination = denomination;
+            this.count        = count;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+
+            final Party notary = getServiceHub()
+                    .cordaService(TopologyService.class)
+                    .getNotary();
+
+            /* Set the current step to GENERATING_TX and proceed to build the latter */
+            progressTracker.setCurrentStep(GENERATING_TX);
+
+            final Amount<Currency> cashBalance = getCashBalance(getServiceHub(), denomination.getToken());
+            if(cashBalance.getQuantity() < denomination.getQuantity() * count)
+                throw new IllegalArgumentException(missingCash);
+            subFlow(new MoveToNotary(denomination.times(count), notary));
+
+            /* Pay ourselves once per state of the pool, with our well-known identity */
+            final List<PartyAndAmount<Currency>> payments = new ArrayList<>(count);
+            for(int i = 0; i < count; i++)
+                payments.add(new PartyAndAmount<>(getOurIdentity(), denomination));
+            Pair<TransactionBuilder, List<PublicKey>> txKeysPair = CashUtils.generateSpend(getServiceHub(),
+                    new TransactionBuilder(notary), payments, getOurIdentityAndCert(), Collections.emptySet(), false);
+            final TransactionBuilder tx = txKeysPair.getFirst();
+            tx.verify(getServiceHub());
+
+            /* Set the current step to SIGNING_TX and proceed to sign the latter */
+            progressTracker.setCurrentStep(SIGNING_TX);
+
+            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(tx, txKeysPair.getSecond());
+
+            /* Set the current step to FINALISING_TX and starts a finalising sub-flow */
+            progressTracker.setCurrentStep(FINALISING_TX);
+
+            return subFlow(new NotarisedFinalityFlow(signedTx, ImmutableList.of()));
+        }
+    }
+
+    /**
+     * Move to the specified notary enough cash to pay the specified amount, changing the notary of the
+     * states held by the other notaries of the pool. It is used inline before spending the cash in a
+     * transaction of that notary, as all the inputs of a transaction must be assigned to its notary.
+     */
+    public static class MoveToNotary extends FlowLogic<Void> {
+
+        private final Amount<Currency> amount;
+        private final Party notary;
+
+        /**
+         * Constructor of the MoveToNotary flow class
+         * @param amount the amount that has to be available on the notary
+         * @param notary the notary of the transaction that spends the cash
+         */
+        public MoveToNotary(Amount<Currency> amount, Party notary) {
+            this.amount = amount;
+            this.notary = notary;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            final List<StateAndRef<Cash.State>> elsewhere = new ArrayList<>();
+            long available = 0;
+            for(StateAndRef<Cash.State> cash : getServiceHub().cordaService(CashInventoryService.class)
+                    .getCash(amount.getToken())) {
+                if(cash.getState().getNotary().equals(notary))
+                    available += cash.getState().getData().getAmount().getQuantity();
+                else
+                    elsewhere.add(cash);
+            }
+
+            for(StateAndRef<Cash.State> cash : elsewhere) {
+                if(available >= amount.getQuantity())
+                    break;
+
+                /* Reserve the state, a concurrent spend that selected it first wins and the state is skipped */
+                try {
+                    getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(),
+                            NonEmptySet.of(cash.getRef()));
+                } catch(StatesNotAvailableException snae) {
+                    continue;
+                }
+                subFlow(new NotaryChangeFlow<>(cash, notary));
+                available += cash.getState().getData().getAmount().getQuantity();
+            }
+
+            if(available < amount.getQuantity())
+                throw new IllegalArgumentException(missingCashOnNotary + notary.getName());
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package it.nextworks.corda.flows;
+
+public class CashInventoryFlowUtils {
+    public static final String negativeThreshold       = "The <threshold> parameter cannot be negative.";
+    public static final String minStatesErr            = "At least two states are needed to consolidate them.";
+    public static final String nonPositiveDenomination = "The <denomination> parameter must be positive.";
+    public static final String splitCountErr           = "The <count> parameter must be between 1 and " +
+            CashInventoryServiceUtils.maxSplitCount + ".";
+    public static final String missingCash             = "Not enough cash to split the requested pool.";
+    public static final String missingCashOnNotary     = "Not enough cash can be moved to the Notary: ";
+    public static final String dustAlreadyReserved     = "The dust states have been reserved by another flow: ";
+
+    public static final String LOADING_DUST            = "Loading the cash states worth less than the threshold.";
+    public static final String GENERATING_TRANSACTION  = "Generating the transaction that reshapes the cash states.";
+    public static final String SIGNING_TRANSACTION     = "Signing transaction with our private key.";
+    public static final String FINALISING_TRANSACTION  = "Obtaining Notary signature and recording transaction.";
+
+    public static final String cordAppContractsPkg     = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg         = "it.nextworks.corda.flows";
+    public static final String cordAppFinance          = "net.corda.finance.contracts";
+
+    public static final String notaryX500Name          = TopologyServiceUtils.defaultNotaryName;
+    public static final String buyerX500Name           = "O=BuyerTest,L=Pistoia,C=IT";
+    public static final String repositoryX500Name      = TopologyServiceUtils.defaultRepositoryName;
+}
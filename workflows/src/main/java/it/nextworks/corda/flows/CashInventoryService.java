@@ -0,0 +1,227 @@
+package it.nextworks.corda.flows;
+
+import kotlin.Pair;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.finance.contracts.asset.PartyAndAmount;
+import net.corda.finance.schemas.CashSchemaV1;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static it.nextworks.corda.flows.CashInventoryServiceUtils.*;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Manager of the cash states held by the node. In background it merges the small change states
+ * left by the purchases and the payouts into a single state, so that the coin selection touches
+ * few states; on demand, through CashInventoryFlow.Split, it splits the balance into a pool of
+ * states of a given denomination. A spend of an amount for which an exact coin is available
+ * reserves just that coin, so concurrent spends never contend on the same states.
+ * A transaction spends the states of a single notary, so the coins are looked up on the notary of
+ * the transaction and CashInventoryFlow.MoveToNotary moves there the cash held by the other notaries.
+ */
+@CordaService
+public class CashInventoryService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+    private final long period;
+    private final long dustThreshold;
+    private final int minStates;
+
+    private final static Logger logger = LoggerFactory.getLogger(CashInventoryService.class);
+
+    public CashInventoryService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.period        = config.exists(consolidationPeriodConfigKey)
+                ? config.getLong(consolidationPeriodConfigKey) : defaultConsolidationPeriod;
+        this.dustThreshold = config.exists(dustThresholdConfigKey)
+                ? config.getLong(dustThresholdConfigKey) : defaultDustThreshold;
+        this.minStates     = config.exists(consolidationMinStatesConfigKey)
+                ? config.getInt(consolidationMinStatesConfigKey) : defaultConsolidationMinStates;
+
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if(event == ServiceLifecycleEvent.STATE_MACHINE_STARTED)
+                startScheduler();
+        });
+    }
+
+    private void startScheduler() {
+        if(period <= 0) {
+            logger.info(consolidationDisabled);
+            return;
+        }
+
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, CashInventoryService.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::consolidate, period, period, TimeUnit.SECONDS);
+        logger.info(consolidationScheduled + period + consolidationScheduledThreshold + dustThreshold);
+    }
+
+    /* Wait for each run so that two runs never overlap */
+    private void consolidate() {
+        try {
+            serviceHub.startFlow(new CashInventoryFlow.Consolidation(dustThreshold, minStates))
+                    .getReturnValue().get();
+        } catch(Exception e) {
+            logger.error(consolidationRunFailed + e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieve the unlocked cash states worth less than the specified amount
+     * @param threshold amount, in the minor unit of the currency, below which a state is dust
+     * @return at most maxConsolidationInputs states
+     */
+    public List<StateAndRef<Cash.State>> getDust(long threshold) {
+        try {
+            final FieldInfo attributePennies = getField("pennies", CashSchemaV1.PersistentCashState.class);
+            final QueryCriteria criteria = unlockedCash(null)
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.lessThan(attributePennies, threshold)));
+
+            return serviceHub.getVaultService().queryBy(Cash.State.class, criteria,
+                    new PageSpecification(DEFAULT_PAGE_NUM, maxConsolidationInputs)).getStates();
+        } catch(NoSuchFieldException e) {
+            throw new IllegalArgumentException(malformedCashTable);
+        }
+    }
+
+    /**
+     * Retrieve the unlocked cash states in the specified currency, whatever their notary
+     * @param currency the currency of the states
+     * @return at most maxConsolidationInputs states
+     */
+    public List<StateAndRef<Cash.State>> getCash(Currency currency) {
+        try {
+            final FieldInfo attributeCurrency = getField("currency", CashSchemaV1.PersistentCashState.class);
+            final QueryCriteria criteria = unlockedCash(null)
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(
+                            Builder.equal(attributeCurrency, currency.getCurrencyCode())));
+
+            return serviceHub.getVaultService().queryBy(Cash.State.class, criteria,
+                    new PageSpecification(DEFAULT_PAGE_NUM, maxConsolidationInputs)).getStates();
+        } catch(NoSuchFieldException e) {
+            throw new IllegalArgumentException(malformedCashTable);
+        }
+    }
+
+    /**
+     * Soft lock, on behalf of a flow, an unlocked cash state worth exactly the specified amount
+     * @param amount the amount to spend
+     * @param lockId the run id of the flow, the lock is released when the flow ends
+     * @return the state reserved, null if no such state is available
+     */
+    public StateAndRef<Cash.State> reserveCoin(Amount<Currency> amount, UUID lockId) {
+        return reserveCoin(amount, null, lockId);
+    }
+
+    /**
+     * Soft lock, on behalf of a flow, an unlocked cash state worth exactly the specified amount
+     * @param amount the amount to spend
+     * @param notary the notary of the transaction spending the state, null for any notary
+     * @param lockId the run id of the flow, the lock is released when the flow ends
+     * @return the state reserved, null if no such state is available
+     */
+    public StateAndRef<Cash.State> reserveCoin(Amount<Currency> amount, Party notary, UUID lockId) {
+        final List<StateAndRef<Cash.State>> candidates;
+        try {
+            final FieldInfo attributePennies = getField("pennies", CashSchemaV1.PersistentCashState.class);
+            final FieldInfo attributeCurrency = getField("currency", CashSchemaV1.PersistentCashState.class);
+            final QueryCriteria criteria = unlockedCash(notary)
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(
+                            Builder.equal(attributePennies, amount.getQuantity())))
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(
+                            Builder.equal(attributeCurrency, amount.getToken().getCurrencyCode())));
+
+            candidates = serviceHub.getVaultService().queryBy(Cash.State.class, criteria,
+                    new PageSpecification(DEFAULT_PAGE_NUM, coinCandidates)).getStates();
+        } catch(NoSuchFieldException e) {
+            throw new IllegalArgumentException(malformedCashTable);
+        }
+
+        /* A concurrent spend may reserve a candidate first, move on to the next one */
+        for(StateAndRef<Cash.State> coin : candidates) {
+            try {
+                serviceHub.getVaultService().softLockReserve(lockId, NonEmptySet.of(coin.getRef()));
+                return coin;
+            } catch(StatesNotAvailableException snae) {
+                /* Already reserved */
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Add to the builder the cash states paying the specified parties out of a single coin worth
+     * their total, so that neither change nor coin selection is needed
+     * @param builder  the transaction builder
+     * @param payments the parties to pay, all in the same currency
+     * @param lockId   the run id of the flow
+     * @return the builder and the key that must sign the transaction, null if no such coin is
+     *         available and the caller has to fall back to CashUtils.generateSpend
+     */
+    public Pair<TransactionBuilder, List<PublicKey>> spendCoin(TransactionBuilder builder,
+                                                               List<PartyAndAmount<Currency>> payments,
+                                                               UUID lockId) {
+        if(payments.isEmpty())
+            return null;
+
+        Amount<Currency> total = payments.get(0).getAmount();
+        for(PartyAndAmount<Currency> payment : payments.subList(1, payments.size()))
+            total = total.plus(payment.getAmount());
+
+        final StateAndRef<Cash.State> coin = reserveCoin(total, builder.getNotary(), lockId);
+        if(coin == null)
+            return null;
+
+        builder.addInputState(coin);
+        for(PartyAndAmount<Currency> payment : payments)
+            builder.addOutputState(new Cash.State(new Amount<>(payment.getAmount().getQuantity(),
+                    coin.getState().getData().getAmount().getToken()), payment.getParty()), Cash.PROGRAM_ID);
+        final PublicKey ownerKey = coin.getState().getData().getOwner().getOwningKey();
+        builder.addCommand(new Cash.Commands.Move(), ownerKey);
+
+        final List<PublicKey> keys = new ArrayList<>();
+        keys.add(ownerKey);
+
+        return new Pair<>(builder, keys);
+    }
+
+    private static QueryCriteria unlockedCash(Party notary) {
+        final QueryCriteria.VaultQueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED)
+                .withRelevancyStatus(Vault.RelevancyStatus.RELEVANT)
+                .withSoftLockingCondition(new QueryCriteria.SoftLockingCondition(
+                        QueryCriteria.SoftLockingType.UNLOCKED_ONLY, Collections.emptyList()));
+
+        return notary != null ? criteria.withNotary(Collections.<AbstractParty>singletonList(notary)) : criteria;
+    }
+}
@@ -0,0 +1,28 @@
+package it.nextworks.corda.flows;
+
+public class CashInventoryServiceUtils {
+    /** Keys of the CorDapp configuration used to schedule the consolidation of the cash states */
+    public static final String consolidationPeriodConfigKey    = "cashConsolidationPeriodSeconds";
+    public static final String dustThresholdConfigKey          = "cashDustThreshold";
+    public static final String consolidationMinStatesConfigKey = "cashConsolidationMinStates";
+
+    /**
+     * Every ten minutes merge the states worth less than 1.00 units of currency, provided that
+     * at least ten of them with the same issuer and currency are available; a period of 0 disables it
+     */
+    public static final long defaultConsolidationPeriod        = 600;
+    public static final long defaultDustThreshold              = 100;
+    public static final int defaultConsolidationMinStates      = 10;
+
+    /** Upper bound to the inputs of a consolidation and to the outputs of a split */
+    public static final int maxConsolidationInputs             = 100;
+    public static final int maxSplitCount                      = 50;
+    /** Number of exact-amount coins probed when reserving one for a spend */
+    public static final int coinCandidates                     = 10;
+
+    public static final String consolidationScheduled          = "Cash states will be consolidated every ";
+    public static final String consolidationScheduledThreshold = " seconds, dust threshold: ";
+    public static final String consolidationDisabled           = "Scheduled consolidation of the cash states disabled.";
+    public static final String consolidationRunFailed          = "Scheduled consolidation of the cash states failed : ";
+    public static final String malformedCashTable              = "Unable to query the cash states table.";
+}
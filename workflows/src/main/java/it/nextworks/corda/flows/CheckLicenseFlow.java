@@ -0,0 +1,198 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.*;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static it.nextworks.corda.flows.CheckLicenseFlowUtils.*;
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * Answer a batch of license ownership lookups from the LicenseIndexService of the node, without
+ * querying the vault. A license is held by the repository node that sold the package only, so the
+ * lookups missed by the local index are asked to the other repository nodes at once, each by a flow
+ * of its own started by the ShardQueryService; a repository node that does not answer in time is
+ * left out and its lookups stay unlicensed.
+ */
+@StartableByRPC
+@StartableByService
+public class CheckLicenseFlow extends FlowLogic<LicenseCheckResult> {
+
+    /**
+     * This exception will be thrown if the licenses stored in the
+     * vault have not been loaded in the index yet.
+     */
+    public static class IndexNotLoadedException extends FlowException {
+        public IndexNotLoadedException() { super(indexNotLoaded); }
+    }
+
+    private final List<LicenseLookup> lookups;
+
+    /**
+     * Constructor of the CheckLicenseFlow class
+     * @param lookups the (buyer, pkgInfoId) pairs to check
+     */
+    public CheckLicenseFlow(List<LicenseLookup> lookups) {
+        if(lookups == null || lookups.isEmpty())
+            throw new IllegalArgumentException(emptyBatchErr);
+        if(lookups.size() > maxBatchSize)
+            throw new IllegalArgumentException(batchTooLargeErr);
+        for(LicenseLookup lookup : lookups)
+            if(lookup == null || lookup.getBuyer() == null || lookup.getPkgInfoId() == null)
+                throw new IllegalArgumentException(nullEntryErr);
+
+        this.lookups = lookups;
+    }
+
+    @Suspendable
+    @Override
+    public LicenseCheckResult call() throws FlowException {
+        final LicenseIndexService licenseIndex = getServiceHub().cordaService(LicenseIndexService.class);
+        /* A miss on an index still loading could deny a legitimate download */
+        if(!licenseIndex.isLoaded())
+            throw new IndexNotLoadedException();
+
+        final List<Boolean> licensed = new ArrayList<>(lookups.size());
+        final List<Integer> missed = new ArrayList<>();
+        final long start = System.nanoTime();
+        for(LicenseLookup lookup : lookups) {
+            final boolean hasLicense = licenseIndex.hasLicense(lookup.getBuyer(), lookup.getPkgInfoId());
+            if(!hasLicense)
+                missed.add(licensed.size());
+            licensed.add(hasLicense);
+        }
+        final long lookupNanos = System.nanoTime() - start;
+
+        /* Ask the misses to the other repository nodes, the licenses sold by them are not in our vault */
+        final List<Party> shards = new ArrayList<>(getServiceHub().cordaService(TopologyService.class)
+                .getRepositoryNodes());
+        shards.remove(getOurIdentity());
+        if(missed.isEmpty() || shards.isEmpty())
+            return new LicenseCheckResult(licensed, lookupNanos);
+
+        final List<LicenseLookup> missedLookups = new ArrayList<>(missed.size());
+        for(int index : missed)
+            missedLookups.add(lookups.get(index));
+        final Map<CordaX500Name, List<Boolean>> replies = await(new RemoteCheckOperation(
+                getServiceHub().cordaService(ShardQueryService.class), shards, missedLookups));
+        if(replies.size() < shards.size())
+            getLogger().warn(remoteCheckPartial + (shards.size() - replies.size()));
+        for(List<Boolean> reply : replies.values()) {
+            for(int i = 0; i < missed.size(); i++) {
+                if(reply.get(i))
+                    licensed.set(missed.get(i), true);
+            }
+        }
+
+        return new LicenseCheckResult(licensed, lookupNanos);
+    }
+
+    /** External operation awaited by CheckLicenseFlow while the other repository nodes are asked */
+    private static class RemoteCheckOperation implements FlowExternalAsyncOperation<Map<CordaX500Name, List<Boolean>>> {
+
+        private final ShardQueryService shardQueryService;
+        private final List<Party> shards;
+        private final List<LicenseLookup> lookups;
+
+        private RemoteCheckOperation(ShardQueryService shardQueryService, List<Party> shards,
+                                     List<LicenseLookup> lookups) {
+            this.shardQueryService = shardQueryService;
+            this.shards            = shards;
+            this.lookups           = lookups;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<Map<CordaX500Name, List<Boolean>>> execute(@NotNull String deduplicationId) {
+            return shardQueryService.checkLicenses(shards, lookups, remoteCheckTimeoutMillis);
+        }
+    }
+
+    @InitiatingFlow
+    @StartableByService
+    public static class RemoteCheckInitiation extends FlowLogic<List<Boolean>> {
+
+        private final Party repositoryNode;
+        private final List<LicenseLookup> lookups;
+
+        /**
+         * Constructor of the RemoteCheckInitiation flow class
+         * @param repositoryNode the repository node to ask
+         * @param lookups        the (buyer, pkgInfoId) pairs to check
+         */
+        public RemoteCheckInitiation(Party repositoryNode, List<LicenseLookup> lookups) {
+            this.repositoryNode = repositoryNode;
+            this.lookups        = lookups;
+        }
+
+        @Suspendable
+        @Override
+        public List<Boolean> call() throws FlowException {
+            final FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
+
+            return repositoryNodeSession.sendAndReceive(List.class, lookups).unwrap(data -> {
+                final List<Boolean> licensed = new ArrayList<>();
+                requireThat(require -> {
+                    require.using(remoteCheckMismatch, data != null && data.size() == lookups.size());
+                    for(Object entry : data) {
+                        require.using(remoteCheckMismatch, entry instanceof Boolean);
+                        licensed.add((Boolean)entry);
+                    }
+
+                    return null;
+                });
+
+                return licensed;
+            });
+        }
+    }
+
+    @InitiatedBy(RemoteCheckInitiation.class)
+    public static class RepositoryNodeAcceptor extends FlowLogic<Void> {
+
+        private final FlowSession repositoryNodeSession;
+
+        /**
+         * Constructor of the flow initiated by the RemoteCheckInitiation class
+         * @param repositoryNodeSession session with the repository node checking the licenses
+         */
+        public RepositoryNodeAcceptor(FlowSession repositoryNodeSession) {
+            this.repositoryNodeSession = repositoryNodeSession;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            /* The licenses of the buyers are disclosed to the other repository nodes only */
+            if(!getServiceHub().cordaService(TopologyService.class)
+                    .isRepositoryNode(repositoryNodeSession.getCounterparty()))
+                throw new FlowException(notARepositoryErr + repositoryNodeSession.getCounterparty().getName());
+
+            final LicenseIndexService licenseIndex = getServiceHub().cordaService(LicenseIndexService.class);
+            if(!licenseIndex.isLoaded())
+                throw new IndexNotLoadedException();
+
+            final List<?> received = repositoryNodeSession.receive(List.class).unwrap(data -> {
+                if(data == null || data.size() > maxBatchSize)
+                    throw new IllegalArgumentException(batchTooLargeErr);
+
+                return data;
+            });
+            final List<Boolean> licensed = new ArrayList<>(received.size());
+            for(Object entry : received) {
+                final LicenseLookup lookup = entry instanceof LicenseLookup ? (LicenseLookup)entry : null;
+                licensed.add(lookup != null && licenseIndex.hasLicense(lookup.getBuyer(), lookup.getPkgInfoId()));
+            }
+            repositoryNodeSession.send(licensed);
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.List;
+
+public class CheckLicenseFlowUtils {
+
+    /** Upper bound to the number of lookups answered by a single flow */
+    public static final int maxBatchSize              = 1000;
+    /** Time the other repository nodes are given to check the lookups missed by the local index */
+    public static final long remoteCheckTimeoutMillis = 5000;
+
+    public static final String emptyBatchErr          = "At least one license must be checked.";
+    public static final String batchTooLargeErr       = "At most " + maxBatchSize + " licenses can be checked " +
+            "in a single request.";
+    public static final String nullEntryErr           = "The <buyer> and <pkgInfoId> of a lookup cannot be null.";
+    public static final String indexNotLoaded         = "The license index is still loading, retry later.";
+    public static final String notARepositoryErr      = "Not a configured Repository Node: ";
+    public static final String remoteCheckMismatch    = "The outcomes received do not match the lookups sent.";
+    public static final String remoteCheckPartial     = "Licenses partially checked, repository nodes not answering: ";
+    public static final String licensesRemapped       = "Licenses recorded before the license schema mapped to it: ";
+    public static final String licensesNotRemapped    = "Unable to map the licenses to the license schema: ";
+
+    public static final String cordAppContractsPkg    = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg        = "it.nextworks.corda.flows";
+    public static final String cordAppFinance         = "net.corda.finance.contracts";
+
+    public static final String notaryX500Name         = TopologyServiceUtils.defaultNotaryName;
+    public static final String devX500Name            = "O=DevTest,L=Pisa,C=IT";
+    public static final String buyerX500Name          = "O=BuyerTest,L=Pistoia,C=IT";
+    public static final String repositoryX500Name     = TopologyServiceUtils.defaultRepositoryName;
+
+    /** A single lookup: does the buyer hold a license for the package? */
+    @CordaSerializable
+    public static class LicenseLookup {
+
+        private final CordaX500Name buyer;
+        private final String pkgInfoId;
+
+        /**
+         * Constructor of the LicenseLookup class
+         * @param buyer     name of the buyer
+         * @param pkgInfoId id of the package in the catalogue
+         */
+        public LicenseLookup(CordaX500Name buyer, String pkgInfoId) {
+            this.buyer     = buyer;
+            this.pkgInfoId = pkgInfoId;
+        }
+
+        /* Getters */
+
+        public CordaX500Name getBuyer() { return buyer; }
+
+        public String getPkgInfoId() { return pkgInfoId; }
+    }
+
+    /** Outcome of a batch of lookups, in the same order, and the time spent on the index */
+    @CordaSerializable
+    public static class LicenseCheckResult {
+
+        private final List<Boolean> licensed;
+        private final long lookupNanos;
+
+        /**
+         * Constructor of the LicenseCheckResult class
+         * @param licensed    outcome of every lookup of the batch
+         * @param lookupNanos nanoseconds spent querying the index for the whole batch
+         */
+        public LicenseCheckResult(List<Boolean> licensed, long lookupNanos) {
+            this.licensed    = licensed;
+            this.lookupNanos = lookupNanos;
+        }
+
+        /* Getters */
+
+        public List<Boolean> getLicensed() { return licensed; }
+
+        public long getLookupNanos() { return lookupNanos; }
+    }
+}
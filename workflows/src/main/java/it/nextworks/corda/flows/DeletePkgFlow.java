@@ -9,18 +9,13 @@ import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
-import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
-
 import static it.nextworks.corda.flows.DeletePkgFlowUtils.*;
 
 public class DeletePkgFlow {
@@ -94,30 +89,24 @@ public class DeletePkgFlow {
         @Override
         public SignedTransaction call() throws FlowException {
 
-            /* Retrieving a reference to notary using the serviceHub [Production Method] */
-            final Party notary = getServiceHub()
-                    .getNetworkMapCache()
-                    .getNotary(CordaX500Name.parse(notaryX500Name));
             /*
              * Retrieving our identity and the Repository Node identity that will be used as <buyer>
              * and <repositoryNode> parameters in the transaction
              */
             final Party author = getOurIdentity();
-            final Party repositoryNode = getServiceHub()
-                    .getNetworkMapCache()
-                    .getPeerByLegalName(CordaX500Name.parse(repositoryX500Name));
 
             /* Set the current step to RETRIEVING_PKG_FROM_LID and proceed to query the vault */
             progressTracker.setCurrentStep(RETRIEVING_PKG_FROM_LID);
 
-            /* Query for unconsumed linear state for given linear ID */
-            QueryCriteria.LinearStateQueryCriteria queryCriteria =
-                    new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(linearId.getId()),
-                            null, Vault.StateStatus.UNCONSUMED);
-            final List<StateAndRef<PkgOfferState>> lst = getServiceHub().getVaultService()
-                    .queryBy(PkgOfferState.class, queryCriteria).getStates();
-            if(lst.size() == 0)
+            /* Look up the unconsumed state for the given linear ID in the package index */
+            final StateAndRef<PkgOfferState> pkg =
+                    getServiceHub().cordaService(PkgOfferIndexService.class).getPkg(linearId);
+            if(pkg == null)
                 throw new NonExistentPkgException(linearId);
+            /* The package is deleted by the repository node that lists it */
+            final Party repositoryNode = pkg.getState().getData().getRepositoryNode();
+            /* The package is consumed by the notary it was assigned to when it was registered */
+            final Party notary = pkg.getState().getNotary();
 
             /* Set the current step to SENDING_PKG_ID and proceed to send the package ID */
             progressTracker.setCurrentStep(SENDING_PKG_ID);
@@ -132,7 +121,7 @@ public class DeletePkgFlow {
                     new PkgOfferContract.Commands.DeletePkg(), ImmutableList.of(author.getOwningKey(),
                     repositoryNode.getOwningKey()));
             final TransactionBuilder txBuilder = new TransactionBuilder(notary)
-                    .addInputState(lst.get(0))
+                    .addInputState(pkg)
                     .addCommand(txCommand);
 
             /* Set the current step to VERIFYING_TRANSACTION and proceed to call the verify function */
@@ -154,7 +143,7 @@ public class DeletePkgFlow {
             /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
 
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
+            return subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
         }
     }
 
@@ -186,13 +175,10 @@ public class DeletePkgFlow {
             }
 
             devSession.receive(UniqueIdentifier.class).unwrap(data -> {
-                /* Query for unconsumed linear state for given linear ID */
-                QueryCriteria.LinearStateQueryCriteria queryCriteria =
-                        new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(data.getId()),
-                                null, Vault.StateStatus.UNCONSUMED);
-                final List<StateAndRef<PkgOfferState>> lst = getServiceHub().getVaultService()
-                        .queryBy(PkgOfferState.class, queryCriteria).getStates();
-                if(lst.size() == 0)
+                /* Look up the unconsumed state for the given linear ID in the package index */
+                final StateAndRef<PkgOfferState> pkg =
+                        getServiceHub().cordaService(PkgOfferIndexService.class).getPkg(data);
+                if(pkg == null)
                     throw new NonExistentPkgException(data);
 
                 System.out.println(data);
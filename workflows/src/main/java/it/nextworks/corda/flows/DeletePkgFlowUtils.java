@@ -12,9 +12,9 @@ public class DeletePkgFlowUtils {
     public static final String GATHERING_SIGNS         = "Gathering the Repository Node's signature.";
     public static final String FINALISING_TRANSACTION  = "Obtaining Notary signature and recording transaction.";
 
-    public static final String notaryX500Name          = "O=Notary,L=Pisa,C=IT";
+    public static final String notaryX500Name          = TopologyServiceUtils.defaultNotaryName;
     public static final String devX500Name             = "O=DevTest,L=Pisa,C=IT";
-    public static final String repositoryX500Name      = "O=RepositoryNode,L=Pisa,C=IT";
+    public static final String repositoryX500Name      = TopologyServiceUtils.defaultRepositoryName;
 
     public static final String cordAppContractsPkg     = "it.nextworks.corda.contracts";
     public static final String cordAppFlowsPkg         = "it.nextworks.corda.flows";
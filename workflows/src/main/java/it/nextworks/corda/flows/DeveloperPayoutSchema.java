@@ -0,0 +1,4 @@
+package it.nextworks.corda.flows;
+
+/* The family of schemas for the developer payout ledger of the repository node */
+public class DeveloperPayoutSchema { }
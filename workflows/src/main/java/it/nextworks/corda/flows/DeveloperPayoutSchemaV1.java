@@ -0,0 +1,92 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.schemas.MappedSchema;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Ledger of the earnings that the repository node owes to the developers. Every sale paid in full
+ * to the repository node adds a row with the share of the author; a row is settled when it is
+ * included in a payout transaction, whose id is stored in the row as audit trail.
+ */
+public class DeveloperPayoutSchemaV1 extends MappedSchema {
+
+    public DeveloperPayoutSchemaV1() {
+        super(DeveloperPayoutSchema.class, 1, Arrays.asList(PersistentPayoutAccrual.class));
+    }
+
+    @Entity
+    @Table(name = "developer_payout_accruals",
+            indexes = {
+                    @Index(name = "payout_accrual_pending_idx", columnList = "settlement_tx_id, developer_key_hash")
+            })
+    public static class PersistentPayoutAccrual {
+
+        @Id @Column(name = "license_ref", length = 80, nullable = false) private final String licenseRef;
+        @Column(name = "developer_key_hash", length = 130, nullable = false) private final String developerKeyHash;
+        @Column(name = "developer_name", nullable = false) private final String developerName;
+        @Column(name = "quantity", nullable = false) private final long quantity;
+        @Column(name = "currency", length = 3, nullable = false) private final String currency;
+        @Column(name = "accrued_at", nullable = false) private final Instant accruedAt;
+        @Column(name = "settlement_tx_id", length = 64) private String settlementTxId;
+
+        /**
+         * Constructor of the PersistentPayoutAccrual class
+         * @param licenseRef       reference of the PkgLicenseState issued by the sale, in the form txhash(index)
+         * @param developerKeyHash hash of the owning key of the author of the package sold
+         * @param developerName    X500 name of the author of the package sold
+         * @param quantity         share of the author, in the minor unit of the currency
+         * @param currency         currency code of the share
+         */
+        public PersistentPayoutAccrual(String licenseRef, String developerKeyHash, String developerName,
+                                       long quantity, String currency) {
+            this.licenseRef       = licenseRef;
+            this.developerKeyHash = developerKeyHash;
+            this.developerName    = developerName;
+            this.quantity         = quantity;
+            this.currency         = currency;
+            this.accruedAt        = Instant.now();
+            this.settlementTxId   = null;
+        }
+
+        /* Default constructor required by hibernate */
+        public PersistentPayoutAccrual() {
+            licenseRef       = null;
+            developerKeyHash = null;
+            developerName    = null;
+            quantity         = 0;
+            currency         = null;
+            accruedAt        = null;
+            settlementTxId   = null;
+        }
+
+        /* Getters */
+
+        public String getLicenseRef() { return licenseRef; }
+
+        public String getDeveloperKeyHash() { return developerKeyHash; }
+
+        public String getDeveloperName() { return developerName; }
+
+        public long getQuantity() { return quantity; }
+
+        public String getCurrency() { return currency; }
+
+        public Instant getAccruedAt() { return accruedAt; }
+
+        public String getSettlementTxId() { return settlementTxId; }
+
+        public void setSettlementTxId(String settlementTxId) { this.settlementTxId = settlementTxId; }
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() { return "developer_payout.changelog-master"; }
+}
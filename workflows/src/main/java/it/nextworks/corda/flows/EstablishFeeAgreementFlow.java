@@ -3,14 +3,20 @@ package it.nextworks.corda.flows;
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import it.nextworks.corda.contracts.FeeAgreementContract;
+import it.nextworks.corda.schemas.FeeAgreementSchemaV2;
 import it.nextworks.corda.states.FeeAgreementState;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.CryptoUtils;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.FieldInfo;
 import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
@@ -21,7 +27,9 @@ import org.jetbrains.annotations.NotNull;
 import java.util.List;
 
 import static it.nextworks.corda.flows.EstablishFeeAgreementFlowUtils.*;
+import static it.nextworks.corda.flows.RegisterPkgFlowUtils.malformedDbTable;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
 
 public class EstablishFeeAgreementFlow {
     /**
@@ -34,21 +42,79 @@ public class EstablishFeeAgreementFlow {
         }
     }
 
+    /**
+     * Build the criteria selecting the unconsumed fee agreements of a developer through the
+     * (developer, repository) index of the V2 schema
+     * @param developer      identity of the developer
+     * @param repositoryNode identity of the Repository Node, null to select the agreements with any of them
+     * @return the criteria of the vault query
+     */
+    public static QueryCriteria agreementCriteria(Party developer, Party repositoryNode) {
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+
+        try {
+            FieldInfo attributeDeveloper =
+                    getField("developerKeyHash", FeeAgreementSchemaV2.PersistentFeeAgreementState.class);
+            criteria =
+                    criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(attributeDeveloper,
+                            CryptoUtils.toStringShort(developer.getOwningKey()))));
+            if(repositoryNode == null)
+                return criteria;
+
+            FieldInfo attributeRepository =
+                    getField("repositoryKeyHash", FeeAgreementSchemaV2.PersistentFeeAgreementState.class);
+            criteria =
+                    criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(attributeRepository,
+                            CryptoUtils.toStringShort(repositoryNode.getOwningKey()))));
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException(malformedDbTable);
+        }
+
+        return criteria;
+    }
+
+    /**
+     * Retrieve, from the vault of the developer, its live fee agreement with the specified Repository Node
+     * @param serviceHub     service hub of the developer
+     * @param developer      identity of the developer
+     * @param repositoryNode identity of the Repository Node
+     * @return the unconsumed fee agreement, null if the developer did not establish one
+     */
+    public static StateAndRef<FeeAgreementState> findAgreement(ServiceHub serviceHub,
+                                                               Party developer,
+                                                               Party repositoryNode) {
+        final List<StateAndRef<FeeAgreementState>> agreements = serviceHub.getVaultService()
+                .queryBy(FeeAgreementState.class, agreementCriteria(developer, repositoryNode)).getStates();
+        return agreements.isEmpty() ? null : agreements.get(0);
+    }
+
     @InitiatingFlow
     @StartableByRPC
     public static class DevInitiation extends FlowLogic<SignedTransaction> {
 
         private final int maxAcceptableFee;
+        private final CordaX500Name repositoryName;
 
         /**
-         * Constructor of the Initiating flow class.
+         * Constructor of the Initiating flow class, the agreement is established with the primary Repository Node.
          * @param maxAcceptableFee max % fee accepted by the developer
          */
         public DevInitiation(int maxAcceptableFee) {
+            this(maxAcceptableFee, null);
+        }
+
+        /**
+         * Constructor of the Initiating flow class, a developer establishes an agreement with each Repository
+         * Node that lists its packages.
+         * @param maxAcceptableFee max % fee accepted by the developer
+         * @param repositoryName   name of the Repository Node, the primary one if null
+         */
+        public DevInitiation(int maxAcceptableFee, CordaX500Name repositoryName) {
             if(maxAcceptableFee < 0 || maxAcceptableFee > 100)
                 throw new IllegalArgumentException(feeErr);
 
             this.maxAcceptableFee = maxAcceptableFee;
+            this.repositoryName   = repositoryName;
         }
 
         @Suspendable
@@ -77,9 +143,15 @@ public class EstablishFeeAgreementFlow {
              * Retrieving the Repository Node identity that will be used as <repositoryNode>
              * parameters in the transaction.
              */
-            final Party repositoryNode = getServiceHub()
-                    .getNetworkMapCache()
-                    .getPeerByLegalName(CordaX500Name.parse(repositoryX500Name));
+            final TopologyService topology = getServiceHub().cordaService(TopologyService.class);
+            if(repositoryName != null && !topology.getRepositoryNames().contains(repositoryName))
+                throw new IllegalArgumentException(notARepositoryErr + repositoryName);
+            final Party repositoryNode = repositoryName == null
+                    ? topology.getRepositoryNode() : topology.getRepositoryNode(repositoryName);
+
+            /* A developer keeps a single live agreement with each Repository Node */
+            if(findAgreement(getServiceHub(), getOurIdentity(), repositoryNode) != null)
+                throw new AlreadyEstablishedAgreementException();
 
             FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
 
@@ -146,24 +218,33 @@ public class EstablishFeeAgreementFlow {
         @Override
         public SignedTransaction call() throws FlowException {
 
-            /* Retrieving a reference to notary using the serviceHub [Production Method] */
-            final Party notary = getServiceHub()
-                    .getNetworkMapCache()
-                    .getNotary(CordaX500Name.parse(notaryX500Name));
-
             final Party repositoryNode = getOurIdentity();
             final Party devNode = devSession.getCounterparty();
+            /*
+             * The agreement is assigned a notary of the pool, the packages of the developer listed by this
+             * node are assigned the same notary, so a purchase can always reference the agreement
+             */
+            final Party notary = getServiceHub()
+                    .cordaService(NotaryPoolService.class)
+                    .selectNotary(devNode.getName().toString());
 
             /* Set the current step to VERIFY_AGREEMENT_EXISTENCE and proceed to query the vault */
             progressTracker.setCurrentStep(VERIFY_AGREEMENT_EXISTENCE);
 
-            QueryCriteria.VaultQueryCriteria queryCriteria =
-                    new QueryCriteria.VaultQueryCriteria()
-                            .withExactParticipants(ImmutableList.of(devNode, repositoryNode));
-            List<StateAndRef<FeeAgreementState>> lst =
-                    getServiceHub().getVaultService().queryBy(FeeAgreementState.class, queryCriteria).getStates();
-            if(lst.size() == 1)
+            /* Checked against the unconsumed agreements in the vault, the developer is reserved until the end */
+            final FeeAgreementIndexService feeAgreementIndex =
+                    getServiceHub().cordaService(FeeAgreementIndexService.class);
+            if(!feeAgreementIndex.reserve(devNode))
                 throw new AlreadyEstablishedAgreementException();
+            try {
+                return establish(devNode, repositoryNode, notary);
+            } finally {
+                feeAgreementIndex.release(devNode);
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction establish(Party devNode, Party repositoryNode, Party notary) throws FlowException {
 
             /* Set the current step to GENERATING_TRANSACTION and proceed to build the latter */
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
@@ -197,7 +278,7 @@ public class EstablishFeeAgreementFlow {
             /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
 
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableList.of(devSession)));
+            return subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(devSession)));
         }
     }
 }
@@ -0,0 +1,114 @@
+package it.nextworks.corda.flows;
+
+import it.nextworks.corda.states.FeeAgreementState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+
+/**
+ * In-memory index of the fee agreements established with this node, keyed by developer.
+ * The index is loaded from the vault once the node has started and then kept current by tracking
+ * the vault updates, so that checking the agreement of a developer does not hit the database.
+ * A developer missing from the index is looked up in the vault, covering an agreement whose
+ * update has not been delivered yet. The developers establishing an agreement are reserved, so
+ * that two concurrent requests of the same developer cannot both pass the check.
+ */
+@CordaService
+public class FeeAgreementIndexService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+    private final ConcurrentHashMap<Party, StateAndRef<FeeAgreementState>> agreements = new ConcurrentHashMap<>();
+    private final Set<Party> establishing = ConcurrentHashMap.newKeySet();
+
+    public FeeAgreementIndexService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if(event == ServiceLifecycleEvent.STATE_MACHINE_STARTED)
+                startTracking();
+        });
+    }
+
+    private void startTracking() {
+        final DataFeed<Vault.Page<FeeAgreementState>, Vault.Update<FeeAgreementState>> feed =
+                serviceHub.getVaultService().trackBy(FeeAgreementState.class,
+                        new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                        new PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE));
+
+        feed.getSnapshot().getStates().forEach(this::index);
+        feed.getUpdates().subscribe(update -> {
+            update.getConsumed().forEach(this::unindex);
+            update.getProduced().forEach(this::index);
+        });
+    }
+
+    private void index(StateAndRef<FeeAgreementState> agreement) {
+        final FeeAgreementState state = agreement.getState().getData();
+        if(serviceHub.getMyInfo().isLegalIdentity(state.getRepositoryNode()))
+            agreements.put(state.getDeveloper(), agreement);
+    }
+
+    private void unindex(StateAndRef<FeeAgreementState> agreement) {
+        agreements.remove(agreement.getState().getData().getDeveloper(), agreement);
+    }
+
+    /**
+     * Retrieve the fee agreement that the specified developer established with this node
+     * @param developer the developer the agreement refers to
+     * @return the unconsumed fee agreement, null if the developer did not establish one
+     */
+    public StateAndRef<FeeAgreementState> getAgreement(Party developer) {
+        final StateAndRef<FeeAgreementState> agreement = agreements.get(developer);
+        if(agreement != null)
+            return agreement;
+
+        final StateAndRef<FeeAgreementState> stored = queryAgreement(developer);
+        if(stored != null)
+            agreements.putIfAbsent(developer, stored);
+
+        return stored;
+    }
+
+    /**
+     * Reserve the specified developer while it establishes an agreement with this node
+     * @param developer the developer establishing the agreement
+     * @return false if the developer is already reserved or has an unconsumed agreement in the vault
+     */
+    public boolean reserve(Party developer) {
+        if(!establishing.add(developer))
+            return false;
+        if(queryAgreement(developer) == null)
+            return true;
+
+        establishing.remove(developer);
+        return false;
+    }
+
+    /**
+     * Release the reservation of the specified developer, once its agreement is recorded or failed
+     * @param developer the developer establishing the agreement
+     */
+    public void release(Party developer) { establishing.remove(developer); }
+
+    /* Probe of the (developer, repository) index of the V2 schema, restricted to the unconsumed agreements */
+    private StateAndRef<FeeAgreementState> queryAgreement(Party developer) {
+        final Party repositoryNode = serviceHub.getMyInfo().getLegalIdentities().get(0);
+        final List<StateAndRef<FeeAgreementState>> lst = serviceHub.getVaultService().queryBy(FeeAgreementState.class,
+                EstablishFeeAgreementFlow.agreementCriteria(developer, repositoryNode)).getStates();
+        return lst.isEmpty() ? null : lst.get(0);
+    }
+}
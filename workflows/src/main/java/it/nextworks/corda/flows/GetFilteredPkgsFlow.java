@@ -5,11 +5,12 @@ import it.nextworks.corda.schemas.PkgOfferSchemaV1;
 import it.nextworks.corda.states.PkgOfferState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.flows.*;
-import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.node.services.Vault;
 import net.corda.core.node.services.vault.*;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Currency;
 import java.util.List;
@@ -18,6 +19,10 @@ import static it.nextworks.corda.flows.GetPkgsFlowUtils.*;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 import static net.corda.core.node.services.vault.QueryCriteriaUtils.*;
 
+/**
+ * Retrieve the packages of the marketplace matching a query, answered by a replica of the marketplace
+ * like GetPkgsFlow, falling back to the repository node
+ */
 public class GetFilteredPkgsFlow {
 
     @InitiatingFlow
@@ -32,35 +37,67 @@ public class GetFilteredPkgsFlow {
         @Override
         public List<PkgOfferState> call() throws FlowException {
 
-            /* Retrieving the Repository Node identity to request packages info */
-            final Party repositoryNode = getServiceHub()
-                    .getNetworkMapCache()
-                    .getPeerByLegalName(CordaX500Name.parse(repositoryX500Name));
-
-            /* Initiate the communication with the repository node and send the query to be performed */
-            FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
-            repositoryNodeSession.send(buildQueryCriteria());
-
-            /* Receive and validate the package info container */
-            PkgsInfoContainer pkgsInfoContainer =
-                    repositoryNodeSession.receive(PkgsInfoContainer.class).unwrap(data -> {
-                        List<PkgOfferState> lst = data.getPkgsList();
-                        requireThat(require ->{
-                            require.using(nullContainerErr, lst != null);
-                            for(PkgOfferState pkgOfferState : lst)
-                                require.using(nullEntryInContainer, pkgOfferState != null);
-
-                            return null;
-                        });
+            /* Retrieving the replica, or the Repository Node, to request packages info */
+            final ReplicaService replicas = getServiceHub().cordaService(ReplicaService.class);
+            final Party replica = replicas.selectReplica(getRunId().getUuid().toString());
+            final QueryCriteria criteria = buildQueryCriteria(query);
 
-                        return data;
-                    });
+            try {
+                return requestPkgs(replicas, replica, criteria);
+            } catch(FlowException fe) {
+                final Party repositoryNode = getServiceHub().cordaService(TopologyService.class).getRepositoryNode();
+                if(replica.equals(repositoryNode))
+                    throw fe;
+
+                getLogger().warn(ReplicaServiceUtils.replicaFailed + replica.getName());
+                return requestPkgs(replicas, repositoryNode, criteria);
+            }
+        }
 
-            return pkgsInfoContainer.getPkgsList();
+        @Suspendable
+        private List<PkgOfferState> requestPkgs(ReplicaService replicas, Party node, QueryCriteria criteria)
+                throws FlowException {
+            replicas.started(node);
+            final Instant start = getServiceHub().getClock().instant();
+            boolean answered = false;
+            try {
+                /* Initiate the communication with the node and send the query to be performed */
+                FlowSession repositoryNodeSession = initiateFlow(node);
+                repositoryNodeSession.send(criteria);
+
+                /* Receive and validate the package info container */
+                PkgsInfoContainer pkgsInfoContainer =
+                        repositoryNodeSession.receive(PkgsInfoContainer.class).unwrap(data -> {
+                            List<PkgOfferState> lst = data.getPkgsList();
+                            requireThat(require ->{
+                                require.using(nullContainerErr, lst != null);
+                                for(PkgOfferState pkgOfferState : lst)
+                                    require.using(nullEntryInContainer, pkgOfferState != null);
+
+                                return null;
+                            });
+
+                            return data;
+                        });
+                answered = true;
+
+                return pkgsInfoContainer.getPkgsList();
+            } finally {
+                /* Every query started is accounted, whatever ends it */
+                if(answered)
+                    replicas.completed(node, Duration.between(start, getServiceHub().getClock().instant()).toMillis());
+                else
+                    replicas.failed(node);
+            }
         }
 
+        /**
+         * Translate the marketplace query into the vault criteria matching the unconsumed packages
+         * @param query the fields to filter the packages by
+         * @return the criteria to be performed by the repository node
+         */
         @Suspendable
-        private QueryCriteria buildQueryCriteria() {
+        static QueryCriteria buildQueryCriteria(Query query) {
             QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
 
             try {
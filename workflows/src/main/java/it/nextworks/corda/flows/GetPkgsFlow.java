@@ -4,12 +4,13 @@ import co.paralleluniverse.fibers.Suspendable;
 import it.nextworks.corda.states.PkgOfferState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.flows.*;
-import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.node.services.Vault;
 import net.corda.core.node.services.vault.PageSpecification;
 import net.corda.core.node.services.vault.QueryCriteria.VaultQueryCriteria;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,6 +19,11 @@ import static net.corda.core.contracts.ContractsDSL.requireThat;
 import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
 import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
 
+/**
+ * Retrieve all the packages of the marketplace. The query is answered by a replica of the marketplace
+ * chosen by the ReplicaService, so that the browsing does not load the repository node that signs the
+ * offers; the repository node answers when no replica is configured or the chosen one fails.
+ */
 public class GetPkgsFlow {
 
     @InitiatingFlow
@@ -28,29 +34,54 @@ public class GetPkgsFlow {
         @Override
         public List<PkgOfferState> call() throws FlowException {
 
-            /* Retrieving the Repository Node identity to request packages info */
-            final Party repositoryNode = getServiceHub()
-                    .getNetworkMapCache()
-                    .getPeerByLegalName(CordaX500Name.parse(repositoryX500Name));
+            /* Retrieving the replica, or the Repository Node, to request packages info */
+            final ReplicaService replicas = getServiceHub().cordaService(ReplicaService.class);
+            final Party replica = replicas.selectReplica(getRunId().getUuid().toString());
 
-            FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
+            try {
+                return requestPkgs(replicas, replica);
+            } catch(FlowException fe) {
+                final Party repositoryNode = getServiceHub().cordaService(TopologyService.class).getRepositoryNode();
+                if(replica.equals(repositoryNode))
+                    throw fe;
 
-            /* Receive and validate the package info container */
-            PkgsInfoContainer pkgsInfoContainer =
-                repositoryNodeSession.receive(PkgsInfoContainer.class).unwrap(data -> {
-                    List<PkgOfferState> lst = data.getPkgsList();
-                    requireThat(require ->{
-                        require.using(nullContainerErr, lst != null);
-                        for(PkgOfferState pkgOfferState : lst)
-                            require.using(nullEntryInContainer, pkgOfferState != null);
+                getLogger().warn(ReplicaServiceUtils.replicaFailed + replica.getName());
+                return requestPkgs(replicas, repositoryNode);
+            }
+        }
 
-                        return null;
+        @Suspendable
+        private List<PkgOfferState> requestPkgs(ReplicaService replicas, Party node) throws FlowException {
+            replicas.started(node);
+            final Instant start = getServiceHub().getClock().instant();
+            boolean answered = false;
+            try {
+                FlowSession repositoryNodeSession = initiateFlow(node);
+
+                /* Receive and validate the package info container */
+                PkgsInfoContainer pkgsInfoContainer =
+                    repositoryNodeSession.receive(PkgsInfoContainer.class).unwrap(data -> {
+                        List<PkgOfferState> lst = data.getPkgsList();
+                        requireThat(require ->{
+                            require.using(nullContainerErr, lst != null);
+                            for(PkgOfferState pkgOfferState : lst)
+                                require.using(nullEntryInContainer, pkgOfferState != null);
+
+                            return null;
+                        });
+
+                        return data;
                     });
-
-                    return data;
-                });
-
-            return pkgsInfoContainer.getPkgsList();
+                answered = true;
+
+                return pkgsInfoContainer.getPkgsList();
+            } finally {
+                /* Every query started is accounted, whatever ends it */
+                if(answered)
+                    replicas.completed(node, Duration.between(start, getServiceHub().getClock().instant()).toMillis());
+                else
+                    replicas.failed(node);
+            }
         }
     }
 
@@ -60,7 +91,7 @@ public class GetPkgsFlow {
         private final FlowSession userSession;
 
         /**
-         * Constructor of the flow initiated by the GetPkgsInfoInitiation class
+         * Constructor of the flow initiated by the GetPkgsInfoInitiation class, run by a replica or a repository node
          * @param userSession session with the user that want to explore the packages
          */
         public RepositoryNodeAcceptor(FlowSession userSession) { this.userSession = userSession; }
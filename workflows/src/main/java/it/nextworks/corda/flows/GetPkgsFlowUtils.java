@@ -134,10 +134,10 @@ public class GetPkgsFlowUtils {
     public static final String malformedDbTable     = "The Database table cannot be used: malformed column(s).";
     public static final String notQueryCriteriaRcv  = "The received data is null.";
 
-    public static final String notaryX500Name       = "O=Notary,L=Pisa,C=IT";
+    public static final String notaryX500Name       = TopologyServiceUtils.defaultNotaryName;
     public static final String devX500Name          = "O=DevTest,L=Pisa,C=IT";
     public static final String buyerX500Name        = "O=BuyerTest,L=Pistoia,C=IT";
-    public static final String repositoryX500Name   = "O=RepositoryNode,L=Pisa,C=IT";
+    public static final String repositoryX500Name   = TopologyServiceUtils.defaultRepositoryName;
 
     public static final String cordAppContractsPkg  = "it.nextworks.corda.contracts";
     public static final String cordAppFlowsPkg      = "it.nextworks.corda.flows";
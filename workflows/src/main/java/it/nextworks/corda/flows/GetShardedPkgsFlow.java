@@ -0,0 +1,265 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static it.nextworks.corda.flows.GetPkgsFlowUtils.*;
+import static it.nextworks.corda.flows.GetShardedPkgsFlowUtils.*;
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
+
+/**
+ * Fan-out variant of GetPkgsFlow and GetFilteredPkgsFlow: the query is sent to all the configured
+ * repository nodes at once and the replies are gathered together, so that the latency is the one of
+ * the slowest repository node rather than the sum of all of them.
+ * Flow sessions cannot time out a receive, so every remote repository node is queried by a flow of its
+ * own, started by the ShardQueryService, and this flow awaits them as an external operation that ends
+ * when all of them have replied or the timeout has passed, whichever comes first. The repository nodes
+ * that have not replied by then, the ones that failed and the ones missing from the network map are
+ * reported as timed out; the deadline also travels with the query, so that every repository node stops
+ * paging its vault once it has passed and replies with what it has found.
+ */
+public class GetShardedPkgsFlow {
+
+    @StartableByRPC
+    public static class GetShardedPkgsInfoInitiation extends FlowLogic<ShardedPkgs> {
+
+        private final QueryCriteria criteria;
+        private final long timeoutMillis;
+
+        /** Retrieve all the packages of the marketplace, giving each repository node the default time */
+        public GetShardedPkgsInfoInitiation() { this(new QueryBuilder().build(), defaultShardTimeoutMillis); }
+
+        /**
+         * Constructor of the GetShardedPkgsInfoInitiation flow class
+         * @param query         the fields to filter the packages by
+         * @param timeoutMillis time each repository node is given to answer, in milliseconds
+         */
+        public GetShardedPkgsInfoInitiation(Query query, long timeoutMillis) {
+            this(timeoutMillis, GetFilteredPkgsFlow.GetFilteredPkgsInfoInitiation.buildQueryCriteria(
+                    query != null ? query : new QueryBuilder().build()));
+        }
+
+        /**
+         * Constructor of the GetShardedPkgsInfoInitiation flow class, used by the flows of the CorDapp
+         * @param timeoutMillis time each repository node is given to answer, in milliseconds
+         * @param criteria      the criteria to be performed by every repository node
+         */
+        GetShardedPkgsInfoInitiation(long timeoutMillis, QueryCriteria criteria) {
+            if(timeoutMillis <= 0 || timeoutMillis > maxShardTimeoutMillis)
+                throw new IllegalArgumentException(invalidShardTimeout);
+
+            this.criteria      = criteria;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Suspendable
+        @Override
+        public ShardedPkgs call() throws FlowException {
+            final TopologyService topology = getServiceHub().cordaService(TopologyService.class);
+            final Party me = getOurIdentity();
+
+            final Instant deadline = getServiceHub().getClock().instant().plusMillis(timeoutMillis);
+            final ShardQuery shardQuery = new ShardQuery(criteria, deadline);
+
+            /* Collect the reachable repository nodes, a repository node queries its own vault */
+            final List<CordaX500Name> timedOutShards = new ArrayList<>();
+            final List<Party> shards = new ArrayList<>();
+            final List<ShardReply> replies = new ArrayList<>();
+            for(CordaX500Name repositoryName : topology.getRepositoryNames()) {
+                final Party repositoryNode = topology.getRepositoryNode(repositoryName);
+                if(repositoryNode == null)
+                    timedOutShards.add(repositoryName);
+                else if(repositoryNode.equals(me))
+                    replies.add(queryPkgs(getServiceHub(), shardQuery));
+                else
+                    shards.add(repositoryNode);
+            }
+
+            /* Query all the remote repository nodes at once and wait for them no longer than the timeout */
+            if(!shards.isEmpty()) {
+                final Map<CordaX500Name, ShardReply> received = await(new ShardQueryOperation(
+                        getServiceHub().cordaService(ShardQueryService.class), shards, shardQuery, timeoutMillis));
+                for(Party shard : shards) {
+                    final ShardReply reply = received.get(shard.getName());
+                    if(reply == null || !reply.isComplete())
+                        timedOutShards.add(shard.getName());
+                    if(reply != null)
+                        replies.add(reply);
+                }
+            }
+
+            /* Merge the replies, a package is kept once even if more than one repository node returned it */
+            final Map<UUID, PkgOfferState> merged = new HashMap<>();
+            for(ShardReply reply : replies) {
+                for(PkgOfferState pkgOfferState : reply.getPkgsList())
+                    merged.putIfAbsent(pkgOfferState.getLinearId().getId(), pkgOfferState);
+            }
+            final List<PkgOfferState> pkgsList = new ArrayList<>(merged.values());
+            pkgsList.sort(Comparator.comparing(PkgOfferState::getName)
+                    .thenComparing(PkgOfferState::getVersion)
+                    .thenComparing(pkgOfferState -> pkgOfferState.getLinearId().getId()));
+
+            if(timedOutShards.isEmpty())
+                getLogger().info(shardQueryCompleted + pkgsList.size());
+            else
+                getLogger().warn(shardQueryPartial + timedOutShards);
+
+            return new ShardedPkgs(pkgsList, timedOutShards);
+        }
+    }
+
+    /**
+     * Build the query of the live offers with the specified linearIds on all the repository nodes, used to find
+     * the repository nodes that list them
+     * @param pkgIds the linearIds of the packages
+     * @return the flow to be run as a sub-flow
+     */
+    static GetShardedPkgsInfoInitiation locatePkgs(List<UniqueIdentifier> pkgIds) {
+        final List<UUID> uuids = new ArrayList<>(pkgIds.size());
+        for(UniqueIdentifier pkgId : pkgIds)
+            uuids.add(pkgId.getId());
+
+        return new GetShardedPkgsInfoInitiation(defaultShardTimeoutMillis,
+                new QueryCriteria.LinearStateQueryCriteria(null, uuids));
+    }
+
+    /** External operation awaited by GetShardedPkgsInfoInitiation while the repository nodes are queried */
+    private static class ShardQueryOperation implements FlowExternalAsyncOperation<Map<CordaX500Name, ShardReply>> {
+
+        private final ShardQueryService shardQueryService;
+        private final List<Party> shards;
+        private final ShardQuery shardQuery;
+        private final long timeoutMillis;
+
+        private ShardQueryOperation(ShardQueryService shardQueryService, List<Party> shards,
+                                    ShardQuery shardQuery, long timeoutMillis) {
+            this.shardQueryService = shardQueryService;
+            this.shards            = shards;
+            this.shardQuery        = shardQuery;
+            this.timeoutMillis     = timeoutMillis;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<Map<CordaX500Name, ShardReply>> execute(@NotNull String deduplicationId) {
+            return shardQueryService.queryShards(shards, shardQuery, timeoutMillis);
+        }
+    }
+
+    @InitiatingFlow
+    @StartableByService
+    public static class ShardQueryInitiation extends FlowLogic<ShardReply> {
+
+        private final Party repositoryNode;
+        private final ShardQuery shardQuery;
+
+        /**
+         * Constructor of the ShardQueryInitiation flow class
+         * @param repositoryNode the repository node to query
+         * @param shardQuery     the criteria to be performed and the deadline
+         */
+        public ShardQueryInitiation(Party repositoryNode, ShardQuery shardQuery) {
+            this.repositoryNode = repositoryNode;
+            this.shardQuery     = shardQuery;
+        }
+
+        @Suspendable
+        @Override
+        public ShardReply call() throws FlowException {
+            final FlowSession repositoryNodeSession = initiateFlow(repositoryNode);
+
+            return repositoryNodeSession.sendAndReceive(ShardReply.class, shardQuery).unwrap(data -> {
+                requireThat(require -> {
+                    require.using(nullShardReply, data != null);
+                    require.using(nullContainerErr, data.getPkgsList() != null);
+                    for(PkgOfferState pkgOfferState : data.getPkgsList())
+                        require.using(nullEntryInContainer, pkgOfferState != null);
+
+                    return null;
+                });
+
+                return data;
+            });
+        }
+    }
+
+    @InitiatedBy(ShardQueryInitiation.class)
+    public static class RepositoryNodeAcceptor extends FlowLogic<Void> {
+
+        private final FlowSession userSession;
+
+        /**
+         * Constructor of the flow initiated by the ShardQueryInitiation class
+         * @param userSession session with the user that want to explore the packages
+         */
+        public RepositoryNodeAcceptor(FlowSession userSession) { this.userSession = userSession; }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            ShardQuery shardQuery = userSession.receive(ShardQuery.class).unwrap(data -> {
+                if(data == null || data.getCriteria() == null || data.getDeadline() == null)
+                    throw new IllegalArgumentException(nullShardQuery);
+
+                return data;
+            });
+
+            userSession.send(queryPkgs(getServiceHub(), shardQuery));
+
+            return null;
+        }
+    }
+
+    /**
+     * Query the vault for the packages matching the criteria using a pagination specification, stopping
+     * as soon as the last page is retrieved or the deadline has passed
+     * @param serviceHub the services of the node
+     * @param shardQuery the criteria to be performed and the deadline
+     * @return the packages found, flagged as incomplete if the deadline has passed before the last page
+     */
+    @Suspendable
+    static ShardReply queryPkgs(ServiceHub serviceHub, ShardQuery shardQuery) {
+        final QueryCriteria criteria = shardQuery.getCriteria();
+        final Instant deadline = shardQuery.getDeadline();
+
+        int pageNumber = DEFAULT_PAGE_NUM;
+        List<StateAndRef<PkgOfferState>> states = new ArrayList<>();
+        long totalResults;
+        boolean complete;
+        do {
+            if(serviceHub.getClock().instant().isAfter(deadline)) {
+                complete = false;
+                break;
+            }
+            PageSpecification pageSpecification = new PageSpecification(pageNumber, DEFAULT_PAGE_SIZE);
+            Vault.Page<PkgOfferState> results =
+                    serviceHub.getVaultService().queryBy(PkgOfferState.class, criteria, pageSpecification);
+            totalResults = results.getTotalStatesAvailable();
+            states.addAll(results.getStates());
+            pageNumber++;
+            complete = DEFAULT_PAGE_SIZE * (pageNumber - 1) > totalResults;
+        } while(!complete);
+
+        List<PkgOfferState> pkgOfferStateList = new ArrayList<>();
+        for(StateAndRef<PkgOfferState> pkgOfferStateAndRef : states)
+            pkgOfferStateList.add(pkgOfferStateAndRef.getState().getData());
+
+        return new ShardReply(pkgOfferStateList, complete);
+    }
+}
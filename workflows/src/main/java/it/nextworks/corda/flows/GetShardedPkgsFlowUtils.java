@@ -0,0 +1,99 @@
+package it.nextworks.corda.flows;
+
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.time.Instant;
+import java.util.List;
+
+public class GetShardedPkgsFlowUtils {
+    /** Time each repository node is given to answer, in milliseconds */
+    public static final long defaultShardTimeoutMillis = 5000;
+    public static final long maxShardTimeoutMillis     = 60000;
+
+    public static final String invalidShardTimeout     = "The <timeout> parameter must be between 1 and " +
+            maxShardTimeoutMillis + " milliseconds.";
+    public static final String nullShardQuery          = "The received shard query is null.";
+    public static final String nullShardReply          = "The received shard reply is null.";
+
+    public static final String shardQueryCompleted     = "Marketplace queried on all the repository nodes, packages: ";
+    public static final String shardQueryPartial       = "Marketplace partially queried, repository nodes timed out: ";
+    public static final String shardQueryFailed        = "Query of the repository node failed: ";
+    public static final String shardQueryOrphaned      = "Query of the repository node still running after the " +
+            "timeout, orphaned flows: ";
+    public static final String shardQuerySkipped       = "Previous query of the repository node still running, " +
+            "reported as timed out: ";
+
+    public static final String notaryX500Name          = TopologyServiceUtils.defaultNotaryName;
+    public static final String devX500Name             = "O=DevTest,L=Pisa,C=IT";
+    public static final String buyerX500Name           = "O=BuyerTest,L=Pistoia,C=IT";
+    public static final String repositoryX500Name      = TopologyServiceUtils.defaultRepositoryName;
+    public static final String otherRepositoryX500Name = "O=OtherRepositoryNode,L=Pisa,C=IT";
+
+    public static final String cordAppContractsPkg     = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg         = "it.nextworks.corda.flows";
+
+    /** Query sent to every repository node, with the instant by which the node has to answer */
+    @CordaSerializable
+    public static class ShardQuery {
+
+        private final QueryCriteria criteria;
+        private final Instant deadline;
+
+        public ShardQuery(QueryCriteria criteria, Instant deadline) {
+            this.criteria = criteria;
+            this.deadline = deadline;
+        }
+
+        /* Getters */
+
+        public QueryCriteria getCriteria() { return criteria; }
+
+        public Instant getDeadline() { return deadline; }
+    }
+
+    /** Packages listed by a repository node, incomplete if the node hit the deadline while paging its vault */
+    @CordaSerializable
+    public static class ShardReply {
+
+        private final List<PkgOfferState> pkgsList;
+        private final boolean complete;
+
+        public ShardReply(List<PkgOfferState> pkgsList, boolean complete) {
+            this.pkgsList = pkgsList;
+            this.complete = complete;
+        }
+
+        /* Getters */
+
+        public List<PkgOfferState> getPkgsList() { return pkgsList; }
+
+        public boolean isComplete() { return complete; }
+    }
+
+    /**
+     * Merged catalogue returned to the caller: the packages of all the repository nodes sorted by name,
+     * version and linearId, and the repository nodes that did not answer in full before the deadline
+     */
+    @CordaSerializable
+    public static class ShardedPkgs {
+
+        private final List<PkgOfferState> pkgsList;
+        private final List<CordaX500Name> timedOutShards;
+
+        public ShardedPkgs(List<PkgOfferState> pkgsList, List<CordaX500Name> timedOutShards) {
+            this.pkgsList       = pkgsList;
+            this.timedOutShards = timedOutShards;
+        }
+
+        /* Getters */
+
+        public List<PkgOfferState> getPkgsList() { return pkgsList; }
+
+        public List<CordaX500Name> getTimedOutShards() { return timedOutShards; }
+
+        public boolean isPartial() { return !timedOutShards.isEmpty(); }
+    }
+}
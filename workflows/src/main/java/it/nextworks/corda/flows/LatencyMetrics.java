@@ -0,0 +1,70 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.crypto.SecureHash;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency and load of the counterparties a node spreads its requests among, measured by the node
+ * itself: the requests each counterparty is serving and the moving average of the time it took.
+ * The expected wait of a new request is the average latency times the requests in flight plus one,
+ * 0 for a counterparty never measured, so that it is tried first.
+ */
+class LatencyMetrics<K> {
+
+    private static class Metrics {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double latencyMillis = -1;
+    }
+
+    private final double smoothing;
+    private final ConcurrentHashMap<K, Metrics> metrics = new ConcurrentHashMap<>();
+
+    /** @param smoothing weight of the last request in the moving average of the latency */
+    LatencyMetrics(double smoothing) { this.smoothing = smoothing; }
+
+    private Metrics metricsOf(K key) { return metrics.computeIfAbsent(key, k -> new Metrics()); }
+
+    void started(K key) { metricsOf(key).inFlight.incrementAndGet(); }
+
+    void completed(K key, long latencyMillis) {
+        final Metrics keyMetrics = metricsOf(key);
+        keyMetrics.inFlight.updateAndGet(n -> Math.max(0, n - 1));
+        synchronized(keyMetrics) {
+            final long millis = Math.max(0, latencyMillis);
+            keyMetrics.latencyMillis = keyMetrics.latencyMillis < 0
+                    ? millis : smoothing * millis + (1 - smoothing) * keyMetrics.latencyMillis;
+        }
+    }
+
+    double score(K key) {
+        final Metrics keyMetrics = metrics.get(key);
+        if(keyMetrics == null || keyMetrics.latencyMillis < 0)
+            return 0;
+
+        return keyMetrics.latencyMillis * (keyMetrics.inFlight.get() + 1);
+    }
+
+    /**
+     * Break a tie among equally good counterparties by hashing a stable key
+     * @param key  the key of the request
+     * @param size the number of counterparties
+     * @return the index of the counterparty chosen
+     */
+    static int index(String key, int size) {
+        final long hash = ByteBuffer.wrap(SecureHash.sha256(key).getBytes()).getLong();
+        return (int) Math.floorMod(hash, (long) size);
+    }
+
+    double getLatencyMillis(K key) {
+        final Metrics keyMetrics = metrics.get(key);
+        return keyMetrics != null ? keyMetrics.latencyMillis : -1;
+    }
+
+    int getInFlight(K key) {
+        final Metrics keyMetrics = metrics.get(key);
+        return keyMetrics != null ? keyMetrics.inFlight.get() : 0;
+    }
+}
@@ -0,0 +1,168 @@
+package it.nextworks.corda.flows;
+
+import it.nextworks.corda.schemas.PkgLicenseSchemaV2;
+import it.nextworks.corda.states.PkgLicenseState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.PersistentStateRef;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static it.nextworks.corda.flows.CheckLicenseFlowUtils.licensesNotRemapped;
+import static it.nextworks.corda.flows.CheckLicenseFlowUtils.licensesRemapped;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+
+/**
+ * In-memory set of the (buyer, pkgInfoId) pairs of the licenses stored in the vault.
+ * The set is loaded from the vault once the node has started and then kept current by tracking
+ * the vault updates, so that checking whether a buyer holds a license for a package is a hash
+ * lookup that never hits the database. Licenses are never consumed, entries are only added.
+ * While loading, the licenses recorded before PkgLicenseSchemaV1 existed, which have no row in the
+ * license schema table, are mapped to PkgLicenseSchemaV2, so that the queries on the schema columns
+ * (e.g. the license and sales count endpoints) find them too.
+ */
+@CordaService
+public class LicenseIndexService extends SingletonSerializeAsToken {
+
+    /** Key of the index: the buyer of a license and the catalogue id of the licensed package */
+    private static final class LicenseKey {
+
+        private final CordaX500Name buyer;
+        private final String pkgInfoId;
+
+        private LicenseKey(CordaX500Name buyer, String pkgInfoId) {
+            this.buyer     = buyer;
+            this.pkgInfoId = pkgInfoId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof LicenseKey))
+                return false;
+
+            final LicenseKey other = (LicenseKey)o;
+            return buyer.equals(other.buyer) && pkgInfoId.equals(other.pkgInfoId);
+        }
+
+        @Override
+        public int hashCode() { return Objects.hash(buyer, pkgInfoId); }
+    }
+
+    private static final String LICENSES = PkgLicenseSchemaV2.PersistentPkgLicenseState.class.getName();
+
+    private final AppServiceHub serviceHub;
+    private final Set<LicenseKey> licenses = ConcurrentHashMap.newKeySet();
+    private volatile boolean loaded = false;
+
+    private final static Logger logger = LoggerFactory.getLogger(LicenseIndexService.class);
+
+    public LicenseIndexService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if(event == ServiceLifecycleEvent.STATE_MACHINE_STARTED)
+                startTracking();
+        });
+    }
+
+    private void startTracking() {
+        final DataFeed<Vault.Page<PkgLicenseState>, Vault.Update<PkgLicenseState>> feed =
+                serviceHub.getVaultService().trackBy(PkgLicenseState.class,
+                        new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL),
+                        new PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE));
+
+        feed.getUpdates().subscribe(update -> update.getProduced().forEach(this::index));
+        feed.getSnapshot().getStates().forEach(this::index);
+        int remapped = remap(feed.getSnapshot().getStates());
+
+        /* The snapshot holds the first page only, adding an entry twice is harmless */
+        final long total = feed.getSnapshot().getTotalStatesAvailable();
+        for(int pageNumber = DEFAULT_PAGE_NUM + 1; (long)MAX_PAGE_SIZE * (pageNumber - 1) < total; pageNumber++) {
+            final List<StateAndRef<PkgLicenseState>> page = serviceHub.getVaultService().queryBy(PkgLicenseState.class,
+                    new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL),
+                    new PageSpecification(pageNumber, MAX_PAGE_SIZE)).getStates();
+            page.forEach(this::index);
+            remapped += remap(page);
+        }
+        if(remapped > 0)
+            logger.info(licensesRemapped + remapped);
+
+        loaded = true;
+    }
+
+    /* Persist the schema row of the licenses of the page that have none, return how many were mapped */
+    private int remap(List<StateAndRef<PkgLicenseState>> page) {
+        if(page.isEmpty())
+            return 0;
+
+        final Set<String> txIds = new HashSet<>();
+        page.forEach(license -> txIds.add(license.getRef().getTxhash().toString()));
+        try {
+            return serviceHub.withEntityManager(em -> {
+                final Set<StateRef> mapped = new HashSet<>();
+                for(Object[] ref : em.createQuery("SELECT l.stateRef.txId, l.stateRef.index FROM " + LICENSES +
+                        " l WHERE l.stateRef.txId IN :txIds", Object[].class)
+                        .setParameter("txIds", txIds)
+                        .getResultList())
+                    mapped.add(new StateRef(SecureHash.parse((String) ref[0]), (Integer) ref[1]));
+
+                int remapped = 0;
+                for(StateAndRef<PkgLicenseState> license : page) {
+                    if(mapped.contains(license.getRef()))
+                        continue;
+
+                    final PersistentState row =
+                            license.getState().getData().generateMappedObject(new PkgLicenseSchemaV2());
+                    row.setStateRef(new PersistentStateRef(license.getRef()));
+                    em.persist(row);
+                    remapped++;
+                }
+                return remapped;
+            });
+        } catch(Exception e) {
+            logger.error(licensesNotRemapped + e.getMessage());
+            return 0;
+        }
+    }
+
+    private void index(StateAndRef<PkgLicenseState> license) {
+        final PkgLicenseState state = license.getState().getData();
+        licenses.add(new LicenseKey(state.getBuyer().getName(), state.getPkgInfoId()));
+    }
+
+    /** @return true once the licenses already stored in the vault have been loaded */
+    public boolean isLoaded() { return loaded; }
+
+    /**
+     * Check whether a buyer holds a license for a package
+     * @param buyer     the name of the buyer
+     * @param pkgInfoId the id of the package in the catalogue
+     * @return true if a license of the package has been bought by the buyer
+     */
+    public boolean hasLicense(CordaX500Name buyer, String pkgInfoId) {
+        if(buyer == null || pkgInfoId == null)
+            return false;
+
+        return licenses.contains(new LicenseKey(buyer, pkgInfoId));
+    }
+}
@@ -0,0 +1,59 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FinalityFlow;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+
+/**
+ * FinalityFlow that reports to the NotaryPoolService how long the notary of the transaction took,
+ * so that the selection of the notary of the new packages keeps away from the slow and busy ones.
+ * It is used inline, in place of FinalityFlow, by the flows that notarise a transaction.
+ */
+public class NotarisedFinalityFlow extends FlowLogic<SignedTransaction> {
+
+    private final SignedTransaction transaction;
+    private final Collection<FlowSession> sessions;
+
+    /**
+     * Constructor of the NotarisedFinalityFlow class
+     * @param transaction the transaction to notarise and record
+     * @param sessions    sessions with the counterparties that record the transaction
+     */
+    public NotarisedFinalityFlow(SignedTransaction transaction, Collection<FlowSession> sessions) {
+        this.transaction = transaction;
+        this.sessions    = sessions;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+        final Party notary = transaction.getNotary();
+        if(notary == null)
+            return subFlow(new FinalityFlow(transaction, sessions));
+
+        final NotaryPoolService notaryPool = getServiceHub().cordaService(NotaryPoolService.class);
+        notaryPool.started(notary);
+        final Instant start = getServiceHub().getClock().instant();
+        /* Whatever ends the notarisation, even a flow killed or a runtime exception, it is accounted once */
+        boolean notarised = false;
+        try {
+            final SignedTransaction notarisedTx = subFlow(new FinalityFlow(transaction, sessions));
+            notarised = true;
+
+            return notarisedTx;
+        } finally {
+            if(notarised)
+                notaryPool.completed(notary, Duration.between(start, getServiceHub().getClock().instant()).toMillis());
+            else
+                notaryPool.failed(notary);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static it.nextworks.corda.flows.NotaryPoolServiceUtils.*;
+
+/**
+ * Selector of the notary of the new fee agreements among the pool configured in the TopologyService.
+ * The packages of a developer are registered with the notary of its agreement and keep it, every later
+ * transaction on them and on the agreement is notarised by the same notary, so the notarisation
+ * capacity grows with the size of the pool while a purchase never moves the referenced agreement.
+ * With the least-loaded strategy the notary with the lowest expected wait is chosen: the moving
+ * average of its latency times the notarisations it is serving, both measured by NotarisedFinalityFlow
+ * on this node; the notaries never measured come first and ties are broken by hashing the key.
+ * With the hashed strategy the agreement is placed by the key alone.
+ */
+@CordaService
+public class NotaryPoolService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+    private final String selection;
+    private final LatencyMetrics<CordaX500Name> metrics = new LatencyMetrics<>(latencySmoothing);
+
+    private final static Logger logger = LoggerFactory.getLogger(NotaryPoolService.class);
+
+    public NotaryPoolService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.selection = config.exists(selectionConfigKey)
+                ? config.getString(selectionConfigKey) : defaultSelection;
+        if(!selection.equals(leastLoadedSelection) && !selection.equals(hashedSelection))
+            throw new IllegalArgumentException(unknownSelection + selection);
+
+        logger.info(selectionLoaded + selection);
+    }
+
+    /**
+     * Select the notary of a new fee agreement
+     * @param key the name of the developer, or any other stable key of the new state
+     * @return the notary of the pool chosen by the configured strategy
+     */
+    public Party selectNotary(String key) {
+        final List<Party> notaries = serviceHub.cordaService(TopologyService.class).getNotaries();
+        if(notaries.isEmpty())
+            throw new IllegalStateException(noNotaryAvailable);
+        if(notaries.size() == 1 || selection.equals(hashedSelection))
+            return notaries.get(LatencyMetrics.index(key, notaries.size()));
+
+        double minScore = Double.MAX_VALUE;
+        final List<Party> candidates = new ArrayList<>();
+        for(Party notary : notaries) {
+            final double score = metrics.score(notary.getName());
+            if(score < minScore) {
+                minScore = score;
+                candidates.clear();
+            }
+            if(score == minScore)
+                candidates.add(notary);
+        }
+
+        return candidates.get(LatencyMetrics.index(key, candidates.size()));
+    }
+
+    /**
+     * Account a notarisation started with the specified notary
+     * @param notary the notary of the transaction
+     */
+    public void started(Party notary) { metrics.started(notary.getName()); }
+
+    /**
+     * Account a notarisation completed by the specified notary
+     * @param notary        the notary of the transaction
+     * @param latencyMillis time spent to notarise and record the transaction
+     */
+    public void completed(Party notary, long latencyMillis) { metrics.completed(notary.getName(), latencyMillis); }
+
+    /**
+     * Account a notarisation failed by the specified notary, charged as a slow one
+     * @param notary the notary of the transaction
+     */
+    public void failed(Party notary) { completed(notary, failurePenaltyMillis); }
+
+    /**
+     * @param notary the notary of the pool
+     * @return the moving average of the latency of the notary in milliseconds, -1 if it was never measured
+     */
+    public double getLatencyMillis(Party notary) { return metrics.getLatencyMillis(notary.getName()); }
+
+    /**
+     * @param notary the notary of the pool
+     * @return the notarisations the notary is serving for this node
+     */
+    public int getInFlight(Party notary) { return metrics.getInFlight(notary.getName()); }
+}
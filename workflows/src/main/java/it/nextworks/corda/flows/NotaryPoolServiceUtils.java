@@ -0,0 +1,18 @@
+package it.nextworks.corda.flows;
+
+public class NotaryPoolServiceUtils {
+    /** Keys of the CorDapp configuration used to choose how the new packages are spread among the notaries */
+    public static final String selectionConfigKey       = "notarySelection";
+    public static final String leastLoadedSelection     = "least-loaded";
+    public static final String hashedSelection          = "hashed";
+    public static final String defaultSelection         = leastLoadedSelection;
+
+    /** Weight of the last notarisation in the moving average of the latency of a notary */
+    public static final double latencySmoothing         = 0.2;
+    /** Latency accounted to a notary for a failed notarisation, so that the selection keeps away from it */
+    public static final long failurePenaltyMillis       = 10000;
+
+    public static final String unknownSelection         = "Unknown notary selection strategy: ";
+    public static final String noNotaryAvailable        = "None of the notaries of the pool is in the network map.";
+    public static final String selectionLoaded          = "Notary pool loaded, selection strategy: ";
+}
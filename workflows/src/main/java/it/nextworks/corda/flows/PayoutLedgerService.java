@@ -0,0 +1,210 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.CryptoUtils;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.TypedQuery;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static it.nextworks.corda.flows.PayoutLedgerServiceUtils.*;
+
+/**
+ * Durable ledger of the earnings owed by the repository node to the developers. The share of the
+ * author of every package sold is accrued in the node database instead of being paid at once, and
+ * the accrued shares are paid by SettleDeveloperPayoutsFlow with a single netted cash transaction
+ * per developer. The settlement runs periodically, as set in the CorDapp configuration, and can be
+ * started through RPC as well.
+ */
+@CordaService
+public class PayoutLedgerService extends SingletonSerializeAsToken {
+
+    /**
+     * Amount owed to a developer in a single currency by the earnings accrued up to a cutoff;
+     * it holds no reference to the earnings, which are claimed by developer, currency and cutoff
+     */
+    public static class PendingPayout {
+
+        private final String developerName;
+        private final Amount<Currency> amount;
+        private final Instant cutoff;
+
+        private PendingPayout(String developerName, Amount<Currency> amount, Instant cutoff) {
+            this.developerName = developerName;
+            this.amount        = amount;
+            this.cutoff        = cutoff;
+        }
+
+        /* Getters */
+
+        public CordaX500Name getDeveloper() { return CordaX500Name.parse(developerName); }
+
+        public Amount<Currency> getAmount() { return amount; }
+
+        public Instant getCutoff() { return cutoff; }
+    }
+
+    private static final String ACCRUALS = DeveloperPayoutSchemaV1.PersistentPayoutAccrual.class.getName();
+
+    private final AppServiceHub serviceHub;
+    private final long period;
+    private final long threshold;
+
+    private final static Logger logger = LoggerFactory.getLogger(PayoutLedgerService.class);
+
+    public PayoutLedgerService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.period    = config.exists(payoutPeriodConfigKey)
+                ? config.getLong(payoutPeriodConfigKey) : defaultPayoutPeriod;
+        this.threshold = config.exists(payoutThresholdConfigKey)
+                ? config.getLong(payoutThresholdConfigKey) : defaultPayoutThreshold;
+
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if(event == ServiceLifecycleEvent.STATE_MACHINE_STARTED)
+                startScheduler();
+        });
+    }
+
+    private void startScheduler() {
+        if(period <= 0) {
+            logger.info(payoutDisabled);
+            return;
+        }
+
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, PayoutLedgerService.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::settle, period, period, TimeUnit.SECONDS);
+        logger.info(payoutScheduled + period + payoutScheduledThreshold + threshold);
+    }
+
+    /*
+     * Every repository node owes the payouts of the packages it sold and settles its own ledger;
+     * wait for each run so that two runs never overlap
+     */
+    private void settle() {
+        try {
+            final TopologyService topology = serviceHub.cordaService(TopologyService.class);
+            if(!topology.isRepositoryNode(serviceHub.getMyInfo().getLegalIdentities().get(0)))
+                return;
+
+            serviceHub.startFlow(new SettleDeveloperPayoutsFlow.RepositoryNodeInitiation(threshold))
+                    .getReturnValue().get();
+        } catch(Exception e) {
+            logger.error(payoutRunFailed + e.getMessage());
+        }
+    }
+
+    /**
+     * Record the share of a sale owed to the author of the package; recording twice the same
+     * license has no effect. Must be called inside a flow, the row is committed with its checkpoint.
+     * @param licenseRef reference of the PkgLicenseState issued by the sale
+     * @param developer  author of the package sold
+     * @param share      amount owed to the author
+     */
+    public void accrue(StateRef licenseRef, Party developer, Amount<Currency> share) {
+        if(licenseRef == null)
+            throw new IllegalArgumentException(nullLicenseRef);
+        if(share.getQuantity() < 0)
+            throw new IllegalArgumentException(negativeShare);
+
+        serviceHub.withEntityManager(em -> {
+            if(em.find(DeveloperPayoutSchemaV1.PersistentPayoutAccrual.class, licenseRef.toString()) == null)
+                em.persist(new DeveloperPayoutSchemaV1.PersistentPayoutAccrual(licenseRef.toString(),
+                        CryptoUtils.toStringShort(developer.getOwningKey()), developer.getName().toString(),
+                        share.getQuantity(), share.getToken().getCurrencyCode()));
+        });
+    }
+
+    /**
+     * Retrieve the unsettled earnings of the next developer and currency, netted by the database;
+     * the payouts are returned one at a time, ordered by developer name and currency
+     * @param minQuantity minimum amount, in the minor unit of the currency, for a payout to be returned
+     * @param after       payout returned by the previous call, null to retrieve the first one
+     * @return the next payout owed by this node, null if there is none
+     */
+    public PendingPayout getNextPendingPayout(long minQuantity, PendingPayout after) {
+        /* Seek past the previous payout, the pairs (developer, currency) are unique among the groups */
+        final String seek = after == null ? "" :
+                "AND (a.developerName > :developer OR (a.developerName = :developer AND a.currency > :currency)) ";
+        final List<Object[]> rows = serviceHub.withEntityManager(em -> {
+            final TypedQuery<Object[]> query = em.createQuery(
+                    "SELECT a.developerName, a.currency, SUM(a.quantity), MAX(a.accruedAt) FROM " + ACCRUALS + " a " +
+                            "WHERE a.settlementTxId IS NULL " + seek +
+                            "GROUP BY a.developerName, a.currency " +
+                            "HAVING SUM(a.quantity) > 0 AND SUM(a.quantity) >= :minQuantity " +
+                            "ORDER BY a.developerName, a.currency", Object[].class)
+                    .setParameter("minQuantity", minQuantity)
+                    .setMaxResults(1);
+            if(after != null)
+                query.setParameter("developer", after.developerName)
+                        .setParameter("currency", after.amount.getToken().getCurrencyCode());
+            return query.getResultList();
+        });
+        if(rows.isEmpty())
+            return null;
+
+        final Object[] row = rows.get(0);
+        return new PendingPayout((String) row[0],
+                new Amount<>((Long) row[2], Currency.getInstance((String) row[1])), (Instant) row[3]);
+    }
+
+    /**
+     * Mark the earnings of the payout as paid by the settlement transaction: the unsettled ones of the
+     * developer in the currency of the payout, accrued up to its cutoff. The earnings already claimed by
+     * another settlement are left untouched.
+     * @param payout       payout to claim
+     * @param settlementId id of the transaction that pays it
+     * @return the amount claimed by the settlement transaction, in the minor unit of the currency
+     */
+    public long claim(PendingPayout payout, SecureHash settlementId) {
+        return serviceHub.withEntityManager(em -> {
+            em.createQuery("UPDATE " + ACCRUALS + " a SET a.settlementTxId = :txId " +
+                    "WHERE a.developerName = :developer AND a.currency = :currency " +
+                    "AND a.accruedAt <= :cutoff AND a.settlementTxId IS NULL")
+                    .setParameter("txId", settlementId.toString())
+                    .setParameter("developer", payout.developerName)
+                    .setParameter("currency", payout.amount.getToken().getCurrencyCode())
+                    .setParameter("cutoff", payout.cutoff)
+                    .executeUpdate();
+
+            final Long claimed = em.createQuery("SELECT SUM(a.quantity) FROM " + ACCRUALS + " a " +
+                    "WHERE a.settlementTxId = :txId", Long.class)
+                    .setParameter("txId", settlementId.toString())
+                    .getSingleResult();
+            return claimed == null ? 0L : claimed;
+        });
+    }
+
+    /**
+     * Release the earnings claimed by a settlement transaction that has not been recorded,
+     * so that they are paid by the next settlement
+     * @param settlementId id of the transaction that did not take place
+     */
+    public void release(SecureHash settlementId) {
+        serviceHub.withEntityManager(em -> {
+            em.createQuery("UPDATE " + ACCRUALS + " a " +
+                    "SET a.settlementTxId = NULL WHERE a.settlementTxId = :txId")
+                    .setParameter("txId", settlementId.toString())
+                    .executeUpdate();
+        });
+    }
+}
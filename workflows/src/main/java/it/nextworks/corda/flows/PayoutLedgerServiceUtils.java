@@ -0,0 +1,18 @@
+package it.nextworks.corda.flows;
+
+public class PayoutLedgerServiceUtils {
+    /** Keys of the CorDapp configuration used to schedule the settlement of the developer payouts */
+    public static final String payoutPeriodConfigKey    = "payoutPeriodSeconds";
+    public static final String payoutThresholdConfigKey = "payoutThreshold";
+
+    /** Settle once per hour every developer owed at least one minor unit of currency; a period of 0 disables it */
+    public static final long defaultPayoutPeriod        = 3600;
+    public static final long defaultPayoutThreshold     = 1;
+
+    public static final String payoutScheduled          = "Developer payouts will be settled every ";
+    public static final String payoutScheduledThreshold = " seconds, minimum amount: ";
+    public static final String payoutDisabled           = "Scheduled settlement of the developer payouts disabled.";
+    public static final String payoutRunFailed          = "Scheduled settlement of the developer payouts failed : ";
+    public static final String nullLicenseRef           = "The <licenseRef> parameter cannot be null.";
+    public static final String negativeShare            = "The share of the developer cannot be negative.";
+}
@@ -0,0 +1,110 @@
+package it.nextworks.corda.flows;
+
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+
+/**
+ * In-memory index of the unconsumed packages stored in the vault, keyed by linearId.
+ * The index is loaded from the vault once the node has started and then kept current by tracking
+ * the vault updates, so that the lookup of a package does not hit the database. A package missing
+ * from the index is looked up in the vault; the result of such a lookup is not cached, only the
+ * vault updates change the index, so it never holds a state that has already been consumed.
+ */
+@CordaService
+public class PkgOfferIndexService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+    private final ConcurrentHashMap<UniqueIdentifier, StateAndRef<PkgOfferState>> pkgs = new ConcurrentHashMap<>();
+
+    public PkgOfferIndexService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if(event == ServiceLifecycleEvent.STATE_MACHINE_STARTED)
+                startTracking();
+        });
+    }
+
+    private void startTracking() {
+        final DataFeed<Vault.Page<PkgOfferState>, Vault.Update<PkgOfferState>> feed =
+                serviceHub.getVaultService().trackBy(PkgOfferState.class,
+                        new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                        new PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE));
+
+        feed.getSnapshot().getStates().forEach(this::index);
+        feed.getUpdates().subscribe(update -> {
+            /* An update transaction consumes and produces the same linearId, drop the old state first */
+            update.getConsumed().forEach(pkg -> pkgs.remove(pkg.getState().getData().getLinearId(), pkg));
+            update.getProduced().forEach(this::index);
+        });
+    }
+
+    private void index(StateAndRef<PkgOfferState> pkg) {
+        pkgs.put(pkg.getState().getData().getLinearId(), pkg);
+    }
+
+    /* Drop a package from the index, its next lookup goes to the vault; used by the tests of the fallback */
+    void forget(UniqueIdentifier linearId) { pkgs.remove(linearId); }
+
+    /**
+     * Retrieve the unconsumed package with the specified linearId
+     * @param linearId the linearId of the package
+     * @return the latest state of the package, null if it does not exist or it has been deleted
+     */
+    public StateAndRef<PkgOfferState> getPkg(UniqueIdentifier linearId) {
+        final StateAndRef<PkgOfferState> pkg = pkgs.get(linearId);
+        if(pkg != null)
+            return pkg;
+
+        final List<StateAndRef<PkgOfferState>> lst = query(Collections.singletonList(linearId));
+        return lst.isEmpty() ? null : lst.get(0);
+    }
+
+    /**
+     * Retrieve the unconsumed packages with the specified linearIds, the ones missing from the
+     * index are looked up with a single vault query
+     * @param linearIds the linearIds of the packages
+     * @return the packages found, indexed by linearId
+     */
+    public Map<UniqueIdentifier, StateAndRef<PkgOfferState>> getPkgs(Collection<UniqueIdentifier> linearIds) {
+        final Map<UniqueIdentifier, StateAndRef<PkgOfferState>> found = new HashMap<>();
+        final List<UniqueIdentifier> missing = new ArrayList<>();
+        for(UniqueIdentifier linearId : linearIds) {
+            final StateAndRef<PkgOfferState> pkg = pkgs.get(linearId);
+            if(pkg != null)
+                found.put(linearId, pkg);
+            else
+                missing.add(linearId);
+        }
+
+        if(!missing.isEmpty())
+            query(missing).forEach(pkg -> found.put(pkg.getState().getData().getLinearId(), pkg));
+
+        return found;
+    }
+
+    private List<StateAndRef<PkgOfferState>> query(List<UniqueIdentifier> linearIds) {
+        final List<UUID> uuids = new ArrayList<>();
+        linearIds.forEach(linearId -> uuids.add(linearId.getId()));
+        QueryCriteria.LinearStateQueryCriteria queryCriteria =
+                new QueryCriteria.LinearStateQueryCriteria(null, uuids, null, Vault.StateStatus.UNCONSUMED);
+
+        return serviceHub.getVaultService().queryBy(PkgOfferState.class, queryCriteria,
+                new PageSpecification(DEFAULT_PAGE_NUM, uuids.size())).getStates();
+    }
+}
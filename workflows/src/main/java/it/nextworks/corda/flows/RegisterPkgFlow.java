@@ -3,7 +3,6 @@ package it.nextworks.corda.flows;
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import it.nextworks.corda.contracts.PkgOfferContract;
-import it.nextworks.corda.schemas.FeeAgreementSchemaV1;
 import it.nextworks.corda.states.FeeAgreementState;
 import it.nextworks.corda.states.PkgOfferState;
 import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
@@ -12,20 +11,17 @@ import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.Builder;
-import net.corda.core.node.services.vault.FieldInfo;
-import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.ServiceHub;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 import static it.nextworks.corda.flows.RegisterPkgFlowUtils.*;
-import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
 
 public class RegisterPkgFlow {
     /**
@@ -36,6 +32,76 @@ public class RegisterPkgFlow {
         public NotExistingAgreementException() { super(notExistingAgreement); }
     }
 
+    /**
+     * Verify that a fee agreement between the developer and the repository node exists, using the
+     * index kept by the FeeAgreementIndexService, and that the packages are assigned to its notary
+     * @param serviceHub     service hub of the repository node
+     * @param developer      the developer that wants to register package(s)
+     * @param repositoryNode identity of the repository node
+     * @param notary         notary of the registration transaction
+     * @throws NotExistingAgreementException if the fee agreement does not exist
+     */
+    public static void checkFeeAgreement(ServiceHub serviceHub, Party developer, Party repositoryNode, Party notary)
+            throws NotExistingAgreementException {
+        final StateAndRef<FeeAgreementState> agreement =
+                serviceHub.cordaService(FeeAgreementIndexService.class).getAgreement(developer);
+        if(agreement == null || !agreement.getState().getData().getRepositoryNode().equals(repositoryNode))
+            throw new NotExistingAgreementException();
+        if(!agreement.getState().getNotary().equals(notary))
+            throw new IllegalArgumentException(notAgreementNotaryErr);
+    }
+
+    /**
+     * Retrieve the notary of the packages a developer registers with a repository node: the one of their
+     * fee agreement, so that the purchases can reference both the package and the agreement
+     * @param serviceHub     service hub of the developer
+     * @param developer      the developer that wants to register package(s)
+     * @param repositoryNode identity of the repository node
+     * @return the notary of the fee agreement
+     * @throws NotExistingAgreementException if the fee agreement does not exist
+     */
+    public static Party agreementNotary(ServiceHub serviceHub, Party developer, Party repositoryNode)
+            throws NotExistingAgreementException {
+        final StateAndRef<FeeAgreementState> agreement =
+                EstablishFeeAgreementFlow.findAgreement(serviceHub, developer, repositoryNode);
+        if(agreement == null)
+            throw new NotExistingAgreementException();
+
+        return agreement.getState().getNotary();
+    }
+
+    /**
+     * Select the repository node a developer registers new package(s) with: the one the ring places a new
+     * linearId on, among the repository nodes in the network map the developer has a fee agreement with
+     * @param serviceHub service hub of the developer
+     * @param developer  the developer that wants to register package(s)
+     * @return the repository node selected
+     * @throws NotExistingAgreementException if the developer has no fee agreement with a repository node
+     * @throws FlowException                 if none of the repository nodes of the agreements is in the network map
+     */
+    public static Party selectRepositoryNode(ServiceHub serviceHub, Party developer) throws FlowException {
+        final TopologyService topology = serviceHub.cordaService(TopologyService.class);
+        final Set<CordaX500Name> agreed = new HashSet<>();
+        for(StateAndRef<FeeAgreementState> agreement : serviceHub.getVaultService().queryBy(FeeAgreementState.class,
+                EstablishFeeAgreementFlow.agreementCriteria(developer, null)).getStates()) {
+            final Party repositoryNode = agreement.getState().getData().getRepositoryNode();
+            if(topology.isRepositoryNode(repositoryNode))
+                agreed.add(repositoryNode.getName());
+        }
+        if(agreed.isEmpty())
+            throw new NotExistingAgreementException();
+
+        final Set<CordaX500Name> reachable = new HashSet<>();
+        for(CordaX500Name repositoryName : agreed) {
+            if(topology.getRepositoryNode(repositoryName) != null)
+                reachable.add(repositoryName);
+        }
+        if(reachable.isEmpty())
+            throw new FlowException(unreachableRepository + agreed);
+
+        return topology.getRepositoryNode(topology.getShardName(new UniqueIdentifier(), reachable));
+    }
+
     @InitiatingFlow
     @StartableByRPC
     public static class DevInitiation extends FlowLogic<SignedTransaction> {
@@ -112,23 +178,24 @@ public class RegisterPkgFlow {
         @Override
         public SignedTransaction call() throws FlowException {
 
-            /* Retrieving a reference to notary using the serviceHub [Production Method] */
-            final Party notary = getServiceHub()
-                    .getNetworkMapCache()
-                    .getNotary(CordaX500Name.parse(notaryX500Name));
             /*
              * Retrieving our identity and the Repository Node identity that will be used as <author>
-             * and <repositoryNode> parameters in the transaction
+             * and <repositoryNode> parameters in the transaction: the package is listed by one of the
+             * repository nodes we have a fee agreement with, and its linearId is drawn on their arcs
+             * of the consistent-hash ring
              */
             final Party author = getOurIdentity();
-            final Party repositoryNode = getServiceHub()
-                    .getNetworkMapCache()
-                    .getPeerByLegalName(CordaX500Name.parse(repositoryX500Name));
+            final Party repositoryNode = selectRepositoryNode(getServiceHub(), author);
+            final UniqueIdentifier pkgId = getServiceHub()
+                    .cordaService(TopologyService.class)
+                    .newPkgId(repositoryNode.getName());
+            /* The package is notarised, from now on, by the notary of the fee agreement of its author */
+            final Party notary = agreementNotary(getServiceHub(), author, repositoryNode);
 
             /* Set the current step to GENERATING_TRANSACTION and proceed to build the latter */
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
 
-            final PkgOfferState pkgOfferState = new PkgOfferState(new UniqueIdentifier(), name, description,
+            final PkgOfferState pkgOfferState = new PkgOfferState(pkgId, name, description,
                     version, pkgInfoId, imageLink, pkgType, poPrice, author, repositoryNode);
             final Command<PkgOfferContract.Commands.RegisterPkg> txCommand = new Command<>(
                     new PkgOfferContract.Commands.RegisterPkg(), ImmutableList.of(author.getOwningKey(),
@@ -157,7 +224,7 @@ public class RegisterPkgFlow {
             /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
 
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
+            return subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
         }
     }
 
@@ -192,30 +259,12 @@ public class RegisterPkgFlow {
                     if(!(output instanceof PkgOfferState)) {
                         throw new IllegalArgumentException(notPkgStateErr);
                     }
+                    if(!getServiceHub().cordaService(TopologyService.class).isPoolNotary(stx.getNotary()))
+                        throw new IllegalArgumentException(notPoolNotaryErr);
 
                     /* Verify that a fee agreement exists between the developer and the repository node */
-                    QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
-
-                    try {
-                        FieldInfo attributeDeveloper =
-                                getField("developer", FeeAgreementSchemaV1.PersistentFeeAgreementState.class);
-                        criteria =
-                                criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(attributeDeveloper,
-                                        devSession.getCounterparty().getName().toString())));
-
-                        FieldInfo attributeRepository =
-                                getField("repository", FeeAgreementSchemaV1.PersistentFeeAgreementState.class);
-                        criteria =
-                                criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(attributeRepository,
-                                        getOurIdentity().getName().toString())));
-                    } catch (NoSuchFieldException e) {
-                        throw new IllegalArgumentException(malformedDbTable);
-                    }
-
-                    List<StateAndRef<FeeAgreementState>> lst =
-                            getServiceHub().getVaultService().queryBy(FeeAgreementState.class, criteria).getStates();
-                    if(lst.isEmpty())
-                        throw new NotExistingAgreementException();
+                    checkFeeAgreement(getServiceHub(), devSession.getCounterparty(), getOurIdentity(),
+                            stx.getNotary());
                 }
             }
             /* Check and Sign the transaction, get the hash value of the obtained transaction */
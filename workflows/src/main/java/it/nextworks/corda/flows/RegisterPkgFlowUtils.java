@@ -7,14 +7,19 @@ public class RegisterPkgFlowUtils {
     public static final String GATHERING_SIGNS        = "Gathering the Repository Node's signature.";
     public static final String FINALISING_TRANSACTION = "Obtaining Notary signature and recording transaction.";
 
-    public static final String notaryX500Name         = "O=Notary,L=Pisa,C=IT";
+    public static final String notaryX500Name         = TopologyServiceUtils.defaultNotaryName;
     public static final String devX500Name            = "O=DevTest,L=Pisa,C=IT";
-    public static final String repositoryX500Name     = "O=RepositoryNode,L=Pisa,C=IT";
+    public static final String repositoryX500Name     = TopologyServiceUtils.defaultRepositoryName;
 
     public static final String notPkgStateErr         = "This must be a package transaction.";
+    public static final String notPoolNotaryErr       = "The package must be assigned to a Notary of the pool.";
+    public static final String notAgreementNotaryErr  = "The package must be assigned to the Notary of the fee " +
+            "agreement.";
     public static final String malformedDbTable       = "The Database table cannot be used: malformed column(s).";
     public static final String notExistingAgreement   = "The developer hasn't already establish a fee agreement " +
             "with the Repository Node.";
+    public static final String unreachableRepository  = "None of the Repository Nodes the developer has a fee " +
+            "agreement with is in the network map: ";
 
     public static final String cordAppContractsPkg    = "it.nextworks.corda.contracts";
     public static final String cordAppFlowsPkg        = "it.nextworks.corda.flows";
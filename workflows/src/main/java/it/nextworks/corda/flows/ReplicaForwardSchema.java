@@ -0,0 +1,4 @@
+package it.nextworks.corda.flows;
+
+/* The family of schemas for the offer transactions forwarded by a repository node to its replicas */
+public class ReplicaForwardSchema { }
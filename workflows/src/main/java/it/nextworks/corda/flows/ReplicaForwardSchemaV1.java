@@ -0,0 +1,56 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.schemas.MappedSchema;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Arrays;
+
+/**
+ * Offers consumed by the offer transactions that a repository node forwards to its replicas, each one
+ * with the id of the transaction that consumed it, so that a replica still holding a consumed offer
+ * is sent the consuming transaction without searching the transactions recorded by the node.
+ */
+public class ReplicaForwardSchemaV1 extends MappedSchema {
+
+    public ReplicaForwardSchemaV1() {
+        super(ReplicaForwardSchema.class, 1, Arrays.asList(PersistentConsumedOffer.class));
+    }
+
+    @Entity
+    @Table(name = "replica_consumed_offers")
+    public static class PersistentConsumedOffer {
+
+        @Id @Column(name = "offer_ref", length = 80, nullable = false) private final String offerRef;
+        @Column(name = "consuming_tx_id", length = 64, nullable = false) private final String consumingTxId;
+
+        /**
+         * Constructor of the PersistentConsumedOffer class
+         * @param offerRef      reference of the consumed PkgOfferState, in the form txhash(index)
+         * @param consumingTxId id of the transaction that consumed the offer
+         */
+        public PersistentConsumedOffer(String offerRef, String consumingTxId) {
+            this.offerRef      = offerRef;
+            this.consumingTxId = consumingTxId;
+        }
+
+        /* Default constructor required by hibernate */
+        public PersistentConsumedOffer() {
+            offerRef      = null;
+            consumingTxId = null;
+        }
+
+        /* Getters */
+
+        public String getOfferRef() { return offerRef; }
+
+        public String getConsumingTxId() { return consumingTxId; }
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() { return "replica_forward.changelog-master"; }
+}
@@ -0,0 +1,291 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.Lists;
+import it.nextworks.corda.contracts.PkgOfferContract;
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.NetworkMapCache;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.WireTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static it.nextworks.corda.flows.ReplicaServiceUtils.*;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+
+/**
+ * Read-only replicas of the marketplace, configured in the TopologyService.
+ * On a repository node the service forwards every offer transaction it records to each replica,
+ * through ReplicatePkgFlow, off the thread that recorded it, so that the registrations and the
+ * purchases never wait for the replicas; the replicas are also reconciled when the node starts, when
+ * they join the network map and periodically, so that the forwards they missed are recovered. To keep
+ * the reconciliation cheap for the repository node, the service keeps the digest of the live offers of
+ * the node current and records the offers consumed by every forwarded transaction.
+ * On the other nodes it selects the replica the marketplace queries are sent to: the one with the
+ * lowest expected wait, the moving average of its latency times the queries it is serving, both
+ * measured by this node; ties go to the nearest replica, by country and locality of its X500 name,
+ * and then to the hash of the query. Without a replica in the network map the queries go to the
+ * primary repository node.
+ */
+@CordaService
+public class ReplicaService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+    private final long reconcilePeriod;
+    private final LatencyMetrics<CordaX500Name> metrics = new LatencyMetrics<>(latencySmoothing);
+    /* Digest and number of the live offers of this repository node, under the lock of the service */
+    private final byte[] offerDigest = SecureHash.getZeroHash().getBytes().clone();
+    private int offerCount = 0;
+
+    /* Maximum number of parameters bound to a single IN clause */
+    private static final int MAX_IN_CLAUSE   = 500;
+    private static final String CONSUMED     = ReplicaForwardSchemaV1.PersistentConsumedOffer.class.getName();
+
+    private final static Logger logger = LoggerFactory.getLogger(ReplicaService.class);
+
+    public ReplicaService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.reconcilePeriod = config.exists(reconcilePeriodConfigKey)
+                ? config.getLong(reconcilePeriodConfigKey) : defaultReconcilePeriod;
+
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if(event == ServiceLifecycleEvent.STATE_MACHINE_STARTED)
+                startForwarding();
+        });
+    }
+
+    private void startForwarding() {
+        final TopologyService topology = serviceHub.cordaService(TopologyService.class);
+        final Party me = serviceHub.getMyInfo().getLegalIdentities().get(0);
+        if(!topology.isRepositoryNode(me) || topology.getReplicaNames().isEmpty())
+            return;
+
+        final ScheduledExecutorService forwarder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, ReplicaService.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final DataFeed<Vault.Page<PkgOfferState>, Vault.Update<PkgOfferState>> offers =
+                serviceHub.getVaultService().trackBy(PkgOfferState.class,
+                        new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                        new PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE));
+        offers.getSnapshot().getStates().forEach(offer -> toggle(me, offer, 1));
+        offers.getUpdates().subscribe(update -> {
+            update.getConsumed().forEach(offer -> toggle(me, offer, -1));
+            update.getProduced().forEach(offer -> toggle(me, offer, 1));
+        });
+
+        serviceHub.getValidatedTransactions().getUpdates().subscribe(transaction -> {
+            if(isOfferTransaction(transaction))
+                forwarder.execute(() -> {
+                    recordConsumed(transaction);
+                    forward(transaction);
+                });
+        });
+
+        /*
+         * Forwards are lost if a replica is down or this node stops with some queued: reconcile every replica
+         * now, each one that joins the network map later and, if configured, periodically
+         */
+        serviceHub.getNetworkMapCache().getChanged().subscribe(change -> {
+            if(change instanceof NetworkMapCache.MapChange.Added) {
+                for(Party party : change.getNode().getLegalIdentities()) {
+                    if(topology.isReplica(party))
+                        forwarder.execute(() -> reconcile(party));
+                }
+            }
+        });
+        if(reconcilePeriod > 0)
+            forwarder.scheduleWithFixedDelay(this::reconcile, 0, reconcilePeriod, TimeUnit.SECONDS);
+        else
+            forwarder.execute(this::reconcile);
+        logger.info(forwardingStarted + topology.getReplicaNames());
+    }
+
+    /* The transactions that register, update or delete a package, the purchases only reference the offers */
+    private static boolean isOfferTransaction(SignedTransaction transaction) {
+        if(!(transaction.getCoreTransaction() instanceof WireTransaction))
+            return false;
+
+        for(Command<?> command : transaction.getTx().getCommands()) {
+            if(command.getValue() instanceof PkgOfferContract.Commands)
+                return true;
+        }
+        return false;
+    }
+
+    private synchronized void toggle(Party me, StateAndRef<PkgOfferState> offer, int delta) {
+        if(!me.equals(offer.getState().getData().getRepositoryNode()))
+            return;
+
+        ReplicatePkgFlow.toggle(offerDigest, offer.getRef());
+        offerCount += delta;
+    }
+
+    /** @return the digest of the live offers of this repository node */
+    public synchronized ReplicaDigest getOfferDigest() {
+        return new ReplicaDigest(new SecureHash.SHA256(offerDigest.clone()), offerCount);
+    }
+
+    /* Map the offers consumed by the transaction to it, for the replicas that miss its forward */
+    private void recordConsumed(SignedTransaction transaction) {
+        try {
+            serviceHub.withEntityManager(em -> {
+                for(StateRef input : transaction.getInputs()) {
+                    if(em.find(ReplicaForwardSchemaV1.PersistentConsumedOffer.class, input.toString()) == null)
+                        em.persist(new ReplicaForwardSchemaV1.PersistentConsumedOffer(input.toString(),
+                                transaction.getId().toString()));
+                }
+            });
+        } catch(Exception e) {
+            logger.error(consumedNotRecorded + transaction.getId() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieve the transactions that consumed the specified offers, as recorded when they were forwarded
+     * @param offers the references of the consumed offers
+     * @return the ids of the consuming transactions
+     */
+    public Set<SecureHash> getConsumingTransactions(List<StateRef> offers) {
+        final Set<SecureHash> txIds = new LinkedHashSet<>();
+        if(offers.isEmpty())
+            return txIds;
+
+        final List<String> refs = new ArrayList<>(offers.size());
+        offers.forEach(ref -> refs.add(ref.toString()));
+        final int found = serviceHub.withEntityManager(em -> {
+            int rows = 0;
+            for(List<String> chunk : Lists.partition(refs, MAX_IN_CLAUSE)) {
+                for(ReplicaForwardSchemaV1.PersistentConsumedOffer row : em.createQuery(
+                        "SELECT c FROM " + CONSUMED + " c WHERE c.offerRef IN :refs",
+                        ReplicaForwardSchemaV1.PersistentConsumedOffer.class)
+                        .setParameter("refs", chunk).getResultList()) {
+                    txIds.add(SecureHash.parse(row.getConsumingTxId()));
+                    rows++;
+                }
+            }
+            return rows;
+        });
+        if(found < refs.size())
+            logger.warn(consumingTxUnknown + (refs.size() - found));
+
+        return txIds;
+    }
+
+    /* A flow per replica, so that a replica down does not hold back the others */
+    private void forward(SignedTransaction transaction) {
+        for(Party replica : serviceHub.cordaService(TopologyService.class).getReplicas()) {
+            try {
+                serviceHub.startFlow(new ReplicatePkgFlow.Forward(transaction, replica));
+            } catch(Exception e) {
+                logger.error(forwardingFailed + replica.getName() + " " + e.getMessage());
+            }
+        }
+    }
+
+    private void reconcile() {
+        for(Party replica : serviceHub.cordaService(TopologyService.class).getReplicas())
+            reconcile(replica);
+    }
+
+    /* Do not wait for the flow, a replica down must not hold back the forwards */
+    private void reconcile(Party replica) {
+        try {
+            serviceHub.startFlow(new ReplicatePkgFlow.Reconcile(replica));
+        } catch(Exception e) {
+            logger.error(reconcileFailed + replica.getName() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * Select the node the marketplace queries of this node are sent to
+     * @param key the run id of the querying flow, or any other key of the query
+     * @return the replica chosen, the primary repository node if no replica is in the network map
+     */
+    public Party selectReplica(String key) {
+        final TopologyService topology = serviceHub.cordaService(TopologyService.class);
+        final List<Party> replicas = topology.getReplicas();
+        if(replicas.isEmpty())
+            return topology.getRepositoryNode();
+
+        final CordaX500Name me = serviceHub.getMyInfo().getLegalIdentities().get(0).getName();
+        double minScore = Double.MAX_VALUE;
+        int maxProximity = -1;
+        final List<Party> candidates = new ArrayList<>();
+        for(Party replica : replicas) {
+            final double score = metrics.score(replica.getName());
+            final int proximity = proximity(me, replica.getName());
+            if(score < minScore || (score == minScore && proximity > maxProximity)) {
+                minScore = score;
+                maxProximity = proximity;
+                candidates.clear();
+            }
+            if(score == minScore && proximity == maxProximity)
+                candidates.add(replica);
+        }
+
+        return candidates.get(LatencyMetrics.index(key, candidates.size()));
+    }
+
+    /* 2 for the same locality, 1 for the same country, 0 otherwise */
+    private static int proximity(CordaX500Name me, CordaX500Name replica) {
+        if(!me.getCountry().equals(replica.getCountry()))
+            return 0;
+
+        return me.getLocality().equals(replica.getLocality()) ? 2 : 1;
+    }
+
+    /**
+     * Account a query started with the specified replica
+     * @param replica the replica, or the repository node, the query is sent to
+     */
+    public void started(Party replica) { metrics.started(replica.getName()); }
+
+    /**
+     * Account a query answered by the specified replica
+     * @param replica       the replica, or the repository node, the query was sent to
+     * @param latencyMillis time spent to receive the packages
+     */
+    public void completed(Party replica, long latencyMillis) { metrics.completed(replica.getName(), latencyMillis); }
+
+    /**
+     * Account a query failed by the specified replica, charged as a slow one
+     * @param replica the replica, or the repository node, the query was sent to
+     */
+    public void failed(Party replica) { completed(replica, failurePenaltyMillis); }
+
+    /**
+     * @param replica the replica
+     * @return the moving average of the latency of the replica in milliseconds, -1 if it was never measured
+     */
+    public double getLatencyMillis(Party replica) { return metrics.getLatencyMillis(replica.getName()); }
+
+    /**
+     * @param replica the replica
+     * @return the queries the replica is serving for this node
+     */
+    public int getInFlight(Party replica) { return metrics.getInFlight(replica.getName()); }
+}
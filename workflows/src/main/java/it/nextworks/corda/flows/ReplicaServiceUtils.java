@@ -0,0 +1,88 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.List;
+
+public class ReplicaServiceUtils {
+    /** Weight of the last query in the moving average of the latency of a replica */
+    public static final double latencySmoothing         = 0.2;
+    /** Latency accounted to a replica for a failed query, so that the selection keeps away from it */
+    public static final long failurePenaltyMillis       = 10000;
+    /** Seconds between two reconciliations of the replicas, not periodic if not positive */
+    public static final String reconcilePeriodConfigKey = "replicaReconcilePeriod";
+    public static final long defaultReconcilePeriod     = 300;
+
+    public static final String notReplica               = "This node is not a configured replica.";
+    public static final String notRepositoryNodeForward = "Only the repository nodes can forward offer transactions.";
+    public static final String replicaFailed            = "Replica failed to answer, querying the repository node: ";
+
+    public static final String forwardingStarted        = "Forwarding the offer transactions to the replicas: ";
+    public static final String forwardingFailed         = "Unable to forward the offer transaction to the replica: ";
+    public static final String reconcileFailed          = "Unable to reconcile the replica: ";
+    public static final String replicaReconciled        = "Transactions resent to reconcile the replica: ";
+    public static final String nullReplicaDiff          = "The received offers to reconcile are null.";
+    public static final String nullReplicaDigest        = "The received digest of the offers is null.";
+    public static final String consumedNotRecorded      = "Unable to record the offers consumed by the transaction: ";
+    public static final String consumingTxUnknown       = "Stale offers whose consuming transaction was not " +
+            "recorded, not reconciled: ";
+    public static final String unknownMissingOffer      = "The replica asked for an offer not listed by the " +
+            "repository node.";
+    public static final String unknownStaleOffer        = "The replica reported as stale an offer live on the " +
+            "repository node.";
+    public static final String unexpectedReconcileCount = "The repository node announced an unexpected number of " +
+            "transactions.";
+
+    public static final String notaryX500Name           = TopologyServiceUtils.defaultNotaryName;
+    public static final String devX500Name              = "O=DevTest,L=Pisa,C=IT";
+    public static final String buyerX500Name            = "O=BuyerTest,L=Pistoia,C=IT";
+    public static final String repositoryX500Name       = TopologyServiceUtils.defaultRepositoryName;
+    public static final String replicaX500Name          = "O=ReplicaNode,L=Pistoia,C=IT";
+    public static final String otherReplicaX500Name     = "O=OtherReplicaNode,L=Milano,C=IT";
+
+    public static final String cordAppContractsPkg      = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg          = "it.nextworks.corda.flows";
+
+    /**
+     * Order independent digest of the live offers of a repository node: the XOR of the hashes of their
+     * references, so that the repository node updates it at every offer listed or consumed
+     */
+    @CordaSerializable
+    public static class ReplicaDigest {
+
+        private final SecureHash digest;
+        private final int count;
+
+        public ReplicaDigest(SecureHash digest, int count) {
+            this.digest = digest;
+            this.count  = count;
+        }
+
+        /* Getters */
+
+        public SecureHash getDigest() { return digest; }
+
+        public int getCount() { return count; }
+    }
+
+    /** Offers of a repository node missing from a replica and the ones it still holds after they were consumed */
+    @CordaSerializable
+    public static class ReplicaDiff {
+
+        private final List<StateRef> missing;
+        private final List<StateRef> stale;
+
+        public ReplicaDiff(List<StateRef> missing, List<StateRef> stale) {
+            this.missing = missing;
+            this.stale   = stale;
+        }
+
+        /* Getters */
+
+        public List<StateRef> getMissing() { return missing; }
+
+        public List<StateRef> getStale() { return stale; }
+    }
+}
@@ -0,0 +1,273 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import it.nextworks.corda.states.PkgOfferState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.*;
+
+import static it.nextworks.corda.flows.ReplicaServiceUtils.*;
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+
+/**
+ * Forward of an offer transaction, recorded by a repository node, to a replica of the marketplace.
+ * The replica is an observer: it is not a participant of the PkgOfferStates, so it records them with
+ * StatesToRecord.ALL_VISIBLE, resolving from the repository node the transactions they depend on.
+ * A forward lost while a replica was down, or queued when the repository node stopped, is recovered by
+ * Reconcile: the repository node sends the digest of its live offers, kept current by the ReplicaService,
+ * and the replica compares it with the digest of its own copy. Only when they differ the repository node
+ * lists its live offers and resends the transactions that produced the missing offers and, as recorded
+ * when they were forwarded, the ones that consumed the stale offers.
+ */
+public class ReplicatePkgFlow {
+
+    /**
+     * Retrieve the offers listed by a repository node that are live in the vault
+     * @param serviceHub     service hub of the repository node or of a replica
+     * @param repositoryNode the repository node listing the offers
+     * @return the references of the unconsumed offers
+     */
+    static Set<StateRef> liveOffers(ServiceHub serviceHub, Party repositoryNode) {
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        final Set<StateRef> refs = new HashSet<>();
+        Vault.Page<PkgOfferState> page;
+        int pageNumber = DEFAULT_PAGE_NUM;
+        do {
+            page = serviceHub.getVaultService().queryBy(PkgOfferState.class, criteria,
+                    new PageSpecification(pageNumber, MAX_PAGE_SIZE));
+            for(StateAndRef<PkgOfferState> offer : page.getStates()) {
+                if(repositoryNode.equals(offer.getState().getData().getRepositoryNode()))
+                    refs.add(offer.getRef());
+            }
+            pageNumber++;
+        } while((long)MAX_PAGE_SIZE * (pageNumber - 1) < page.getTotalStatesAvailable());
+
+        return refs;
+    }
+
+    /**
+     * Toggle an offer in a digest of the live offers, used both to list and to consume the offer
+     * @param digest the digest to update
+     * @param ref    the reference of the offer
+     */
+    static void toggle(byte[] digest, StateRef ref) {
+        final byte[] hash = SecureHash.sha256(ref.toString()).getBytes();
+        for(int i = 0; i < digest.length; i++)
+            digest[i] ^= hash[i];
+    }
+
+    /**
+     * Compute the digest of a set of live offers
+     * @param refs the references of the offers
+     * @return the digest of the offers
+     */
+    static ReplicaDigest digest(Collection<StateRef> refs) {
+        final byte[] digest = SecureHash.getZeroHash().getBytes().clone();
+        for(StateRef ref : refs)
+            toggle(digest, ref);
+
+        return new ReplicaDigest(new SecureHash.SHA256(digest), refs.size());
+    }
+
+    @InitiatingFlow
+    @StartableByService
+    public static class Forward extends FlowLogic<Void> {
+
+        private final SignedTransaction transaction;
+        private final Party replica;
+
+        /**
+         * Constructor of the Forward flow class
+         * @param transaction the offer transaction recorded by this repository node
+         * @param replica     the replica to send the transaction to
+         */
+        public Forward(SignedTransaction transaction, Party replica) {
+            this.transaction = transaction;
+            this.replica     = replica;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            subFlow(new SendTransactionFlow(initiateFlow(replica), transaction));
+
+            return null;
+        }
+    }
+
+    @InitiatedBy(Forward.class)
+    public static class ReplicaAcceptor extends FlowLogic<Void> {
+
+        private final FlowSession repositoryNodeSession;
+
+        /**
+         * Constructor of the flow initiated by the Forward class
+         * @param repositoryNodeSession session with the repository node that forwards the transaction
+         */
+        public ReplicaAcceptor(FlowSession repositoryNodeSession) {
+            this.repositoryNodeSession = repositoryNodeSession;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            final TopologyService topology = getServiceHub().cordaService(TopologyService.class);
+            if(!topology.isReplica(getOurIdentity()))
+                throw new FlowException(notReplica);
+            if(!topology.isRepositoryNode(repositoryNodeSession.getCounterparty()))
+                throw new FlowException(notRepositoryNodeForward);
+
+            subFlow(new ReceiveTransactionFlow(repositoryNodeSession, true, StatesToRecord.ALL_VISIBLE));
+
+            return null;
+        }
+    }
+
+    @InitiatingFlow
+    @StartableByService
+    public static class Reconcile extends FlowLogic<Integer> {
+
+        private final Party replica;
+
+        /**
+         * Constructor of the Reconcile flow class
+         * @param replica the replica to bring up to date with this repository node
+         */
+        public Reconcile(Party replica) { this.replica = replica; }
+
+        @Suspendable
+        @Override
+        public Integer call() throws FlowException {
+            final ReplicaService replicaService = getServiceHub().cordaService(ReplicaService.class);
+            final FlowSession replicaSession = initiateFlow(replica);
+
+            /* Cheap check first: the digest is kept current, the live offers are listed only on a mismatch */
+            final boolean inSync = replicaSession.sendAndReceive(Boolean.class, replicaService.getOfferDigest())
+                    .unwrap(data -> data != null && data);
+            if(inSync)
+                return 0;
+
+            final Set<StateRef> live = liveOffers(getServiceHub(), getOurIdentity());
+            final ReplicaDiff diff = replicaSession.sendAndReceive(ReplicaDiff.class, new ArrayList<>(live))
+                    .unwrap(data -> {
+                        requireThat(require -> {
+                            require.using(nullReplicaDiff, data != null && data.getMissing() != null &&
+                                    data.getStale() != null);
+                            /* The replica can only ask for the offers we listed and report the ones we consumed */
+                            require.using(unknownMissingOffer, live.containsAll(data.getMissing()));
+                            for(StateRef ref : data.getStale())
+                                require.using(unknownStaleOffer, ref != null && !live.contains(ref));
+
+                            return null;
+                        });
+
+                        return data;
+                    });
+
+            /* The transactions that produced the missing offers and the ones that consumed the stale offers */
+            final Set<SecureHash> txIds = new LinkedHashSet<>();
+            for(StateRef ref : diff.getMissing())
+                txIds.add(ref.getTxhash());
+            txIds.addAll(replicaService.getConsumingTransactions(diff.getStale()));
+
+            final List<SignedTransaction> transactions = new ArrayList<>(txIds.size());
+            for(SecureHash txId : txIds) {
+                final SignedTransaction transaction = getServiceHub().getValidatedTransactions().getTransaction(txId);
+                if(transaction != null)
+                    transactions.add(transaction);
+            }
+
+            replicaSession.send(transactions.size());
+            for(SignedTransaction transaction : transactions)
+                subFlow(new SendTransactionFlow(replicaSession, transaction));
+
+            if(!transactions.isEmpty())
+                getLogger().info(replicaReconciled + replica.getName() + " " + transactions.size());
+            return transactions.size();
+        }
+    }
+
+    @InitiatedBy(Reconcile.class)
+    public static class ReconcileAcceptor extends FlowLogic<Void> {
+
+        private final FlowSession repositoryNodeSession;
+
+        /**
+         * Constructor of the flow initiated by the Reconcile class
+         * @param repositoryNodeSession session with the repository node that reconciles this replica
+         */
+        public ReconcileAcceptor(FlowSession repositoryNodeSession) {
+            this.repositoryNodeSession = repositoryNodeSession;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            final TopologyService topology = getServiceHub().cordaService(TopologyService.class);
+            if(!topology.isReplica(getOurIdentity()))
+                throw new FlowException(notReplica);
+            if(!topology.isRepositoryNode(repositoryNodeSession.getCounterparty()))
+                throw new FlowException(notRepositoryNodeForward);
+
+            final ReplicaDigest digest = repositoryNodeSession.receive(ReplicaDigest.class).unwrap(data -> {
+                if(data == null || data.getDigest() == null)
+                    throw new IllegalArgumentException(nullReplicaDigest);
+                return data;
+            });
+
+            /* Compare the digest of the live offers of the repository node with the one of our copy */
+            final Set<StateRef> recorded = liveOffers(getServiceHub(), repositoryNodeSession.getCounterparty());
+            final ReplicaDigest recordedDigest = digest(recorded);
+            final boolean inSync = recordedDigest.getCount() == digest.getCount() &&
+                    recordedDigest.getDigest().equals(digest.getDigest());
+            repositoryNodeSession.send(inSync);
+            if(inSync)
+                return null;
+
+            final Set<StateRef> live = new HashSet<>();
+            for(Object ref : repositoryNodeSession.receive(List.class).unwrap(data -> {
+                if(data == null)
+                    throw new IllegalArgumentException(nullReplicaDiff);
+                return data;
+            })) {
+                if(ref instanceof StateRef)
+                    live.add((StateRef)ref);
+            }
+
+            /* Compare the live offers of the repository node with the copy recorded by this replica */
+            final List<StateRef> missing = new ArrayList<>();
+            for(StateRef ref : live) {
+                if(!recorded.contains(ref))
+                    missing.add(ref);
+            }
+            final List<StateRef> stale = new ArrayList<>();
+            for(StateRef ref : recorded) {
+                if(!live.contains(ref))
+                    stale.add(ref);
+            }
+            repositoryNodeSession.send(new ReplicaDiff(missing, stale));
+
+            final int count = repositoryNodeSession.receive(Integer.class).unwrap(data -> {
+                if(data == null || data < 0 || data > missing.size() + stale.size())
+                    throw new IllegalArgumentException(unexpectedReconcileCount);
+                return data;
+            });
+            for(int i = 0; i < count; i++)
+                subFlow(new ReceiveTransactionFlow(repositoryNodeSession, true, StatesToRecord.ALL_VISIBLE));
+
+            return null;
+        }
+    }
+}
@@ -3,7 +3,6 @@ package it.nextworks.corda.flows;
 import co.paralleluniverse.fibers.Suspendable;
 import net.corda.core.contracts.Amount;
 import net.corda.core.flows.*;
-import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.utilities.OpaqueBytes;
@@ -30,7 +29,7 @@ public class SelfIssueCashFlow extends FlowLogic<Cash.State> {
         OpaqueBytes issueRef = OpaqueBytes.of("1".getBytes());
 
         final Party notary =
-                getServiceHub().getNetworkMapCache().getNotary(CordaX500Name.parse(BuyPkgFlowUtils.notaryX500Name));
+                getServiceHub().cordaService(TopologyService.class).getNotary();
 
         /* Create the cash issuance transaction. */
         SignedTransaction cashIssueTransaction = subFlow(new CashIssueFlow(amount, issueRef, notary)).getStx();
@@ -0,0 +1,222 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import kotlin.Pair;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+import net.corda.finance.contracts.asset.PartyAndAmount;
+import net.corda.finance.workflows.asset.CashUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static it.nextworks.corda.flows.SettleDeveloperPayoutsFlowUtils.*;
+
+public class SettleDeveloperPayoutsFlow {
+
+    private final static Logger logger = LoggerFactory.getLogger(SettleDeveloperPayoutsFlow.class);
+
+    @InitiatingFlow
+    @StartableByRPC
+    @StartableByService
+    public static class RepositoryNodeInitiation extends FlowLogic<List<SecureHash>> {
+
+        private final long threshold;
+
+        private final Step LOADING_PAYOUTS = new Step(SettleDeveloperPayoutsFlowUtils.LOADING_PAYOUTS);
+        private final Step SETTLING_PAYOUT = new Step(SettleDeveloperPayoutsFlowUtils.SETTLING_PAYOUT);
+
+        /**
+         * The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
+         * checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
+         * function.
+         */
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                LOADING_PAYOUTS,
+                SETTLING_PAYOUT
+        );
+
+        /**
+         * Constructor of the Initiating flow class, every developer owed at least
+         * the specified amount is paid with a single cash transaction
+         * @param threshold minimum amount to settle, in the minor unit of the currency
+         */
+        public RepositoryNodeInitiation(long threshold) {
+            if(threshold < 0)
+                throw new IllegalArgumentException(negativeThreshold);
+
+            this.threshold = threshold;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public List<SecureHash> call() throws FlowException {
+
+            /* Retrieving a reference to notary using the serviceHub [Production Method] */
+            final Party notary = getServiceHub()
+                    .cordaService(TopologyService.class)
+                    .getNotary();
+            final PayoutLedgerService payoutLedger = getServiceHub().cordaService(PayoutLedgerService.class);
+
+            /* Set the current step to LOADING_PAYOUTS and proceed to net the earnings of the first developer */
+            progressTracker.setCurrentStep(LOADING_PAYOUTS);
+
+            /*
+             * The payouts are loaded one at a time, so that the checkpoint taken while a payout is
+             * finalised holds only the payout being settled and the ids of the settlements
+             */
+            final List<SecureHash> settlements = new ArrayList<>();
+            PayoutLedgerService.PendingPayout payout = payoutLedger.getNextPendingPayout(threshold, null);
+            while(payout != null) {
+                /* Set the current step to SETTLING_PAYOUT and settle the payout with a sub-flow */
+                progressTracker.setCurrentStep(SETTLING_PAYOUT);
+
+                final SecureHash txId = subFlow(new SettlePayout(payout, notary));
+                if(txId != null)
+                    settlements.add(txId);
+
+                payout = payoutLedger.getNextPendingPayout(threshold, payout);
+            }
+
+            return settlements;
+        }
+    }
+
+    /**
+     * Pay the earnings of a single developer with a netted cash transaction; run as sub-flow of
+     * RepositoryNodeInitiation, which the developer node responds to
+     */
+    public static class SettlePayout extends FlowLogic<SecureHash> {
+
+        private final PayoutLedgerService.PendingPayout payout;
+        private final Party notary;
+
+        private final Step GENERATING_TRANSACTION = new Step(SettleDeveloperPayoutsFlowUtils.GENERATING_TRANSACTION);
+        private final Step SIGNING_TRANSACTION    = new Step(SettleDeveloperPayoutsFlowUtils.SIGNING_TRANSACTION);
+        private final Step FINALISING_TRANSACTION = new Step(SettleDeveloperPayoutsFlowUtils.FINALISING_TRANSACTION);
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                FINALISING_TRANSACTION
+        );
+
+        /**
+         * Constructor of the sub-flow class
+         * @param payout payout to settle, as returned by PayoutLedgerService.getNextPendingPayout
+         * @param notary notary of the settlement transaction
+         */
+        public SettlePayout(PayoutLedgerService.PendingPayout payout, Party notary) {
+            this.payout = payout;
+            this.notary = notary;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        /** @return the id of the settlement transaction, null if the payout has not been settled */
+        @Suspendable
+        @Override
+        public SecureHash call() throws FlowException {
+            final PayoutLedgerService payoutLedger = getServiceHub().cordaService(PayoutLedgerService.class);
+            final CashInventoryService cashInventory = getServiceHub().cordaService(CashInventoryService.class);
+
+            final Party developer = getServiceHub().getIdentityService()
+                    .wellKnownPartyFromX500Name(payout.getDeveloper());
+            if(developer == null) {
+                logger.error(unknownDeveloper + payout.getDeveloper());
+                return null;
+            }
+
+            /* Set the current step to GENERATING_TRANSACTION and proceed to build the latter */
+            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+
+            TransactionBuilder txBuilder = new TransactionBuilder(notary);
+            Pair<TransactionBuilder, List<PublicKey>> txKeysPair = cashInventory.spendCoin(txBuilder,
+                    Collections.singletonList(new PartyAndAmount<>(developer, payout.getAmount())),
+                    getRunId().getUuid());
+            if(txKeysPair == null) {
+                /* The cash received with the purchases may be held by the other notaries of the pool */
+                subFlow(new CashInventoryFlow.MoveToNotary(payout.getAmount(), notary));
+                txKeysPair = CashUtils.generateSpend(getServiceHub(), txBuilder, payout.getAmount(),
+                        getOurIdentityAndCert(), developer);
+            }
+            final TransactionBuilder tx = txKeysPair.getFirst();
+
+            /* Set the current step to SIGNING_TRANSACTION and proceed to sign the latter */
+            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+
+            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(tx, txKeysPair.getSecond());
+
+            /*
+             * Claim the earnings with the id of the transaction, a concurrent settlement that claimed
+             * part of them first, or an earning accrued at the cutoff after the payout has been netted,
+             * changes the amount claimed and the payout is left to the next settlement
+             */
+            final SecureHash txId = signedTx.getId();
+            if(payoutLedger.claim(payout, txId) != payout.getAmount().getQuantity()) {
+                logger.error(alreadySettled + payout.getDeveloper());
+                payoutLedger.release(txId);
+                return null;
+            }
+
+            /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+            ImmutableList<FlowSession> sessionForFinality;
+            if(getServiceHub().getMyInfo().isLegalIdentity(developer))
+                sessionForFinality = ImmutableList.of();
+            else
+                sessionForFinality = ImmutableList.of(initiateFlow(developer));
+
+            try {
+                return subFlow(new NotarisedFinalityFlow(signedTx, sessionForFinality)).getId();
+            } catch(FlowException fe) {
+                /* Keep the claim if the payout has been notarised and recorded anyway */
+                if(getServiceHub().getValidatedTransactions().getTransaction(txId) != null)
+                    return txId;
+
+                logger.error(settlementFailed + payout.getDeveloper() + " " + fe.getMessage());
+                payoutLedger.release(txId);
+                return null;
+            }
+        }
+    }
+
+    @InitiatedBy(RepositoryNodeInitiation.class)
+    public static class DeveloperNodeAcceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession repositoryNodeSession;
+
+        /**
+         * Constructor of the flow initiated by the RepositoryNodeInitiation class
+         * @param repositoryNodeSession session with the repositoryNode that is paying the developer
+         */
+        public DeveloperNodeAcceptor(FlowSession repositoryNodeSession) {
+            this.repositoryNodeSession = repositoryNodeSession;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            return subFlow(new ReceiveFinalityFlow(repositoryNodeSession));
+        }
+    }
+}
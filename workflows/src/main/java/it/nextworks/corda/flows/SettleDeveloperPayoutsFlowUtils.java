@@ -0,0 +1,23 @@
+package it.nextworks.corda.flows;
+
+public class SettleDeveloperPayoutsFlowUtils {
+    public static final String negativeThreshold       = "The <threshold> parameter cannot be negative.";
+    public static final String unknownDeveloper        = "Cannot resolve the developer of the payout: ";
+    public static final String settlementFailed        = "Settlement of the payout failed, it will be retried: ";
+    public static final String alreadySettled          = "The payout has been claimed by another settlement: ";
+
+    public static final String LOADING_PAYOUTS         = "Loading the payouts owed to the developers.";
+    public static final String SETTLING_PAYOUT         = "Settling the payout of a developer.";
+    public static final String GENERATING_TRANSACTION  = "Generating the netted payout transaction of a developer.";
+    public static final String SIGNING_TRANSACTION     = "Signing transaction with our private key.";
+    public static final String FINALISING_TRANSACTION  = "Obtaining Notary signature and recording transaction.";
+
+    public static final String cordAppContractsPkg     = "it.nextworks.corda.contracts";
+    public static final String cordAppFlowsPkg         = "it.nextworks.corda.flows";
+    public static final String cordAppFinance          = "net.corda.finance.contracts";
+
+    public static final String notaryX500Name          = TopologyServiceUtils.defaultNotaryName;
+    public static final String devX500Name             = "O=DevTest,L=Pisa,C=IT";
+    public static final String buyerX500Name           = "O=BuyerTest,L=Pistoia,C=IT";
+    public static final String repositoryX500Name      = TopologyServiceUtils.defaultRepositoryName;
+}
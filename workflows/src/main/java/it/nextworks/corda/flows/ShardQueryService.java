@@ -0,0 +1,144 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StateMachineRunId;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static it.nextworks.corda.flows.CheckLicenseFlowUtils.LicenseLookup;
+import static it.nextworks.corda.flows.GetShardedPkgsFlowUtils.*;
+
+/**
+ * Queries the repository nodes on behalf of GetShardedPkgsFlow and CheckLicenseFlow. Every repository
+ * node is queried by a flow of its own, so that a repository node that never answers holds back
+ * neither the others nor the caller: the future returned completes with the replies received as soon
+ * as all the repository nodes have answered or the timeout has passed.
+ * A flow still running after the timeout is orphaned, as its checkpoint waits for the repository node:
+ * while a repository node has an orphaned flow it is reported as timed out without starting a new flow,
+ * so that a hung repository node holds at most one flow of this node.
+ */
+@CordaService
+public class ShardQueryService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+    /* The flow still running after the timeout, by name of the repository node it waits for */
+    private final ConcurrentHashMap<CordaX500Name, StateMachineRunId> orphans = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, ShardQueryService.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final static Logger logger = LoggerFactory.getLogger(ShardQueryService.class);
+
+    public ShardQueryService(AppServiceHub serviceHub) { this.serviceHub = serviceHub; }
+
+    /**
+     * Query the packages of the specified repository nodes at once
+     * @param shards        the repository nodes to query
+     * @param shardQuery    the criteria to be performed and the deadline
+     * @param timeoutMillis time the repository nodes are given to answer, in milliseconds
+     * @return future of the replies received before the timeout, by name of the repository node
+     */
+    public CompletableFuture<Map<CordaX500Name, ShardReply>> queryShards(List<Party> shards, ShardQuery shardQuery,
+                                                                        long timeoutMillis) {
+        return fanOut(shards, shard -> new GetShardedPkgsFlow.ShardQueryInitiation(shard, shardQuery), timeoutMillis);
+    }
+
+    /**
+     * Check the licenses on the specified repository nodes at once
+     * @param shards        the repository nodes to query
+     * @param lookups       the (buyer, pkgInfoId) pairs to check
+     * @param timeoutMillis time the repository nodes are given to answer, in milliseconds
+     * @return future of the outcomes received before the timeout, by name of the repository node
+     */
+    public CompletableFuture<Map<CordaX500Name, List<Boolean>>> checkLicenses(List<Party> shards,
+                                                                             List<LicenseLookup> lookups,
+                                                                             long timeoutMillis) {
+        return fanOut(shards, shard -> new CheckLicenseFlow.RemoteCheckInitiation(shard, lookups), timeoutMillis);
+    }
+
+    /** @return the number of repository nodes with a flow of this node still running after the timeout */
+    public int getOrphanedQueries() { return orphans.size(); }
+
+    private <R> CompletableFuture<Map<CordaX500Name, R>> fanOut(List<Party> shards,
+                                                               Function<Party, FlowLogic<R>> flowFactory,
+                                                               long timeoutMillis) {
+        final Map<CordaX500Name, R> replies = new ConcurrentHashMap<>();
+        final Map<CordaX500Name, FlowHandle<R>> started = new ConcurrentHashMap<>();
+        final CompletableFuture<Map<CordaX500Name, R>> result = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger(shards.size());
+        if(shards.isEmpty()) {
+            result.complete(new HashMap<>());
+            return result;
+        }
+
+        for(Party shard : shards) {
+            /* Do not pile up another flow on a repository node that did not answer the previous one */
+            if(orphans.containsKey(shard.getName())) {
+                logger.warn(shardQuerySkipped + shard.getName());
+                if(pending.decrementAndGet() == 0)
+                    result.complete(new HashMap<>(replies));
+                continue;
+            }
+
+            try {
+                final FlowHandle<R> handle = serviceHub.startFlow(flowFactory.apply(shard));
+                started.put(shard.getName(), handle);
+                handle.getReturnValue().then(future -> {
+                    orphans.remove(shard.getName(), handle.getId());
+                    try {
+                        replies.put(shard.getName(), future.get());
+                    } catch(Exception e) {
+                        logger.warn(shardQueryFailed + shard.getName() + " " + e.getMessage());
+                    }
+                    if(pending.decrementAndGet() == 0)
+                        result.complete(new HashMap<>(replies));
+                    return null;
+                });
+            } catch(Exception e) {
+                logger.warn(shardQueryFailed + shard.getName() + " " + e.getMessage());
+                if(pending.decrementAndGet() == 0)
+                    result.complete(new HashMap<>(replies));
+            }
+        }
+
+        /* The replies received so far, the ones arriving later are dropped and the flows still running orphaned */
+        final ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if(!result.isDone())
+                orphan(started);
+            result.complete(new HashMap<>(replies));
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        result.thenRun(() -> timeout.cancel(false));
+
+        return result;
+    }
+
+    private <R> void orphan(Map<CordaX500Name, FlowHandle<R>> started) {
+        for(Map.Entry<CordaX500Name, FlowHandle<R>> entry : started.entrySet()) {
+            final FlowHandle<R> handle = entry.getValue();
+            if(handle.getReturnValue().isDone())
+                continue;
+
+            orphans.putIfAbsent(entry.getKey(), handle.getId());
+            /* The flow may have ended meanwhile, its callback could have run before the put */
+            if(handle.getReturnValue().isDone())
+                orphans.remove(entry.getKey(), handle.getId());
+            else
+                logger.warn(shardQueryOrphaned + entry.getKey() + " " + orphans.size());
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package it.nextworks.corda.flows;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static it.nextworks.corda.flows.TopologyServiceUtils.*;
+
+/**
+ * Node service that knows the parties every flow of the CorDapp talks to: the notaries and the
+ * repository nodes. Their names are read once from the CorDapp configuration, falling back to the
+ * default topology, and the parties are resolved on first use and cached; the cache is dropped
+ * whenever the network map changes, so a node that re-registers is resolved again.
+ *
+ * The packages are sharded among the repository nodes: each node owns the arcs of a consistent-hash
+ * ring ending at its virtual nodes, and a new package is listed by the owner of the arc its linearId
+ * hashes to. Adding a repository node moves to it only the packages registered from then on, the
+ * ones already listed stay with the repository node stated by their PkgOfferState.
+ *
+ * The optional replicas are observer nodes holding a read-only copy of the marketplace: every repository
+ * node forwards to them its offer transactions, so they can answer the queries of the buyers.
+ */
+@CordaService
+public class TopologyService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+    private final List<CordaX500Name> notaryNames;
+    private final List<CordaX500Name> repositoryNames;
+    private final List<CordaX500Name> replicaNames;
+    private final TreeMap<Long, CordaX500Name> ring = new TreeMap<>();
+
+    private final ConcurrentHashMap<CordaX500Name, Party> notaries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<CordaX500Name, Party> repositoryNodes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<CordaX500Name, Party> replicas = new ConcurrentHashMap<>();
+
+    private final static Logger logger = LoggerFactory.getLogger(TopologyService.class);
+
+    public TopologyService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.notaryNames     = config.exists(notariesConfigKey)
+                ? parseNames(config.getString(notariesConfigKey), emptyNotaries)
+                : Collections.singletonList(CordaX500Name.parse(config.exists(notaryConfigKey)
+                        ? config.getString(notaryConfigKey) : defaultNotaryName));
+        this.repositoryNames = config.exists(repositoriesConfigKey)
+                ? parseNames(config.getString(repositoriesConfigKey), emptyRepositories)
+                : Collections.singletonList(CordaX500Name.parse(config.exists(repositoryConfigKey)
+                        ? config.getString(repositoryConfigKey) : defaultRepositoryName));
+        this.replicaNames    = config.exists(replicasConfigKey) && !config.getString(replicasConfigKey).trim().isEmpty()
+                ? parseNames(config.getString(replicasConfigKey), emptyReplicas)
+                : Collections.emptyList();
+        final int virtualNodes = Math.max(1, config.exists(virtualNodesConfigKey)
+                ? config.getInt(virtualNodesConfigKey) : defaultVirtualNodes);
+        for(CordaX500Name repositoryName : repositoryNames) {
+            for(int i = 0; i < virtualNodes; i++)
+                ring.put(hash(repositoryName + virtualNodeSeparator + i), repositoryName);
+        }
+        logger.info(topologyLoaded + notaryNames + topologyRepository + repositoryNames + topologyReplicas + replicaNames);
+
+        serviceHub.getNetworkMapCache().getChanged().subscribe(change -> {
+            if(!notaries.isEmpty() || !repositoryNodes.isEmpty() || !replicas.isEmpty())
+                logger.debug(topologyInvalidated);
+            notaries.clear();
+            repositoryNodes.clear();
+            replicas.clear();
+        });
+    }
+
+    private static List<CordaX500Name> parseNames(String names, String emptyErr) {
+        final List<CordaX500Name> lst = new ArrayList<>();
+        for(String name : names.split(repositoriesSeparator)) {
+            if(name.trim().isEmpty())
+                continue;
+            final CordaX500Name parsed = CordaX500Name.parse(name.trim());
+            if(!lst.contains(parsed))
+                lst.add(parsed);
+        }
+        if(lst.isEmpty())
+            throw new IllegalArgumentException(emptyErr);
+
+        return Collections.unmodifiableList(lst);
+    }
+
+    /* Position on the ring: the first 8 bytes of the SHA-256 of the key */
+    private static long hash(String key) {
+        return ByteBuffer.wrap(SecureHash.sha256(key).getBytes()).getLong();
+    }
+
+    /**
+     * @return the primary notary, the first one of the pool, used by the transactions that do not involve
+     *         a package; null if it is not in the network map
+     */
+    public Party getNotary() {
+        return getNotary(notaryNames.get(0));
+    }
+
+    /**
+     * Retrieve the notary of the pool with the specified name
+     * @param notaryName the name of the notary
+     * @return the notary, null if it is not in the network map
+     */
+    public Party getNotary(CordaX500Name notaryName) {
+        Party party = notaries.get(notaryName);
+        if(party == null) {
+            party = serviceHub.getNetworkMapCache().getNotary(notaryName);
+            if(party != null)
+                notaries.put(notaryName, party);
+        }
+        return party;
+    }
+
+    /** @return the notaries of the pool that are in the network map, in the configured order */
+    public List<Party> getNotaries() {
+        final List<Party> parties = new ArrayList<>(notaryNames.size());
+        for(CordaX500Name notaryName : notaryNames) {
+            final Party party = getNotary(notaryName);
+            if(party != null)
+                parties.add(party);
+        }
+        return parties;
+    }
+
+    /**
+     * Check if the specified party is one of the notaries of the pool
+     * @param party the party to check
+     * @return true if the party is a notary of the pool
+     */
+    public boolean isPoolNotary(Party party) {
+        return party != null && notaryNames.contains(party.getName());
+    }
+
+    /** @return the primary repository node, the first one configured, null if it is not in the network map */
+    public Party getRepositoryNode() {
+        return getRepositoryNode(repositoryNames.get(0));
+    }
+
+    /**
+     * Retrieve the repository node that lists the package with the specified linearId when it is registered
+     * @param pkgId the linearId of the package
+     * @return the repository node owning the package on the ring, null if it is not in the network map
+     */
+    public Party getRepositoryNodeFor(UniqueIdentifier pkgId) {
+        return getRepositoryNode(getShardName(pkgId));
+    }
+
+    /**
+     * Retrieve the name of the repository node owning the arc of the ring the linearId hashes to
+     * @param pkgId the linearId of the package
+     * @return the name of the repository node
+     */
+    public CordaX500Name getShardName(UniqueIdentifier pkgId) {
+        final Map.Entry<Long, CordaX500Name> entry = ring.ceilingEntry(hash(pkgId.getId().toString()));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Retrieve the name of the repository node owning the arc the linearId hashes to, among the specified
+     * repository nodes only: the ring is walked clockwise past the arcs of the others
+     * @param pkgId    the linearId of the package
+     * @param eligible the names of the repository nodes the package can be placed on
+     * @return the name of the repository node, null if none of them is on the ring
+     */
+    public CordaX500Name getShardName(UniqueIdentifier pkgId, Collection<CordaX500Name> eligible) {
+        final long position = hash(pkgId.getId().toString());
+        for(CordaX500Name repositoryName : ring.tailMap(position, true).values()) {
+            if(eligible.contains(repositoryName))
+                return repositoryName;
+        }
+        for(CordaX500Name repositoryName : ring.headMap(position, false).values()) {
+            if(eligible.contains(repositoryName))
+                return repositoryName;
+        }
+        return null;
+    }
+
+    /**
+     * Generate a linearId that hashes to the arc of the specified repository node, so that the packages
+     * registered together by a single transaction are all listed where the ring places them
+     * @param repositoryName the name of the repository node
+     * @return a new linearId placed on the repository node
+     */
+    public UniqueIdentifier newPkgId(CordaX500Name repositoryName) {
+        if(!repositoryNames.contains(repositoryName))
+            throw new IllegalArgumentException(unknownRepository + repositoryName);
+
+        UniqueIdentifier pkgId;
+        do {
+            pkgId = new UniqueIdentifier();
+        } while(!getShardName(pkgId).equals(repositoryName));
+
+        return pkgId;
+    }
+
+    /** @return the repository nodes that are in the network map, in the configured order */
+    public List<Party> getRepositoryNodes() {
+        final List<Party> parties = new ArrayList<>(repositoryNames.size());
+        for(CordaX500Name repositoryName : repositoryNames) {
+            final Party party = getRepositoryNode(repositoryName);
+            if(party != null)
+                parties.add(party);
+        }
+        return parties;
+    }
+
+    /**
+     * Check if the specified party is one of the configured repository nodes
+     * @param party the party to check
+     * @return true if the party is a repository node
+     */
+    public boolean isRepositoryNode(Party party) {
+        return party != null && repositoryNames.contains(party.getName());
+    }
+
+    /**
+     * Retrieve the repository node with the specified name
+     * @param repositoryName the name of the repository node
+     * @return the repository node, null if it is not in the network map
+     */
+    public Party getRepositoryNode(CordaX500Name repositoryName) {
+        Party party = repositoryNodes.get(repositoryName);
+        if(party == null) {
+            party = serviceHub.getNetworkMapCache().getPeerByLegalName(repositoryName);
+            if(party != null)
+                repositoryNodes.put(repositoryName, party);
+        }
+        return party;
+    }
+
+    /** @return the replicas that are in the network map, in the configured order, empty if none is configured */
+    public List<Party> getReplicas() {
+        final List<Party> parties = new ArrayList<>(replicaNames.size());
+        for(CordaX500Name replicaName : replicaNames) {
+            Party party = replicas.get(replicaName);
+            if(party == null) {
+                party = serviceHub.getNetworkMapCache().getPeerByLegalName(replicaName);
+                if(party != null)
+                    replicas.put(replicaName, party);
+            }
+            if(party != null)
+                parties.add(party);
+        }
+        return parties;
+    }
+
+    /**
+     * Check if the specified party is one of the configured replicas
+     * @param party the party to check
+     * @return true if the party is a replica
+     */
+    public boolean isReplica(Party party) {
+        return party != null && replicaNames.contains(party.getName());
+    }
+
+    public CordaX500Name getNotaryName() { return notaryNames.get(0); }
+
+    public List<CordaX500Name> getNotaryNames() { return notaryNames; }
+
+    public CordaX500Name getRepositoryName() { return repositoryNames.get(0); }
+
+    public List<CordaX500Name> getRepositoryNames() { return repositoryNames; }
+
+    public List<CordaX500Name> getReplicaNames() { return replicaNames; }
+}
@@ -0,0 +1,30 @@
+package it.nextworks.corda.flows;
+
+public class TopologyServiceUtils {
+    /** Keys of the CorDapp configuration used to override the default topology */
+    public static final String notaryConfigKey        = "notary";
+    public static final String repositoryConfigKey    = "repository";
+    public static final String notariesConfigKey      = "notaries";
+    public static final String repositoriesConfigKey  = "repositories";
+    public static final String virtualNodesConfigKey  = "repositoryVirtualNodes";
+    public static final String replicasConfigKey      = "replicas";
+
+    public static final String defaultNotaryName      = "O=Notary,L=Pisa,C=IT";
+    public static final String defaultRepositoryName  = "O=RepositoryNode,L=Pisa,C=IT";
+    /** Points of the consistent-hash ring owned by each repository node */
+    public static final int defaultVirtualNodes       = 128;
+
+    /** The X500 names contain commas, the notaries, the repository nodes and the replicas are separated by semicolons */
+    public static final String repositoriesSeparator  = ";";
+    public static final String virtualNodeSeparator   = "#";
+
+    public static final String emptyNotaries          = "At least one notary must be configured.";
+    public static final String emptyRepositories      = "At least one repository node must be configured.";
+    public static final String emptyReplicas          = "The replicas must be separated by semicolons.";
+    public static final String unknownRepository      = "Not a configured repository node: ";
+
+    public static final String topologyLoaded         = "Network topology loaded, notaries: ";
+    public static final String topologyRepository     = ", repository nodes: ";
+    public static final String topologyReplicas       = ", replicas: ";
+    public static final String topologyInvalidated    = "Network map changed, the cached topology will be resolved again.";
+}
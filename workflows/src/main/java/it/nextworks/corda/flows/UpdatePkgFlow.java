@@ -11,18 +11,13 @@ import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
-import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
-
 import static it.nextworks.corda.flows.UpdatePkgFlowUtils.*;
 
 public class UpdatePkgFlow {
@@ -116,32 +111,26 @@ public class UpdatePkgFlow {
         @Override
         public SignedTransaction call() throws FlowException {
 
-            /* Retrieving a reference to notary using the serviceHub [Production Method] */
-            final Party notary = getServiceHub()
-                    .getNetworkMapCache()
-                    .getNotary(CordaX500Name.parse(notaryX500Name));
             /*
              * Retrieving our identity and the Repository Node identity that will be used as <author>
              * and <repositoryNode> parameters in the transaction
              */
             final Party author = getOurIdentity();
-            final Party repositoryNode = getServiceHub()
-                    .getNetworkMapCache()
-                    .getPeerByLegalName(CordaX500Name.parse(repositoryX500Name));
 
             /* Set the current step to RETRIEVING_PKG_FROM_LID and proceed to query the vault */
             progressTracker.setCurrentStep(RETRIEVING_PKG_FROM_LID);
 
-            /* Query for unconsumed linear state for given linear ID */
-            QueryCriteria.LinearStateQueryCriteria queryCriteria =
-                    new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(linearId.getId()),
-                            null, Vault.StateStatus.UNCONSUMED);
-            final List<StateAndRef<PkgOfferState>> lst = getServiceHub().getVaultService()
-                    .queryBy(PkgOfferState.class, queryCriteria).getStates();
-            if(lst.size() == 0)
+            /* Look up the unconsumed state for the given linear ID in the package index */
+            final StateAndRef<PkgOfferState> pkg =
+                    getServiceHub().cordaService(PkgOfferIndexService.class).getPkg(linearId);
+            if(pkg == null)
                 throw new NonExistentPkgException(linearId);
 
-            final PkgOfferState oldPkgOfferState = lst.get(0).getState().getData();
+            final PkgOfferState oldPkgOfferState = pkg.getState().getData();
+            /* The package stays with the repository node that lists it */
+            final Party repositoryNode = oldPkgOfferState.getRepositoryNode();
+            /* and with the notary it was assigned to when it was registered */
+            final Party notary = pkg.getState().getNotary();
 
             /* Set the current step to GENERATING_TRANSACTION and proceed to build the latter */
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
@@ -152,7 +141,7 @@ public class UpdatePkgFlow {
                     new PkgOfferContract.Commands.UpdatePkg(), ImmutableList.of(author.getOwningKey(),
                     repositoryNode.getOwningKey()));
             final TransactionBuilder txBuilder = new TransactionBuilder(notary)
-                    .addInputState(lst.get(0))
+                    .addInputState(pkg)
                     .addOutputState(newPkgOfferState, PkgOfferContract.ID)
                     .addCommand(txCommand);
 
@@ -176,7 +165,7 @@ public class UpdatePkgFlow {
             /* Set the current step to FINALISING_TRANSACTION and starts a finalising sub-flow */
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
 
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
+            return subFlow(new NotarisedFinalityFlow(fullySignedTx, ImmutableList.of(repositoryNodeSession)));
         }
     }
 
@@ -210,14 +199,9 @@ public class UpdatePkgFlow {
                         throw new IllegalArgumentException(notPkgStateErr);
                     PkgOfferState newPkgOfferState = (PkgOfferState)output;
 
-                    /* Query for unconsumed linear state for the linear ID specified in the updated state */
+                    /* Look up the unconsumed state for the linear ID specified in the updated state */
                     UniqueIdentifier linearId = newPkgOfferState.getLinearId();
-                    QueryCriteria.LinearStateQueryCriteria queryCriteria =
-                            new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(linearId.getId()),
-                                    null, Vault.StateStatus.UNCONSUMED);
-                    final List<StateAndRef<PkgOfferState>> lst = getServiceHub().getVaultService()
-                            .queryBy(PkgOfferState.class, queryCriteria).getStates();
-                    if(lst.size() == 0)
+                    if(getServiceHub().cordaService(PkgOfferIndexService.class).getPkg(linearId) == null)
                         throw new NonExistentPkgException(linearId);
                 }
             }
@@ -13,9 +13,9 @@ public class UpdatePkgFlowUtils {
     public static final String nonExistentPkg          = "Cannot find package: ";
     public static final String notPkgStateErr          = "This must be a package update transaction.";
 
-    public static final String notaryX500Name          = "O=Notary,L=Pisa,C=IT";
+    public static final String notaryX500Name          = TopologyServiceUtils.defaultNotaryName;
     public static final String devX500Name             = "O=DevTest,L=Pisa,C=IT";
-    public static final String repositoryX500Name      = "O=RepositoryNode,L=Pisa,C=IT";
+    public static final String repositoryX500Name      = TopologyServiceUtils.defaultRepositoryName;
 
     public static final String cordAppContractsPkg     = "it.nextworks.corda.contracts";
     public static final String cordAppFlowsPkg         = "it.nextworks.corda.flows";
@@ -0,0 +1,146 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static it.nextworks.corda.flows.BatchDeletePkgFlowUtils.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchDeletePkgFlowTest {
+
+    private static final int batchSize = 5;
+    private static final int chunkSize = 2;
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode repositoryNodeTest;
+
+    /** Build a mock network composed by a developer Node, the repository Node and a Notary */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    /** Function used to register the packages that will be deleted, returns their linear IDs */
+    private List<UniqueIdentifier> generatePkgOfferStates(int n) throws Exception {
+        CordaFuture<SignedTransaction> feeFuture =
+                devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+        mockNetwork.runNetwork();
+        feeFuture.get();
+
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength,
+                PkgOfferUtils.testRecChargePeriodType, PkgOfferUtils.testVersion, PkgOfferUtils.testPrice,
+                PkgOfferUtils.testQuantity, PkgOfferUtils.testValidFor);
+        List<BatchRegisterPkgFlowUtils.PkgRegistration> registrations = new ArrayList<>();
+        for(int i = 0; i < n; i++)
+            registrations.add(new BatchRegisterPkgFlowUtils.PkgRegistration(PkgOfferUtils.testName + i,
+                    PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId,
+                    PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice));
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new BatchRegisterPkgFlow.DevInitiation(registrations));
+        mockNetwork.runNetwork();
+
+        List<UniqueIdentifier> linearIds = new ArrayList<>();
+        future.get().getTx().outputsOfType(PkgOfferState.class)
+                .forEach(pkgOfferState -> linearIds.add(pkgOfferState.getLinearId()));
+        return linearIds;
+    }
+
+    @Test
+    public void flowDeletesEachChunkInItsOwnTransaction() throws Exception {
+        List<UniqueIdentifier> linearIds = generatePkgOfferStates(batchSize);
+        CordaFuture<List<SignedTransaction>> future =
+                devNodeTest.startFlow(new BatchDeletePkgFlow.DevInitiation(linearIds, chunkSize));
+
+        mockNetwork.runNetwork();
+
+        List<SignedTransaction> signedTxs = future.get();
+        assertEquals((batchSize + chunkSize - 1) / chunkSize, signedTxs.size());
+        int deleted = 0;
+        for(SignedTransaction signedTx : signedTxs) {
+            signedTx.verifyRequiredSignatures();
+            assert (signedTx.getTx().getOutputs().isEmpty());
+            deleted += signedTx.getInputs().size();
+        }
+        assertEquals(batchSize, deleted);
+    }
+
+    @Test
+    public void flowConsumesAllThePkgsInBothPartiesVaults() throws Exception {
+        List<UniqueIdentifier> linearIds = generatePkgOfferStates(batchSize);
+        CordaFuture<List<SignedTransaction>> future =
+                devNodeTest.startFlow(new BatchDeletePkgFlow.DevInitiation(linearIds));
+
+        mockNetwork.runNetwork();
+
+        assertEquals(1, future.get().size());
+        for(StartedMockNode node : ImmutableList.of(devNodeTest, repositoryNodeTest)) {
+            node.transaction(() -> {
+                assert (node.getServices().getVaultService().queryBy(PkgOfferState.class).getStates().isEmpty());
+
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void batchMustNotBeEmpty() {
+        CordaFuture<List<SignedTransaction>> future =
+                devNodeTest.startFlow(new BatchDeletePkgFlow.DevInitiation(new ArrayList<>()));
+
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().contains(emptyBatchErr);
+        }
+    }
+
+    @Test
+    public void pkgsMustExist() throws Exception {
+        List<UniqueIdentifier> linearIds = generatePkgOfferStates(1);
+        UniqueIdentifier nonExistentId = new UniqueIdentifier();
+        linearIds.add(nonExistentId);
+        CordaFuture<List<SignedTransaction>> future =
+                devNodeTest.startFlow(new BatchDeletePkgFlow.DevInitiation(linearIds));
+
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().contains(DeletePkgFlowUtils.nonExistentPkg + nonExistentId);
+        }
+    }
+}
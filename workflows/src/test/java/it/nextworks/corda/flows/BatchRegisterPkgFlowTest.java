@@ -0,0 +1,185 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static it.nextworks.corda.flows.BatchRegisterPkgFlowUtils.*;
+import static it.nextworks.corda.flows.RegisterPkgFlowUtils.devX500Name;
+import static it.nextworks.corda.flows.RegisterPkgFlowUtils.notaryX500Name;
+import static it.nextworks.corda.flows.RegisterPkgFlowUtils.repositoryX500Name;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchRegisterPkgFlowTest {
+
+    private static final int batchSize = 5;
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode repositoryNodeTest;
+
+    /** Build a mock network composed by a developer Node, the repository Node and a Notary */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    /** Function used to generate a transaction that will output a FeeAgreementState */
+    private void generateFeeAgreementState() throws Exception {
+        EstablishFeeAgreementFlow.DevInitiation flow = new EstablishFeeAgreementFlow.DevInitiation(15);
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        future.get();
+    }
+
+    private List<PkgRegistration> createRegistrations(int n) {
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink, PkgOfferUtils.testDescription,
+                PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate, PkgOfferUtils.testLifecycleStatus,
+                PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage, PkgOfferUtils.testPriceType,
+                PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+        List<PkgRegistration> registrations = new ArrayList<>();
+        for(int i = 0; i < n; i++)
+            registrations.add(new PkgRegistration(PkgOfferUtils.testName + i, PkgOfferUtils.testDescription,
+                    PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId, PkgOfferUtils.testLink,
+                    PkgOfferUtils.testPkgType, poPrice));
+
+        return registrations;
+    }
+
+    @Test
+    public void signedTransactionReturnedByTheFlowIsSignedByBothParties() throws Exception {
+        generateFeeAgreementState();
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new BatchRegisterPkgFlow.DevInitiation(createRegistrations(batchSize)));
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        signedTx.verifyRequiredSignatures();
+    }
+
+    @Test
+    public void recordedTransactionHasNoInputsAndAnOutputForEachPkg() throws Exception {
+        generateFeeAgreementState();
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new BatchRegisterPkgFlow.DevInitiation(createRegistrations(batchSize)));
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        for(StartedMockNode node : ImmutableList.of(devNodeTest, repositoryNodeTest)) {
+            SignedTransaction recordedTx = node.getServices().getValidatedTransactions()
+                    .getTransaction(signedTx.getId());
+            assert (recordedTx.getInputs().size() == 0);
+            List<PkgOfferState> outputs = recordedTx.getTx().outputsOfType(PkgOfferState.class);
+            assertEquals(batchSize, outputs.size());
+
+            Set<UniqueIdentifier> linearIds = outputs.stream().map(PkgOfferState::getLinearId)
+                    .collect(Collectors.toSet());
+            assertEquals(batchSize, linearIds.size());
+        }
+    }
+
+    @Test
+    public void flowRecordsAllThePkgsInBothPartiesVaults() throws Exception {
+        generateFeeAgreementState();
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new BatchRegisterPkgFlow.DevInitiation(createRegistrations(batchSize)));
+
+        mockNetwork.runNetwork();
+
+        future.get();
+        for(StartedMockNode node : ImmutableList.of(devNodeTest, repositoryNodeTest)) {
+            node.transaction(() -> {
+                List<StateAndRef<PkgOfferState>> pkgs = node.getServices().getVaultService()
+                        .queryBy(PkgOfferState.class).getStates();
+                assertEquals(batchSize, pkgs.size());
+                for(StateAndRef<PkgOfferState> pkg : pkgs) {
+                    PkgOfferState recordedState = pkg.getState().getData();
+                    assertEquals(recordedState.getAuthor(), devNodeTest.getInfo().getLegalIdentities().get(0));
+                    assertEquals(recordedState.getRepositoryNode(),
+                            repositoryNodeTest.getInfo().getLegalIdentities().get(0));
+                }
+
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void batchMustNotBeEmpty() {
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new BatchRegisterPkgFlow.DevInitiation(new ArrayList<>()));
+
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().contains(emptyBatchErr);
+        }
+    }
+
+    @Test
+    public void batchMustNotExceedTheMaxSize() {
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new BatchRegisterPkgFlow.DevInitiation(createRegistrations(maxBatchSize + 1)));
+
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().contains(batchTooLargeErr);
+        }
+    }
+
+    @Test
+    public void feeAgreementMustBeEstablished() {
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new BatchRegisterPkgFlow.DevInitiation(createRegistrations(batchSize)));
+
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage()
+                    .equals("it.nextworks.corda.flows.RegisterPkgFlow$NotExistingAgreementException: "
+                            + RegisterPkgFlowUtils.notExistingAgreement);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static it.nextworks.corda.flows.BatchUpdatePkgFlowUtils.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchUpdatePkgFlowTest {
+
+    private static final int batchSize = 5;
+    private static final int chunkSize = 2;
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode repositoryNodeTest;
+
+    /** Build a mock network composed by a developer Node, the repository Node and a Notary */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    private ProductOfferingPrice createProductOfferingPrice() {
+        return new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink, PkgOfferUtils.testDescription,
+                PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate, PkgOfferUtils.testLifecycleStatus,
+                PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage, PkgOfferUtils.testPriceType,
+                PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+    }
+
+    /** Function used to register the packages that will be updated, returns their linear IDs */
+    private List<UniqueIdentifier> generatePkgOfferStates(int n) throws Exception {
+        CordaFuture<SignedTransaction> feeFuture =
+                devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+        mockNetwork.runNetwork();
+        feeFuture.get();
+
+        List<BatchRegisterPkgFlowUtils.PkgRegistration> registrations = new ArrayList<>();
+        for(int i = 0; i < n; i++)
+            registrations.add(new BatchRegisterPkgFlowUtils.PkgRegistration(PkgOfferUtils.testName + i,
+                    PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId,
+                    PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, createProductOfferingPrice()));
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new BatchRegisterPkgFlow.DevInitiation(registrations));
+        mockNetwork.runNetwork();
+
+        List<UniqueIdentifier> linearIds = new ArrayList<>();
+        future.get().getTx().outputsOfType(PkgOfferState.class)
+                .forEach(pkgOfferState -> linearIds.add(pkgOfferState.getLinearId()));
+        return linearIds;
+    }
+
+    private List<PkgUpdate> createUpdates(List<UniqueIdentifier> linearIds) {
+        List<PkgUpdate> updates = new ArrayList<>();
+        for(UniqueIdentifier linearId : linearIds)
+            updates.add(new PkgUpdate(linearId, PkgOfferUtils.testNameUpdate, PkgOfferUtils.testDescriptionUpdate,
+                    PkgOfferUtils.testVersionUpdate, PkgOfferUtils.testLinkUpdate, createProductOfferingPrice()));
+
+        return updates;
+    }
+
+    @Test
+    public void flowUpdatesEachChunkInItsOwnTransaction() throws Exception {
+        List<UniqueIdentifier> linearIds = generatePkgOfferStates(batchSize);
+        CordaFuture<List<SignedTransaction>> future = devNodeTest.startFlow(
+                new BatchUpdatePkgFlow.DevInitiation(createUpdates(linearIds), chunkSize));
+
+        mockNetwork.runNetwork();
+
+        List<SignedTransaction> signedTxs = future.get();
+        assertEquals((batchSize + chunkSize - 1) / chunkSize, signedTxs.size());
+        int updated = 0;
+        for(SignedTransaction signedTx : signedTxs) {
+            signedTx.verifyRequiredSignatures();
+            for(StartedMockNode node : ImmutableList.of(devNodeTest, repositoryNodeTest)) {
+                SignedTransaction recordedTx = node.getServices().getValidatedTransactions()
+                        .getTransaction(signedTx.getId());
+                assertEquals(recordedTx.getInputs().size(), recordedTx.getTx().getOutputs().size());
+            }
+            updated += signedTx.getTx().getOutputs().size();
+        }
+        assertEquals(batchSize, updated);
+    }
+
+    @Test
+    public void flowRecordsAllTheUpdatedPkgsInBothPartiesVaults() throws Exception {
+        List<UniqueIdentifier> linearIds = generatePkgOfferStates(batchSize);
+        CordaFuture<List<SignedTransaction>> future = devNodeTest.startFlow(
+                new BatchUpdatePkgFlow.DevInitiation(createUpdates(linearIds), chunkSize));
+
+        mockNetwork.runNetwork();
+
+        future.get();
+        for(StartedMockNode node : ImmutableList.of(devNodeTest, repositoryNodeTest)) {
+            node.transaction(() -> {
+                List<StateAndRef<PkgOfferState>> pkgs = node.getServices().getVaultService()
+                        .queryBy(PkgOfferState.class).getStates();
+                assertEquals(batchSize, pkgs.size());
+                for(StateAndRef<PkgOfferState> pkg : pkgs) {
+                    PkgOfferState recordedState = pkg.getState().getData();
+                    assert (linearIds.contains(recordedState.getLinearId()));
+                    assertEquals(PkgOfferUtils.testNameUpdate, recordedState.getName());
+                    assertEquals(PkgOfferUtils.testVersionUpdate, recordedState.getVersion());
+                }
+
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void batchMustNotBeEmpty() {
+        CordaFuture<List<SignedTransaction>> future =
+                devNodeTest.startFlow(new BatchUpdatePkgFlow.DevInitiation(new ArrayList<>()));
+
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().contains(emptyBatchErr);
+        }
+    }
+
+    @Test
+    public void pkgsMustExist() throws Exception {
+        List<UniqueIdentifier> linearIds = generatePkgOfferStates(1);
+        UniqueIdentifier nonExistentId = new UniqueIdentifier();
+        linearIds.add(nonExistentId);
+        CordaFuture<List<SignedTransaction>> future =
+                devNodeTest.startFlow(new BatchUpdatePkgFlow.DevInitiation(createUpdates(linearIds)));
+
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().contains(UpdatePkgFlowUtils.nonExistentPkg + nonExistentId);
+        }
+    }
+
+    @Test
+    public void pkgsMustBeUpdatedOnlyOnce() throws Exception {
+        List<UniqueIdentifier> linearIds = generatePkgOfferStates(1);
+        linearIds.add(linearIds.get(0));
+        CordaFuture<List<SignedTransaction>> future =
+                devNodeTest.startFlow(new BatchUpdatePkgFlow.DevInitiation(createUpdates(linearIds)));
+
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().contains(duplicatePkgErr);
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package it.nextworks.corda.flows;
 
 import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgLicenseContract;
 import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.schemas.PkgLicenseSchemaV2;
+import it.nextworks.corda.states.FeeAgreementState;
 import it.nextworks.corda.states.PkgLicenseState;
 import it.nextworks.corda.states.PkgOfferState;
 import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
@@ -9,8 +12,16 @@ import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.CryptoUtils;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.FieldInfo;
+import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.WireTransaction;
 import net.corda.finance.Currencies;
@@ -23,12 +34,12 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.Currency;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static it.nextworks.corda.flows.BuyPkgFlowUtils.*;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
 import static net.corda.finance.workflows.GetBalances.getCashBalance;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -65,14 +76,17 @@ public class BuyPkgFlowTest {
     @Rule
     public final ExpectedException exception = ExpectedException.none();
 
-    /** Function used to generate a transaction that will output a FeeAgreementState */
-    private void generateFeeAgreementState() throws Exception {
+    /**
+     * Function used to generate a transaction that will output a FeeAgreementState
+     * @return the fee established with the repository node
+     */
+    private int generateFeeAgreementState() throws Exception {
         EstablishFeeAgreementFlow.DevInitiation flow = new EstablishFeeAgreementFlow.DevInitiation(15);
         CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
 
         mockNetwork.runNetwork();
 
-        future.get();
+        return future.get().getTx().outputsOfType(FeeAgreementState.class).get(0).getFee();
     }
 
     /**
@@ -204,10 +218,11 @@ public class BuyPkgFlowTest {
             assert (cashOutputStateCount > 0);
             assert (pkgLicenseStateCount == 1);
 
+            assertEquals(tx.getReferences().size(), 1);
+
             final PkgLicenseState pkgLicenseState = tx.outputsOfType(PkgLicenseState.class).get(0);
-            final PkgOfferState savedPkgOfferState = pkgLicenseState.getPkgLicensed().getState().getData();
-            checkPkgOfferStateCorrectness(savedPkgOfferState, pkgId, pkgOfferState.getPoPrice());
-            assertEquals(pkgLicenseState.getBuyer(), buyerNodeTest.getInfo().getLegalIdentities().get(0));
+            assertEquals(pkgLicenseState.getPkgRef(), tx.getReferences().get(0));
+            checkPkgLicenseStateCorrectness(pkgLicenseState, pkgOfferState);
         }
     }
 
@@ -232,27 +247,22 @@ public class BuyPkgFlowTest {
                 assertEquals(pkgLicenseStates.size(), 1);
 
                 final PkgLicenseState pkgLicenseState = pkgLicenseStates.get(0).getState().getData();
-                final PkgOfferState savedPkgOfferState = pkgLicenseState.getPkgLicensed().getState().getData();
-                checkPkgOfferStateCorrectness(savedPkgOfferState, pkgId, pkgOfferState.getPoPrice());
-                assertEquals(pkgLicenseState.getBuyer(), buyerNodeTest.getInfo().getLegalIdentities().get(0));
+                checkPkgLicenseStateCorrectness(pkgLicenseState, pkgOfferState);
 
                 return null;
             });
         }
     }
 
-    private void checkPkgOfferStateCorrectness(@NotNull PkgOfferState recordedState, @NotNull UniqueIdentifier pkgId,
-                                               @NotNull ProductOfferingPrice poPrice) {
-        assertEquals(recordedState.getLinearId(), pkgId);
-        assertEquals(recordedState.getName(), PkgOfferUtils.testName);
-        assertEquals(recordedState.getDescription(), PkgOfferUtils.testDescription);
-        assertEquals(recordedState.getVersion(), PkgOfferUtils.testVersion);
+    private void checkPkgLicenseStateCorrectness(@NotNull PkgLicenseState recordedState,
+                                                 @NotNull PkgOfferState pkgOfferState) {
+        assertEquals(recordedState.getPkgId(), pkgOfferState.getLinearId());
         assertEquals(recordedState.getPkgInfoId(), PkgOfferUtils.testPkgInfoId);
-        assertEquals(recordedState.getImageLink(), PkgOfferUtils.testLink);
-        assertEquals(recordedState.getPoPrice(), poPrice);
         assertEquals(recordedState.getPkgType(), PkgOfferUtils.testPkgType);
+        assertEquals(recordedState.getPrice(), pkgOfferState.getPrice());
         assertEquals(recordedState.getAuthor(), devNodeTest.getInfo().getLegalIdentities().get(0));
         assertEquals(recordedState.getRepositoryNode(), repositoryNodeTest.getInfo().getLegalIdentities().get(0));
+        assertEquals(recordedState.getBuyer(), buyerNodeTest.getInfo().getLegalIdentities().get(0));
     }
 
     @Test
@@ -311,14 +321,11 @@ public class BuyPkgFlowTest {
 
     @Test
     public void authorMustReceiveTheRightAmountOfCash() throws Exception {
-        generateFeeAgreementState();
+        int fee = generateFeeAgreementState();
         PkgOfferState pkgOfferState = generatePkgOfferState();
         Amount<Currency> price = pkgOfferState.getPrice();
         issueCash(price);
 
-        Amount<Currency> cashBalance = getCashBalance(devNodeTest.getServices(), price.getToken());
-        System.out.println(cashBalance.toString());
-
         BuyPkgFlow.PkgBuyerInitiation flow =
                 new BuyPkgFlow.PkgBuyerInitiation(pkgOfferState.getLinearId(), price);
         CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(flow);
@@ -327,12 +334,166 @@ public class BuyPkgFlowTest {
 
         future.get();
 
-        cashBalance = getCashBalance(devNodeTest.getServices(), price.getToken());
-        Amount<Currency> toBeingIssued =
-                Amount.fromDecimal(price.toDecimal().divide(BigDecimal.valueOf(100), 4,
-                        RoundingMode.UNNECESSARY).multiply(BigDecimal.valueOf(90)).setScale(2,
-                        BigDecimal.ROUND_HALF_EVEN), price.getToken());
-        assertEquals(cashBalance, toBeingIssued);
-        System.out.println(cashBalance.toString());
+        /* The share of the author is accrued by the repositoryNode and paid by the next settlement */
+        assertEquals(getCashBalance(devNodeTest.getServices(), price.getToken()).getQuantity(), 0);
+
+        CordaFuture<List<SecureHash>> settlement =
+                repositoryNodeTest.startFlow(new SettleDeveloperPayoutsFlow.RepositoryNodeInitiation(1));
+
+        mockNetwork.runNetwork();
+
+        settlement.get();
+        assertEquals(getCashBalance(devNodeTest.getServices(), price.getToken()),
+                PkgLicenseContract.developerShare(price, fee));
+    }
+
+    @Test
+    public void authorIsPaidInThePurchaseTransactionWithSplitPayout() throws Exception {
+        int fee = generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        Amount<Currency> price = pkgOfferState.getPrice();
+        issueCash(price);
+
+        BuyPkgFlow.PkgBuyerInitiation flow =
+                new BuyPkgFlow.PkgBuyerInitiation(pkgOfferState.getLinearId(), price, true);
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        for(StartedMockNode node : ImmutableList.of(buyerNodeTest, repositoryNodeTest, devNodeTest))
+            assertEquals(signedTx, node.getServices().getValidatedTransactions().getTransaction(signedTx.getId()));
+
+        /* Both shares are paid by the buyer, no further payout is made by the repositoryNode */
+        Amount<Currency> developerShare = PkgLicenseContract.developerShare(price, fee);
+        assertEquals(getCashBalance(devNodeTest.getServices(), price.getToken()), developerShare);
+        assertEquals(getCashBalance(repositoryNodeTest.getServices(), price.getToken()), price.minus(developerShare));
+    }
+
+    @Test
+    public void licensesCanBeQueriedByBuyerAndPkgThroughTheLicenseSchema() throws Exception {
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        issueCash(pkgOfferState.getPrice());
+
+        BuyPkgFlow.PkgBuyerInitiation flow =
+                new BuyPkgFlow.PkgBuyerInitiation(pkgOfferState.getLinearId(), pkgOfferState.getPrice());
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        future.get();
+        final Party buyer = buyerNodeTest.getInfo().getLegalIdentities().get(0);
+        repositoryNodeTest.transaction(() -> {
+            try {
+                FieldInfo attributeBuyer =
+                        getField("buyerKeyHash", PkgLicenseSchemaV2.PersistentPkgLicenseState.class);
+                FieldInfo attributePkgId =
+                        getField("pkgLinearId", PkgLicenseSchemaV2.PersistentPkgLicenseState.class);
+                QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria()
+                        .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(attributeBuyer,
+                                CryptoUtils.toStringShort(buyer.getOwningKey()))))
+                        .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(attributePkgId,
+                                pkgOfferState.getLinearId().getId())));
+                List<StateAndRef<PkgLicenseState>> licenses = repositoryNodeTest.getServices().getVaultService()
+                        .queryBy(PkgLicenseState.class, criteria).getStates();
+                assertEquals(licenses.size(), 1);
+                checkPkgLicenseStateCorrectness(licenses.get(0).getState().getData(), pkgOfferState);
+
+                QueryCriteria salesCount = new QueryCriteria.VaultCustomQueryCriteria(Builder.count(attributePkgId));
+                Vault.Page<PkgLicenseState> results = repositoryNodeTest.getServices().getVaultService()
+                        .queryBy(PkgLicenseState.class, salesCount);
+                assertEquals(results.getOtherResults().get(0), 1L);
+            } catch(NoSuchFieldException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return null;
+        });
+    }
+
+    @Test
+    public void volumePurchaseLicensesAllTheSeatsWithASingleTransaction() throws Exception {
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        Amount<Currency> volumePrice = pkgOfferState.getPrice(500);
+        issueCash(volumePrice);
+
+        BuyPkgFlow.PkgBuyerInitiation flow = new BuyPkgFlow.PkgBuyerInitiation(pkgOfferState.getLinearId(),
+                pkgOfferState.getPrice(), false, 500);
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        List<PkgLicenseState> licenses = signedTx.getTx().outputsOfType(PkgLicenseState.class);
+        assertEquals(licenses.size(), 1);
+        assertEquals(licenses.get(0).getSeats(), 500);
+        assertEquals(licenses.get(0).getPrice(), volumePrice);
+        assertEquals(repositoryNodeTest.transaction(() ->
+                getCashBalance(repositoryNodeTest.getServices(), volumePrice.getToken())), volumePrice);
+    }
+
+    @Test
+    public void purchaseSpendsACoinOfTheSplitPool() throws Exception {
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        Amount<Currency> price = pkgOfferState.getPrice();
+        issueCash(price.times(3));
+
+        CordaFuture<SignedTransaction> split = buyerNodeTest.startFlow(new CashInventoryFlow.Split(price, 3));
+
+        mockNetwork.runNetwork();
+
+        List<StateRef> pool = split.get().getTx().filterOutRefs(Cash.State.class,
+                cash -> cash.getAmount().getQuantity() == price.getQuantity())
+                .stream().map(StateAndRef::getRef).collect(Collectors.toList());
+        assertEquals(pool.size(), 3);
+
+        BuyPkgFlow.PkgBuyerInitiation flow =
+                new BuyPkgFlow.PkgBuyerInitiation(pkgOfferState.getLinearId(), price);
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        /* A single coin of the exact price is spent, without any change */
+        SignedTransaction signedTx = future.get();
+        assertEquals(signedTx.getTx().getInputs().size(), 1);
+        assert pool.contains(signedTx.getTx().getInputs().get(0));
+        assertEquals(signedTx.getTx().outputsOfType(Cash.State.class).size(), 1);
+        assertEquals(getCashBalance(buyerNodeTest.getServices(), price.getToken()), price.times(2));
+    }
+
+    @Test
+    public void purchaseFallsBackToTheCoinSelectionWithoutAnExactCoin() throws Exception {
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        Amount<Currency> price = pkgOfferState.getPrice();
+        issueCash(price.times(2));
+
+        BuyPkgFlow.PkgBuyerInitiation flow =
+                new BuyPkgFlow.PkgBuyerInitiation(pkgOfferState.getLinearId(), price);
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        /* The single state worth twice the price is spent by generateSpend, the buyer gets the change */
+        SignedTransaction signedTx = future.get();
+        Party buyer = buyerNodeTest.getInfo().getLegalIdentities().get(0);
+        assertEquals(signedTx.getTx().outputsOfType(Cash.State.class).stream()
+                .filter(cash -> cash.getOwner().equals(buyer)).count(), 1L);
+        assertEquals(getCashBalance(buyerNodeTest.getServices(), price.getToken()), price);
+        assertEquals(repositoryNodeTest.transaction(() ->
+                getCashBalance(repositoryNodeTest.getServices(), price.getToken())), price);
+    }
+
+    @Test
+    public void volumePurchaseRequiresAtLeastOneSeat() {
+        try {
+            new BuyPkgFlow.PkgBuyerInitiation(new UniqueIdentifier(), Currencies.DOLLARS(1), false, 0);
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().equals(invalidSeats);
+        }
     }
 }
@@ -0,0 +1,144 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgLicenseState;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Currency;
+import java.util.List;
+
+import static it.nextworks.corda.flows.BuyPkgsFlowUtils.*;
+import static net.corda.finance.workflows.GetBalances.getCashBalance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BuyPkgsFlowTest {
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode buyerNodeTest;
+    private StartedMockNode repositoryNodeTest;
+
+    /** Build a mock network composed by a developer Node, a buyer Node and the repository Node and a Notary */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg),
+                        TestCordapp.findCordapp(cordAppFinance)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+        buyerNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(buyerX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    private void generateFeeAgreementState() throws Exception {
+        devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+
+        mockNetwork.runNetwork();
+    }
+
+    /** Function used to register a package that will be put in the cart */
+    private PkgOfferState generatePkgOfferState(String name) throws Exception {
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+        RegisterPkgFlow.DevInitiation flow = new RegisterPkgFlow.DevInitiation(name,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId + "-" + name,
+                PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice);
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        return future.get().getTx().outputsOfType(PkgOfferState.class).get(0);
+    }
+
+    private void issueCash(Amount<Currency> amount) {
+        buyerNodeTest.startFlow(new SelfIssueCashFlow(amount));
+
+        mockNetwork.runNetwork();
+    }
+
+    @Test
+    public void cartIsBoughtWithASingleTransaction() throws Exception {
+        generateFeeAgreementState();
+        PkgOfferState firstPkg = generatePkgOfferState("firstPkg");
+        PkgOfferState secondPkg = generatePkgOfferState("secondPkg");
+        Amount<Currency> total = firstPkg.getPrice().plus(secondPkg.getPrice());
+        issueCash(total);
+
+        BuyPkgsFlow.PkgBuyerInitiation flow = new BuyPkgsFlow.PkgBuyerInitiation(
+                ImmutableList.of(firstPkg.getLinearId(), secondPkg.getLinearId()), total);
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        signedTx.verifyRequiredSignatures();
+        List<PkgLicenseState> licenses = signedTx.getTx().outputsOfType(PkgLicenseState.class);
+        assertEquals(licenses.size(), 2);
+        assertEquals(licenses.get(0).getPkgId(), firstPkg.getLinearId());
+        assertEquals(licenses.get(1).getPkgId(), secondPkg.getLinearId());
+
+        for(StartedMockNode node : ImmutableList.of(buyerNodeTest, repositoryNodeTest)) {
+            assertEquals(signedTx, node.getServices().getValidatedTransactions().getTransaction(signedTx.getId()));
+        }
+        assertEquals(repositoryNodeTest.transaction(() ->
+                getCashBalance(repositoryNodeTest.getServices(), total.getToken())), total);
+    }
+
+    @Test
+    public void cartTotalMustMatchTheSummedPrice() throws Exception {
+        generateFeeAgreementState();
+        PkgOfferState firstPkg = generatePkgOfferState("firstPkg");
+        PkgOfferState secondPkg = generatePkgOfferState("secondPkg");
+        issueCash(firstPkg.getPrice().plus(secondPkg.getPrice()));
+
+        BuyPkgsFlow.PkgBuyerInitiation flow = new BuyPkgsFlow.PkgBuyerInitiation(
+                ImmutableList.of(firstPkg.getLinearId(), secondPkg.getLinearId()), firstPkg.getPrice());
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(flow);
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().equals("java.lang.IllegalArgumentException: Failed requirement: " +
+                    totalMismatch);
+        }
+    }
+
+    @Test
+    public void cartCannotContainTheSamePkgTwice() {
+        UniqueIdentifier pkgId = new UniqueIdentifier();
+        try {
+            new BuyPkgsFlow.PkgBuyerInitiation(ImmutableList.of(pkgId, pkgId),
+                    new Amount<>(100, Currency.getInstance("EUR")));
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().equals(duplicatePkgErr);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Currency;
+import java.util.List;
+
+import static it.nextworks.corda.flows.CashInventoryFlowUtils.*;
+import static net.corda.finance.workflows.GetBalances.getCashBalance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CashInventoryFlowTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode buyerNodeTest;
+
+    /** Build a mock network composed by a buyer Node, the repository Node and a Notary */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg),
+                        TestCordapp.findCordapp(cordAppFinance)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+        buyerNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(buyerX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    private void issueCash(Amount<Currency> amount) {
+        buyerNodeTest.startFlow(new SelfIssueCashFlow(amount));
+
+        mockNetwork.runNetwork();
+    }
+
+    private List<StateAndRef<Cash.State>> cashStates() {
+        return buyerNodeTest.transaction(() ->
+                buyerNodeTest.getServices().getVaultService().queryBy(Cash.State.class).getStates());
+    }
+
+    @Test
+    public void splitCreatesAPoolOfTheRequestedDenomination() throws Exception {
+        issueCash(new Amount<>(1000, EUR));
+
+        CordaFuture<SignedTransaction> future =
+                buyerNodeTest.startFlow(new CashInventoryFlow.Split(new Amount<>(100, EUR), 5));
+        mockNetwork.runNetwork();
+        future.get();
+
+        long pooled = cashStates().stream()
+                .filter(state -> state.getState().getData().getAmount().getQuantity() == 100).count();
+        assertEquals(pooled, 5);
+        assertEquals(buyerNodeTest.transaction(() -> getCashBalance(buyerNodeTest.getServices(), EUR)),
+                new Amount<>(1000, EUR));
+    }
+
+    @Test
+    public void consolidationMergesTheDust() throws Exception {
+        for(int i = 0; i < 10; i++)
+            issueCash(new Amount<>(10, EUR));
+        issueCash(new Amount<>(500, EUR));
+
+        CordaFuture<List<SignedTransaction>> future =
+                buyerNodeTest.startFlow(new CashInventoryFlow.Consolidation(100, 10));
+        mockNetwork.runNetwork();
+
+        assertEquals(future.get().size(), 1);
+        List<StateAndRef<Cash.State>> states = cashStates();
+        assertEquals(states.size(), 2);
+        assertEquals(buyerNodeTest.transaction(() -> getCashBalance(buyerNodeTest.getServices(), EUR)),
+                new Amount<>(600, EUR));
+    }
+
+    @Test
+    public void consolidationSkipsTooFewDustStates() throws Exception {
+        for(int i = 0; i < 3; i++)
+            issueCash(new Amount<>(10, EUR));
+
+        CordaFuture<List<SignedTransaction>> future =
+                buyerNodeTest.startFlow(new CashInventoryFlow.Consolidation(100, 10));
+        mockNetwork.runNetwork();
+
+        assertEquals(future.get().size(), 0);
+        assertEquals(cashStates().size(), 3);
+    }
+
+    @Test
+    public void splitRequiresEnoughCash() throws Exception {
+        issueCash(new Amount<>(100, EUR));
+
+        CordaFuture<SignedTransaction> future =
+                buyerNodeTest.startFlow(new CashInventoryFlow.Split(new Amount<>(100, EUR), 2));
+        try {
+            mockNetwork.runNetwork();
+            future.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().equals("java.lang.IllegalArgumentException: " + missingCash);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static it.nextworks.corda.flows.CheckLicenseFlowUtils.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CheckLicenseFlowTest {
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode buyerNodeTest;
+    private StartedMockNode repositoryNodeTest;
+
+    /** Build a mock network composed by a developer Node, a buyer Node and the repository Node and a Notary */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg),
+                        TestCordapp.findCordapp(cordAppFinance)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+        buyerNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(buyerX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    /** Function used to register a package and let the buyer node purchase it */
+    private PkgOfferState buyPkg() throws Exception {
+        devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+        mockNetwork.runNetwork();
+
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+        CordaFuture<SignedTransaction> registration = devNodeTest.startFlow(new RegisterPkgFlow.DevInitiation(
+                PkgOfferUtils.testName, PkgOfferUtils.testDescription, PkgOfferUtils.testVersion,
+                PkgOfferUtils.testPkgInfoId, PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice));
+        mockNetwork.runNetwork();
+        PkgOfferState pkgOfferState = registration.get().getTx().outputsOfType(PkgOfferState.class).get(0);
+
+        buyerNodeTest.startFlow(new SelfIssueCashFlow(pkgOfferState.getPrice()));
+        mockNetwork.runNetwork();
+
+        CordaFuture<SignedTransaction> purchase = buyerNodeTest.startFlow(
+                new BuyPkgFlow.PkgBuyerInitiation(pkgOfferState.getLinearId(), pkgOfferState.getPrice()));
+        mockNetwork.runNetwork();
+        purchase.get();
+
+        return pkgOfferState;
+    }
+
+    @Test
+    public void licenseOfTheBuyerIsFoundInTheIndex() throws Exception {
+        PkgOfferState pkgOfferState = buyPkg();
+
+        CordaFuture<LicenseCheckResult> future = repositoryNodeTest.startFlow(new CheckLicenseFlow(
+                ImmutableList.of(new LicenseLookup(CordaX500Name.parse(buyerX500Name), pkgOfferState.getPkgInfoId()))));
+        mockNetwork.runNetwork();
+
+        LicenseCheckResult result = future.get();
+        assertEquals(result.getLicensed(), ImmutableList.of(true));
+        assert result.getLookupNanos() >= 0;
+    }
+
+    @Test
+    public void batchedLookupsAreAnsweredInOrder() throws Exception {
+        PkgOfferState pkgOfferState = buyPkg();
+
+        CordaFuture<LicenseCheckResult> future = repositoryNodeTest.startFlow(new CheckLicenseFlow(Arrays.asList(
+                new LicenseLookup(CordaX500Name.parse(devX500Name), pkgOfferState.getPkgInfoId()),
+                new LicenseLookup(CordaX500Name.parse(buyerX500Name), pkgOfferState.getPkgInfoId()),
+                new LicenseLookup(CordaX500Name.parse(buyerX500Name), "unknownPkgInfoId"))));
+        mockNetwork.runNetwork();
+
+        assertEquals(future.get().getLicensed(), ImmutableList.of(false, true, false));
+    }
+
+    @Test
+    public void emptyBatchIsRejected() {
+        try {
+            new CheckLicenseFlow(ImmutableList.of());
+            assert false;
+        } catch(IllegalArgumentException exception) {
+            assert exception.getMessage().equals(emptyBatchErr);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.schemas.FeeAgreementSchemaV2;
+import it.nextworks.corda.states.FeeAgreementState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.CryptoUtils;
+import net.corda.core.flows.NotaryChangeFlow;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.FieldInfo;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static it.nextworks.corda.flows.EstablishFeeAgreementFlowUtils.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+public class FeeAgreementIndexServiceTest {
+
+    private static final String otherNotaryX500Name = "O=OtherNotary,L=Pisa,C=IT";
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode repositoryNodeTest;
+
+    /** Build a mock network composed by a developer Node, the repository Node and two Notaries */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)),
+                        new MockNetworkNotarySpec(CordaX500Name.parse(otherNotaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    @Test
+    public void developerWithoutAgreementIsNotIndexed() {
+        Party developer = devNodeTest.getInfo().getLegalIdentities().get(0);
+        repositoryNodeTest.transaction(() -> {
+            assertNull(repositoryNodeTest.getServices().cordaService(FeeAgreementIndexService.class)
+                    .getAgreement(developer));
+            return null;
+        });
+    }
+
+    @Test
+    public void establishedAgreementIsIndexed() throws Exception {
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+        mockNetwork.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        Party developer = devNodeTest.getInfo().getLegalIdentities().get(0);
+        repositoryNodeTest.transaction(() -> {
+            StateAndRef<FeeAgreementState> agreement = repositoryNodeTest.getServices()
+                    .cordaService(FeeAgreementIndexService.class).getAgreement(developer);
+            assertEquals(signedTx.getId(), agreement.getRef().getTxhash());
+            assertEquals(developer, agreement.getState().getData().getDeveloper());
+            return null;
+        });
+    }
+
+    @Test
+    public void agreementIsStoredWithThePartyKeyHashes() throws Exception {
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+        mockNetwork.runNetwork();
+        future.get();
+
+        Party developer = devNodeTest.getInfo().getLegalIdentities().get(0);
+        devNodeTest.transaction(() -> {
+            FieldInfo attributeDeveloper;
+            try {
+                attributeDeveloper =
+                        getField("developerKeyHash", FeeAgreementSchemaV2.PersistentFeeAgreementState.class);
+            } catch(NoSuchFieldException e) {
+                throw new IllegalStateException(e);
+            }
+            QueryCriteria criteria = new QueryCriteria.VaultCustomQueryCriteria(
+                    Builder.equal(attributeDeveloper, CryptoUtils.toStringShort(developer.getOwningKey())));
+            List<StateAndRef<FeeAgreementState>> lst = devNodeTest.getServices().getVaultService()
+                    .queryBy(FeeAgreementState.class, criteria).getStates();
+            assertEquals(1, lst.size());
+            return null;
+        });
+    }
+
+    @Test
+    public void developerFindsTheAgreementOfTheRepositoryNodeOnly() throws Exception {
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+        mockNetwork.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        Party developer = devNodeTest.getInfo().getLegalIdentities().get(0);
+        Party repositoryNode = repositoryNodeTest.getInfo().getLegalIdentities().get(0);
+        devNodeTest.transaction(() -> {
+            assertEquals(signedTx.getId(), EstablishFeeAgreementFlow.findAgreement(devNodeTest.getServices(),
+                    developer, repositoryNode).getRef().getTxhash());
+            assertNull(EstablishFeeAgreementFlow.findAgreement(devNodeTest.getServices(), developer, developer));
+            return null;
+        });
+    }
+
+    @Test
+    public void agreementMovedToAnotherNotaryIsStillTheSingleLiveOne() throws Exception {
+        CordaFuture<SignedTransaction> future =
+                devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+        mockNetwork.runNetwork();
+        future.get();
+
+        Party developer = devNodeTest.getInfo().getLegalIdentities().get(0);
+        Party otherNotary = repositoryNodeTest.getServices().getNetworkMapCache()
+                .getNotary(CordaX500Name.parse(otherNotaryX500Name));
+        StateAndRef<FeeAgreementState> agreement = repositoryNodeTest.transaction(() -> repositoryNodeTest
+                .getServices().cordaService(FeeAgreementIndexService.class).getAgreement(developer));
+
+        /* The consumed agreement keeps its row in the schema table, the new one has the same parties */
+        CordaFuture<StateAndRef<FeeAgreementState>> moved =
+                repositoryNodeTest.startFlow(new NotaryChangeFlow<>(agreement, otherNotary));
+        mockNetwork.runNetwork();
+        assertEquals(otherNotary, moved.get().getState().getNotary());
+
+        repositoryNodeTest.transaction(() -> {
+            FieldInfo attributeDeveloper;
+            try {
+                attributeDeveloper =
+                        getField("developerKeyHash", FeeAgreementSchemaV2.PersistentFeeAgreementState.class);
+            } catch(NoSuchFieldException e) {
+                throw new IllegalStateException(e);
+            }
+            QueryCriteria criteria = new QueryCriteria.VaultCustomQueryCriteria(
+                    Builder.equal(attributeDeveloper, CryptoUtils.toStringShort(developer.getOwningKey())),
+                    Vault.StateStatus.ALL);
+            assertEquals(2, repositoryNodeTest.getServices().getVaultService()
+                    .queryBy(FeeAgreementState.class, criteria).getStates().size());
+            return null;
+        });
+
+        CordaFuture<SignedTransaction> second =
+                devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+        mockNetwork.runNetwork();
+        try {
+            second.get();
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().endsWith(AlreadyEstablishedFee);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package it.nextworks.corda.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.flows.*;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static it.nextworks.corda.flows.GetPkgsFlowUtils.QueryBuilder;
+import static it.nextworks.corda.flows.GetShardedPkgsFlowUtils.*;
+import static it.nextworks.corda.flows.TopologyServiceUtils.repositoriesConfigKey;
+import static it.nextworks.corda.flows.TopologyServiceUtils.repositoriesSeparator;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GetShardedPkgsFlowTest {
+
+    private static final String unreachableRepositoryX500Name = "O=UnreachableRepositoryNode,L=Pisa,C=IT";
+
+    private static final long silentShardTimeoutMillis = 1000;
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode buyerNodeTest;
+    private StartedMockNode otherRepositoryNodeTest;
+
+    /**
+     * Build a mock network composed by a developer Node, a buyer Node, two repository Nodes and a Notary,
+     * the flows CorDapp is configured with the specified repository nodes
+     */
+    private void setup(String repositories) {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg)
+                                .withConfig(ImmutableMap.of(repositoriesConfigKey, repositories))))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+
+        mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+        otherRepositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(otherRepositoryX500Name));
+        buyerNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(buyerX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    /** Function used to establish a fee agreement with every repository node a package can be placed on */
+    private void generateFeeAgreementStates() throws Exception {
+        for(String repositoryName : ImmutableList.of(repositoryX500Name, otherRepositoryX500Name)) {
+            CordaFuture<SignedTransaction> future = devNodeTest.startFlow(
+                    new EstablishFeeAgreementFlow.DevInitiation(15, CordaX500Name.parse(repositoryName)));
+
+            mockNetwork.runNetwork();
+
+            future.get();
+        }
+    }
+
+    /** Function used to register a package, listed by one of the repository nodes of the agreements */
+    private PkgOfferState generatePkgOfferState(String name) throws Exception {
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+        RegisterPkgFlow.DevInitiation flow = new RegisterPkgFlow.DevInitiation(name,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId + "-" + name,
+                PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice);
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        return future.get().getTx().outputsOfType(PkgOfferState.class).get(0);
+    }
+
+    /** The repository nodes are queried by flows started from a service, run the network until they answer */
+    private ShardedPkgs awaitShardedPkgs(CordaFuture<ShardedPkgs> future) throws Exception {
+        for(int i = 0; i < 100 && !future.isDone(); i++) {
+            mockNetwork.runNetwork();
+            Thread.sleep(100);
+        }
+
+        return future.get();
+    }
+
+    /** Repository node that receives the query and never answers */
+    @InitiatedBy(GetShardedPkgsFlow.ShardQueryInitiation.class)
+    public static class SilentShardAcceptor extends FlowLogic<Void> {
+
+        private final FlowSession userSession;
+
+        public SilentShardAcceptor(FlowSession userSession) { this.userSession = userSession; }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            userSession.receive(ShardQuery.class);
+            userSession.receive(ShardQuery.class);
+
+            return null;
+        }
+    }
+
+    @Test
+    public void pkgsOfAllTheRepositoryNodesAreMergedAndSorted() throws Exception {
+        setup(repositoryX500Name + repositoriesSeparator + otherRepositoryX500Name);
+        generateFeeAgreementStates();
+        List<String> names = ImmutableList.of("dPkg", "bPkg", "ePkg", "aPkg", "cPkg", "fPkg");
+        for(String name : names)
+            generatePkgOfferState(name);
+
+        CordaFuture<ShardedPkgs> future = buyerNodeTest.startFlow(new GetShardedPkgsFlow.GetShardedPkgsInfoInitiation());
+
+        ShardedPkgs shardedPkgs = awaitShardedPkgs(future);
+        assert !shardedPkgs.isPartial();
+        assertEquals(names.size(), shardedPkgs.getPkgsList().size());
+        List<String> sorted = ImmutableList.of("aPkg", "bPkg", "cPkg", "dPkg", "ePkg", "fPkg");
+        for(int i = 0; i < sorted.size(); i++)
+            assertEquals(sorted.get(i), shardedPkgs.getPkgsList().get(i).getName());
+    }
+
+    @Test
+    public void unreachableRepositoryNodeIsReportedAsTimedOut() throws Exception {
+        setup(repositoryX500Name + repositoriesSeparator + otherRepositoryX500Name + repositoriesSeparator +
+                unreachableRepositoryX500Name);
+
+        CordaFuture<ShardedPkgs> future = buyerNodeTest.startFlow(new GetShardedPkgsFlow.GetShardedPkgsInfoInitiation(
+                new QueryBuilder().setName(PkgOfferUtils.testName).build(), defaultShardTimeoutMillis));
+
+        ShardedPkgs shardedPkgs = awaitShardedPkgs(future);
+        assert shardedPkgs.isPartial();
+        assertEquals(ImmutableList.of(CordaX500Name.parse(unreachableRepositoryX500Name)),
+                shardedPkgs.getTimedOutShards());
+        assert shardedPkgs.getPkgsList().isEmpty();
+    }
+
+    @Test
+    public void silentRepositoryNodeDoesNotHoldBackTheOthers() throws Exception {
+        setup(repositoryX500Name + repositoriesSeparator + otherRepositoryX500Name);
+        generateFeeAgreementStates();
+        List<String> names = ImmutableList.of("aPkg", "bPkg", "cPkg", "dPkg");
+        for(String name : names)
+            generatePkgOfferState(name);
+        otherRepositoryNodeTest.registerInitiatedFlow(GetShardedPkgsFlow.ShardQueryInitiation.class,
+                SilentShardAcceptor.class);
+
+        CordaFuture<ShardedPkgs> future = buyerNodeTest.startFlow(new GetShardedPkgsFlow.GetShardedPkgsInfoInitiation(
+                new QueryBuilder().build(), silentShardTimeoutMillis));
+
+        ShardedPkgs shardedPkgs = awaitShardedPkgs(future);
+        assert shardedPkgs.isPartial();
+        assertEquals(ImmutableList.of(CordaX500Name.parse(otherRepositoryX500Name)), shardedPkgs.getTimedOutShards());
+
+        /* Only the packages listed by the repository node that answered */
+        Party repositoryNode = mockNetwork.getDefaultNotaryNode().getServices().getNetworkMapCache()
+                .getPeerByLegalName(CordaX500Name.parse(repositoryX500Name));
+        for(PkgOfferState pkgOfferState : shardedPkgs.getPkgsList())
+            assertEquals(repositoryNode, pkgOfferState.getRepositoryNode());
+        long listed = devNodeTest.transaction(() -> devNodeTest.getServices().getVaultService()
+                .queryBy(PkgOfferState.class).getStates().stream()
+                .filter(stateAndRef -> stateAndRef.getState().getData().getRepositoryNode().equals(repositoryNode))
+                .count());
+        assertEquals(listed, shardedPkgs.getPkgsList().size());
+    }
+
+    @Test
+    public void silentRepositoryNodeHoldsAtMostOneOrphanedQuery() throws Exception {
+        setup(repositoryX500Name + repositoriesSeparator + otherRepositoryX500Name);
+        otherRepositoryNodeTest.registerInitiatedFlow(GetShardedPkgsFlow.ShardQueryInitiation.class,
+                SilentShardAcceptor.class);
+        ShardQueryService shardQueryService = buyerNodeTest.getServices().cordaService(ShardQueryService.class);
+
+        for(int i = 0; i < 2; i++) {
+            CordaFuture<ShardedPkgs> future = buyerNodeTest.startFlow(
+                    new GetShardedPkgsFlow.GetShardedPkgsInfoInitiation(new QueryBuilder().build(),
+                            silentShardTimeoutMillis));
+
+            ShardedPkgs shardedPkgs = awaitShardedPkgs(future);
+            assertEquals(ImmutableList.of(CordaX500Name.parse(otherRepositoryX500Name)),
+                    shardedPkgs.getTimedOutShards());
+            /* The second query does not start another flow waiting for the silent repository node */
+            assertEquals(1, shardQueryService.getOrphanedQueries());
+        }
+    }
+
+    @Test
+    public void pkgsAreListedByTheRepositoryNodesOfTheAgreements() throws Exception {
+        setup(repositoryX500Name + repositoriesSeparator + otherRepositoryX500Name);
+        CordaFuture<SignedTransaction> agreement = devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(
+                15, CordaX500Name.parse(otherRepositoryX500Name)));
+
+        mockNetwork.runNetwork();
+
+        agreement.get();
+        for(String name : ImmutableList.of("aPkg", "bPkg", "cPkg", "dPkg")) {
+            PkgOfferState pkgOfferState = generatePkgOfferState(name);
+            assertEquals(CordaX500Name.parse(otherRepositoryX500Name), pkgOfferState.getRepositoryNode().getName());
+        }
+    }
+
+    @Test
+    public void timeoutMustBePositive() {
+        try {
+            new GetShardedPkgsFlow.GetShardedPkgsInfoInitiation(new QueryBuilder().build(), 0);
+            assert false;
+        } catch(Exception exception) {
+            assert exception.getMessage().equals(invalidShardTimeout);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.FeeAgreementState;
+import it.nextworks.corda.states.PkgLicenseState;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static it.nextworks.corda.flows.BuyPkgFlowUtils.*;
+import static it.nextworks.corda.flows.TopologyServiceUtils.notariesConfigKey;
+import static it.nextworks.corda.flows.TopologyServiceUtils.repositoriesSeparator;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class NotaryPoolServiceTest {
+
+    private static final String otherNotaryX500Name = "O=OtherNotary,L=Pisa,C=IT";
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode buyerNodeTest;
+    private StartedMockNode repositoryNodeTest;
+    private Party notary;
+    private Party otherNotary;
+
+    /** Build a mock network composed by a developer Node, a buyer Node, the repository Node and a pool of two Notaries */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg)
+                                .withConfig(ImmutableMap.of(notariesConfigKey,
+                                        notaryX500Name + repositoriesSeparator + otherNotaryX500Name)),
+                        TestCordapp.findCordapp(cordAppFinance)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)),
+                        new MockNetworkNotarySpec(CordaX500Name.parse(otherNotaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+        buyerNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(buyerX500Name));
+
+        mockNetwork.runNetwork();
+
+        TopologyService topology = devNodeTest.getServices().cordaService(TopologyService.class);
+        notary = topology.getNotary(CordaX500Name.parse(notaryX500Name));
+        otherNotary = topology.getNotary(CordaX500Name.parse(otherNotaryX500Name));
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    private SignedTransaction generateFeeAgreementState() throws Exception {
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        assertEquals(otherNotary, signedTx.getNotary());
+
+        return signedTx;
+    }
+
+    private PkgOfferState generatePkgOfferState() throws Exception {
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+        RegisterPkgFlow.DevInitiation flow = new RegisterPkgFlow.DevInitiation(PkgOfferUtils.testName,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId,
+                PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice);
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        assertEquals(otherNotary, signedTx.getNotary());
+
+        return signedTx.getTx().outputsOfType(PkgOfferState.class).get(0);
+    }
+
+    /**
+     * Account the primary notary as slow, so that the repository node assigns the new fee agreements, and the
+     * packages of their developers, to the other one
+     */
+    private void slowDownPrimaryNotary() {
+        repositoryNodeTest.getServices().cordaService(NotaryPoolService.class).completed(notary, 5000);
+    }
+
+    @Test
+    public void leastLoadedSelectionKeepsAwayFromTheSlowNotary() {
+        NotaryPoolService notaryPool = devNodeTest.getServices().cordaService(NotaryPoolService.class);
+
+        notaryPool.completed(notary, 5000);
+        assertEquals(otherNotary, notaryPool.selectNotary("firstPkg"));
+        assertEquals(5000.0, notaryPool.getLatencyMillis(notary));
+
+        notaryPool.failed(otherNotary);
+        assertEquals(notary, notaryPool.selectNotary("secondPkg"));
+    }
+
+    @Test
+    public void pkgIsBoughtWithTheNotaryOfItsOffer() throws Exception {
+        slowDownPrimaryNotary();
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+
+        /* The cash is issued on the primary notary and moved to the notary of the package by the purchase */
+        buyerNodeTest.startFlow(new SelfIssueCashFlow(pkgOfferState.getPrice()));
+        mockNetwork.runNetwork();
+
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(new BuyPkgFlow.PkgBuyerInitiation(
+                pkgOfferState.getLinearId(), pkgOfferState.getPrice()));
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        assertEquals(otherNotary, signedTx.getNotary());
+        assertEquals(pkgOfferState.getLinearId(),
+                signedTx.getTx().outputsOfType(PkgLicenseState.class).get(0).getPkgId());
+    }
+
+    @Test
+    public void splitPayoutReferencesTheFeeAgreementWithoutMovingIt() throws Exception {
+        slowDownPrimaryNotary();
+        SignedTransaction agreementTx = generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+
+        buyerNodeTest.startFlow(new SelfIssueCashFlow(pkgOfferState.getPrice()));
+        mockNetwork.runNetwork();
+
+        CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(new BuyPkgFlow.PkgBuyerInitiation(
+                pkgOfferState.getLinearId(), pkgOfferState.getPrice(), true));
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction signedTx = future.get();
+        assertEquals(otherNotary, signedTx.getNotary());
+        assertEquals(2, signedTx.getTx().getReferences().size());
+        /* The agreement is still the one established, the purchase did not change its notary */
+        assertEquals(agreementTx.getId(), devNodeTest.transaction(() -> devNodeTest.getServices().getVaultService()
+                .queryBy(FeeAgreementState.class).getStates().get(0).getRef().getTxhash()));
+    }
+}
@@ -0,0 +1,147 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static it.nextworks.corda.flows.UpdatePkgFlowUtils.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PkgOfferIndexServiceTest {
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode repositoryNodeTest;
+
+    /** Build a mock network composed by a developer Node, the repository Node and a Notary */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    /** Function used to generate a transaction that will output a FeeAgreementState */
+    private void generateFeeAgreementState() throws Exception {
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+
+        mockNetwork.runNetwork();
+
+        future.get();
+    }
+
+    private ProductOfferingPrice createProductOfferingPrice() {
+        return new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength,
+                PkgOfferUtils.testRecChargePeriodType, PkgOfferUtils.testVersion, PkgOfferUtils.testPrice,
+                PkgOfferUtils.testQuantity, PkgOfferUtils.testValidFor);
+    }
+
+    /** @return the PkgOfferState output by the flow, null if the flow does not output any */
+    private StateAndRef<PkgOfferState> run(FlowLogic<SignedTransaction> flow) throws Exception {
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        List<StateAndRef<PkgOfferState>> outputs = future.get().getTx().outRefsOfType(PkgOfferState.class);
+        return outputs.isEmpty() ? null : outputs.get(0);
+    }
+
+    private StateAndRef<PkgOfferState> registerPkg() throws Exception {
+        return run(new RegisterPkgFlow.DevInitiation(PkgOfferUtils.testName, PkgOfferUtils.testDescription,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testPkgType, createProductOfferingPrice()));
+    }
+
+    private StateAndRef<PkgOfferState> getPkg(UniqueIdentifier linearId) {
+        return repositoryNodeTest.transaction(() -> repositoryNodeTest.getServices()
+                .cordaService(PkgOfferIndexService.class).getPkg(linearId));
+    }
+
+    @Test
+    public void registeredPkgIsIndexed() throws Exception {
+        generateFeeAgreementState();
+        StateAndRef<PkgOfferState> registered = registerPkg();
+        UniqueIdentifier linearId = registered.getState().getData().getLinearId();
+
+        assertEquals(registered.getRef(), getPkg(linearId).getRef());
+        assertNull(getPkg(new UniqueIdentifier()));
+    }
+
+    @Test
+    public void updatedPkgReplacesTheConsumedState() throws Exception {
+        generateFeeAgreementState();
+        UniqueIdentifier linearId = registerPkg().getState().getData().getLinearId();
+
+        StateAndRef<PkgOfferState> updated = run(new UpdatePkgFlow.DevInitiation(linearId,
+                PkgOfferUtils.testNameUpdate, PkgOfferUtils.testDescriptionUpdate, PkgOfferUtils.testVersionUpdate,
+                PkgOfferUtils.testLinkUpdate, createProductOfferingPrice()));
+
+        StateAndRef<PkgOfferState> pkg = getPkg(linearId);
+        assertEquals(updated.getRef(), pkg.getRef());
+        assertEquals(PkgOfferUtils.testNameUpdate, pkg.getState().getData().getName());
+    }
+
+    @Test
+    public void deletedPkgIsDropped() throws Exception {
+        generateFeeAgreementState();
+        UniqueIdentifier linearId = registerPkg().getState().getData().getLinearId();
+
+        run(new DeletePkgFlow.DevInitiation(linearId));
+
+        assertNull(getPkg(linearId));
+    }
+
+    @Test
+    public void pkgsMissingFromTheIndexAreQueriedInTheVault() throws Exception {
+        generateFeeAgreementState();
+        StateAndRef<PkgOfferState> indexedPkg = registerPkg();
+        StateAndRef<PkgOfferState> forgottenPkg = registerPkg();
+        StateRef indexed = indexedPkg.getRef();
+        StateRef forgotten = forgottenPkg.getRef();
+        UniqueIdentifier indexedId = indexedPkg.getState().getData().getLinearId();
+        UniqueIdentifier forgottenId = forgottenPkg.getState().getData().getLinearId();
+        UniqueIdentifier unknownId = new UniqueIdentifier();
+
+        PkgOfferIndexService index = repositoryNodeTest.getServices().cordaService(PkgOfferIndexService.class);
+        index.forget(forgottenId);
+
+        assertEquals(forgotten, getPkg(forgottenId).getRef());
+
+        Map<UniqueIdentifier, StateAndRef<PkgOfferState>> pkgs = repositoryNodeTest.transaction(() ->
+                index.getPkgs(ImmutableList.of(indexedId, forgottenId, unknownId)));
+        assertEquals(2, pkgs.size());
+        assertEquals(indexed, pkgs.get(indexedId).getRef());
+        assertEquals(forgotten, pkgs.get(forgottenId).getRef());
+        assertNull(pkgs.get(unknownId));
+    }
+}
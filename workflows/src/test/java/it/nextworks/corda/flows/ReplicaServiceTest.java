@@ -0,0 +1,229 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static it.nextworks.corda.flows.ReplicaServiceUtils.*;
+import static it.nextworks.corda.flows.TopologyServiceUtils.replicasConfigKey;
+import static it.nextworks.corda.flows.TopologyServiceUtils.repositoriesSeparator;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReplicaServiceTest {
+
+    private static final String unreachableReplicaX500Name = "O=UnreachableReplicaNode,L=Pisa,C=IT";
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode repositoryNodeTest;
+    private StartedMockNode buyerNodeTest;
+    private StartedMockNode replicaNodeTest;
+
+    /**
+     * Build a mock network composed by a developer Node, a buyer Node, the repository Node, a replica
+     * and a Notary, the flows CorDapp is configured with the specified replicas
+     */
+    private void setup(String replicas) { setup(replicas, true); }
+
+    /**
+     * Build a mock network composed by a developer Node, a buyer Node, the repository Node and a Notary,
+     * the flows CorDapp is configured with the specified replicas
+     * @param withReplica if true the replica node is started too
+     */
+    private void setup(String replicas, boolean withReplica) {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg)
+                                .withConfig(ImmutableMap.of(replicasConfigKey, replicas))))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+        buyerNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(buyerX500Name));
+        if(withReplica)
+            replicaNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(replicaX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    private void generateFeeAgreementState() throws Exception {
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(new EstablishFeeAgreementFlow.DevInitiation(15));
+
+        mockNetwork.runNetwork();
+
+        future.get();
+    }
+
+    private PkgOfferState generatePkgOfferState() throws Exception {
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+        RegisterPkgFlow.DevInitiation flow = new RegisterPkgFlow.DevInitiation(PkgOfferUtils.testName,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId,
+                PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice);
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        return future.get().getTx().outputsOfType(PkgOfferState.class).get(0);
+    }
+
+    private List<StateAndRef<PkgOfferState>> replicaPkgs() {
+        return replicaNodeTest.transaction(() -> replicaNodeTest.getServices().getVaultService()
+                .queryBy(PkgOfferState.class, new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED))
+                .getStates());
+    }
+
+    /** The repository node forwards the transactions from a thread of its own, run the network until they land */
+    private void awaitReplicaPkgs(int expected) throws InterruptedException {
+        for(int i = 0; i < 50 && replicaPkgs().size() != expected; i++) {
+            Thread.sleep(100);
+            mockNetwork.runNetwork();
+        }
+    }
+
+    @Test
+    public void offersAreReplicatedAndQueriedOnTheReplica() throws Exception {
+        setup(replicaX500Name);
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+
+        awaitReplicaPkgs(1);
+        assertEquals(pkgOfferState.getLinearId(), replicaPkgs().get(0).getState().getData().getLinearId());
+
+        CordaFuture<List<PkgOfferState>> future = buyerNodeTest.startFlow(new GetPkgsFlow.GetPkgsInfoInitiation());
+
+        mockNetwork.runNetwork();
+
+        List<PkgOfferState> pkgs = future.get();
+        assertEquals(1, pkgs.size());
+        assertEquals(pkgOfferState.getLinearId(), pkgs.get(0).getLinearId());
+
+        Party replica = replicaNodeTest.getInfo().getLegalIdentities().get(0);
+        assert buyerNodeTest.getServices().cordaService(ReplicaService.class).getLatencyMillis(replica) >= 0;
+    }
+
+    @Test
+    public void deletedOfferIsConsumedOnTheReplica() throws Exception {
+        setup(replicaX500Name);
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        awaitReplicaPkgs(1);
+        StateRef offer = replicaPkgs().get(0).getRef();
+
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(
+                new DeletePkgFlow.DevInitiation(pkgOfferState.getLinearId()));
+
+        mockNetwork.runNetwork();
+
+        SignedTransaction deletion = future.get();
+        awaitReplicaPkgs(0);
+        assert replicaPkgs().isEmpty();
+
+        /* The forward recorded the deletion as the transaction consuming the offer */
+        ReplicaService replicaService = repositoryNodeTest.getServices().cordaService(ReplicaService.class);
+        Set<SecureHash> consuming = repositoryNodeTest.transaction(() ->
+                replicaService.getConsumingTransactions(Collections.singletonList(offer)));
+        assertEquals(Collections.singleton(deletion.getId()), consuming);
+    }
+
+    @Test
+    public void replicaInSyncHasTheDigestOfTheRepositoryNode() throws Exception {
+        setup(replicaX500Name);
+        generateFeeAgreementState();
+        generatePkgOfferState();
+        generatePkgOfferState();
+        awaitReplicaPkgs(2);
+
+        List<StateRef> replicated = new ArrayList<>();
+        replicaPkgs().forEach(offer -> replicated.add(offer.getRef()));
+        ReplicaDigest digest = repositoryNodeTest.getServices().cordaService(ReplicaService.class).getOfferDigest();
+        ReplicaDigest replicaDigest = ReplicatePkgFlow.digest(replicated);
+
+        assertEquals(2, digest.getCount());
+        assertEquals(digest.getCount(), replicaDigest.getCount());
+        assertEquals(digest.getDigest(), replicaDigest.getDigest());
+    }
+
+    @Test
+    public void replicaJoiningAfterTheOffersIsReconciled() throws Exception {
+        setup(replicaX500Name, false);
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+
+        /* The offer was registered while the replica was not in the network map, nothing was forwarded */
+        replicaNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(replicaX500Name));
+        mockNetwork.runNetwork();
+
+        awaitReplicaPkgs(1);
+        assertEquals(1, replicaPkgs().size());
+        assertEquals(pkgOfferState.getLinearId(), replicaPkgs().get(0).getState().getData().getLinearId());
+    }
+
+    @Test
+    public void queriesFallBackToTheRepositoryNodeWithoutReplicas() throws Exception {
+        setup(unreachableReplicaX500Name);
+        generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+
+        ReplicaService replicas = buyerNodeTest.getServices().cordaService(ReplicaService.class);
+        TopologyService topology = buyerNodeTest.getServices().cordaService(TopologyService.class);
+        assertEquals(topology.getRepositoryNode(), replicas.selectReplica("query"));
+
+        CordaFuture<List<PkgOfferState>> future = buyerNodeTest.startFlow(new GetFilteredPkgsFlow
+                .GetFilteredPkgsInfoInitiation(new GetPkgsFlowUtils.QueryBuilder().setName(PkgOfferUtils.testName)
+                .build()));
+
+        mockNetwork.runNetwork();
+
+        List<PkgOfferState> pkgs = future.get();
+        assertEquals(1, pkgs.size());
+        assertEquals(pkgOfferState.getLinearId(), pkgs.get(0).getLinearId());
+    }
+
+    @Test
+    public void nearestReplicaIsPreferredUntilItIsSlow() {
+        setup(otherReplicaX500Name + repositoriesSeparator + replicaX500Name);
+        StartedMockNode otherReplicaNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(otherReplicaX500Name));
+        mockNetwork.runNetwork();
+
+        Party replica = replicaNodeTest.getInfo().getLegalIdentities().get(0);
+        Party otherReplica = otherReplicaNodeTest.getInfo().getLegalIdentities().get(0);
+        ReplicaService replicas = buyerNodeTest.getServices().cordaService(ReplicaService.class);
+
+        /* The buyer and the replica are both in Pistoia */
+        assertEquals(replica, replicas.selectReplica("firstQuery"));
+
+        replicas.completed(replica, 5000);
+        assertEquals(otherReplica, replicas.selectReplica("secondQuery"));
+    }
+}
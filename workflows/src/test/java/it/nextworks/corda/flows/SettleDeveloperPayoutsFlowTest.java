@@ -0,0 +1,194 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import it.nextworks.corda.contracts.PkgLicenseContract;
+import it.nextworks.corda.contracts.PkgOfferUtils;
+import it.nextworks.corda.states.FeeAgreementState;
+import it.nextworks.corda.states.PkgOfferState;
+import it.nextworks.corda.states.productOfferingPrice.ProductOfferingPrice;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.Amount;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Currency;
+import java.util.List;
+
+import static it.nextworks.corda.flows.SettleDeveloperPayoutsFlowUtils.*;
+import static net.corda.finance.workflows.GetBalances.getCashBalance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class SettleDeveloperPayoutsFlowTest {
+
+    private MockNetwork mockNetwork;
+    private StartedMockNode devNodeTest;
+    private StartedMockNode buyerNodeTest;
+    private StartedMockNode repositoryNodeTest;
+
+    /** Build a mock network composed by a developer Node, a buyer Node and the repository Node and a Notary */
+    @Before
+    public void setup() {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp(cordAppContractsPkg),
+                        TestCordapp.findCordapp(cordAppFlowsPkg),
+                        TestCordapp.findCordapp(cordAppFinance)))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryX500Name)))));
+        devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devX500Name));
+        repositoryNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(repositoryX500Name));
+        buyerNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(buyerX500Name));
+
+        mockNetwork.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    /**
+     * Function used to generate a transaction that will output a FeeAgreementState
+     * @return the fee established with the repository node
+     */
+    private int generateFeeAgreementState() throws Exception {
+        EstablishFeeAgreementFlow.DevInitiation flow = new EstablishFeeAgreementFlow.DevInitiation(15);
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        return future.get().getTx().outputsOfType(FeeAgreementState.class).get(0).getFee();
+    }
+
+    /** Function used to generate a transaction that will output the PkgOfferState that will be sold */
+    private PkgOfferState generatePkgOfferState() throws Exception {
+        ProductOfferingPrice poPrice = new ProductOfferingPrice(PkgOfferUtils.testPoId, PkgOfferUtils.testLink,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testIsBundle, PkgOfferUtils.testLastUpdate,
+                PkgOfferUtils.testLifecycleStatus, PkgOfferUtils.testPoName, PkgOfferUtils.testPercentage,
+                PkgOfferUtils.testPriceType, PkgOfferUtils.testRecChargePeriodLength, PkgOfferUtils.testRecChargePeriodType,
+                PkgOfferUtils.testVersion, PkgOfferUtils.testPrice, PkgOfferUtils.testQuantity,
+                PkgOfferUtils.testValidFor);
+        RegisterPkgFlow.DevInitiation flow = new RegisterPkgFlow.DevInitiation(PkgOfferUtils.testName,
+                PkgOfferUtils.testDescription, PkgOfferUtils.testVersion, PkgOfferUtils.testPkgInfoId,
+                PkgOfferUtils.testLink, PkgOfferUtils.testPkgType, poPrice);
+        CordaFuture<SignedTransaction> future = devNodeTest.startFlow(flow);
+
+        mockNetwork.runNetwork();
+
+        return future.get().getTx().outputsOfType(PkgOfferState.class).get(0);
+    }
+
+    /** Issue the cash needed by the buyer and buy the package the specified number of times */
+    private void buyPkg(PkgOfferState pkgOfferState, int times) throws Exception {
+        for(int i = 0; i < times; i++) {
+            buyerNodeTest.startFlow(new SelfIssueCashFlow(pkgOfferState.getPrice()));
+            mockNetwork.runNetwork();
+
+            CordaFuture<SignedTransaction> future = buyerNodeTest.startFlow(
+                    new BuyPkgFlow.PkgBuyerInitiation(pkgOfferState.getLinearId(), pkgOfferState.getPrice()));
+            mockNetwork.runNetwork();
+            future.get();
+        }
+    }
+
+    private List<SecureHash> settle(long threshold) throws Exception {
+        CordaFuture<List<SecureHash>> future =
+                repositoryNodeTest.startFlow(new SettleDeveloperPayoutsFlow.RepositoryNodeInitiation(threshold));
+
+        mockNetwork.runNetwork();
+
+        return future.get();
+    }
+
+    @Test
+    public void salesOfADeveloperAreSettledWithASingleTransaction() throws Exception {
+        int fee = generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        buyPkg(pkgOfferState, 3);
+
+        List<SecureHash> settlements = settle(1);
+        assertEquals(1, settlements.size());
+
+        Party developer = devNodeTest.getInfo().getLegalIdentities().get(0);
+        Amount<Currency> share = PkgLicenseContract.developerShare(pkgOfferState.getPrice(), fee);
+        SignedTransaction settlement =
+                repositoryNodeTest.getServices().getValidatedTransactions().getTransaction(settlements.get(0));
+        long paid = 0;
+        for(Cash.State cash : settlement.getTx().outputsOfType(Cash.State.class)) {
+            if(cash.getOwner().equals(developer))
+                paid += cash.getAmount().getQuantity();
+        }
+        assertEquals(share.getQuantity() * 3, paid);
+        assertEquals(getCashBalance(devNodeTest.getServices(), share.getToken()).getQuantity(),
+                share.getQuantity() * 3);
+        assertEquals(settlement,
+                devNodeTest.getServices().getValidatedTransactions().getTransaction(settlements.get(0)));
+    }
+
+    @Test
+    public void settledPayoutsAreNotPaidTwice() throws Exception {
+        int fee = generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        buyPkg(pkgOfferState, 2);
+
+        assertEquals(1, settle(1).size());
+        assertEquals(0, settle(1).size());
+
+        Amount<Currency> share = PkgLicenseContract.developerShare(pkgOfferState.getPrice(), fee);
+        assertEquals(getCashBalance(devNodeTest.getServices(), share.getToken()).getQuantity(),
+                share.getQuantity() * 2);
+    }
+
+    @Test
+    public void payoutsBelowTheThresholdAreAccruedUntilTheNextSettlement() throws Exception {
+        int fee = generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        Amount<Currency> share = PkgLicenseContract.developerShare(pkgOfferState.getPrice(), fee);
+        buyPkg(pkgOfferState, 1);
+
+        assertEquals(0, settle(share.getQuantity() + 1).size());
+        assertEquals(getCashBalance(devNodeTest.getServices(), share.getToken()).getQuantity(), 0);
+
+        buyPkg(pkgOfferState, 1);
+
+        assertEquals(1, settle(share.getQuantity() + 1).size());
+        assertEquals(getCashBalance(devNodeTest.getServices(), share.getToken()).getQuantity(),
+                share.getQuantity() * 2);
+    }
+
+    @Test
+    public void earningsAreNettedByTheLedgerOnePayoutAtATime() throws Exception {
+        int fee = generateFeeAgreementState();
+        PkgOfferState pkgOfferState = generatePkgOfferState();
+        Amount<Currency> share = PkgLicenseContract.developerShare(pkgOfferState.getPrice(), fee);
+        buyPkg(pkgOfferState, 2);
+
+        repositoryNodeTest.transaction(() -> {
+            PayoutLedgerService payoutLedger = repositoryNodeTest.getServices().cordaService(PayoutLedgerService.class);
+            PayoutLedgerService.PendingPayout payout = payoutLedger.getNextPendingPayout(1, null);
+            assertEquals(devNodeTest.getInfo().getLegalIdentities().get(0).getName(), payout.getDeveloper());
+            assertEquals(share.getQuantity() * 2, payout.getAmount().getQuantity());
+            assertNull(payoutLedger.getNextPendingPayout(1, payout));
+            assertNull(payoutLedger.getNextPendingPayout(share.getQuantity() * 2 + 1, null));
+            return null;
+        });
+    }
+
+    @Test
+    public void thresholdMustNotBeNegative() {
+        try {
+            new SettleDeveloperPayoutsFlow.RepositoryNodeInitiation(-1);
+            assert false;
+        } catch(IllegalArgumentException iae) {
+            assert iae.getMessage().equals(negativeThreshold);
+        }
+    }
+}
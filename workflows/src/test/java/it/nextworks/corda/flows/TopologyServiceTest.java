@@ -0,0 +1,88 @@
+package it.nextworks.corda.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Test;
+
+import static it.nextworks.corda.flows.TopologyServiceUtils.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TopologyServiceTest {
+
+    private static final String otherNotaryName     = "O=OtherNotary,L=Pisa,C=IT";
+    private static final String otherRepositoryName = "O=OtherRepositoryNode,L=Pisa,C=IT";
+    private static final String devName             = "O=DevTest,L=Pisa,C=IT";
+
+    private MockNetwork mockNetwork;
+
+    /** Build a mock network whose flows CorDapp is configured with the specified topology */
+    private StartedMockNode setup(TestCordapp flowsCordapp, String notaryName, String repositoryName) {
+        mockNetwork = new MockNetwork(new MockNetworkParameters(
+                ImmutableList.of(
+                        TestCordapp.findCordapp("it.nextworks.corda.contracts"),
+                        flowsCordapp))
+                .withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(CordaX500Name.parse(notaryName)))));
+        StartedMockNode devNodeTest = mockNetwork.createPartyNode(CordaX500Name.parse(devName));
+        mockNetwork.createPartyNode(CordaX500Name.parse(repositoryName));
+
+        mockNetwork.runNetwork();
+        return devNodeTest;
+    }
+
+    @After
+    public void tearDown() {
+        mockNetwork.stopNodes();
+    }
+
+    @Test
+    public void defaultTopologyIsUsedWithoutConfiguration() {
+        StartedMockNode devNodeTest = setup(TestCordapp.findCordapp("it.nextworks.corda.flows"),
+                defaultNotaryName, defaultRepositoryName);
+
+        TopologyService topology = devNodeTest.getServices().cordaService(TopologyService.class);
+        assertEquals(CordaX500Name.parse(defaultNotaryName), topology.getNotary().getName());
+        assertEquals(CordaX500Name.parse(defaultRepositoryName), topology.getRepositoryNode().getName());
+    }
+
+    @Test
+    public void topologyIsReadFromTheCordappConfiguration() {
+        StartedMockNode devNodeTest = setup(TestCordapp.findCordapp("it.nextworks.corda.flows")
+                        .withConfig(ImmutableMap.of(notaryConfigKey, otherNotaryName,
+                                repositoryConfigKey, otherRepositoryName)),
+                otherNotaryName, otherRepositoryName);
+
+        TopologyService topology = devNodeTest.getServices().cordaService(TopologyService.class);
+        assertEquals(CordaX500Name.parse(otherNotaryName), topology.getNotary().getName());
+        assertEquals(CordaX500Name.parse(otherRepositoryName), topology.getRepositoryNode().getName());
+    }
+
+    @Test
+    public void pkgsAreShardedAmongTheConfiguredRepositoryNodes() {
+        StartedMockNode devNodeTest = setup(TestCordapp.findCordapp("it.nextworks.corda.flows")
+                        .withConfig(ImmutableMap.of(repositoriesConfigKey,
+                                defaultRepositoryName + repositoriesSeparator + otherRepositoryName)),
+                defaultNotaryName, defaultRepositoryName);
+        mockNetwork.createPartyNode(CordaX500Name.parse(otherRepositoryName));
+        mockNetwork.runNetwork();
+
+        TopologyService topology = devNodeTest.getServices().cordaService(TopologyService.class);
+        assertEquals(CordaX500Name.parse(defaultRepositoryName), topology.getRepositoryNode().getName());
+        assertEquals(2, topology.getRepositoryNodes().size());
+
+        for(CordaX500Name repositoryName : topology.getRepositoryNames()) {
+            UniqueIdentifier pkgId = topology.newPkgId(repositoryName);
+            assertEquals(repositoryName, topology.getShardName(pkgId));
+            assertEquals(repositoryName, topology.getRepositoryNodeFor(pkgId).getName());
+        }
+
+        /* Restricted to a single repository node, the ring always places the packages on it */
+        CordaX500Name other = CordaX500Name.parse(otherRepositoryName);
+        for(int i = 0; i < 10; i++)
+            assertEquals(other, topology.getShardName(new UniqueIdentifier(), ImmutableList.of(other)));
+    }
+}